@@ -0,0 +1,307 @@
+package com.example.android.quakereport;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells a fetch to stop, either because the caller cancelled it (i.e. the user left the
+ * screen) or because its overall deadline has passed.
+ *
+ * The parser checks it every time it refills its buffer and after every earthquake, so a
+ * stopped fetch doesn't read or parse any further than the buffer it is in. A read that is
+ * blocked waiting on the network can't be interrupted that way, so {@link #cancel()} also
+ * disconnects the connections the fetch has open, which makes the read throw straight away.
+ *
+ * Deadlines are on top of the socket timeouts of the {@link EarthquakeHttpClient}, which only
+ * limit how long a single connect or read waits. When the deadline passes a fetch can either
+ * give up, or keep the earthquakes it parsed so far, see {@link #keepsPartial()}.
+ *
+ * A cancellation can be shared by several callers as a group (i.e. the loaders joining one
+ * request in flight), then the group is only cancelled once every caller is, and only
+ * expires once the latest of their deadlines has passed. Once the request is done the group
+ * is {@link #finish() finished}, so a caller that lives on doesn't keep hold of every group it
+ * was ever in.
+ *
+ * A cancellation is thread safe.
+ */
+public final class Cancellation {
+
+    /** The deadline of a cancellation that never expires */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final Clock mClock;
+    private final boolean mKeepPartial;
+    private volatile long mDeadline;
+    private volatile boolean mCanceled;
+
+    /** True once a group is done with, see {@link #finish()} */
+    private boolean mFinished;
+
+    /** The connections to disconnect when cancelled */
+    private final List<HttpURLConnection> mConnections = new ArrayList<>();
+
+    /** The callers of a group, and the groups a caller is in */
+    private final List<Cancellation> mMembers = new ArrayList<>();
+    private final List<Cancellation> mGroups = new ArrayList<>();
+
+    /** Constructs a new {@link Cancellation} without a deadline */
+    public Cancellation() {
+        this(Clock.SYSTEM, NO_DEADLINE, false);
+    }
+
+    /**
+     * Constructs a new {@link Cancellation}
+     *
+     * @param deadline the time in milliseconds since the epoch the fetch has to be done by,
+     *                 or {@link #NO_DEADLINE}
+     * @param keepPartial true to keep the earthquakes parsed before the deadline
+     */
+    public Cancellation(Clock clock, long deadline, boolean keepPartial) {
+        mClock = clock;
+        mDeadline = deadline;
+        mKeepPartial = keepPartial;
+    }
+
+    /** A cancellation that expires the given number of milliseconds from now */
+    public static Cancellation withTimeout(long timeoutMillis, boolean keepPartial) {
+        return withTimeout(Clock.SYSTEM, timeoutMillis, keepPartial);
+    }
+
+    /** Same as {@link #withTimeout(long, boolean)}, with the time told by the given clock */
+    public static Cancellation withTimeout(Clock clock, long timeoutMillis, boolean keepPartial) {
+        return new Cancellation(clock, clock.currentTimeMillis() + timeoutMillis, keepPartial);
+    }
+
+    /**
+     * A group that the given caller is the first member of, with its deadline. Nothing but
+     * its members cancel a group.
+     */
+    public static Cancellation groupOf(Cancellation first) {
+        Cancellation group = new Cancellation(first.mClock, first.mDeadline, first.mKeepPartial);
+        group.join(first);
+        return group;
+    }
+
+    /**
+     * A group that the given caller is the first member of, with a deadline of its own the
+     * given number of milliseconds from now, or the caller's if that is later. It is for a
+     * part of the fetch that is only any use whole (i.e. a window of history), which would be
+     * thrown away if it stopped at a deadline meant for one page. It never keeps partial
+     * results.
+     */
+    public static Cancellation groupOf(Cancellation first, long timeoutMillis) {
+        Cancellation group = new Cancellation(first.mClock,
+                first.mClock.currentTimeMillis() + timeoutMillis, false);
+        group.join(first);
+        return group;
+    }
+
+    /**
+     * Add a caller to the group. The group's deadline is pushed back to the caller's if that is
+     * later. A caller that is already cancelled doesn't count.
+     *
+     * @return false if the group has already been cancelled, so whatever it was for has been
+     *         abandoned and the caller has to start over
+     */
+    public boolean join(Cancellation member) {
+        // The group is always locked before the member, and cancel() never holds both
+        synchronized (this) {
+            if (mCanceled) {
+                return false;
+            }
+            synchronized (member) {
+                // A finished group has nothing left to stop, so it needn't know the caller
+                if (member.mCanceled || mFinished) {
+                    return true;
+                }
+                member.mGroups.add(this);
+            }
+            mMembers.add(member);
+            mDeadline = Math.max(mDeadline, member.mDeadline);
+            return true;
+        }
+    }
+
+    /**
+     * Stop the fetch: disconnect its connections and cancel the groups that no caller other
+     * than this one is still waiting on. Can be called from any thread, more than once.
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            markCanceled();
+        }
+        stop();
+    }
+
+    /**
+     * Tell a group that what it was for is done, i.e. its request has finished, so its callers
+     * let go of it. Cancelling a group does the same.
+     */
+    public void finish() {
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+        }
+        leaveMembers();
+    }
+
+    /** True if {@link #cancel()} has been called */
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /** True if the deadline has passed */
+    public boolean isExpired() {
+        return mDeadline != NO_DEADLINE && mClock.currentTimeMillis() >= mDeadline;
+    }
+
+    /** True if the fetch should stop, because it was cancelled or ran out of time */
+    public boolean isStopped() {
+        return mCanceled || isExpired();
+    }
+
+    /** True if the earthquakes parsed before the deadline passed should be kept */
+    public boolean keepsPartial() {
+        return mKeepPartial && !mCanceled;
+    }
+
+    /**
+     * Milliseconds left until the deadline, or the given limit if that is sooner. Never less
+     * than 1, since a socket timeout of 0 means waiting forever.
+     */
+    public int remainingMillis(int limit) {
+        if (mDeadline == NO_DEADLINE) {
+            return limit;
+        }
+        long remaining = mDeadline - mClock.currentTimeMillis();
+        return (int) Math.max(1, Math.min(limit, remaining));
+    }
+
+    /**
+     * Throw if the fetch should stop, which a parser or a download treats like the stream
+     * breaking off.
+     *
+     * @throws InterruptedIOException if cancelled or past the deadline
+     */
+    public void throwIfStopped() throws InterruptedIOException {
+        if (mCanceled) {
+            throw new InterruptedIOException("Canceled");
+        }
+        if (isExpired()) {
+            throw new InterruptedIOException("Deadline passed");
+        }
+    }
+
+    /**
+     * Wait for the given number of milliseconds (i.e. before a retry), waking up as soon as
+     * the fetch is cancelled or its deadline passes.
+     *
+     * The time waited is measured with System.nanoTime(), which only ever moves forward at
+     * the speed Object.wait() does. The clock is only asked whether the deadline has passed,
+     * so a fake clock that doesn't move, or a wall clock that is set back, can't make the
+     * wait last any longer.
+     *
+     * @return true if the whole time passed, false if the fetch should stop
+     */
+    public synchronized boolean sleep(long millis) throws InterruptedException {
+        long start = System.nanoTime();
+        while (!isStopped()) {
+            long wait = millis - (System.nanoTime() - start) / 1000000;
+            if (mDeadline != NO_DEADLINE) {
+                wait = Math.min(wait, mDeadline - mClock.currentTimeMillis());
+            }
+            if (wait <= 0) {
+                return !isStopped();
+            }
+            wait(wait);
+        }
+        return false;
+    }
+
+    /** Disconnect the connection if the fetch is cancelled while it is open */
+    public void attach(HttpURLConnection connection) {
+        boolean canceled;
+        synchronized (this) {
+            canceled = mCanceled;
+            if (!canceled) {
+                mConnections.add(connection);
+            }
+        }
+        if (canceled) {
+            connection.disconnect();
+        }
+    }
+
+    /** Stop watching a connection that is finished with */
+    public synchronized void detach(HttpURLConnection connection) {
+        mConnections.remove(connection);
+    }
+
+    /** Cancel the group once none of its members are waiting any more */
+    private void memberCanceled() {
+        synchronized (this) {
+            if (mCanceled || mMembers.isEmpty()) {
+                return;
+            }
+            for (Cancellation member : mMembers) {
+                if (!member.mCanceled) {
+                    return;
+                }
+            }
+            // Marked while still locked, so no caller can join in between and be left waiting
+            // on a group that is then cancelled
+            markCanceled();
+        }
+        stop();
+    }
+
+    /** Mark this cancelled, with the lock held */
+    private void markCanceled() {
+        mCanceled = true;
+        // Wake up anyone in sleep()
+        notifyAll();
+    }
+
+    /**
+     * Disconnect the connections and tell the groups, once marked cancelled. Done without the
+     * lock, since a group is always locked before its members.
+     */
+    private void stop() {
+        List<HttpURLConnection> connections;
+        List<Cancellation> groups;
+        synchronized (this) {
+            connections = new ArrayList<>(mConnections);
+            mConnections.clear();
+            groups = new ArrayList<>(mGroups);
+        }
+        for (HttpURLConnection connection : connections) {
+            connection.disconnect();
+        }
+        for (Cancellation group : groups) {
+            group.memberCanceled();
+        }
+        // A cancelled group can't be stopped again, so its callers needn't keep it
+        finish();
+    }
+
+    /** Remove a finished group from the groups of its callers */
+    private void leaveMembers() {
+        List<Cancellation> members;
+        synchronized (this) {
+            members = new ArrayList<>(mMembers);
+            mMembers.clear();
+        }
+        for (Cancellation member : members) {
+            synchronized (member) {
+                member.mGroups.remove(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.android.quakereport;
+
+/**
+ * Tells the time. Classes that make decisions based on the time take a Clock rather than
+ * calling System.currentTimeMillis() themselves, so they can be run against a fake clock.
+ */
+public interface Clock {
+
+    /** The real time */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /** The current time in milliseconds since the epoch */
+    long currentTimeMillis();
+}
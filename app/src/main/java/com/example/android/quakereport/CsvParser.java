@@ -0,0 +1,581 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Streaming parser for the USGS CSV feed, which carries everything an {@link Earthquake} needs
+ * in a fraction of the bytes of GeoJSON.
+ *
+ * The header row says which column holds what, and only the columns an Earthquake needs are
+ * read; the rest (magType, nst, gap, net, type, the errors, ...) are skipped a byte at a time
+ * without decoding them. Numbers and times are parsed straight from the bytes into doubles and
+ * longs, so the only objects made for a row are the id, the place and the Earthquake itself.
+ * The region at the end of the place comes from the shared {@link StringDictionary}, like in
+ * the {@link GeoJsonParser}.
+ *
+ * CSV has no website column, USGS builds the website of every event from the same prefix
+ * followed by the id, so that is what we do too. A row without an id is skipped.
+ *
+ * Every row has to end with a line break, so a response that was cut short part way through a
+ * row fails like malformed GeoJSON does. The earthquakes before it have already gone to the
+ * listener. Parsing can be stopped with a {@link Cancellation} the same way too.
+ */
+public final class CsvParser {
+
+    /** Size of the byte buffer we read the stream into */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Longest number or time we expect, i.e. "2017-05-20T14:45:11.123Z" */
+    private static final int MAX_VALUE_LENGTH = 64;
+
+    /** The website of every USGS event is this followed by its id */
+    private static final String EVENT_PAGE_PREFIX = StringDictionary.SHARED.intern(
+            "https://earthquake.usgs.gov/earthquakes/eventpage/");
+
+    /** What each column holds, by the name in the header */
+    private static final int COLUMN_SKIPPED = 0;
+    private static final int COLUMN_TIME = 1;
+    private static final int COLUMN_LATITUDE = 2;
+    private static final int COLUMN_LONGITUDE = 3;
+    private static final int COLUMN_DEPTH = 4;
+    private static final int COLUMN_MAGNITUDE = 5;
+    private static final int COLUMN_ID = 6;
+    private static final int COLUMN_UPDATED = 7;
+    private static final int COLUMN_PLACE = 8;
+    private static final int COLUMN_STATUS = 9;
+
+    private static final String[] COLUMN_NAMES = {
+            null, "time", "latitude", "longitude", "depth", "mag", "id", "updated", "place", "status"
+    };
+
+    /** Dividing by these is exact for up to 22 decimal places */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Above this a long mantissa can't be converted to a double exactly */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private final InputStream mInputStream;
+
+    /** Checked as the parse goes along, may be null */
+    private final Cancellation mCancellation;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPos;
+    private int mLimit;
+
+    /** What each column holds, from the header */
+    private int[] mColumns;
+
+    /** Reused for the bytes of every number and time */
+    private final byte[] mValue = new byte[MAX_VALUE_LENGTH];
+    private int mValueLength;
+
+    /** Reused for the characters of every text column */
+    private final StringBuilder mText = new StringBuilder();
+
+    /** Fields of the row currently being parsed */
+    private double mMagnitude;
+    private String mPlace;
+    private String mRegion;
+    private long mTime;
+    private String mId;
+    private long mUpdated;
+    private boolean mDeleted;
+    private double mLongitude;
+    private double mLatitude;
+    private double mDepth;
+
+    private CsvParser(InputStream inputStream, Cancellation cancellation) {
+        mInputStream = inputStream;
+        mCancellation = cancellation;
+    }
+
+    /** True if a response of the given content type is CSV rather than GeoJSON */
+    public static boolean isCsv(String contentType) {
+        return contentType != null && contentType.toLowerCase(Locale.US).contains("csv");
+    }
+
+    /**
+     * Parse the CSV response in the given {@link InputStream}, calling the listener once for
+     * every row.
+     *
+     * @return the number of earthquakes that were passed to the listener
+     * @throws IOException if the stream can't be read or isn't a USGS CSV response
+     */
+    public static int parse(InputStream inputStream, GeoJsonParser.Listener listener)
+            throws IOException {
+        return parse(inputStream, listener, null);
+    }
+
+    /**
+     * Same as {@link #parse(InputStream, GeoJsonParser.Listener)}, but stop as soon as the
+     * cancellation says so.
+     *
+     * @param cancellation checked before every read and after every earthquake, may be null
+     * @throws java.io.InterruptedIOException if the parse was stopped by the cancellation
+     */
+    public static int parse(InputStream inputStream, GeoJsonParser.Listener listener,
+                            Cancellation cancellation) throws IOException {
+        CsvParser parser = new CsvParser(inputStream, cancellation);
+        if (!parser.readHeader()) {
+            // An empty response has no earthquakes, not even a header
+            return 0;
+        }
+        return parser.readRows(listener);
+    }
+
+    /** THE HEADER ROW, which says which column holds what */
+    private boolean readHeader() throws IOException {
+        skipBlankLines();
+        if (peekByte() == -1) {
+            return false;
+        }
+        int[] columns = new int[32];
+        int count = 0;
+        int end;
+        do {
+            end = readText();
+            if (count == columns.length) {
+                int[] grown = new int[count * 2];
+                System.arraycopy(columns, 0, grown, 0, count);
+                columns = grown;
+            }
+            columns[count++] = columnOf(mText);
+        } while (end == ',');
+        if (end == -1) {
+            throw syntaxError("Unexpected end of input");
+        }
+        mColumns = new int[count];
+        System.arraycopy(columns, 0, mColumns, 0, count);
+        if (!hasColumn(COLUMN_TIME) || !hasColumn(COLUMN_MAGNITUDE)) {
+            throw syntaxError("No time or mag column in the header");
+        }
+        return true;
+    }
+
+    /** THE ROWS, each one is an earthquake */
+    private int readRows(GeoJsonParser.Listener listener) throws IOException {
+        int count = 0;
+        while (true) {
+            skipBlankLines();
+            if (peekByte() == -1) {
+                return count;
+            }
+            readRow();
+            // Without an id there is no website to open, and nothing to merge a revision by
+            if (!mId.isEmpty()) {
+                listener.onEarthquake(new Earthquake(mMagnitude, mPlace, mRegion, mTime,
+                        EVENT_PAGE_PREFIX, "", mId, mUpdated, mDeleted,
+                        mLongitude, mLatitude, mDepth));
+                count++;
+            }
+            if (mCancellation != null) {
+                mCancellation.throwIfStopped();
+            }
+        }
+    }
+
+    /** Read a single row, keeping the columns an Earthquake needs */
+    private void readRow() throws IOException {
+        mMagnitude = 0;
+        mPlace = "";
+        mRegion = null;
+        mTime = 0;
+        mId = "";
+        mUpdated = 0;
+        mDeleted = false;
+        mLongitude = Double.NaN;
+        mLatitude = Double.NaN;
+        mDepth = Double.NaN;
+
+        int column = 0;
+        int end;
+        do {
+            int type = column < mColumns.length ? mColumns[column] : COLUMN_SKIPPED;
+            switch (type) {
+                case COLUMN_TIME:
+                    end = readValue();
+                    mTime = parseTime();
+                    break;
+                case COLUMN_UPDATED:
+                    end = readValue();
+                    mUpdated = parseTime();
+                    break;
+                case COLUMN_LATITUDE:
+                    end = readValue();
+                    mLatitude = parseDouble();
+                    break;
+                case COLUMN_LONGITUDE:
+                    end = readValue();
+                    mLongitude = parseDouble();
+                    break;
+                case COLUMN_DEPTH:
+                    end = readValue();
+                    mDepth = parseDouble();
+                    break;
+                case COLUMN_MAGNITUDE:
+                    end = readValue();
+                    // Like a null "mag" in GeoJSON
+                    mMagnitude = mValueLength == 0 ? 0 : parseDouble();
+                    break;
+                case COLUMN_ID:
+                    end = readText();
+                    mId = mText.toString();
+                    break;
+                case COLUMN_PLACE:
+                    end = readText();
+                    splitPlace();
+                    break;
+                case COLUMN_STATUS:
+                    end = readText();
+                    // Deleted events are only sent when asked for with includedeleted
+                    mDeleted = "deleted".contentEquals(mText);
+                    break;
+                default:
+                    end = skipColumn();
+                    break;
+            }
+            column++;
+        } while (end == ',');
+
+        if (end == -1) {
+            // USGS ends every row with a line break, so the response was cut short
+            throw syntaxError("Unexpected end of input");
+        }
+        // An earthquake that was never revised has only been updated when it happened
+        if (mUpdated == 0) {
+            mUpdated = mTime;
+        }
+    }
+
+    /** Split the place in mText into the place and the shared region, like GeoJsonParser */
+    private void splitPlace() {
+        int separator = mText.lastIndexOf(Earthquake.REGION_SEPARATOR);
+        if (separator < 0) {
+            mPlace = mText.toString();
+            mRegion = null;
+        } else {
+            mPlace = mText.substring(0, separator);
+            mRegion = StringDictionary.SHARED.intern(mText,
+                    separator + Earthquake.REGION_SEPARATOR.length(), mText.length());
+        }
+    }
+
+
+    /** TOKENIZER **/
+
+    /** Return the next byte without consuming it, or -1 at the end */
+    private int peekByte() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPos] & 0xff;
+    }
+
+    /** Return the next byte, or -1 at the end */
+    private int nextByte() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPos++] & 0xff;
+    }
+
+    /** Refill the buffer, returning false when the stream has no more bytes */
+    private boolean fill() throws IOException {
+        if (mCancellation != null) {
+            mCancellation.throwIfStopped();
+        }
+        int read = mInputStream.read(mBuffer, 0, mBuffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        mPos = 0;
+        mLimit = read;
+        return true;
+    }
+
+    private void skipBlankLines() throws IOException {
+        int c = peekByte();
+        while (c == '\n' || c == '\r') {
+            mPos++;
+            c = peekByte();
+        }
+    }
+
+    /**
+     * Skip over a column without keeping any of it.
+     *
+     * @return what ended the column: ',', '\n' or -1 at the end of the input
+     */
+    private int skipColumn() throws IOException {
+        int c = nextByte();
+        if (c == '"') {
+            skipQuoted();
+            c = nextByte();
+        }
+        // Most columns are skipped, so scan the buffer directly rather than a byte per call
+        while (true) {
+            while (mPos < mLimit && c != ',' && c != '\n' && c != -1) {
+                c = mBuffer[mPos++] & 0xff;
+            }
+            if (c == ',' || c == '\n' || c == -1) {
+                return c;
+            }
+            c = nextByte();
+        }
+    }
+
+    /** Skip the rest of a quoted column, up to and including the closing quote */
+    private void skipQuoted() throws IOException {
+        while (true) {
+            int c = nextByte();
+            if (c == -1) {
+                throw syntaxError("Unexpected end of input");
+            }
+            if (c == '"') {
+                if (peekByte() != '"') {
+                    return;
+                }
+                // A doubled quote stands for a quote in the text
+                mPos++;
+            }
+        }
+    }
+
+    /**
+     * Copy the bytes of a number or time column into mValue.
+     *
+     * @return what ended the column: ',', '\n' or -1 at the end of the input
+     */
+    private int readValue() throws IOException {
+        mValueLength = 0;
+        int c = nextByte();
+        boolean quoted = c == '"';
+        if (quoted) {
+            c = nextByte();
+        }
+        while (c != -1) {
+            if (quoted && c == '"') {
+                quoted = false;
+            } else if (!quoted && (c == ',' || c == '\n')) {
+                break;
+            } else if (c != '\r') {
+                if (mValueLength == MAX_VALUE_LENGTH) {
+                    throw syntaxError("Value too long");
+                }
+                mValue[mValueLength++] = (byte) c;
+            }
+            c = nextByte();
+        }
+        if (quoted) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return c;
+    }
+
+    /**
+     * Decode a text column into mText, unquoting it.
+     *
+     * @return what ended the column: ',', '\n' or -1 at the end of the input
+     */
+    private int readText() throws IOException {
+        mText.setLength(0);
+        int c = nextByte();
+        if (c == '"') {
+            while (true) {
+                c = nextByte();
+                if (c == -1) {
+                    throw syntaxError("Unexpected end of input");
+                }
+                if (c == '"') {
+                    if (peekByte() != '"') {
+                        break;
+                    }
+                    mPos++;
+                }
+                appendUtf8(c);
+            }
+            c = nextByte();
+        }
+        while (c != ',' && c != '\n' && c != -1) {
+            if (c != '\r') {
+                appendUtf8(c);
+            }
+            c = nextByte();
+        }
+        return c;
+    }
+
+    /** Append the character that starts with the given byte, reading the rest of it */
+    private void appendUtf8(int first) throws IOException {
+        if (first < 0x80) {
+            mText.append((char) first);
+        } else if (first >= 0xc0 && first < 0xe0) {
+            mText.append((char) (((first & 0x1f) << 6) | continuation()));
+        } else if (first >= 0xe0 && first < 0xf0) {
+            mText.append((char) (((first & 0x0f) << 12) | (continuation() << 6) | continuation()));
+        } else if (first >= 0xf0 && first < 0xf8) {
+            mText.appendCodePoint(((first & 0x07) << 18) | (continuation() << 12)
+                    | (continuation() << 6) | continuation());
+        } else {
+            throw syntaxError("Invalid UTF-8");
+        }
+    }
+
+    private int continuation() throws IOException {
+        int c = nextByte();
+        if ((c & 0xc0) != 0x80) {
+            throw syntaxError("Invalid UTF-8");
+        }
+        return c & 0x3f;
+    }
+
+    /**
+     * Parse the number in mValue, NaN if the column is empty.
+     *
+     * Plain decimals like "-122.8133" are built from their digits, which gives exactly the
+     * double Double.parseDouble would. Anything else, i.e. with an exponent, is handed to it.
+     */
+    private double parseDouble() throws IOException {
+        if (mValueLength == 0) {
+            return Double.NaN;
+        }
+        int i = 0;
+        boolean negative = mValue[0] == '-';
+        if (negative || mValue[0] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int decimals = -1;
+        boolean digits = false;
+        for (; i < mValueLength; i++) {
+            int c = mValue[i];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits = true;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+                if (mantissa > MAX_EXACT_MANTISSA) {
+                    return parseDoubleSlowly();
+                }
+            } else if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                return parseDoubleSlowly();
+            }
+        }
+        if (!digits || decimals >= POWERS_OF_TEN.length) {
+            return parseDoubleSlowly();
+        }
+        double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private double parseDoubleSlowly() throws IOException {
+        String number = new String(mValue, 0, mValueLength, Charset.forName("US-ASCII"));
+        try {
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid number " + number);
+        }
+    }
+
+    /**
+     * Parse the ISO8601 time in mValue, i.e. "2017-05-20T14:45:11.123Z", into milliseconds
+     * since the epoch, or 0 if the column is empty. Times without a zone are in UTC.
+     */
+    private long parseTime() throws IOException {
+        if (mValueLength == 0) {
+            return 0;
+        }
+        if (mValueLength < 19 || mValue[4] != '-' || mValue[7] != '-'
+                || (mValue[10] != 'T' && mValue[10] != ' ') || mValue[13] != ':'
+                || mValue[16] != ':') {
+            throw syntaxError("Invalid time");
+        }
+        int year = digits(0, 4);
+        int month = digits(5, 2);
+        int day = digits(8, 2);
+        long millis = daysSinceEpoch(year, month, day) * MILLIS_PER_DAY
+                + digits(11, 2) * 3600000L + digits(14, 2) * 60000L + digits(17, 2) * 1000L;
+
+        int i = 19;
+        if (i < mValueLength && mValue[i] == '.') {
+            // Only the milliseconds count, any finer digits are dropped
+            int scale = 100;
+            for (i++; i < mValueLength && isDigit(mValue[i]); i++) {
+                millis += (mValue[i] - '0') * scale;
+                scale /= 10;
+            }
+        }
+        if (i < mValueLength && mValue[i] == 'Z') {
+            i++;
+        } else if (i + 6 == mValueLength && (mValue[i] == '+' || mValue[i] == '-')
+                && mValue[i + 3] == ':') {
+            long offset = digits(i + 1, 2) * 3600000L + digits(i + 4, 2) * 60000L;
+            millis -= mValue[i] == '+' ? offset : -offset;
+            i += 6;
+        }
+        if (i != mValueLength) {
+            throw syntaxError("Invalid time");
+        }
+        return millis;
+    }
+
+    /** The number written with the given digits of mValue */
+    private int digits(int start, int count) throws IOException {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            if (!isDigit(mValue[i])) {
+                throw syntaxError("Invalid time");
+            }
+            value = value * 10 + (mValue[i] - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** Days from 1970-01-01 to the given date in the Gregorian calendar */
+    private static long daysSinceEpoch(int year, int month, int day) {
+        // Count years from March, so the leap day is the last day of the year
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int columnOf(CharSequence name) {
+        for (int i = 1; i < COLUMN_NAMES.length; i++) {
+            if (COLUMN_NAMES[i].contentEquals(name)) {
+                return i;
+            }
+        }
+        return COLUMN_SKIPPED;
+    }
+
+    private boolean hasColumn(int type) {
+        for (int column : mColumns) {
+            if (column == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed CSV: " + message);
+    }
+}
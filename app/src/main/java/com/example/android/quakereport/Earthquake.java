@@ -9,15 +9,40 @@ public class Earthquake {
     /** The magnitude level of the earthquake */
     private double mMagnitude;
 
-    /** The location or city the earthquake occurred in */
-    private String mLocation;
+    /**
+     * The location or city the earthquake occurred in is kept in two parts, split at the last
+     * ", ": the place, i.e. "74km NW of Rumoi", and the region, i.e. "Japan". Regions repeat
+     * across thousands of earthquakes, so they come from the {@link StringDictionary} and are
+     * shared. If the location has no region, all of it is the place and the region is null.
+     */
+    private String mPlace;
+    private String mRegion;
 
     /** The time of the earthquake in unix seconds */
     private long mTimeInMilliseconds;
 
-    /** The URL that leads to the website with more detail about the earthquake*/
+    /**
+     * The URL that leads to the website with more detail about the earthquake. USGS builds it
+     * from the same prefix followed by the event id, so then only the shared prefix is kept
+     * and mWebsite is null. Otherwise the prefix is null and mWebsite holds the whole URL.
+     */
+    private String mWebsitePrefix;
     private String mWebsite;
 
+    /** The USGS event id, the same earthquake keeps it when its details are revised */
+    private String mId;
+
+    /** When USGS last revised the earthquake, in milliseconds */
+    private long mUpdatedInMilliseconds;
+
+    /** True if USGS deleted the event, i.e. it turned out not to be an earthquake */
+    private boolean mDeleted;
+
+    /** Where the earthquake happened in degrees, and how deep in km. NaN if it isn't known */
+    private double mLongitude;
+    private double mLatitude;
+    private double mDepth;
+
     /**
      * Create a new Earthquake Object made up of the three variable we want to display
      *
@@ -27,14 +52,107 @@ public class Earthquake {
      * @param eWebsite e represents Earthquake, eWebsite is URL that contains more information about the earthquake
      */
     public Earthquake(double eMagnitude, String eLocation, long eTimeInMilliseconds, String eWebsite){
+        this(eMagnitude, eLocation, eTimeInMilliseconds, eWebsite, "", eTimeInMilliseconds);
+    }
+
+    /**
+     * Create a new Earthquake Object that also knows which USGS event it is
+     *
+     * @param eId e represents Earthquake, eId is the USGS event id of the earthquake
+     * @param eUpdatedInMilliseconds e represents Earthquake, eUpdatedInMilliseconds is when
+     *                               the earthquake was last revised
+     */
+    public Earthquake(double eMagnitude, String eLocation, long eTimeInMilliseconds, String eWebsite,
+                      String eId, long eUpdatedInMilliseconds){
+        this(eMagnitude, eLocation, eTimeInMilliseconds, eWebsite, eId, eUpdatedInMilliseconds,
+                false);
+    }
+
+    /**
+     * Create a new Earthquake Object that may stand for a deleted USGS event
+     *
+     * @param eDeleted e represents Earthquake, eDeleted is true if USGS deleted the event
+     */
+    public Earthquake(double eMagnitude, String eLocation, long eTimeInMilliseconds, String eWebsite,
+                      String eId, long eUpdatedInMilliseconds, boolean eDeleted){
+        this(eMagnitude, eLocation, eTimeInMilliseconds, eWebsite, eId, eUpdatedInMilliseconds,
+                eDeleted, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Create a new Earthquake Object that also knows where it happened
+     *
+     * @param eLongitude e represents Earthquake, eLongitude is the longitude of the epicentre
+     * @param eLatitude e represents Earthquake, eLatitude is the latitude of the epicentre
+     * @param eDepth e represents Earthquake, eDepth is the depth of the earthquake in km
+     */
+    public Earthquake(double eMagnitude, String eLocation, long eTimeInMilliseconds, String eWebsite,
+                      String eId, long eUpdatedInMilliseconds, boolean eDeleted,
+                      double eLongitude, double eLatitude, double eDepth){
+        this(eMagnitude, placeOf(eLocation), regionOf(eLocation), eTimeInMilliseconds,
+                websitePrefixOf(eWebsite, eId), eWebsite, eId, eUpdatedInMilliseconds, eDeleted,
+                eLongitude, eLatitude, eDepth);
+    }
+
+    /**
+     * Create a new Earthquake Object from a location and website that are already split up,
+     * i.e. by the parser or an {@link EarthquakeStore}
+     *
+     * @param ePlace e represents Earthquake, ePlace is the location up to the region
+     * @param eRegion e represents Earthquake, eRegion is the shared region, or null
+     * @param eWebsitePrefix e represents Earthquake, eWebsitePrefix is the shared prefix the
+     *                       website is followed by the id with, or null
+     * @param eWebsite e represents Earthquake, eWebsite is the whole website, only kept if
+     *                 there is no prefix
+     */
+    Earthquake(double eMagnitude, String ePlace, String eRegion, long eTimeInMilliseconds,
+               String eWebsitePrefix, String eWebsite, String eId, long eUpdatedInMilliseconds,
+               boolean eDeleted, double eLongitude, double eLatitude, double eDepth){
 
         mMagnitude = eMagnitude;
-        mLocation = eLocation;
+        mPlace = ePlace;
+        mRegion = eRegion;
         mTimeInMilliseconds = eTimeInMilliseconds;
-        mWebsite = eWebsite;
+        mWebsitePrefix = eWebsitePrefix;
+        mWebsite = eWebsitePrefix == null ? eWebsite : null;
+        mId = eId;
+        mUpdatedInMilliseconds = eUpdatedInMilliseconds;
+        mDeleted = eDeleted;
+        mLongitude = eLongitude;
+        mLatitude = eLatitude;
+        mDepth = eDepth;
 
     }
 
+    /** Separates the region from the rest of a location */
+    static final String REGION_SEPARATOR = ", ";
+
+    /** The location up to its region, or all of it if it has no region */
+    static String placeOf(String location) {
+        int separator = location.lastIndexOf(REGION_SEPARATOR);
+        return separator < 0 ? location : location.substring(0, separator);
+    }
+
+    /** The shared region at the end of a location, or null if it has none */
+    static String regionOf(String location) {
+        int separator = location.lastIndexOf(REGION_SEPARATOR);
+        return separator < 0 ? null : StringDictionary.SHARED.intern(location,
+                separator + REGION_SEPARATOR.length(), location.length());
+    }
+
+    /** Put a location back together from its place and region */
+    static String locationOf(String place, String region) {
+        return region == null ? place : place + REGION_SEPARATOR + region;
+    }
+
+    /** The shared prefix of a website that ends with the event id, or null if it doesn't */
+    static String websitePrefixOf(String website, String id) {
+        if (id.isEmpty() || website.length() <= id.length() || !website.endsWith(id)) {
+            return null;
+        }
+        return StringDictionary.SHARED.intern(website, 0, website.length() - id.length());
+    }
+
     /**
      *
      * Method that returns the Magnitude
@@ -45,10 +163,11 @@ public class Earthquake {
 
     /**
      *
-     * Method that returns the Location
+     * Method that returns the Location. It is put together from the place and the shared region
+     * on every call rather than kept, so only the parts are held for every earthquake.
      */
     public String getLocation() {
-        return mLocation;
+        return locationOf(mPlace, mRegion);
     }
 
     /**
@@ -61,10 +180,87 @@ public class Earthquake {
 
     /**
      *
-     * Method that returns the Website
+     * Method that returns the Website, put together from the shared prefix and the id on
+     * every call like the Location
      */
     public String getWebsite() {
-        return mWebsite;
+        return mWebsitePrefix == null ? mWebsite : mWebsitePrefix + mId;
+    }
+
+    /**
+     *
+     * Method that returns the Id, or "" if it isn't known
+     */
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     *
+     * Method that returns the UpdatedInMilliseconds
+     */
+    public long getUpdatedInMilliseconds() {
+        return mUpdatedInMilliseconds;
+    }
+
+    /**
+     *
+     * Method that returns true if USGS deleted the event
+     */
+    public boolean isDeleted() {
+        return mDeleted;
+    }
+
+    /**
+     *
+     * Method that returns the Longitude, or NaN if it isn't known
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     *
+     * Method that returns the Latitude, or NaN if it isn't known
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     *
+     * Method that returns the Depth in km, or NaN if it isn't known
+     */
+    public double getDepth() {
+        return mDepth;
+    }
+
+    /** True if we know where the earthquake happened */
+    public boolean hasCoordinates() {
+        return !Double.isNaN(mLongitude) && !Double.isNaN(mLatitude);
+    }
+
+    /** The location up to its region */
+    String getPlace() {
+        return mPlace;
+    }
+
+    /** The shared region at the end of the location, or null if it has none */
+    String getRegion() {
+        return mRegion;
+    }
+
+    /** The shared prefix the website is followed by the id with, or null */
+    String getWebsitePrefix() {
+        return mWebsitePrefix;
+    }
+
+    /** True if both earthquakes link to the same website, without building either URL */
+    public boolean hasSameWebsite(Earthquake other) {
+        if (mWebsitePrefix != null && other.mWebsitePrefix != null) {
+            return mWebsitePrefix.equals(other.mWebsitePrefix) && mId.equals(other.mId);
+        }
+        return getWebsite().equals(other.getWebsite());
     }
 
 
@@ -17,24 +17,26 @@ package com.example.android.quakereport;
 
 import android.app.LoaderManager;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
-import java.util.ArrayList;
 import java.util.List;
 
 import android.app.LoaderManager;
@@ -46,14 +48,11 @@ import android.widget.TextView;
 import static android.R.attr.data;
 import static android.R.attr.visibility;
 
-public class EarthquakeActivity extends AppCompatActivity implements LoaderCallbacks<List<Earthquake>> {
+public class EarthquakeActivity extends AppCompatActivity
+        implements LoaderCallbacks<List<EarthquakeRow>>, EarthquakeLoader.OnBatchListener {
 
     public static final String LOG_TAG = EarthquakeActivity.class.getName();
 
-    /** URL for earthquake data from the USGS API */
-    private static final String USGS_REQUEST_URL =
-            "https://earthquake.usgs.gov/fdsnws/event/1/query";
-
     /** Adapter for the list of earthquakes */
     private EarthquakeAdapter mAdapter;
 
@@ -63,53 +62,148 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
      */
     private static final int EARTHQUAKE_LOADER_ID = 1;
 
+    /** The loader that merges the saved searches, used instead of the one above */
+    private static final int SAVED_SEARCHES_LOADER_ID = 2;
+
+    /** Key of the saved instance state saying whether the saved searches are shown */
+    private static final String STATE_SHOW_SAVED_SEARCHES = "show_saved_searches";
+
+    /** Number of earthquakes requested from the USGS API per page */
+    static final int PAGE_SIZE = 20;
+
+    /** How many rows from the end of the list we ask the loader for the next page */
+    private static final int NEXT_PAGE_THRESHOLD = 5;
+
+    /** Name of the file in the cache directory the rows of the snapshot are read from */
+    private static final String SNAPSHOT_DATASET_FILE_NAME = "snapshot.dataset";
+
     // TextView that displays message "No Earthquakes Found" when the API doesn't have any data
     private TextView noDataOrNoInternetTextView;
 
+    /** Header above the list with the counts per magnitude band and over the last day */
+    private TextView mSummaryTextView;
+
+    /** True once the loader has delivered, after which the snapshot is no longer wanted */
+    private boolean mLoadFinished;
+
+    /** True while the list shows every saved search merged, rather than the settings' search */
+    private boolean mShowSavedSearches;
+
+    /** System.nanoTime() when the activity was created, to time how long the first row takes */
+    private long mCreatedAt;
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mCreatedAt = System.nanoTime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
-        Log.i(LOG_TAG, "TEST: Earthquake Activity, onCreate() called");
+        mShowSavedSearches = savedInstanceState != null
+                && savedInstanceState.getBoolean(STATE_SHOW_SAVED_SEARCHES);
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView earthquakeListView = (ListView) findViewById(R.id.list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        final RecyclerView earthquakeListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        earthquakeListView.setLayoutManager(layoutManager);
+        earthquakeListView.setHasFixedSize(true);
 
         // TextView that displays message "No Earthquakes Found" when the API doesn't have any data
         // We set it to be empty until so that the message doesn't appear before the API has been checked
         noDataOrNoInternetTextView = (TextView) findViewById(R.id.noDataOrNoInternet);
-        earthquakeListView.setEmptyView(noDataOrNoInternetTextView);
 
-        // Create a new adapter that takes an empty list of earthquakes as input
-        mAdapter = new EarthquakeAdapter(this, new ArrayList<Earthquake>());
-
-        // Set the adapter on the {@link ListView}
-        // so the list can be populated in the user interface
-        earthquakeListView.setAdapter(mAdapter);
+        mSummaryTextView = (TextView) findViewById(R.id.summary);
 
 
         /** CLICK EARTHQUAKE TO GO TO USGS WEBSITE */
-        // Here we have a special type onClickListener designed for lists that we attached to the earthquakeListView
-        // The OnItemClickListener has a parameter called position which knows which row a user clicked on
-        earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // The adapter tells us which earthquake was clicked on
+        mAdapter = new EarthquakeAdapter(this, new EarthquakeAdapter.OnEarthquakeClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position,
-                                    long l) {
+            public void onEarthquakeClick(Earthquake currentEarthquake) {
 
-                // Find the current earthquake that was clicked on. (i.e if they click on the 3rd row of the list it returns the 3rd Word object)
-                Earthquake currentEarthquake = mAdapter.getItem(position);
+                // An earthquake the feed sent without a website has nothing to open
+                String website = currentEarthquake.getWebsite();
+                if (website == null || website.isEmpty()) {
+                    return;
+                }
 
                 // Create a Uri variable called earthquakeUri and assign the website to it using the getWebsite method
-                Uri earthquakeUri = Uri.parse(currentEarthquake.getWebsite());
+                Uri earthquakeUri = Uri.parse(website);
 
-                // This intent sends the user to their web browser and opens the earthquakeUri
+                // This intent sends the user to their web browser and opens the earthquakeUri,
+                // as long as there is a browser to open it
                 Intent i = new Intent(Intent.ACTION_VIEW, earthquakeUri);
-                startActivity(i);
+                if (i.resolveActivity(getPackageManager()) != null) {
+                    startActivity(i);
+                }
+
+            }
+        });
+
+        // RecyclerView has no empty view, so show the "No Earthquakes Found" message ourselves
+        // whenever the adapter becomes empty or stops being empty
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+
+        // Set the adapter on the {@link RecyclerView}
+        // so the list can be populated in the user interface
+        earthquakeListView.setAdapter(mAdapter);
 
+        /** TIME HOW LONG IT TAKES UNTIL THE USER SEES AN EARTHQUAKE */
+        // Checked just before every frame is drawn, until the first one with a row in it
+        earthquakeListView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        if (earthquakeListView.getChildCount() > 0) {
+                            Metrics.FIRST_ROW_MILLIS.record(
+                                    Metrics.microsSince(mCreatedAt) / 1000);
+                            earthquakeListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        }
+                        return true;
+                    }
+                });
+
+        /** LOAD THE NEXT PAGE WHEN THE USER SCROLLS NEAR THE END OF THE LIST */
+        // The loader has usually prefetched the next page already, so it is appended straight away
+        earthquakeListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = mAdapter.getItemCount();
+                if (totalItemCount > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - 1 - NEXT_PAGE_THRESHOLD) {
+                    Loader<List<EarthquakeRow>> loader = getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+                    if (loader != null) {
+                        ((EarthquakeLoader) loader).loadNextPage();
+                    }
+                }
             }
         });
 
+        /** KEEP THE SNAPSHOT UP TO DATE IN THE BACKGROUND
+         * Alarms are lost when the device restarts, so set the next one every time we start */
+        EarthquakeSyncService.schedule(this);
+
+        /** SHOW THE LAST RESULTS STRAIGHT AWAY
+         * Read the snapshot of the last earthquakes we loaded on a background thread and show
+         * it until the loader delivers fresh results (or if there is no Internet connection) */
+        if (!mShowSavedSearches) {
+            new SnapshotTask().execute(new EarthquakeSync(this, buildQuery(this)));
+        }
+
         /** CHECK INTERNET CONNECTION BEFORE DOWNLOADING DATA */
         // Get a reference to the ConnectivityManager to check state of network connectivity
         ConnectivityManager connMgr = (ConnectivityManager)
@@ -121,20 +215,8 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
         // if there is a network connection, fetch data
         if (networkInfo != null && networkInfo.isConnected()) {
 
-            /** LOADER STARTS HERE
-             * Get a reference to the LoadManager, in order to interact with the loader*/
-            LoaderManager loaderManager = getLoaderManager();
-
-            /**
-             * Initialise the loader. Pass in the int ID constant that was defined globally.
-             * Two parameters are required, for the Bundle pass in "null"
-             * for the LoaderCallbacks  pass in "this" (aka this activity, which is valid
-             * because this activity implements the LoaderCallbacks interface).
-             *
-             * This will start the onCreateLoader, which you can see requires an int and Bundle
-             * as it's parameters, which we have established here
-             */
-            loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
+            /** LOADER STARTS HERE */
+            startLoader();
         } else {
             // Otherwise, display a no Internet Connection message
             // First, hide loading indicator,
@@ -145,60 +227,199 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
     }
 
 
+    /**
+     * Initialise the loader of what the list shows: the search chosen in the settings, or
+     * every saved search merged.
+     *
+     * This will start the onCreateLoader, which you can see requires an int and Bundle
+     * as it's parameters, which we have established here
+     */
+    private void startLoader() {
+        LoaderManager loaderManager = getLoaderManager();
+        if (mShowSavedSearches) {
+            loaderManager.initLoader(SAVED_SEARCHES_LOADER_ID, null, this);
+            return;
+        }
+        Loader<List<EarthquakeRow>> loader =
+                loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
+
+        // Show the rows of each page as they are parsed, rather than once it has all arrived.
+        // After a rotation the loader is the same one, so it is told about the new activity.
+        ((EarthquakeLoader) loader).setOnBatchListener(this);
+    }
+
     /**
      * We need onCreateLoader() for when the LoaderManager has determined that the loader
      * with our specified ID isn't running, therefore we should create a new one
      */
     @Override
-    public Loader<List<Earthquake>> onCreateLoader(int i, Bundle bundle) {
-        Log.i(LOG_TAG, "TEST: Earthquake Activity, onCreateLoader() called");
-
+    public Loader<List<EarthquakeRow>> onCreateLoader(int id, Bundle bundle) {
+        if (id == SAVED_SEARCHES_LOADER_ID) {
+            return new SavedSearchLoader(this);
+        }
         // Create a new loader for the given URL
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
-        String minMagnitude = sharedPrefs.getString(
-                getString(R.string.settings_min_magnitude_key),
-                getString(R.string.settings_min_magnitude_default));
-        Uri baseUri = Uri.parse(USGS_REQUEST_URL);
-        Uri.Builder uriBuilder = baseUri.buildUpon();
-
-        uriBuilder.appendQueryParameter("format", "geojson");
-        uriBuilder.appendQueryParameter("limit", "10");
-        uriBuilder.appendQueryParameter("minmag", minMagnitude);
-        uriBuilder.appendQueryParameter("orderby", "time");
+        // The loader adds the offset and limit parameters for each page it requests
+        return new EarthquakeLoader(this, buildQuery(this), PAGE_SIZE);
+    }
 
-        return new EarthquakeLoader(this, uriBuilder.toString());
+    /**
+     * Build the USGS query from the user's preferences, also used by the background sync
+     */
+    static EarthquakeQuery buildQuery(Context context) {
+        return SavedSearch.fromSettings(context).toQuery(System.currentTimeMillis());
     }
 
     @Override
-    public void onLoadFinished(Loader<List<Earthquake>> loader, List<Earthquake> earthquakes) {
-        Log.i(LOG_TAG, "TEST: Earthquake Activity, onLoadFinished() called");
+    public void onLoadFinished(Loader<List<EarthquakeRow>> loader, List<EarthquakeRow> earthquakes) {
+        mLoadFinished = true;
 
-        // Set TextView to display "No Earthquakes Found..."
-        noDataOrNoInternetTextView.setText(R.string.no_earthquakes);
+        // Set TextView to display "No Earthquakes Found...", or that nothing has been saved
+        noDataOrNoInternetTextView.setText(mShowSavedSearches && !SavedSearch.hasAny(this)
+                ? R.string.no_saved_searches : R.string.no_earthquakes);
 
         ProgressBar progressBar = (ProgressBar) findViewById(R.id.progressBar);
         progressBar.setVisibility(ProgressBar.GONE);
 
-        // Clear the adapter of previous earthquake data, so it doesn't take up memory
-        mAdapter.clear();
+        // Hand the new list to the adapter, which works out what changed from the rows on
+        // screen and only updates those. A null list means nothing was found.
+        if (earthquakes != null) {
+            mAdapter.submitList(earthquakes);
+        } else {
+            mAdapter.clear();
+        }
+        updateEmptyView();
+
+        // The loader keeps the counts up to date as it merges, so this is only a few lookups
+        EarthquakeAggregates.Summary summary = null;
+        if (earthquakes != null) {
+            summary = loader instanceof SavedSearchLoader
+                    ? ((SavedSearchLoader) loader).getSummary()
+                    : ((EarthquakeLoader) loader).getSummary();
+        }
+        showSummary(summary);
+    }
 
-        // If earthquakes IS NOT null and IS NOT Empty, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (earthquakes != null && !earthquakes.isEmpty()) {
-            mAdapter.addAll(earthquakes);
+    /**
+     * The loader parsed the next few rows of a page that is still downloading. They go on the
+     * end of the list, unless the list shows something else (i.e. the snapshot) that the
+     * whole result replaces when the load finishes.
+     */
+    @Override
+    public void onBatch(List<EarthquakeRow> rows, int position) {
+        if (mAdapter.appendRows(rows, position)) {
+            ProgressBar progressBar = (ProgressBar) findViewById(R.id.progressBar);
+            progressBar.setVisibility(ProgressBar.GONE);
         }
     }
 
     @Override
-    public void onLoaderReset(Loader<List<Earthquake>> loader) {
-        Log.i(LOG_TAG, "TEST: Earthquake Activity, onLoaderReset() called");
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_SHOW_SAVED_SEARCHES, mShowSavedSearches);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // The loader outlives the activity across a rotation, so it mustn't hold on to it
+        Loader<List<EarthquakeRow>> loader = getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+        if (loader != null) {
+            ((EarthquakeLoader) loader).setOnBatchListener(null);
+        }
+    }
+
+    /** Fill in the header above the list, or hide it if there are no counts to show */
+    private void showSummary(EarthquakeAggregates.Summary summary) {
+        if (summary == null || summary.getTotal() == 0) {
+            mSummaryTextView.setVisibility(View.GONE);
+            return;
+        }
+
+        StringBuilder text = new StringBuilder(getString(R.string.summary_counts,
+                summary.getTotal(), summary.getLastDayCount(), summary.getDayCount(0)));
+        text.append('\n');
+        String separator = getString(R.string.summary_separator);
+        boolean first = true;
+        for (int band = 0; band < EarthquakeRowFormatter.MAGNITUDE_BANDS; band++) {
+            int count = summary.getBandCount(band);
+            if (count == 0) {
+                continue;
+            }
+            if (!first) {
+                text.append(separator);
+            }
+            first = false;
+            // Band 0 is everything below 2, the last band everything from its magnitude up,
+            // and the bands in between are one whole magnitude each, see magnitudeBand()
+            if (band == 0) {
+                text.append(getString(R.string.summary_band_below, 2, count));
+            } else if (band == EarthquakeRowFormatter.MAGNITUDE_BANDS - 1) {
+                text.append(getString(R.string.summary_band_above, band + 1, count));
+            } else {
+                text.append(getString(R.string.summary_band, band + 1, count));
+            }
+        }
+        mSummaryTextView.setText(text);
+        mSummaryTextView.setVisibility(View.VISIBLE);
+    }
+
+    /** Show the message TextView only while there are no earthquakes in the list */
+    private void updateEmptyView() {
+        noDataOrNoInternetTextView.setVisibility(
+                mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<List<EarthquakeRow>> loader) {
         // Loader reset, so we can clear out our existing data.
         mAdapter.clear();
+        showSummary(null);
     }
 
 
 
 
+    /**
+     * Reads the snapshot of the last earthquakes we loaded off the main thread and shows them,
+     * as long as they were loaded for the same query and the loader hasn't delivered yet.
+     * The rows are read from a dataset of their own, so the snapshot isn't kept on the heap.
+     */
+    private class SnapshotTask extends AsyncTask<EarthquakeSync, Void, List<EarthquakeRow>> {
+
+        @Override
+        protected List<EarthquakeRow> doInBackground(EarthquakeSync... syncs) {
+            try {
+                EarthquakeStore snapshot =
+                        syncs[0].readSnapshot(EarthquakeLoader.snapshotFile(EarthquakeActivity.this));
+                if (snapshot != null) {
+                    EarthquakeRowFormatter formatter = new EarthquakeRowFormatter(
+                            EarthquakeAdapter.getMagnitudeColours(EarthquakeActivity.this));
+                    return EarthquakeRowList.of(snapshot,
+                            new File(getCacheDir(), SNAPSHOT_DATASET_FILE_NAME), formatter);
+                }
+            } catch (IOException e) {
+                // A corrupt or outdated snapshot is simply ignored, the loader replaces it
+                Log.e(LOG_TAG, "Problem reading the earthquake snapshot", e);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(List<EarthquakeRow> earthquakes) {
+            if (mLoadFinished || mShowSavedSearches || earthquakes == null || earthquakes.isEmpty()) {
+                return;
+            }
+            // The first rows of the fresh page are already streaming in, they are newer
+            if (mAdapter.getItemCount() > 0) {
+                return;
+            }
+            ProgressBar progressBar = (ProgressBar) findViewById(R.id.progressBar);
+            progressBar.setVisibility(ProgressBar.GONE);
+            mAdapter.submitList(earthquakes);
+        }
+    }
+
+
     /** CREATING THE MENU BUTTON **
      * First we inflate the menu we created in res.menu.main.xml (which contains the menu
      * icon image) */
@@ -208,6 +429,14 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
         return true;
     }
 
+    /** Tick the saved searches while they are shown, there's only something to clear once saved */
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.saved_searches_menu_button).setChecked(mShowSavedSearches);
+        menu.findItem(R.id.clear_saved_searches_menu_button).setVisible(SavedSearch.hasAny(this));
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     /** Here we establish an Intent to go to the SettingsActivity when the menu is clicked on
      * by the user */
     @Override
@@ -219,7 +448,93 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
             startActivity(settingsIntent);
             return true;
         }
+        // Switch between the settings' search and every saved search merged
+        if (id == R.id.saved_searches_menu_button) {
+            showSavedSearches(!mShowSavedSearches);
+            return true;
+        }
+        // Keep the settings' search, asking how soon it should be fetched
+        if (id == R.id.save_search_menu_button) {
+            showSaveSearch();
+            return true;
+        }
+        if (id == R.id.clear_saved_searches_menu_button) {
+            SavedSearch.clearAll(this);
+            if (mShowSavedSearches) {
+                getLoaderManager().restartLoader(SAVED_SEARCHES_LOADER_ID, null, this);
+            }
+            return true;
+        }
+        // Show how long loading and scrolling took, with a button to export the numbers
+        if (id == R.id.metrics_menu_button) {
+            showMetrics();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Show every saved search merged, or go back to the settings' search. The loader of the
+     * list that isn't shown is destroyed, so it stops fetching.
+     */
+    private void showSavedSearches(boolean show) {
+        mShowSavedSearches = show;
+        LoaderManager loaderManager = getLoaderManager();
+        loaderManager.destroyLoader(show ? EARTHQUAKE_LOADER_ID : SAVED_SEARCHES_LOADER_ID);
+        mAdapter.clear();
+        showSummary(null);
+        mLoadFinished = false;
+        ProgressBar progressBar = (ProgressBar) findViewById(R.id.progressBar);
+        progressBar.setVisibility(ProgressBar.VISIBLE);
+        noDataOrNoInternetTextView.setText("");
+        startLoader();
+    }
+
+    /** Ask for the priority of the settings' search, then save it */
+    private void showSaveSearch() {
+        final int[] priorities = {
+                SavedSearch.PRIORITY_HIGH, SavedSearch.PRIORITY_NORMAL, SavedSearch.PRIORITY_LOW
+        };
+        String[] labels = {
+                getString(R.string.save_search_high),
+                getString(R.string.save_search_normal),
+                getString(R.string.save_search_low)
+        };
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.save_search_title)
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        SavedSearch.save(EarthquakeActivity.this, SavedSearch
+                                .fromSettings(EarthquakeActivity.this)
+                                .withPriority(priorities[which]));
+                        if (mShowSavedSearches) {
+                            getLoaderManager().restartLoader(SAVED_SEARCHES_LOADER_ID, null,
+                                    EarthquakeActivity.this);
+                        }
+                    }
+                })
+                .show();
+    }
+
+    /** Show every metric in a dialog, which can share them as JSON to compare with other runs */
+    private void showMetrics() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.metrics_title)
+                .setMessage(Metrics.dump())
+                .setPositiveButton(R.string.metrics_share, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Intent shareIntent = new Intent(Intent.ACTION_SEND);
+                        shareIntent.setType("application/json");
+                        shareIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.metrics_title));
+                        shareIntent.putExtra(Intent.EXTRA_TEXT, Metrics.toJson());
+                        startActivity(Intent.createChooser(shareIntent,
+                                getString(R.string.metrics_share)));
+                    }
+                })
+                .setNegativeButton(R.string.metrics_close, null)
+                .show();
+    }
+
 }
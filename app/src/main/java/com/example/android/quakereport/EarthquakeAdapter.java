@@ -1,231 +1,265 @@
 package com.example.android.quakereport;
 
-import android.app.Activity;
+import android.content.Context;
 import android.graphics.drawable.GradientDrawable;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by Tin on 09/05/2017.
+ *
+ * Shows {@link EarthquakeRow}s in a RecyclerView. When a new list is submitted the difference
+ * from the current list is worked out on a background thread, and only the rows that were
+ * inserted, removed or changed are rebound.
+ *
+ * The lists submitted are usually {@link EarthquakeRowList}s, which only format the rows
+ * asked for, so the adapter never walks a whole list itself. Rows streamed in while a page
+ * downloads are kept apart from the submitted list rather than copied onto the end of it.
+ *
+ * Every list is newest first, so the difference is found in one pass over both lists by
+ * their times and event ids, which are read straight from the dataset of an
+ * {@link EarthquakeRowList} without formatting any row. However long the lists are, the
+ * comparison stays linear, where a general diff grows with the number of changes squared.
+ * See {@link EarthquakeRowChanges}.
  */
 
-public class EarthquakeAdapter extends ArrayAdapter<Earthquake> {
+public class EarthquakeAdapter extends RecyclerView.Adapter<EarthquakeAdapter.ViewHolder> {
 
-    /**
-     * This is our own custom constructor (it doesn't mirror a superclass constructor).
-     * The context is used to inflate the layout file, and the list is the data we want
-     * to populate into the lists.
-     *
-     * @param context        The current context. Used to inflate the layout file.
-     * @param earthquakes A List of AndroidFlavor objects to display in a list
-     */
-    public EarthquakeAdapter(Activity context, ArrayList<Earthquake> earthquakes) {
-        // Here, we initialize the ArrayAdapter's internal storage for the context and the list.
-        // the second argument is used when the ArrayAdapter is populating a single TextView.
-        // Because this is a custom adapter for three TextViews, the adapter is not going to
-        // use this second argument, so it can be any value. Here, we used 0.
-        super(context, 0, earthquakes);
+    /** Called when the user clicks on a row */
+    public interface OnEarthquakeClickListener {
+        void onEarthquakeClick(Earthquake earthquake);
     }
 
-    /**
-     * Provides a view for an AdapterView (ListView, GridView, etc.)
-     *
-     * @param position The position in the list of data that should be displayed in the
-     *                 list item view.
-     * @param convertView The recycled view to populate.
-     * @param parent The parent ViewGroup that is used for inflation.
-     * @return The View for the position in the AdapterView.
-     */
-    @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        // Check if the existing view is being reused, otherwise inflate the view
-        View listItemView = convertView;
-        if(listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.list_item, parent, false);
-        }
-
-        // Get the {@link Earthquake} object located at this position in the list
-        Earthquake currentEarthquake = getItem(position);
-
-
-        /** FORMATING THE MAGNITUDE TO A SINGLE DECIMAL
-         * Assign the current Earthquake magnitude to a double "magnitude"
-         * Use method DecimalFormat to format the value to one decimal place
-         */
+    private final LayoutInflater mInflater;
+    private final OnEarthquakeClickListener mClickListener;
 
-        // Find the TextView in the list_item.xml layout with the Magnitude strength
-        TextView magnitudeTextView = (TextView) listItemView.findViewById(R.id.magnitude);
+    /** The list submitted last, only replaced on the main thread and never modified */
+    private List<EarthquakeRow> mRows = Collections.emptyList();
 
-        double magnitude = currentEarthquake.getMagnitude();
+    /** Rows appended after mRows as a page streams in, until the next list is submitted */
+    private final List<EarthquakeRow> mAppendedRows = new ArrayList<>();
 
-        DecimalFormat formatter = new DecimalFormat("0.0");
-        String magnitudeSingleDecimal = formatter.format(magnitude);
+    /** Incremented with every submitted list, so a diff that finishes late is thrown away */
+    private int mGeneration;
 
-        // Assign the formatted magnitude to the mangitudeTextView
-        magnitudeTextView.setText(magnitudeSingleDecimal);
+    /** True while a submitted list is being compared on a background thread */
+    private boolean mDiffPending;
 
-        // Find the TextView in the list_item.xml layout with the primaryLocation and locationOffset
-        TextView locationOffsetTextView = (TextView) listItemView.findViewById(R.id.locationOffset);
-        TextView primaryLocationTextView = (TextView) listItemView.findViewById(R.id.primaryLocation);
+    /** Used to hand finished diffs back to the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
+    /** Tells the RecyclerView about the ranges of a finished diff */
+    private final ListUpdateCallback mUpdateCallback = new ListUpdateCallback() {
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
 
-        /** APPLYING COLOUR TO THE MAGNITUDE CIRCLE ELEMENT
-         * Set the proper background color on the magnitude circle.
-         * Fetch the background from the TextView, which is a GradientDrawable.
-         */
-        GradientDrawable magnitudeCircle = (GradientDrawable) magnitudeTextView.getBackground();
-
-        // Get the appropriate background color based on the current earthquake magnitude
-        // Colour is generated from the getMagnitudeColour helper method
-        int magnitudeColor = getMagnitudeColour(currentEarthquake.getMagnitude());
-
-        // Set the color on the magnitude circle
-        magnitudeCircle.setColor(magnitudeColor);
-
-
-        /** SPLITTING THE LOCATION INTO TWO STRINGS, THE OFFSET LOCATION AND THE PRIMARY LOCATION
-         * In this code, we will split the location text into a location offset (“74km NW of “)
-         * and a primary location (“Rumoi, Japan”) and display the 2 Strings in 2 separate TextViews.
-         * If there’s no location offset, use “Near the”, along with the primary location (“Pacific-Antarctic Ridge”).
-         *
-         * 1st: Put the currentEarthquake location into a String that we can edit "rawLocation"
-         * 2nd: if Statement: if rawLocation contains "of" split rawLocation into two Strings, "part1" & "part2"
-         * 3rd: else: if rawLocation doesn't contain "of", locationOffsetTextView.setText("Near the") and primaryLocationTextView.setText(rawLocation)
-         */
-        String rawLocation = currentEarthquake.getLocation();
-
-        if (rawLocation.contains("of")) {
-
-            // (?<=of) means to add the of to "part1"
-            String[] parts = rawLocation.split("(?<=of)");
-            String part1 = parts[0];
-            String part2 = parts[1];
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
 
-            // part2 contains the space after "of ", .trim removes the spaces before and after part2
-            String part2SpacesTrimmedFromBeginningAndEnd = part2.trim();
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
 
-            // Here we assign part1 & part2 to their TextViews
-            locationOffsetTextView.setText(part1);
-            primaryLocationTextView.setText(part2SpacesTrimmedFromBeginningAndEnd);
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(position, count, payload);
+        }
+    };
 
-        } else { //It doesn't contain "of"
+    /**
+     * This is our own custom constructor (it doesn't mirror a superclass constructor).
+     * The context is used to inflate the layout file.
+     *
+     * @param context        The current context. Used to inflate the layout file.
+     * @param clickListener  Told which earthquake the user clicked on
+     */
+    public EarthquakeAdapter(Context context, OnEarthquakeClickListener clickListener) {
+        mInflater = LayoutInflater.from(context);
+        mClickListener = clickListener;
+    }
 
-            locationOffsetTextView.setText("Near the");
-            primaryLocationTextView.setText(rawLocation);
+    /**
+     * Holds the views of one list item, so findViewById is only called when the item is created
+     * rather than every time it is bound.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView magnitudeTextView;
+        final GradientDrawable magnitudeCircle;
+        final TextView locationOffsetTextView;
+        final TextView primaryLocationTextView;
+        final TextView dateTextView;
+        final TextView timeTextView;
+
+        ViewHolder(View listItemView) {
+            super(listItemView);
+            magnitudeTextView = (TextView) listItemView.findViewById(R.id.magnitude);
+            // The magnitude circle is the GradientDrawable background of the magnitude TextView
+            magnitudeCircle = (GradientDrawable) magnitudeTextView.getBackground();
+            locationOffsetTextView = (TextView) listItemView.findViewById(R.id.locationOffset);
+            primaryLocationTextView = (TextView) listItemView.findViewById(R.id.primaryLocation);
+            dateTextView = (TextView) listItemView.findViewById(R.id.date);
+            timeTextView = (TextView) listItemView.findViewById(R.id.time);
+            listItemView.setOnClickListener(this);
         }
 
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                mClickListener.onEarthquakeClick(getItem(position).getEarthquake());
+            }
+        }
+    }
 
-        /** CONVERTING UNIX TIMEINMILLISECONDS INTO A READABLE DATE
-         * Here we convert the current Earthquake timeInMilliseconds into a Date object using the Date constructor
-         * and we name it dataObject.
-         * The dataObject is then converted into a date and time format using the formatDate and formatTime methods
-         * created below this class.
-         */
-        Date dateObject = new Date(currentEarthquake.getTimeInMilliseconds());
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new ViewHolder(mInflater.inflate(R.layout.list_item, parent, false));
+    }
 
-        /** Here we format the dateObject into a readable date format using the formatDate method created below this class */
-        String formattedDate = formatDate(dateObject);
+    /**
+     * Everything shown is formatted ahead of time in the {@link EarthquakeRow}, so binding only
+     * assigns the text and the colour.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long start = System.nanoTime();
+        EarthquakeRow currentRow = getItem(position);
+
+        holder.magnitudeTextView.setText(currentRow.getMagnitudeText());
+        holder.magnitudeCircle.setColor(currentRow.getMagnitudeColour());
+        holder.locationOffsetTextView.setText(currentRow.getLocationOffset());
+        holder.primaryLocationTextView.setText(currentRow.getPrimaryLocation());
+        holder.dateTextView.setText(currentRow.getDate());
+        holder.timeTextView.setText(currentRow.getTime());
+        Metrics.BIND_NANOS.record(System.nanoTime() - start);
+    }
 
-        // Find the TextView in the list_item.xml layout with the Date
-        TextView dateTextView = (TextView) listItemView.findViewById(R.id.date);
-        // Get the Date from the current Earthquake object and
-        // set this text on the Location TextView
-        dateTextView.setText(formattedDate);
+    @Override
+    public int getItemCount() {
+        return mRows.size() + mAppendedRows.size();
+    }
 
+    /** Return the row at the given position */
+    public EarthquakeRow getItem(int position) {
+        int size = mRows.size();
+        return position < size ? mRows.get(position) : mAppendedRows.get(position - size);
+    }
 
-        /** Here we format the dateObject into a readable time format using the formatTime method created below this class */
-        String formattedTime = formatTime(dateObject);
+    /**
+     * Replace the rows shown with a new list. The list is compared with the current one on a
+     * background thread, then only the rows that changed are updated. The list must not be
+     * modified after it has been submitted.
+     */
+    public void submitList(final List<EarthquakeRow> newRows) {
+        final int generation = ++mGeneration;
 
-        // Find the TextView in the list_item.xml layout with the Date
-        TextView timeTextView = (TextView) listItemView.findViewById(R.id.time);
-        // Get the Date from the current Earthquake object and
-        // set this text on the Location TextView
-        timeTextView.setText(formattedTime);
+        // The same list again (i.e. the loader had nothing new), nothing to compare
+        if (newRows == mRows && mAppendedRows.isEmpty()) {
+            mDiffPending = false;
+            return;
+        }
 
+        // Nothing to compare against (or nothing left), so no need for a background diff
+        if (getItemCount() == 0 || newRows.isEmpty()) {
+            setRows(newRows);
+            mDiffPending = false;
+            notifyDataSetChanged();
+            return;
+        }
 
-        // Return the whole list item layout (containing 4 TextViews, Magnitude, Location, Date & Time)
-        // so that it can be shown in the ListView
-        return listItemView;
+        final EarthquakeRowKeys oldKeys =
+                new EarthquakeRowKeys(mRows, new ArrayList<>(mAppendedRows));
+        mDiffPending = true;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final EarthquakeRowChanges changes = EarthquakeRowChanges.between(oldKeys,
+                        new EarthquakeRowKeys(newRows, Collections.<EarthquakeRow>emptyList()));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer list was submitted while we were working, it wins
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        setRows(newRows);
+                        mDiffPending = false;
+                        changes.dispatchTo(mUpdateCallback);
+                    }
+                });
+            }
+        });
     }
 
-    /** These two methods are created to help format the unix timeInMilliseconds into a readable format */
     /**
-     * Return the formatted date string (i.e. "3 Mar, 1984") from a Date object.
+     * Add rows after the ones shown, without comparing anything. Only done if the rows start
+     * right where the list ends and no submitted list is still being compared, otherwise the
+     * rows are left out: the list submitted next has them anyway.
+     *
+     * @param position where the rows go in the list
+     * @return true if the rows were added
      */
-    private String formatDate(Date dateObject) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("dd LLL, yyyy");
-        return dateFormat.format(dateObject);
+    public boolean appendRows(List<EarthquakeRow> rows, int position) {
+        if (mDiffPending || position != getItemCount() || rows.isEmpty()) {
+            return false;
+        }
+        mAppendedRows.addAll(rows);
+        notifyItemRangeInserted(position, rows.size());
+        return true;
     }
 
-    /**
-     * Return the formatted date string (i.e. "4:30 PM") from a Date object.
-     */
-    private String formatTime(Date dateObject) {
-        SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
-        return timeFormat.format(dateObject);
+    /** Show the given list in place of the submitted list and any rows appended to it */
+    private void setRows(List<EarthquakeRow> rows) {
+        mRows = rows;
+        mAppendedRows.clear();
+    }
 
+    /** Remove every row */
+    public void clear() {
+        submitList(new ArrayList<EarthquakeRow>());
     }
 
     /**
-     * getMagnitudeColour helper method to get the magnitude colour for the relevant mangitude
-     * @param magnitude
-     * @return
+     * Resolve the colour of every magnitude band once, in the order of
+     * {@link EarthquakeRowFormatter#magnitudeBand(double)}, so rows can be coloured off the main
+     * thread without looking up resources for every earthquake.
      */
-    private int getMagnitudeColour(double magnitude){
-
-        // Here we create a variable that will hold the magnitude colour resource Id
-        int magnitudeColourResourceId;
-
-        // Here we convert the magnitude double into and int, and ensure we always round down to the nearest whole number (int)
-        int magnitudeFloor = (int)Math.floor(magnitude);
-
-        switch(magnitudeFloor){
-            case 0:
-
-            case 1:
-                    magnitudeColourResourceId = R.color.magnitude1;
-                    break;
-            case 2:
-                    magnitudeColourResourceId = R.color.magnitude2;
-                    break;
-            case 3:
-                    magnitudeColourResourceId = R.color.magnitude3;
-                    break;
-            case 4:
-                    magnitudeColourResourceId = R.color.magnitude4;
-                    break;
-            case 5:
-                    magnitudeColourResourceId = R.color.magnitude5;
-                    break;
-            case 6:
-                    magnitudeColourResourceId = R.color.magnitude6;
-                    break;
-            case 7:
-                    magnitudeColourResourceId = R.color.magnitude7;
-                    break;
-            case 8:
-                    magnitudeColourResourceId = R.color.magnitude8;
-                    break;
-            case 9:
-                    magnitudeColourResourceId = R.color.magnitude9;
-                    break;
-            default:
-                    magnitudeColourResourceId = R.color.magnitude10plus;
-                    break;
+    public static int[] getMagnitudeColours(Context context) {
+        int[] magnitudeColourResourceIds = {
+                R.color.magnitude1,
+                R.color.magnitude2,
+                R.color.magnitude3,
+                R.color.magnitude4,
+                R.color.magnitude5,
+                R.color.magnitude6,
+                R.color.magnitude7,
+                R.color.magnitude8,
+                R.color.magnitude9,
+                R.color.magnitude10plus
+        };
+        int[] magnitudeColours = new int[magnitudeColourResourceIds.length];
+        for (int i = 0; i < magnitudeColourResourceIds.length; i++) {
+            magnitudeColours[i] = ContextCompat.getColor(context, magnitudeColourResourceIds[i]);
         }
-
-        return ContextCompat.getColor(getContext(), magnitudeColourResourceId);
+        return magnitudeColours;
     }
 
 }
@@ -0,0 +1,211 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Counts of earthquakes per magnitude band, per hour and per day, kept up to date one
+ * earthquake at a time as they are merged, revised and deleted, so the summary header never
+ * has to go through the whole list again.
+ *
+ * The magnitude bands are the ones the rows are coloured by, see
+ * {@link EarthquakeRowFormatter#magnitudeBand(double)}. Hours and days are counted in the
+ * local time of the given time zone, so "today" means the same as in the rows. Only the hours
+ * and days that have earthquakes in them take up any memory, and every read is a single array
+ * or hash lookup.
+ *
+ * Aggregates are not thread safe, hand a {@link Summary} to other threads instead.
+ */
+public final class EarthquakeAggregates {
+
+    /** Milliseconds in an hour and in a day */
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000L;
+    private static final long DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS;
+
+    /** How many hours and days back a {@link Summary} goes */
+    public static final int SUMMARY_HOURS = 24;
+    public static final int SUMMARY_DAYS = 7;
+
+    private final TimeZone mTimeZone;
+
+    private final int[] mBandCounts = new int[EarthquakeRowFormatter.MAGNITUDE_BANDS];
+    private int mTotal;
+
+    /** Counts by hour and by day since the epoch, in local time. Empty buckets are removed. */
+    private final Map<Long, int[]> mHourCounts = new HashMap<>();
+    private final Map<Long, int[]> mDayCounts = new HashMap<>();
+
+    /**
+     * Constructs a new {@link EarthquakeAggregates}
+     *
+     * @param timeZone the time zone hours and days are counted in
+     */
+    public EarthquakeAggregates(TimeZone timeZone) {
+        mTimeZone = timeZone;
+    }
+
+    /** Count an earthquake */
+    public void add(double magnitude, long timeInMilliseconds) {
+        update(magnitude, timeInMilliseconds, 1);
+    }
+
+    /** Stop counting an earthquake that was counted with {@link #add} */
+    public void remove(double magnitude, long timeInMilliseconds) {
+        update(magnitude, timeInMilliseconds, -1);
+    }
+
+    /** Count every earthquake in the store */
+    public void addAll(EarthquakeStore store) {
+        for (int i = 0; i < store.size(); i++) {
+            add(store.getMagnitude(i), store.getTimeInMilliseconds(i));
+        }
+    }
+
+    /** Forget every earthquake */
+    public void clear() {
+        for (int i = 0; i < mBandCounts.length; i++) {
+            mBandCounts[i] = 0;
+        }
+        mTotal = 0;
+        mHourCounts.clear();
+        mDayCounts.clear();
+    }
+
+    /** Number of earthquakes counted */
+    public int getTotal() {
+        return mTotal;
+    }
+
+    /** Number of earthquakes in the magnitude band */
+    public int getBandCount(int band) {
+        return mBandCounts[band];
+    }
+
+    /** Number of earthquakes in the local hour the time falls in */
+    public int getHourCount(long timeInMilliseconds) {
+        return countOf(mHourCounts, hourOf(timeInMilliseconds));
+    }
+
+    /** Number of earthquakes on the local day the time falls on */
+    public int getDayCount(long timeInMilliseconds) {
+        return countOf(mDayCounts, dayOf(timeInMilliseconds));
+    }
+
+    /** Number of hours and days that have earthquakes in them */
+    int getBucketCount() {
+        return mHourCounts.size() + mDayCounts.size();
+    }
+
+    /**
+     * Copy the counts out for another thread, with the hours and days leading up to now.
+     */
+    public Summary summarize(long now) {
+        int[] hours = new int[SUMMARY_HOURS];
+        long hour = hourOf(now);
+        for (int i = 0; i < SUMMARY_HOURS; i++) {
+            hours[i] = countOf(mHourCounts, hour - i);
+        }
+        int[] days = new int[SUMMARY_DAYS];
+        long day = dayOf(now);
+        for (int i = 0; i < SUMMARY_DAYS; i++) {
+            days[i] = countOf(mDayCounts, day - i);
+        }
+        return new Summary(mTotal, mBandCounts.clone(), hours, days);
+    }
+
+    private void update(double magnitude, long timeInMilliseconds, int delta) {
+        mBandCounts[EarthquakeRowFormatter.magnitudeBand(magnitude)] += delta;
+        mTotal += delta;
+        adjust(mHourCounts, hourOf(timeInMilliseconds), delta);
+        adjust(mDayCounts, dayOf(timeInMilliseconds), delta);
+    }
+
+    private static void adjust(Map<Long, int[]> counts, long bucket, int delta) {
+        int[] count = counts.get(bucket);
+        if (count == null) {
+            count = new int[1];
+            counts.put(bucket, count);
+        }
+        count[0] += delta;
+        if (count[0] == 0) {
+            counts.remove(bucket);
+        }
+    }
+
+    private static int countOf(Map<Long, int[]> counts, long bucket) {
+        int[] count = counts.get(bucket);
+        return count == null ? 0 : count[0];
+    }
+
+    private long hourOf(long timeInMilliseconds) {
+        return floorDiv(localTime(timeInMilliseconds), HOUR_IN_MILLIS);
+    }
+
+    private long dayOf(long timeInMilliseconds) {
+        return floorDiv(localTime(timeInMilliseconds), DAY_IN_MILLIS);
+    }
+
+    private long localTime(long timeInMilliseconds) {
+        return timeInMilliseconds + mTimeZone.getOffset(timeInMilliseconds);
+    }
+
+    /** Division that rounds down for times before the epoch too */
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return x % y < 0 ? quotient - 1 : quotient;
+    }
+
+    /**
+     * The counts at one point in time, which can't be modified.
+     */
+    public static final class Summary {
+
+        private final int mTotal;
+        private final int[] mBandCounts;
+        private final int[] mHourCounts;
+        private final int[] mDayCounts;
+
+        private Summary(int total, int[] bandCounts, int[] hourCounts, int[] dayCounts) {
+            mTotal = total;
+            mBandCounts = bandCounts;
+            mHourCounts = hourCounts;
+            mDayCounts = dayCounts;
+        }
+
+        /** Number of earthquakes counted */
+        public int getTotal() {
+            return mTotal;
+        }
+
+        /** Number of earthquakes in the magnitude band */
+        public int getBandCount(int band) {
+            return mBandCounts[band];
+        }
+
+        /**
+         * Number of earthquakes in the local hour the given number of hours ago, 0 being the
+         * hour it was summarized in, up to {@link #SUMMARY_HOURS} - 1.
+         */
+        public int getHourCount(int hoursAgo) {
+            return mHourCounts[hoursAgo];
+        }
+
+        /**
+         * Number of earthquakes on the local day the given number of days ago, 0 being the
+         * day it was summarized on, up to {@link #SUMMARY_DAYS} - 1.
+         */
+        public int getDayCount(int daysAgo) {
+            return mDayCounts[daysAgo];
+        }
+
+        /** Number of earthquakes in this hour and the hours before it, a day's worth */
+        public int getLastDayCount() {
+            int count = 0;
+            for (int i = 0; i < SUMMARY_HOURS; i++) {
+                count += mHourCounts[i];
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.quakereport;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Formats the earthquakes of a page as they are parsed and posts them to the main thread in
+ * batches. Runs on the thread of {@link EarthquakeRequests} parsing the page, while the
+ * loader's background thread waits for it.
+ *
+ * The first batch is small so the first rows show up after a few kilobytes, and the batches
+ * double from there up to {@link #MAX_BATCH_SIZE}.
+ *
+ * Once the load has stopped waiting, the loader's thread may go on to the next load while
+ * the request is still parsing into this. So it never touches the merger or the formatter of
+ * the loader: it reads the ids of the earthquakes the loader has through a set that can be
+ * shared between threads, and has a formatter of its own.
+ */
+final class EarthquakeBatchPublisher implements GeoJsonParser.Listener {
+
+    /** The first batch of a page handed over while it streams in, and the largest batch */
+    static final int FIRST_BATCH_SIZE = 5;
+    static final int MAX_BATCH_SIZE = 50;
+
+    private final Set<String> mKnownIds;
+    private final EarthquakeRowFormatter mFormatter;
+    private final Cancellation mLoadCancellation;
+    private final Handler mMainHandler;
+    private final EarthquakeLoader.OnBatchListener mListener;
+    private final List<Earthquake> mBatch = new ArrayList<>();
+    private int mBatchSize = FIRST_BATCH_SIZE;
+
+    /** Where the next batch goes in the list */
+    private int mPosition;
+
+    /**
+     * @param position where the first row of the page goes in the list
+     * @param knownIds the ids of the earthquakes already in the list, see
+     *                 {@link EarthquakePages#getKnownIds()}
+     * @param formatter only used by this publisher from now on
+     * @param cancellation of the load, once it is cancelled no more batches are handed over
+     * @param listener told about each batch on the main thread
+     */
+    EarthquakeBatchPublisher(int position, Set<String> knownIds,
+                             EarthquakeRowFormatter formatter, Cancellation cancellation,
+                             Handler mainHandler, EarthquakeLoader.OnBatchListener listener) {
+        mPosition = position;
+        mKnownIds = knownIds;
+        mFormatter = formatter;
+        mLoadCancellation = cancellation;
+        mMainHandler = mainHandler;
+        mListener = listener;
+    }
+
+    @Override
+    public void onEarthquake(Earthquake earthquake) {
+        // Repeats of earthquakes we already have are merged later, rather than shown twice
+        if (earthquake.isDeleted() || mKnownIds.contains(earthquake.getId())) {
+            return;
+        }
+        mBatch.add(earthquake);
+        if (mBatch.size() >= mBatchSize) {
+            publish();
+            mBatchSize = Math.min(mBatchSize * 2, MAX_BATCH_SIZE);
+        }
+    }
+
+    /** Hand the batch to the listener. The rest of the page comes with the whole list. */
+    private void publish() {
+        final List<EarthquakeRow> rows = mFormatter.format(mBatch);
+        final int position = mPosition;
+        mPosition += rows.size();
+        mBatch.clear();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mLoadCancellation.isCanceled()) {
+                    mListener.onBatch(rows, position);
+                }
+            }
+        });
+    }
+}
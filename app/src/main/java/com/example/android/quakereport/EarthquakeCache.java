@@ -0,0 +1,312 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * On-disk cache of parsed USGS responses, keyed by the request URL.
+ *
+ * Each entry stores the earthquakes of one response together with the ETag and Last-Modified
+ * headers the server sent, so that once the entry is older than the TTL it can be revalidated
+ * with a conditional request instead of downloading the whole feed again. The total size of
+ * the cache is bounded, the least recently used entries are deleted first.
+ */
+public class EarthquakeCache {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = EarthquakeCache.class.getName();
+
+    /** How long an entry can be served without asking the server whether it changed */
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+
+    /** The most space the cache will take on disk before evicting entries */
+    public static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+    /** Written at the start of every entry file so we never read a file we didn't write */
+    private static final int MAGIC = 0x51434348;
+
+    /** Bump this whenever the entry layout changes, old entries are then ignored */
+    private static final int VERSION = 4;
+
+    /** The cache shared by every loader in the app */
+    private static EarthquakeCache sInstance;
+
+    private final File mDirectory;
+    private final long mTtlMillis;
+    private final long mMaxBytes;
+
+    /**
+     * A cached response.
+     */
+    public static class Entry {
+
+        /** The earthquakes parsed from the response */
+        public final List<Earthquake> earthquakes;
+
+        /** The ETag header of the response, or null if the server didn't send one */
+        public final String etag;
+
+        /** The Last-Modified header of the response, or null if the server didn't send one */
+        public final String lastModified;
+
+        /** When the response was stored or last revalidated, in milliseconds */
+        public final long storedAt;
+
+        public Entry(List<Earthquake> earthquakes, String etag, String lastModified, long storedAt) {
+            this.earthquakes = earthquakes;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+        }
+
+        /** True if the response can still be used without revalidating it */
+        public boolean isFresh(long now, long ttlMillis) {
+            return now - storedAt < ttlMillis;
+        }
+
+        /** True if we have a validator to send with a conditional request */
+        public boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    /**
+     * Return the cache shared by the whole app, stored in the app's cache directory.
+     */
+    public static synchronized EarthquakeCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), "earthquakes");
+            sInstance = new EarthquakeCache(directory, DEFAULT_TTL_MILLIS, DEFAULT_MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new {@link EarthquakeCache}
+     *
+     * @param directory where the entries are stored, created if it doesn't exist
+     * @param ttlMillis how long entries are fresh
+     * @param maxBytes the most space the entries can take on disk
+     */
+    public EarthquakeCache(File directory, long ttlMillis, long maxBytes) {
+        mDirectory = directory;
+        mTtlMillis = ttlMillis;
+        mMaxBytes = maxBytes;
+    }
+
+    /** True if the entry can be used without revalidating it */
+    public boolean isFresh(Entry entry) {
+        return entry.isFresh(System.currentTimeMillis(), mTtlMillis);
+    }
+
+    /**
+     * Return the cached response for the given URL, or null if there isn't a readable one.
+     * Stale entries are returned too, use {@link #isFresh(Entry)} to check.
+     */
+    public synchronized Entry get(String url) {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            Entry entry = readEntry(in, url);
+            if (entry != null) {
+                // Mark the entry as recently used so eviction removes it last
+                file.setLastModified(System.currentTimeMillis());
+            }
+            return entry;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the cache entry for " + url, e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Store the response for the given URL, then evict old entries if the cache is too big.
+     */
+    public synchronized void put(String url, Entry entry) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create the cache directory " + mDirectory);
+            return;
+        }
+
+        // Write to a temporary file and rename it, so a crash never leaves half an entry behind
+        File file = fileFor(url);
+        File temp = new File(mDirectory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            writeEntry(out, url, entry);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Couldn't rename " + temp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the cache entry for " + url, e);
+            temp.delete();
+            return;
+        } finally {
+            closeQuietly(out);
+        }
+        evict();
+    }
+
+    /**
+     * The server told us the response for the URL hasn't changed, so it is fresh again.
+     *
+     * @return the revalidated entry
+     */
+    public synchronized Entry revalidated(String url, Entry entry) {
+        Entry updated = new Entry(entry.earthquakes, entry.etag, entry.lastModified,
+                System.currentTimeMillis());
+        put(url, updated);
+        return updated;
+    }
+
+    /** Delete every entry */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /** Delete the least recently used entries until the cache fits in mMaxBytes */
+    private void evict() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= mMaxBytes) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && size > mMaxBytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, String url, Entry entry) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(url);
+        out.writeUTF(entry.etag == null ? "" : entry.etag);
+        out.writeUTF(entry.lastModified == null ? "" : entry.lastModified);
+        out.writeLong(entry.storedAt);
+        out.writeInt(entry.earthquakes.size());
+        for (Earthquake earthquake : entry.earthquakes) {
+            // The location and website are written in the parts the earthquake keeps them in,
+            // so reading them back doesn't split them again
+            String region = earthquake.getRegion();
+            String websitePrefix = earthquake.getWebsitePrefix();
+            out.writeDouble(earthquake.getMagnitude());
+            out.writeUTF(earthquake.getPlace());
+            out.writeBoolean(region != null);
+            if (region != null) {
+                out.writeUTF(region);
+            }
+            out.writeLong(earthquake.getTimeInMilliseconds());
+            out.writeBoolean(websitePrefix != null);
+            out.writeUTF(websitePrefix != null ? websitePrefix : earthquake.getWebsite());
+            out.writeUTF(earthquake.getId());
+            out.writeLong(earthquake.getUpdatedInMilliseconds());
+            out.writeDouble(earthquake.getLongitude());
+            out.writeDouble(earthquake.getLatitude());
+            out.writeDouble(earthquake.getDepth());
+        }
+    }
+
+    /** Read an entry, returning null if it was written by another version or for another URL */
+    private static Entry readEntry(DataInputStream in, String url) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(url)) {
+            return null;
+        }
+        String etag = in.readUTF();
+        String lastModified = in.readUTF();
+        long storedAt = in.readLong();
+        int count = in.readInt();
+        List<Earthquake> earthquakes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double magnitude = in.readDouble();
+            String place = in.readUTF();
+            String region = in.readBoolean() ? StringDictionary.SHARED.intern(in.readUTF()) : null;
+            long time = in.readLong();
+            boolean prefixed = in.readBoolean();
+            String website = in.readUTF();
+            String websitePrefix = prefixed ? StringDictionary.SHARED.intern(website) : null;
+            String id = in.readUTF();
+            long updated = in.readLong();
+            double longitude = in.readDouble();
+            double latitude = in.readDouble();
+            double depth = in.readDouble();
+            earthquakes.add(new Earthquake(magnitude, place, region, time, websitePrefix,
+                    prefixed ? null : website, id, updated, false, longitude, latitude, depth));
+        }
+        return new Entry(earthquakes, etag.isEmpty() ? null : etag,
+                lastModified.isEmpty() ? null : lastModified, storedAt);
+    }
+
+    /** Entries are named after a hash of the URL, URLs can be too long to be file names */
+    private File fileFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16));
+                name.append(Character.forDigit(b & 0xF, 16));
+            }
+            return new File(mDirectory, name.toString());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every Android device has SHA-1 and UTF-8
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A read-only set of earthquakes kept in a file and read through a memory-mapped buffer, so
+ * however many earthquakes it holds, none of them take up any heap until they are asked for.
+ *
+ * Layout of the file, all numbers big-endian:
+ *
+ *   int     MAGIC
+ *   int     VERSION
+ *   int     number of earthquakes (n)
+ *   n x     record of RECORD_BYTES:
+ *             double  magnitude
+ *             long    time in milliseconds
+ *             long    time the earthquake was last updated in milliseconds
+ *             double  longitude in degrees, NaN if it isn't known
+ *             double  latitude in degrees, NaN if it isn't known
+ *             double  depth in km, NaN if it isn't known
+ *             int     offset of the place (the location up to its region) in the string heap
+ *             int     offset of the region in the string heap, or -1 if the location has none
+ *             int     offset of the website in the string heap, or the complement (~offset) of
+ *                     the offset of its prefix if the website is the prefix followed by the id
+ *             int     offset of the USGS event id in the string heap
+ *   ...     string heap, each string is an int byte length followed by UTF-8 bytes
+ *
+ * Every record is the same width, so the earthquake at any position is found without reading
+ * the ones before it. The strings are those of the string table of the {@link EarthquakeStore}
+ * the dataset was written from that the records use, so repeated regions and the shared URL
+ * prefix are stored once.
+ *
+ * Unlike an {@link EarthquakeSnapshot} there is no checksum, as checking it would mean reading
+ * the whole file. Datasets are written by us into the cache directory and only read back by
+ * the process that wrote them.
+ *
+ * A dataset can be read from any thread.
+ */
+public final class EarthquakeDataset {
+
+    /** Written at the start of the file so we never map a file we didn't write */
+    private static final int MAGIC = 0x514b4453;
+
+    /** Bump this whenever the layout changes */
+    private static final int VERSION = 1;
+
+    /** Magic, version and count */
+    private static final int HEADER_BYTES = 3 * 4;
+
+    /** Six doubles and longs followed by four string offsets */
+    static final int RECORD_BYTES = 6 * 8 + 4 * 4;
+
+    /** Where each column is in a record */
+    private static final int MAGNITUDE = 0;
+    private static final int TIME = 8;
+    private static final int UPDATED = 16;
+    private static final int LONGITUDE = 24;
+    private static final int LATITUDE = 32;
+    private static final int DEPTH = 40;
+    private static final int PLACE = 48;
+    private static final int REGION = 52;
+    private static final int WEBSITE = 56;
+    private static final int ID = 60;
+
+    /** Offset of a string that isn't there, i.e. the region of a location without one */
+    private static final int NO_STRING = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The whole file, only ever read with absolute gets so it can be shared between threads */
+    private final ByteBuffer mBuffer;
+
+    private final int mSize;
+
+    /** Where the string heap starts in the file */
+    private final int mHeapStart;
+
+    private EarthquakeDataset(ByteBuffer buffer, int size) {
+        mBuffer = buffer;
+        mSize = size;
+        mHeapStart = HEADER_BYTES + size * RECORD_BYTES;
+    }
+
+    /**
+     * Write every earthquake in the store to the file, replacing any previous dataset. The
+     * file is written under a temporary name and renamed, so a dataset that is already mapped
+     * keeps reading the file it was opened on.
+     */
+    public static void write(File file, EarthquakeStore store) throws IOException {
+        write(file, store, 0, store.size());
+    }
+
+    /**
+     * Write the earthquakes of the store from one position up to another to the file, like
+     * {@link #write(File, EarthquakeStore)}. Only the strings they use go in the string heap,
+     * so writing the newest few earthquakes of a big store only costs as much as they do.
+     *
+     * @param from the position of the first earthquake to write
+     * @param to the position after the last one
+     */
+    public static void write(File file, EarthquakeStore store, int from, int to)
+            throws IOException {
+        int count = to - from;
+
+        // The strings the records use, in the order of the string table and each one once
+        int[] used = new int[4 * count];
+        int usedCount = 0;
+        for (int i = from; i < to; i++) {
+            used[usedCount++] = store.getPlaceIndex(i);
+            int region = store.getRegionIndex(i);
+            if (region != EarthquakeStore.NO_STRING) {
+                used[usedCount++] = region;
+            }
+            int website = store.getWebsiteIndex(i);
+            used[usedCount++] = website >= 0 ? website : ~website;
+            used[usedCount++] = store.getIdIndex(i);
+        }
+        Arrays.sort(used, 0, usedCount);
+        int stringCount = 0;
+        for (int i = 0; i < usedCount; i++) {
+            if (stringCount == 0 || used[i] != used[stringCount - 1]) {
+                used[stringCount++] = used[i];
+            }
+        }
+
+        // Lay out the string heap first, so the records can refer to it by offset
+        int[] offsets = new int[stringCount];
+        byte[][] strings = new byte[stringCount][];
+        int heapBytes = 0;
+        for (int i = 0; i < stringCount; i++) {
+            strings[i] = store.getString(used[i]).getBytes(UTF_8);
+            offsets[i] = heapBytes;
+            heapBytes += 4 + strings[i].length;
+        }
+        if ((long) HEADER_BYTES + (long) count * RECORD_BYTES + heapBytes > Integer.MAX_VALUE) {
+            throw new IOException("Too many earthquakes for a dataset: " + count);
+        }
+
+        // A temporary file of our own, as more than one thread may write the same dataset
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        boolean renamed = false;
+        try {
+            FileOutputStream fileOut = new FileOutputStream(temp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                for (int i = from; i < to; i++) {
+                    out.writeDouble(store.getMagnitude(i));
+                    out.writeLong(store.getTimeInMilliseconds(i));
+                    out.writeLong(store.getUpdatedInMilliseconds(i));
+                    out.writeDouble(store.getLongitude(i));
+                    out.writeDouble(store.getLatitude(i));
+                    out.writeDouble(store.getDepth(i));
+                    out.writeInt(offsets[heapIndex(used, stringCount, store.getPlaceIndex(i))]);
+                    int region = store.getRegionIndex(i);
+                    out.writeInt(region == EarthquakeStore.NO_STRING
+                            ? NO_STRING : offsets[heapIndex(used, stringCount, region)]);
+                    int website = store.getWebsiteIndex(i);
+                    out.writeInt(website >= 0 ? offsets[heapIndex(used, stringCount, website)]
+                            : ~offsets[heapIndex(used, stringCount, ~website)]);
+                    out.writeInt(offsets[heapIndex(used, stringCount, store.getIdIndex(i))]);
+                }
+                for (int i = 0; i < stringCount; i++) {
+                    out.writeInt(strings[i].length);
+                    out.write(strings[i]);
+                }
+                out.flush();
+            } finally {
+                fileOut.close();
+            }
+            renamed = temp.renameTo(file);
+        } finally {
+            if (!renamed) {
+                temp.delete();
+            }
+        }
+        if (!renamed) {
+            throw new IOException("Couldn't rename " + temp + " to " + file);
+        }
+    }
+
+    /** Where the string at the given index of the string table is in the heap */
+    private static int heapIndex(int[] used, int stringCount, int index) {
+        return Arrays.binarySearch(used, 0, stringCount, index);
+    }
+
+    /**
+     * Map the dataset in the given file. Nothing but the header is read until earthquakes are
+     * asked for, and the mapping stays valid after the file is replaced or deleted.
+     *
+     * @throws IOException if the file can't be mapped or isn't a dataset of this version
+     */
+    public static EarthquakeDataset open(File file) throws IOException {
+        MappedByteBuffer buffer;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long length = in.length();
+            if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+                throw new IOException("Dataset has an invalid length: " + length);
+            }
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            in.close();
+        }
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a dataset file");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported dataset version " + version);
+        }
+        int count = buffer.getInt(8);
+        if (count < 0 || count > (buffer.capacity() - HEADER_BYTES) / RECORD_BYTES) {
+            throw new IOException("Dataset has an invalid count " + count);
+        }
+        return new EarthquakeDataset(buffer, count);
+    }
+
+    /** Number of earthquakes in the dataset */
+    public int size() {
+        return mSize;
+    }
+
+    public double getMagnitude(int position) {
+        return mBuffer.getDouble(record(position) + MAGNITUDE);
+    }
+
+    public long getTimeInMilliseconds(int position) {
+        return mBuffer.getLong(record(position) + TIME);
+    }
+
+    public long getUpdatedInMilliseconds(int position) {
+        return mBuffer.getLong(record(position) + UPDATED);
+    }
+
+    /** The USGS event id, or "" if it isn't known */
+    public String getId(int position) {
+        return readString(mBuffer.getInt(record(position) + ID));
+    }
+
+    /** Create an {@link Earthquake} for the given position, reading its strings from the heap */
+    public Earthquake get(int position) {
+        int record = record(position);
+        int region = mBuffer.getInt(record + REGION);
+        int website = mBuffer.getInt(record + WEBSITE);
+        return new Earthquake(mBuffer.getDouble(record + MAGNITUDE),
+                readString(mBuffer.getInt(record + PLACE)),
+                region == NO_STRING ? null : StringDictionary.SHARED.intern(readString(region)),
+                mBuffer.getLong(record + TIME),
+                website >= 0 ? null : readString(~website),
+                website >= 0 ? readString(website) : null,
+                readString(mBuffer.getInt(record + ID)), mBuffer.getLong(record + UPDATED), false,
+                mBuffer.getDouble(record + LONGITUDE), mBuffer.getDouble(record + LATITUDE),
+                mBuffer.getDouble(record + DEPTH));
+    }
+
+    /** Where the record of the given position starts in the file */
+    private int record(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+        return HEADER_BYTES + position * RECORD_BYTES;
+    }
+
+    /** Decode the string at the given offset of the string heap */
+    private String readString(int offset) {
+        int start = mHeapStart + offset;
+        int length = mBuffer.getInt(start);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(start + 4 + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+}
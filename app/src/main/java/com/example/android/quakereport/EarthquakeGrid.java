@@ -0,0 +1,249 @@
+package com.example.android.quakereport;
+
+/**
+ * A spatial index over the coordinates of the earthquakes in an {@link EarthquakeStore}, which
+ * answers "inside this box" (i.e. the region of a query) and "within this many km of here"
+ * without asking USGS again.
+ *
+ * The globe is cut into cells of one degree of latitude by one degree of longitude. The
+ * positions of the earthquakes are sorted by cell with a counting sort, so each cell is a
+ * range of one int array and a query only looks at the earthquakes in the cells its box
+ * touches. The coordinates are copied next to the positions in the same order, so scanning a
+ * cell reads memory in order. Each earthquake is also kept as a point on the unit sphere, so
+ * a radius query only needs a dot product per earthquake rather than any trigonometry.
+ *
+ * Earthquakes without coordinates are left out. A grid is immutable once built, so it can be
+ * shared between threads. Queries write positions in cell order, not time order.
+ */
+public final class EarthquakeGrid {
+
+    /** Mean radius of the Earth, which the radius queries treat as a sphere */
+    public static final double EARTH_RADIUS_KM = 6371.0;
+
+    private static final int ROWS = 180;
+    private static final int COLUMNS = 360;
+
+    /** mPositions[mCellStarts[cell]] up to mPositions[mCellStarts[cell + 1]] are in the cell */
+    private final int[] mCellStarts;
+
+    /** Positions in the store, sorted by cell */
+    private final int[] mPositions;
+
+    /** The coordinates of mPositions, in the same order */
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+
+    /** The coordinates of mPositions as unit vectors, from the centre of the Earth */
+    private final double[] mX;
+    private final double[] mY;
+    private final double[] mZ;
+
+    /** Index the coordinates of every earthquake in the store */
+    public EarthquakeGrid(EarthquakeStore store) {
+        int size = store.size();
+
+        // Count the earthquakes in each cell, then turn the counts into where each cell starts
+        int[] cells = new int[size];
+        int[] starts = new int[ROWS * COLUMNS + 1];
+        int located = 0;
+        for (int i = 0; i < size; i++) {
+            double latitude = store.getLatitude(i);
+            double longitude = store.getLongitude(i);
+            if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                cells[i] = -1;
+                continue;
+            }
+            cells[i] = row(latitude) * COLUMNS + column(longitude);
+            starts[cells[i] + 1]++;
+            located++;
+        }
+        for (int cell = 0; cell < ROWS * COLUMNS; cell++) {
+            starts[cell + 1] += starts[cell];
+        }
+
+        mPositions = new int[located];
+        mLatitudes = new double[located];
+        mLongitudes = new double[located];
+        mX = new double[located];
+        mY = new double[located];
+        mZ = new double[located];
+        int[] next = new int[ROWS * COLUMNS];
+        System.arraycopy(starts, 0, next, 0, next.length);
+        for (int i = 0; i < size; i++) {
+            if (cells[i] < 0) {
+                continue;
+            }
+            int slot = next[cells[i]]++;
+            mPositions[slot] = i;
+            mLatitudes[slot] = store.getLatitude(i);
+            mLongitudes[slot] = normalizeLongitude(store.getLongitude(i));
+            double latitude = Math.toRadians(mLatitudes[slot]);
+            double longitude = Math.toRadians(mLongitudes[slot]);
+            mX[slot] = Math.cos(latitude) * Math.cos(longitude);
+            mY[slot] = Math.cos(latitude) * Math.sin(longitude);
+            mZ[slot] = Math.sin(latitude);
+        }
+        mCellStarts = starts;
+    }
+
+    /** Number of earthquakes with coordinates in the grid */
+    public int size() {
+        return mPositions.length;
+    }
+
+    /**
+     * How many earthquakes are in the cells the box touches, without looking at any of them.
+     * It is at least the number {@link #queryBox} finds, and the number it has to check.
+     */
+    public int countCandidates(double south, double west, double north, double east) {
+        if (south > north) {
+            return 0;
+        }
+        west = normalizeLongitude(west);
+        east = normalizeLongitude(east);
+        int count = 0;
+        int firstColumn = column(west);
+        int columns = columnCount(firstColumn, column(east), west > east);
+        for (int row = row(south); row <= row(north); row++) {
+            for (int c = 0; c < columns; c++) {
+                int cell = row * COLUMNS + (firstColumn + c) % COLUMNS;
+                count += mCellStarts[cell + 1] - mCellStarts[cell];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write the positions of every earthquake inside the box into out (edges included).
+     * If west is greater than east the box crosses the 180th meridian.
+     *
+     * @param out must have room for {@link #size()} positions
+     * @return the number of positions written
+     */
+    public int queryBox(double south, double west, double north, double east, int[] out) {
+        if (south > north) {
+            return 0;
+        }
+        west = normalizeLongitude(west);
+        east = normalizeLongitude(east);
+        boolean wraps = west > east;
+        int found = 0;
+        int firstColumn = column(west);
+        int columns = columnCount(firstColumn, column(east), wraps);
+        for (int row = row(south); row <= row(north); row++) {
+            for (int c = 0; c < columns; c++) {
+                int cell = row * COLUMNS + (firstColumn + c) % COLUMNS;
+                for (int i = mCellStarts[cell]; i < mCellStarts[cell + 1]; i++) {
+                    double latitude = mLatitudes[i];
+                    double longitude = mLongitudes[i];
+                    if (latitude >= south && latitude <= north && (wraps
+                            ? longitude >= west || longitude <= east
+                            : longitude >= west && longitude <= east)) {
+                        out[found++] = mPositions[i];
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Write the positions of every earthquake within the given distance of a point into out.
+     *
+     * Only the cells of the box around the circle are scanned. An earthquake in them is inside
+     * the circle if the angle between its unit vector and the centre's is at most the angle
+     * the radius spans, i.e. if the dot product of the two is at least its cosine.
+     *
+     * @param out must have room for {@link #size()} positions
+     * @return the number of positions written
+     */
+    public int queryRadius(double latitude, double longitude, double radiusKm, int[] out) {
+        double angle = radiusKm / EARTH_RADIUS_KM;
+        if (angle < 0) {
+            return 0;
+        }
+        double angleDegrees = Math.toDegrees(angle);
+        double south = Math.max(-90, latitude - angleDegrees);
+        double north = Math.min(90, latitude + angleDegrees);
+
+        // How far east and west the circle reaches, unless it goes over a pole or round the
+        // whole globe, in which case every longitude has to be looked at
+        double west = -180;
+        double east = 180;
+        double latitudeRadians = Math.toRadians(latitude);
+        double longitudeRadians = Math.toRadians(longitude);
+        if (north < 90 && south > -90 && angle < Math.PI / 2) {
+            double reach = Math.toDegrees(Math.asin(
+                    Math.min(1, Math.sin(angle) / Math.cos(latitudeRadians))));
+            // Past the 180th meridian the range wraps round, west then ends up east of east
+            west = normalizeLongitude(longitude - reach);
+            east = normalizeLongitude(longitude + reach);
+        }
+
+        double x = Math.cos(latitudeRadians) * Math.cos(longitudeRadians);
+        double y = Math.cos(latitudeRadians) * Math.sin(longitudeRadians);
+        double z = Math.sin(latitudeRadians);
+        double minDot = Math.cos(Math.min(angle, Math.PI));
+        int found = 0;
+        int firstColumn = column(west);
+        int columns = columnCount(firstColumn, column(east), west > east);
+        for (int row = row(south); row <= row(north); row++) {
+            for (int c = 0; c < columns; c++) {
+                int cell = row * COLUMNS + (firstColumn + c) % COLUMNS;
+                for (int i = mCellStarts[cell]; i < mCellStarts[cell + 1]; i++) {
+                    if (mX[i] * x + mY[i] * y + mZ[i] * z >= minDot) {
+                        out[found++] = mPositions[i];
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /** The distance in km between two points on the Earth */
+    public static double distanceKm(double latitude1, double longitude1,
+                                    double latitude2, double longitude2) {
+        double h = haversine(Math.toRadians(latitude2 - latitude1))
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * haversine(Math.toRadians(longitude2 - longitude1));
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(Math.min(1, h)));
+    }
+
+    /** sin²(angle / 2) */
+    private static double haversine(double angle) {
+        double sin = Math.sin(angle / 2);
+        return sin * sin;
+    }
+
+    /**
+     * How many columns there are from the first to the last, going east. A range that wraps
+     * round the 180th meridian and ends in the column it started in covers every column.
+     */
+    private static int columnCount(int firstColumn, int lastColumn, boolean wraps) {
+        if (!wraps) {
+            return lastColumn - firstColumn + 1;
+        }
+        if (lastColumn == firstColumn) {
+            return COLUMNS;
+        }
+        return (lastColumn - firstColumn + COLUMNS) % COLUMNS + 1;
+    }
+
+    private static int row(double latitude) {
+        return Math.min(ROWS - 1, Math.max(0, (int) Math.floor(latitude + 90)));
+    }
+
+    private static int column(double longitude) {
+        double normalized = normalizeLongitude(longitude);
+        return Math.min(COLUMNS - 1, Math.max(0, (int) Math.floor(normalized + 180)));
+    }
+
+    /** Bring a longitude into -180 to 180 */
+    private static double normalizeLongitude(double longitude) {
+        if (longitude >= -180 && longitude <= 180) {
+            return longitude;
+        }
+        double normalized = ((longitude + 180) % 360 + 360) % 360 - 180;
+        return normalized == -180 && longitude > 0 ? 180 : normalized;
+    }
+}
@@ -0,0 +1,355 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The HTTP client every USGS request goes through.
+ *
+ * Connections are kept alive and pooled by the platform, so we never call disconnect() on a
+ * connection that finished normally: instead the rest of the body is drained and the stream
+ * closed, which hands the socket back to the pool for the next request and saves another
+ * TCP and TLS handshake. Responses are requested gzipped and decompressed as a stream on the
+ * way into the parser, and the bytes that came over the wire are counted separately from the
+ * decoded bytes the parser read.
+ *
+ * A fetch with a {@link Cancellation} never waits on a socket past its deadline, and one that
+ * is stopped part way is closed with {@link #abort} rather than drained.
+ *
+ * The pool is left at the platform's defaults (keep-alive on, five idle connections), which
+ * are process wide. How many requests run at the same time is capped instead by the executor
+ * {@link EarthquakeRequests} and {@link EarthquakeSliceFetcher} share, see
+ * {@link #getExecutor()}, which has fewer threads than the pool keeps connections. The only
+ * other requests are those of the background sync, one at a time.
+ */
+public final class EarthquakeHttpClient {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = EarthquakeHttpClient.class.getName();
+
+    /** Timeouts used for every request */
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+
+    /**
+     * If more than this is left unread when a response is released, closing the connection is
+     * cheaper than downloading the rest just to reuse it.
+     */
+    private static final long MAX_DRAIN_BYTES = 64 * 1024;
+
+    /** How much of an error response is read to tell why the request was refused */
+    private static final int MAX_ERROR_BYTES = 2048;
+
+    /** How many requests the shared executor makes at the same time, below the pool size */
+    public static final int MAX_REQUESTS = 4;
+
+    /** The client shared by the whole app, so all requests share one connection pool */
+    private static final EarthquakeHttpClient sInstance = new EarthquakeHttpClient();
+
+    /** The executor shared by every request layer, see {@link #getExecutor()} */
+    private static final ExecutorService sExecutor = newExecutor(MAX_REQUESTS);
+
+    /** Totals over every response this client has read */
+    private final AtomicLong mWireBytes = new AtomicLong();
+    private final AtomicLong mDecodedBytes = new AtomicLong();
+    private final AtomicLong mResponses = new AtomicLong();
+
+    private EarthquakeHttpClient() {
+    }
+
+    /** Return the client shared by the whole app */
+    public static EarthquakeHttpClient getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Return the executor that every request layer makes its requests on, so that together
+     * they never make more than MAX_REQUESTS at a time. Its tasks only make requests and must
+     * never wait on one another, or they could take every thread and wait forever.
+     */
+    public static ExecutorService getExecutor() {
+        return sExecutor;
+    }
+
+    /** A fixed number of threads with a queue, so extra requests wait rather than add threads */
+    private static ExecutorService newExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Open a GET request to the given URL that asks for a gzipped response. Extra request
+     * headers can be set on the connection before the response is read.
+     */
+    public HttpURLConnection open(URL url) throws IOException {
+        return open(url, new Cancellation());
+    }
+
+    /**
+     * Same as {@link #open(URL)}, but the connect and read timeouts are cut down so no single
+     * wait goes past the deadline of the cancellation.
+     */
+    public HttpURLConnection open(URL url, Cancellation cancellation) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setReadTimeout(cancellation.remainingMillis(READ_TIMEOUT_MILLIS));
+        urlConnection.setConnectTimeout(cancellation.remainingMillis(CONNECT_TIMEOUT_MILLIS));
+        urlConnection.setRequestMethod("GET");
+        // Setting this ourselves means the platform won't transparently decompress the body,
+        // so we can count the compressed bytes before decompressing them in body()
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        return urlConnection;
+    }
+
+    /**
+     * Return the decoded body of a successful response as a stream, decompressing it on the
+     * fly if the server gzipped it. Pass the result to {@link #release} when done.
+     */
+    public Body body(HttpURLConnection urlConnection) throws IOException {
+        CountingInputStream wire = new CountingInputStream(urlConnection.getInputStream());
+        InputStream decoded = wire;
+        if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+            decoded = new GZIPInputStream(wire);
+        }
+        return new Body(wire, new CountingInputStream(new BufferedInputStream(decoded)));
+    }
+
+    /**
+     * Return the start of the body of an error response, which says why the server refused
+     * the request, or null if there is none. The rest is left for {@link #release} to drain.
+     */
+    public String error(HttpURLConnection urlConnection) {
+        InputStream wire = urlConnection.getErrorStream();
+        if (wire == null) {
+            return null;
+        }
+        // Only the start is read off the connection, and decompressed from a copy, so the
+        // stream release() drains is still the one on the wire
+        byte[] buffer = new byte[MAX_ERROR_BYTES];
+        int length = 0;
+        int read;
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        try {
+            while (length < buffer.length
+                    && (read = wire.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            InputStream decoded = new ByteArrayInputStream(buffer, 0, length);
+            if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                decoded = new GZIPInputStream(decoded);
+            }
+            byte[] chunk = new byte[512];
+            try {
+                while (message.size() < MAX_ERROR_BYTES && (read = decoded.read(chunk)) != -1) {
+                    message.write(chunk, 0, read);
+                }
+            } catch (EOFException e) {
+                // The gzipped body went on past what we read, keep what was decompressed
+            } finally {
+                decoded.close();
+            }
+            return message.toString("UTF-8");
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem reading the error response", e);
+            return null;
+        }
+    }
+
+    /**
+     * Finish with a response. If there is little or nothing left to read, the rest is drained
+     * so the connection can be reused, otherwise the connection is closed.
+     *
+     * @param body the body returned by {@link #body}, or null if the body was never read
+     */
+    public void release(HttpURLConnection urlConnection, Body body) {
+        boolean reusable = false;
+        try {
+            InputStream remaining = body != null ? body.mWire : urlConnection.getErrorStream();
+            if (remaining != null) {
+                reusable = drain(remaining);
+            } else {
+                reusable = true;
+            }
+            // Closing the decoded stream closes the wire stream under it, and also frees the
+            // native Inflater of a gzipped body rather than leaving it to the finalizer
+            InputStream last = body != null ? body.mDecoded : remaining;
+            if (last != null) {
+                last.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem draining the response", e);
+        }
+        if (!reusable) {
+            urlConnection.disconnect();
+        }
+        count(body, reusable ? "reused" : "closed");
+    }
+
+    /**
+     * Finish with a response that was stopped part way, i.e. cancelled or past its deadline.
+     * The rest of the body isn't wanted, so the connection is closed without reading any more.
+     *
+     * @param body the body returned by {@link #body}, or null if the body was never read
+     */
+    public void abort(HttpURLConnection urlConnection, Body body) {
+        urlConnection.disconnect();
+        if (body != null) {
+            try {
+                // Frees the Inflater of a gzipped body, the connection is already closed
+                body.mDecoded.close();
+            } catch (IOException e) {
+                // Nothing more to read from it anyway
+            }
+        }
+        count(body, "aborted");
+    }
+
+    /** Add the bytes of a finished response to the totals */
+    private void count(Body body, String connection) {
+        if (body == null) {
+            return;
+        }
+        long wire = body.getWireBytes();
+        long decoded = body.getDecodedBytes();
+        mWireBytes.addAndGet(wire);
+        mDecodedBytes.addAndGet(decoded);
+        mResponses.incrementAndGet();
+        Log.i(LOG_TAG, "Response used " + wire + " bytes on the wire, " + decoded
+                + " bytes decoded, connection " + connection);
+    }
+
+    /** Total bytes received over the network by this client */
+    public long getWireBytes() {
+        return mWireBytes.get();
+    }
+
+    /** Total bytes handed to the parser after decompression */
+    public long getDecodedBytes() {
+        return mDecodedBytes.get();
+    }
+
+    /** Number of response bodies read by this client */
+    public long getResponseCount() {
+        return mResponses.get();
+    }
+
+    /** Read up to MAX_DRAIN_BYTES, returning true if the stream ended within that */
+    private static boolean drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        long drained = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            drained += read;
+            if (drained > MAX_DRAIN_BYTES) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The body of a response, counting the bytes read on both sides of the decompression.
+     */
+    public static final class Body {
+
+        private final CountingInputStream mWire;
+        private final CountingInputStream mDecoded;
+
+        private Body(CountingInputStream wire, CountingInputStream decoded) {
+            mWire = wire;
+            mDecoded = decoded;
+        }
+
+        /** The decoded stream to parse */
+        public InputStream getInputStream() {
+            return mDecoded;
+        }
+
+        /** Bytes read from the network so far */
+        public long getWireBytes() {
+            return mWire.getCount();
+        }
+
+        /** Bytes read from the decoded stream so far */
+        public long getDecodedBytes() {
+            return mDecoded.getCount();
+        }
+
+        /** Nanoseconds spent waiting for bytes from the network so far */
+        public long getWireNanos() {
+            return mWire.getNanos();
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, and the time spent in the reads. The reads are done a
+     * buffer at a time by the stream on top, so timing them costs next to nothing.
+     */
+    static final class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+        private long mNanos;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getNanos() {
+            return mNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mNanos += System.nanoTime() - start;
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, length);
+            mNanos += System.nanoTime() - start;
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
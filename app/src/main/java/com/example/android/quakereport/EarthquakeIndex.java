@@ -0,0 +1,267 @@
+package com.example.android.quakereport;
+
+/**
+ * An in-memory index over earthquakes we have already downloaded, sorted both by magnitude and
+ * by time, which can answer stricter queries without going back to the network.
+ *
+ * The index remembers which query its earthquakes were loaded for: every earthquake with at
+ * least {@link #getMinMagnitude()} between {@link #getFromTime()} and {@link #getToTime()}
+ * (a from time of Long.MIN_VALUE means every earthquake of the query was loaded).
+ * Any query asking for a higher minimum magnitude or a narrower time window is a subset of
+ * that, so {@link #query} can answer it with two binary searches and a scan of the smaller
+ * of the two ranges they find.
+ *
+ * An index is only built for a query without a region, so an {@link EarthquakeQuery} with
+ * one (i.e. a saved search) is answered with the help of an {@link EarthquakeGrid} over the
+ * coordinates, which is only built the first time a region is asked for. If the cells the
+ * region touches hold fewer earthquakes than both ranges, those are checked for magnitude
+ * and time. Otherwise the smaller range is, and then the region. The grid also answers
+ * boxes and radius queries on their own, i.e. "within 300 km of me", see {@link #queryNear}.
+ *
+ * An index is immutable once built, so it can be shared between threads.
+ */
+public class EarthquakeIndex {
+
+    /** The latest index built by a loader, shared with the loaders that come after it */
+    private static volatile EarthquakeIndex sLatest;
+
+    /** Our own copy of the earthquakes, so the loader can keep adding to its store */
+    private final EarthquakeStore mStore;
+
+    /** Every position in mStore, sorted by ascending magnitude */
+    private final int[] mByMagnitude;
+
+    /** Every position in mStore, sorted by ascending time */
+    private final int[] mByTime;
+
+    /** The range of earthquakes the index holds all of */
+    private final double mMinMagnitude;
+    private final long mFromTime;
+    private final long mToTime;
+
+    /** When the earthquakes were downloaded, after a while newer earthquakes may exist */
+    private final long mLoadedAt;
+
+    /** The spatial index over mStore, null until the first region query */
+    private EarthquakeGrid mGrid;
+
+    /**
+     * Build an index over a copy of the store.
+     *
+     * @param store the earthquakes to index
+     * @param minMagnitude the minimum magnitude the earthquakes were queried with
+     * @param fromTime the store holds every matching earthquake from this time on, or
+     *                 Long.MIN_VALUE if it holds all of them...
+     * @param toTime ...up to this time
+     * @param loadedAt when the earthquakes were downloaded
+     */
+    public EarthquakeIndex(EarthquakeStore store, double minMagnitude, long fromTime, long toTime,
+                           long loadedAt) {
+        mStore = new EarthquakeStore(store.size());
+        mStore.addAll(store);
+        mByMagnitude = mStore.selectAll();
+        mStore.sortByMagnitude(mByMagnitude, mByMagnitude.length, false);
+        mByTime = mStore.selectAll();
+        mStore.sortByTime(mByTime, mByTime.length, false);
+        mMinMagnitude = minMagnitude;
+        mFromTime = fromTime;
+        mToTime = toTime;
+        mLoadedAt = loadedAt;
+    }
+
+    /** Make the index available to loaders created later, i.e. after a preference change */
+    public static void publish(EarthquakeIndex index) {
+        sLatest = index;
+    }
+
+    /** The latest published index, or null if there is none */
+    public static EarthquakeIndex getLatest() {
+        return sLatest;
+    }
+
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    public long getFromTime() {
+        return mFromTime;
+    }
+
+    public long getToTime() {
+        return mToTime;
+    }
+
+    public long getLoadedAt() {
+        return mLoadedAt;
+    }
+
+    /** The earthquakes in the index */
+    public EarthquakeStore getStore() {
+        return mStore;
+    }
+
+    /**
+     * True if the index holds the newest earthquakes the query asks for, so they can be shown
+     * without a request. Older earthquakes than {@link #getFromTime()} may still have to be
+     * fetched, see {@link #coversAll}.
+     *
+     * @param now the current time, a query without an end time wants earthquakes up to now
+     * @param maxAge how long after loading we assume no newer earthquakes have happened
+     */
+    public boolean coversNewest(EarthquakeQuery query, long now, long maxAge) {
+        if (query.getMinMagnitude() < mMinMagnitude) {
+            return false;
+        }
+        if (query.getEndTime() == EarthquakeQuery.UNBOUNDED) {
+            return now - mLoadedAt < maxAge;
+        }
+        return query.getEndTime() <= mToTime;
+    }
+
+    /**
+     * True if the index holds every earthquake the query asks for, so it never needs the network.
+     */
+    public boolean coversAll(EarthquakeQuery query, long now, long maxAge) {
+        return coversNewest(query, now, maxAge)
+                && (mFromTime == Long.MIN_VALUE
+                || (query.getStartTime() != EarthquakeQuery.UNBOUNDED
+                && query.getStartTime() >= mFromTime));
+    }
+
+    /**
+     * Write the positions of the indexed earthquakes matching the query into out, newest first.
+     *
+     * @param out must have room for {@link EarthquakeStore#size()} positions
+     * @return the number of positions written
+     */
+    public int query(EarthquakeQuery query, int[] out) {
+        double minMagnitude = query.getMinMagnitude();
+        long fromTime = query.getStartTime() == EarthquakeQuery.UNBOUNDED
+                ? Long.MIN_VALUE : query.getStartTime();
+        long toTime = query.getEndTime() == EarthquakeQuery.UNBOUNDED
+                ? Long.MAX_VALUE : query.getEndTime();
+        if (!query.hasRegion()) {
+            return query(minMagnitude, fromTime, toTime, out);
+        }
+
+        // The grid and the query both wrap a box round the 180th meridian, a box that goes
+        // all the way round is every longitude
+        double south = query.getSouth();
+        double north = query.getNorth();
+        boolean everyLongitude = query.getLongitudeSpan() >= 360;
+        double west = everyLongitude ? -180 : query.getWest();
+        double east = everyLongitude ? 180 : query.getEast();
+        EarthquakeGrid grid = getGrid();
+        if (grid.countCandidates(south, west, north, east)
+                <= countCandidates(minMagnitude, fromTime, toTime)) {
+            int found = grid.queryBox(south, west, north, east, out);
+            int kept = 0;
+            for (int i = 0; i < found; i++) {
+                int position = out[i];
+                long time = mStore.getTimeInMilliseconds(position);
+                if (mStore.getMagnitude(position) >= minMagnitude
+                        && time >= fromTime && time <= toTime) {
+                    out[kept++] = position;
+                }
+            }
+            mStore.sortByTime(out, kept, true);
+            return kept;
+        }
+
+        int found = query(minMagnitude, fromTime, toTime, out);
+        int kept = 0;
+        for (int i = 0; i < found; i++) {
+            int position = out[i];
+            if (query.isInRegion(mStore.getLatitude(position), mStore.getLongitude(position))) {
+                out[kept++] = position;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Write the positions of every indexed earthquake with at least the given magnitude between
+     * the given times (inclusive) into out, newest first.
+     *
+     * @param out must have room for {@link EarthquakeStore#size()} positions
+     * @return the number of positions written
+     */
+    public int query(double minMagnitude, long fromTime, long toTime, int[] out) {
+        int count = mByTime.length;
+
+        // Binary search both sorted orders to find the candidates each one gives us
+        int timeStart = mStore.lowerBoundByTime(mByTime, count, fromTime);
+        int timeEnd = toTime == Long.MAX_VALUE
+                ? count : mStore.lowerBoundByTime(mByTime, count, toTime + 1);
+        int magnitudeStart = mStore.lowerBoundByMagnitude(mByMagnitude, count, minMagnitude);
+
+        int found = 0;
+        if (timeEnd - timeStart <= count - magnitudeStart) {
+            // Fewer earthquakes in the time window, walk it newest first checking magnitudes
+            for (int i = timeEnd - 1; i >= timeStart; i--) {
+                int position = mByTime[i];
+                if (mStore.getMagnitude(position) >= minMagnitude) {
+                    out[found++] = position;
+                }
+            }
+        } else {
+            // Fewer earthquakes above the magnitude, check their times then sort them
+            for (int i = magnitudeStart; i < count; i++) {
+                int position = mByMagnitude[i];
+                long time = mStore.getTimeInMilliseconds(position);
+                if (time >= fromTime && time <= toTime) {
+                    out[found++] = position;
+                }
+            }
+            mStore.sortByTime(out, found, true);
+        }
+        return found;
+    }
+
+    /**
+     * Write the positions of the indexed earthquakes inside the box into out, newest first.
+     * If west is greater than east the box crosses the 180th meridian.
+     *
+     * @param out must have room for {@link EarthquakeStore#size()} positions
+     * @return the number of positions written
+     */
+    public int queryBox(double south, double west, double north, double east, int[] out) {
+        int found = getGrid().queryBox(south, west, north, east, out);
+        mStore.sortByTime(out, found, true);
+        return found;
+    }
+
+    /**
+     * Write the positions of the indexed earthquakes within the given distance of a point
+     * into out, newest first, i.e. "within 300 km of me".
+     *
+     * @param out must have room for {@link EarthquakeStore#size()} positions
+     * @return the number of positions written
+     */
+    public int queryNear(double latitude, double longitude, double radiusKm, int[] out) {
+        int found = getGrid().queryRadius(latitude, longitude, radiusKm, out);
+        mStore.sortByTime(out, found, true);
+        return found;
+    }
+
+    /**
+     * How many earthquakes {@link #query(double, long, long, int[])} checks: those in the
+     * time window or those above the magnitude, whichever is fewer.
+     */
+    private int countCandidates(double minMagnitude, long fromTime, long toTime) {
+        int count = mByTime.length;
+        int timeStart = mStore.lowerBoundByTime(mByTime, count, fromTime);
+        int timeEnd = toTime == Long.MAX_VALUE
+                ? count : mStore.lowerBoundByTime(mByTime, count, toTime + 1);
+        int magnitudeStart = mStore.lowerBoundByMagnitude(mByMagnitude, count, minMagnitude);
+        return Math.min(timeEnd - timeStart, count - magnitudeStart);
+    }
+
+    /** The spatial index, built the first time it is needed */
+    private synchronized EarthquakeGrid getGrid() {
+        if (mGrid == null) {
+            mGrid = new EarthquakeGrid(mStore);
+        }
+        return mGrid;
+    }
+}
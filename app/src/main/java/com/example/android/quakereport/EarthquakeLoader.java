@@ -2,39 +2,209 @@ package com.example.android.quakereport;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
 /**
  * Loads a list of earthquakes by using an AsyncTash to perform the
  * network request to the given URL
+ *
+ * The earthquakes are requested one page at a time using the offset and limit parameters of
+ * the USGS API. Every result delivered contains all of the pages loaded so far, and as soon
+ * as a page has been delivered the following page is fetched in the background, so that
+ * {@link #loadNextPage()} can usually hand it over without waiting on the network.
+ *
+ * Pages are fetched through the {@link EarthquakeRequests} shared by every loader, so a
+ * loader started for the same query (i.e. after a rotation) joins the requests already in
+ * flight and reuses the pages fetched within the TTL. Behind that is the {@link EarthquakeCache}
+ * on disk. On a cold start a stale cached first page is delivered straight away and then
+ * revalidated with the server. Once per load cycle, after the first page, a sync or a window
+ * of history, the earthquakes loaded are written to the {@link EarthquakeSnapshot} that the
+ * activity shows on its next cold start. The pages after the first come from the network
+ * again then, so they aren't written.
+ *
+ * The earthquakes loaded so far are kept by {@link EarthquakePages}, and the next page is
+ * fetched ahead of time by an {@link EarthquakePrefetcher}.
+ *
+ * The rows delivered are an {@link EarthquakeRowList} over the datasets an
+ * {@link EarthquakeRowCopier} writes on the background thread after every load, so only the
+ * rows on screen are ever formatted and held on the heap, however many earthquakes have been
+ * loaded. A page that only adds earthquakes after the others gets a dataset of its own.
+ *
+ * A query with a start time is a window of history, which is fetched in one go by an
+ * {@link EarthquakeSliceFetcher} rather than a page at a time.
+ *
+ * If the snapshot holds this query and it has been loaded before, the snapshot is delivered
+ * first and then brought up to date by an {@link EarthquakeSync}, which only downloads the
+ * earthquakes that changed since the last load. If the {@link EarthquakeSyncService} synced
+ * it less than an interval ago, the snapshot is all that is loaded.
+ *
+ * Before going to the network the loader checks the latest {@link EarthquakeIndex}. If the
+ * earthquakes another loader downloaded already include the newest ones this query asks for
+ * (i.e. the user only raised the minimum magnitude), they are answered from the index and
+ * only older pages are requested, starting at the offset after them.
+ *
+ * Along with every list of rows the loader summarizes the counts per magnitude band, hour and
+ * day that the {@link EarthquakeMerger} keeps as it merges, for the header above the list.
+ *
+ * Every load runs under a {@link Cancellation} with an overall deadline. Cancelling the load
+ * (i.e. the user left the screen) stops the download and the parse wherever they are and
+ * nothing is delivered. If the deadline passes first, the earthquakes of the page parsed so
+ * far are delivered and the rest of the page is fetched with the next one. A window of history
+ * is only any use whole, so its slices get a longer deadline of their own from the
+ * {@link EarthquakeSliceFetcher} rather than being cut off with the page's.
+ *
+ * While a page streams in from the network, the earthquakes parsed so far are formatted and
+ * handed to the {@link OnBatchListener} in batches by an {@link EarthquakeBatchPublisher},
+ * before the whole page has arrived. The list delivered at the end of the load is still the
+ * complete one.
  */
-public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
+public class EarthquakeLoader extends AsyncTaskLoader<List<EarthquakeRow>> {
+
+    /** Told about the rows of a page as it is parsed, before the load finishes */
+    public interface OnBatchListener {
+
+        /**
+         * Called on the main thread with the next rows parsed.
+         *
+         * @param position where the rows go in the list the load will deliver, after the
+         *                 rows that were delivered before and the batches before this one
+         */
+        void onBatch(List<EarthquakeRow> rows, int position);
+    }
 
     /** Tag for log messages */
     private static final String LOG_TAG = EarthquakeLoader.class.getName();
 
-    /** Query URL*/
-    private String mUrl;
+    /** How long one load may take altogether, on top of the timeouts of each socket read */
+    private static final long LOAD_DEADLINE_MILLIS = 30000;
+
+    /** Name of the file in the app's files directory that holds the snapshot */
+    private static final String SNAPSHOT_FILE_NAME = "earthquakes.snapshot";
+
+    /** Name of the file in the app's cache directory that holds the rows delivered last */
+    private static final String DATASET_FILE_NAME = "earthquakes.dataset";
+
+    /** The query to load */
+    private final EarthquakeQuery mQuery;
+
+    /** Number of earthquakes requested per page */
+    private final int mPageSize;
+
+    /** All of the earthquakes loaded so far, only touched on the loader's background thread */
+    private final EarthquakePages mPages;
+
+    /** Copies the earthquakes loaded to the datasets the rows delivered are read from */
+    private final EarthquakeRowCopier mRows;
+
+    /** The colour of each magnitude band, for the formatter of each batch of rows */
+    private final int[] mMagnitudeColours;
+
+    /** The last list delivered to the activity, kept so it can be redelivered after a rotation */
+    private volatile List<EarthquakeRow> mDelivered;
+
+    /** True while a load is running, so that scrolling doesn't queue the same page twice */
+    private volatile boolean mLoading;
+
+    /** Fetches the next page while the user is looking at this one */
+    private final EarthquakePrefetcher mPrefetcher;
+
+    /** Stops the load running in the background, null when there is none */
+    private volatile Cancellation mCancellation;
+
+    /** Told about each batch of rows as a page streams in, only touched on the main thread */
+    private OnBatchListener mBatchListener;
+
+    /** Hands the batches over to the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Passes the batches on to mBatchListener while the loader is started */
+    private final OnBatchListener mBatchDispatcher = new OnBatchListener() {
+        @Override
+        public void onBatch(List<EarthquakeRow> rows, int position) {
+            OnBatchListener listener = mBatchListener;
+            if (listener != null && isStarted()) {
+                listener.onBatch(rows, position);
+            }
+        }
+    };
+
+    /** The on-disk cache pages are served from */
+    private final EarthquakeCache mCache;
+
+    /** Fetches pages, sharing in-flight requests and recent responses with other loaders */
+    private final EarthquakeRequests mRequests;
+
+    /** True if the result being delivered came from a stale cache entry that must be refreshed */
+    private volatile boolean mRevalidate;
+
+    /** Remembers how up to date the earthquakes of the query are */
+    private final EarthquakeSync mSync;
+
+    /** True if the earthquakes came from the snapshot, and the next load syncs them */
+    private volatile boolean mSyncPending;
 
     /**
      * Constructs a new {@link EarthquakeLoader}
      *
      * @param context of the activity
-     * @param url url of the USGS API
+     * @param query the USGS query to load
+     * @param pageSize number of earthquakes to request per page
      */
-    public EarthquakeLoader(Context context, String url) {
+    public EarthquakeLoader(Context context, EarthquakeQuery query, int pageSize) {
         super(context);
-        mUrl = url;
+        mQuery = query;
+        mPageSize = pageSize;
+        mCache = EarthquakeCache.getInstance(context);
+        mRequests = EarthquakeRequests.getInstance(context);
+        mSync = new EarthquakeSync(context, query);
+        mPages = new EarthquakePages(query, pageSize);
+        mPrefetcher = new EarthquakePrefetcher(mRequests, LOAD_DEADLINE_MILLIS);
+        mMagnitudeColours = EarthquakeAdapter.getMagnitudeColours(context);
+        mRows = new EarthquakeRowCopier(datasetFile(context), mMagnitudeColours);
     }
 
     /** This onStartLoading method and forceLoad is required */
     @Override
     protected void onStartLoading() {
-        Log.i(LOG_TAG, "TEST: EarthquakeLoader, onStartLoading() called");
+        // If we already have pages (i.e. after a rotation), hand them straight back
+        if (mDelivered != null) {
+            deliverResult(mDelivered);
+        }
+        if (mDelivered == null || takeContentChanged()) {
+            mLoading = true;
+            forceLoad();
+        }
+    }
 
-        forceLoad();
+    /**
+     * Set who is told about the rows of each page as it streams in, or null for no one. Only
+     * call this on the main thread.
+     */
+    public void setOnBatchListener(OnBatchListener listener) {
+        mBatchListener = listener;
+    }
+
+    /**
+     * Ask for the next page to be appended to the results. Does nothing if a page is already
+     * being loaded or the last page has been reached.
+     *
+     * @return true if a load was started
+     */
+    public boolean loadNextPage() {
+        if (mLoading || !mPages.hasMorePages() || mDelivered == null) {
+            return false;
+        }
+        mLoading = true;
+        onContentChanged();
+        return true;
     }
 
     /**
@@ -42,14 +212,342 @@ public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
      * @return
      */
     @Override
-    public List<Earthquake> loadInBackground() {
-        Log.i(LOG_TAG, "TEST: EarthquakeLoader, loadInBackground() called");
-        if (mUrl == null) {
+    public List<EarthquakeRow> loadInBackground() {
+        Metrics.LOADS.increment();
+        if (mQuery == null) {
             return null;
         } // else
 
-        // Perform the network request, parse the response, and extract a list of earthquakes.
-        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(mUrl);
-        return earthquakes;
+        Cancellation cancellation = Cancellation.withTimeout(LOAD_DEADLINE_MILLIS, true);
+        mCancellation = cancellation;
+        try {
+            return load(cancellation);
+        } finally {
+            mCancellation = null;
+        }
+    }
+
+    /**
+     * Stop the load running in the background as soon as it next checks, and wake it up if it
+     * is waiting on the network. Only called from API 16, onReset() covers older versions.
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        cancel(mCancellation);
+    }
+
+    /** The body of {@link #loadInBackground()}, which stops when the cancellation says so */
+    private List<EarthquakeRow> load(Cancellation cancellation) {
+        // Cancelled between starting the load and handing out the cancellation
+        if (isCanceled(cancellation)) {
+            return null;
+        }
+
+        if (mPages.size() == 0 && mDelivered == null) {
+            // The earthquakes we already downloaded may answer this query without the network
+            EarthquakeIndex index = mPages.fillFromIndex();
+            if (index != null && mPages.hasMorePages()
+                    && mQuery.getStartTime() != EarthquakeQuery.UNBOUNDED) {
+                // A window of history is only any use whole, so fetch the part older than the
+                // index now rather than waiting for the user to scroll down to it
+                return loadOlderHistory(index.getFromTime(), cancellation);
+            }
+            if (index != null && (!mPages.hasMorePages() || mPages.size() >= mPageSize)) {
+                return copyRows();
+            }
+
+            // Cold start with a snapshot of this query that was synced before: show it straight
+            // away, then the next load only downloads the earthquakes that changed since
+            if (mPages.size() == 0 && loadFromSnapshot()) {
+                // The background sync brought it up to date recently, nothing to download
+                if (EarthquakeSyncService.isSnapshotFresh(getContext(), mQuery)) {
+                    Log.i(LOG_TAG, "Showing the snapshot synced in the background");
+                    mPages.setLoadedAt(EarthquakeSyncService.getLastSuccess(getContext()));
+                    mPages.publishIndex();
+                    return copyRows();
+                }
+                mSyncPending = true;
+                mRevalidate = true;
+                return copyRows();
+            }
+
+            // Cold start: show the cached first page straight away, even if it is stale.
+            // deliverResult() then starts another load that revalidates it with the server.
+            // If another loader fetched it moments ago it is up to date in memory already.
+            String firstPageUrl = pageUrl(mPages.getNextOffset());
+            if (mPages.size() == 0 && !mRequests.isCached(firstPageUrl)) {
+                EarthquakeCache.Entry cached = mCache.get(firstPageUrl);
+                if (cached != null && !mCache.isFresh(cached)) {
+                    mRevalidate = true;
+                    return mRows.copyCached(cached.earthquakes);
+                }
+            }
+        }
+
+        if (mSyncPending) {
+            mSyncPending = false;
+            List<EarthquakeRow> synced = syncChanges(cancellation);
+            if (isCanceled(cancellation)) {
+                // Nothing was merged, the next load syncs instead
+                mSyncPending = true;
+                return null;
+            }
+            if (synced != null) {
+                return synced;
+            }
+        }
+
+        // A window of history is fetched in one go, as time slices downloaded side by side
+        if (mQuery.getStartTime() != EarthquakeQuery.UNBOUNDED) {
+            return loadHistory(cancellation);
+        }
+
+        // Use the page we fetched ahead of time if there is one, otherwise fetch it now
+        int offset = mPages.getNextOffset();
+        EarthquakeCache.Entry entry = mPrefetcher.take(offset, cancellation);
+        if (entry == null && !isCanceled(cancellation)) {
+            entry = mRequests.fetchEntry(pageUrl(offset), cancellation,
+                    new EarthquakeBatchPublisher(mPages.size(), mPages.getKnownIds(),
+                            new EarthquakeRowFormatter(mMagnitudeColours), cancellation,
+                            mMainHandler, mBatchDispatcher));
+        }
+
+        // No one is waiting for the result, so leave everything as it is
+        if (isCanceled(cancellation)) {
+            return null;
+        }
+
+        // The request failed, let the activity show what we have (or nothing on the first page)
+        if (entry == null) {
+            return mPages.size() == 0 ? null : copyRows();
+        }
+        List<Earthquake> page = entry.earthquakes;
+
+        if (mPages.getLoadedAt() == 0) {
+            mPages.setLoadedAt(System.currentTimeMillis());
+        }
+        // Only the first page sets the watermark and goes in the snapshot: later pages are
+        // downloaded after it, so an earthquake on the first page may have been revised
+        // before their newest update. Until it is whole the first page is still coming in.
+        boolean firstPage = mPages.size() < mPageSize;
+        if (mPages.size() == 0) {
+            mSync.recordSynced(page);
+        }
+        // A page cut short by the deadline or by a broken response (stored at time 0) isn't
+        // the last one, the rest of it comes next time
+        mPages.addPage(page, entry.storedAt == 0);
+        if (firstPage) {
+            writeSnapshot();
+        }
+        mPages.publishIndex();
+
+        // Start fetching the following page while the user is looking at this one
+        if (mPages.hasMorePages()) {
+            mPrefetcher.prefetch(pageUrl(mPages.getNextOffset()), mPages.getNextOffset());
+        }
+
+        return copyRows();
+    }
+
+    /**
+     * The counts per magnitude band, hour and day of the earthquakes in the rows delivered
+     * last, or null before the first rows are delivered.
+     */
+    public EarthquakeAggregates.Summary getSummary() {
+        return mRows.getSummary();
+    }
+
+    @Override
+    public void deliverResult(List<EarthquakeRow> rows) {
+        mLoading = false;
+        mDelivered = rows;
+        super.deliverResult(rows);
+
+        // We just showed a stale cached page, now fetch the up to date one
+        if (mRevalidate) {
+            mRevalidate = false;
+            mLoading = true;
+            onContentChanged();
+        }
+    }
+
+    @Override
+    public void onCanceled(List<EarthquakeRow> rows) {
+        mLoading = false;
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+        cancel(mCancellation);
+        cancel(mPrefetcher.stop());
+        mDelivered = null;
+    }
+
+    /** The file the snapshot of the last loaded earthquakes is kept in */
+    public static File snapshotFile(Context context) {
+        return new File(context.getFilesDir(), SNAPSHOT_FILE_NAME);
+    }
+
+    /** The file the rows delivered last are read from, it is only needed while they are shown */
+    private static File datasetFile(Context context) {
+        return new File(context.getCacheDir(), DATASET_FILE_NAME);
+    }
+
+    /**
+     * Fetch every earthquake in the time window of the query with an
+     * {@link EarthquakeSliceFetcher}, replacing anything answered from the index.
+     */
+    private List<EarthquakeRow> loadHistory(Cancellation cancellation) {
+        long loadedAt = System.currentTimeMillis();
+        List<Earthquake> earthquakes = new EarthquakeSliceFetcher().fetch(mQuery, cancellation);
+        if (isCanceled(cancellation)) {
+            return null;
+        }
+        if (earthquakes == null) {
+            return mPages.size() == 0 ? null : copyRows();
+        }
+
+        mPages.replace(earthquakes);
+        mPages.setLoadedAt(loadedAt);
+        mSync.recordSynced(earthquakes);
+        writeSnapshot();
+        mPages.publishIndex();
+        return copyRows();
+    }
+
+    /**
+     * Fill the pages from the snapshot, if it holds this query and the query has a watermark
+     * to sync from.
+     *
+     * @return true if the earthquakes of the snapshot were loaded
+     */
+    private boolean loadFromSnapshot() {
+        if (mSync.getWatermark() == 0) {
+            return false;
+        }
+        EarthquakeStore snapshot;
+        try {
+            snapshot = mSync.readSnapshot(snapshotFile(getContext()));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake snapshot", e);
+            return false;
+        }
+        if (snapshot == null || snapshot.size() == 0) {
+            return false;
+        }
+        mPages.fillFromSnapshot(snapshot);
+        return true;
+    }
+
+    /**
+     * Download the earthquakes that changed since the watermark and merge them into the pages.
+     *
+     * @return the merged rows, or the rows we have if the request failed. Null if there were
+     *         too many changes to sync, then the pages have been cleared to load from scratch.
+     */
+    private List<EarthquakeRow> syncChanges(Cancellation cancellation) {
+        List<Earthquake> changes = mSync.fetchChanges(cancellation);
+        if (isCanceled(cancellation)) {
+            return null;
+        }
+        if (changes == null) {
+            return copyRows();
+        }
+        if (EarthquakeSync.isTooManyChanges(changes)) {
+            Log.i(LOG_TAG, "Too many changes to sync, loading everything again");
+            mPages.clear();
+            return null;
+        }
+
+        EarthquakeMerger.Result result = mPages.mergeChanges(changes);
+        Log.i(LOG_TAG, "Synced: " + result);
+        mPages.setLoadedAt(System.currentTimeMillis());
+        mSync.recordSynced(changes);
+        writeSnapshot();
+        mPages.publishIndex();
+
+        if (mPages.hasMorePages()) {
+            mPrefetcher.prefetch(pageUrl(mPages.getNextOffset()), mPages.getNextOffset());
+        }
+        return copyRows();
+    }
+
+    /**
+     * Fetch the part of the time window of the query older than the given time with an
+     * {@link EarthquakeSliceFetcher}, after the newer part was answered from the index, and
+     * merge it into the pages. If the fetch fails the earthquakes from the index are shown,
+     * and the next load fetches the whole window with {@link #loadHistory}.
+     *
+     * The watermark and the snapshot are left as they are, as the newer earthquakes weren't
+     * downloaded by this query and may be older versions than the watermark would say.
+     *
+     * @param before the from time of the index, it holds every earthquake from then on
+     */
+    private List<EarthquakeRow> loadOlderHistory(long before, Cancellation cancellation) {
+        EarthquakeQuery older = new EarthquakeQuery(mQuery.getMinMagnitude(),
+                mQuery.getStartTime(), before - 1, mQuery.getSouth(), mQuery.getWest(),
+                mQuery.getNorth(), mQuery.getEast());
+        List<Earthquake> earthquakes = new EarthquakeSliceFetcher().fetch(older, cancellation);
+        if (isCanceled(cancellation)) {
+            return null;
+        }
+        if (earthquakes == null) {
+            return copyRows();
+        }
+
+        mPages.mergeOlder(earthquakes);
+        Log.i(LOG_TAG, "Fetched the " + earthquakes.size()
+                + " earthquakes older than the local index");
+        mPages.publishIndex();
+        return copyRows();
+    }
+
+    /** The rows of the earthquakes loaded so far, see {@link EarthquakeRowCopier#copy} */
+    private List<EarthquakeRow> copyRows() {
+        return mRows.copy(mPages.getStore(), mPages.takeUnchanged(), mPages.getAggregates());
+    }
+
+    /** Save what we have loaded so far, so it can be shown instantly next time */
+    private void writeSnapshot() {
+        try {
+            mSync.writeSnapshot(snapshotFile(getContext()), mPages.getStore());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquake snapshot", e);
+        }
+    }
+
+    /** Build the URL for the page starting at the given offset, the USGS offset starts at 1 */
+    private String pageUrl(int offset) {
+        return mQuery.toUrl(offset, mPageSize);
+    }
+
+    /**
+     * True if the load has been cancelled. From API 16 the loader also knows when it cancelled
+     * the load before our cancellation was handed out, so it is asked too.
+     */
+    private boolean isCanceled(Cancellation cancellation) {
+        if (!cancellation.isCanceled() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                && isLoadInBackgroundCanceled()) {
+            cancellation.cancel();
+        }
+        return cancellation.isCanceled();
+    }
+
+    /**
+     * Cancel off the main thread, since cancelling disconnects the connections of the load
+     * and closing a socket may need the network.
+     */
+    private static void cancel(final Cancellation cancellation) {
+        if (cancellation == null) {
+            return;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                cancellation.cancel();
+            }
+        });
     }
 }
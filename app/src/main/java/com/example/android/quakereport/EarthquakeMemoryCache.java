@@ -0,0 +1,146 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the most recently used responses in memory, in front of the {@link EarthquakeCache}
+ * on disk, so asking for the same URL again within the TTL doesn't even read a file.
+ *
+ * The cache is bounded by an estimate of the bytes its earthquakes take on the heap rather
+ * than by a number of entries, because a page of 20 earthquakes and a window of history with
+ * thousands of them are very different sizes. When it goes over, the least recently used
+ * entries are dropped first. An entry is only returned while it is fresh, which is measured
+ * from when the response was downloaded or revalidated, the same as on disk.
+ *
+ * A memory cache is thread safe.
+ */
+public class EarthquakeMemoryCache {
+
+    /** Rough heap size of an Earthquake and the object headers around it, without its strings */
+    private static final int EARTHQUAKE_OVERHEAD_BYTES = 104;
+
+    /** Rough heap size of a String object and its char array, without the chars */
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    /** Rough heap size of a map entry with its key and cache entry, without the earthquakes */
+    private static final int ENTRY_OVERHEAD_BYTES = 200;
+
+    private final Clock mClock;
+    private final long mTtlMillis;
+    private final long mMaxBytes;
+
+    /** The entries in access order, so the first one is the least recently used */
+    private final LinkedHashMap<String, EarthquakeCache.Entry> mEntries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The estimated size of every entry, by URL */
+    private final Map<String, Long> mSizes = new HashMap<>();
+
+    /** The sum of mSizes */
+    private long mBytes;
+
+    /**
+     * Constructs a new {@link EarthquakeMemoryCache}
+     *
+     * @param clock tells the time entries are checked for freshness against
+     * @param ttlMillis how long after being downloaded or revalidated an entry is fresh
+     * @param maxBytes the most heap the entries are estimated to take
+     */
+    public EarthquakeMemoryCache(Clock clock, long ttlMillis, long maxBytes) {
+        mClock = clock;
+        mTtlMillis = ttlMillis;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Return the response for the URL if it is in memory and still fresh, otherwise null.
+     * A stale entry is dropped.
+     */
+    public synchronized EarthquakeCache.Entry get(String url) {
+        EarthquakeCache.Entry entry = mEntries.get(url);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.isFresh(mClock.currentTimeMillis(), mTtlMillis)) {
+            remove(url);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Keep a response in memory, replacing any older one for the URL. Entries that are
+     * already stale, or too big to ever fit, are not kept.
+     */
+    public synchronized void put(String url, EarthquakeCache.Entry entry) {
+        remove(url);
+        if (!entry.isFresh(mClock.currentTimeMillis(), mTtlMillis)) {
+            return;
+        }
+        long size = sizeOf(url, entry.earthquakes);
+        if (size > mMaxBytes) {
+            return;
+        }
+        mEntries.put(url, entry);
+        mSizes.put(url, size);
+        mBytes += size;
+        trimToSize();
+    }
+
+    /** Drop the response for the URL, if there is one */
+    public synchronized void remove(String url) {
+        if (mEntries.remove(url) != null) {
+            mBytes -= mSizes.remove(url);
+        }
+    }
+
+    /** Drop every entry */
+    public synchronized void clear() {
+        mEntries.clear();
+        mSizes.clear();
+        mBytes = 0;
+    }
+
+    /** The estimated heap size of every entry */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /** The number of entries */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /** Drop the least recently used entries until the cache fits in mMaxBytes */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, EarthquakeCache.Entry>> eldest = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && eldest.hasNext()) {
+            String url = eldest.next().getKey();
+            eldest.remove();
+            mBytes -= mSizes.remove(url);
+        }
+    }
+
+    /** Estimate how much heap the URL and its earthquakes take */
+    static long sizeOf(String url, List<Earthquake> earthquakes) {
+        long size = ENTRY_OVERHEAD_BYTES + sizeOf(url);
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            // Regions and website prefixes are shared by every earthquake, so aren't counted
+            size += EARTHQUAKE_OVERHEAD_BYTES + sizeOf(earthquake.getPlace())
+                    + sizeOf(earthquake.getId());
+            if (earthquake.getWebsitePrefix() == null) {
+                size += sizeOf(earthquake.getWebsite());
+            }
+        }
+        return size;
+    }
+
+    private static long sizeOf(String string) {
+        return string == null ? 0 : STRING_OVERHEAD_BYTES + 2L * string.length();
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Merges batches of earthquakes into an {@link EarthquakeStore} by their USGS event id.
+ *
+ * USGS revises earthquakes after they are first reported (the magnitude and location are
+ * refined, sometimes the time too) and deletes the events that turn out not to be
+ * earthquakes. Every version carries an "updated" time, so only the newest version of each
+ * event id is kept: an older or equal version is ignored, a newer one replaces the earthquake
+ * in place, and a deletion removes it and leaves a tombstone, so an older copy arriving later
+ * (i.e. on a page downloaded before the deletion) can't bring it back.
+ *
+ * A hash index from event id to position makes each lookup constant time, so a batch is
+ * merged in a single pass over it. The store is kept newest first: the earthquakes that
+ * didn't move are still in order, so only the added and re-timed ones are sorted, and the
+ * two runs are merged back together in one pass.
+ *
+ * Every earthquake that goes in or out of the store is counted in or out of the
+ * {@link EarthquakeAggregates} as it happens, so the counts for the summary header are always
+ * up to date without going through the store again.
+ *
+ * A merger is not thread safe.
+ */
+public final class EarthquakeMerger {
+
+    /** What a call to {@link #merge} did */
+    public static final class Result {
+
+        public final int added;
+        public final int revised;
+        public final int deleted;
+        public final int ignored;
+
+        /** True if earthquakes already in the store changed position */
+        public final boolean reordered;
+
+        Result(int added, int revised, int deleted, int ignored, boolean reordered) {
+            this.added = added;
+            this.revised = revised;
+            this.deleted = deleted;
+            this.ignored = ignored;
+            this.reordered = reordered;
+        }
+
+        /** True if the batch only appended earthquakes after the ones already in the store */
+        public boolean isAppendOnly() {
+            return revised == 0 && deleted == 0 && !reordered;
+        }
+
+        @Override
+        public String toString() {
+            return added + " added, " + revised + " revised, " + deleted + " deleted, "
+                    + ignored + " ignored";
+        }
+    }
+
+    /** The earthquakes, newest first */
+    private final EarthquakeStore mStore;
+
+    /** Position in mStore of every earthquake that has an event id */
+    private final Map<String, Integer> mPositions = new HashMap<>();
+
+    /** The updated time of every deletion we have seen, by event id */
+    private final Map<String, Long> mTombstones = new HashMap<>();
+
+    /** Counts of the earthquakes in mStore by magnitude band, hour and day */
+    private final EarthquakeAggregates mAggregates =
+            new EarthquakeAggregates(TimeZone.getDefault());
+
+    /**
+     * @param store the earthquakes to merge into, newest first. The merger changes the store
+     *              in place.
+     */
+    public EarthquakeMerger(EarthquakeStore store) {
+        mStore = store;
+        reindex();
+    }
+
+    /** The earthquakes merged so far, newest first */
+    public EarthquakeStore getStore() {
+        return mStore;
+    }
+
+    /** The counts of the earthquakes in the store, which change as batches are merged */
+    public EarthquakeAggregates getAggregates() {
+        return mAggregates;
+    }
+
+    /** True if an earthquake with the given event id is in the store */
+    public boolean contains(String id) {
+        return mPositions.containsKey(id);
+    }
+
+    /** Rebuild the index after the store was changed directly, i.e. filled from a snapshot */
+    public void reindex() {
+        indexPositions();
+        mAggregates.clear();
+        mAggregates.addAll(mStore);
+    }
+
+    /** Rebuild the index from event id to position */
+    private void indexPositions() {
+        mPositions.clear();
+        for (int i = 0; i < mStore.size(); i++) {
+            String id = mStore.getId(i);
+            if (!id.isEmpty()) {
+                mPositions.put(id, i);
+            }
+        }
+    }
+
+    /** Remove every earthquake and tombstone */
+    public void clear() {
+        mStore.clear();
+        mPositions.clear();
+        mTombstones.clear();
+        mAggregates.clear();
+    }
+
+    /**
+     * Merge a batch of earthquakes into the store.
+     *
+     * @param batch new, revised or deleted earthquakes, in any order
+     * @param oldestTime earthquakes not in the store yet are only added if they happened at or
+     *                   after this time, Long.MIN_VALUE to add all of them
+     */
+    public Result merge(List<Earthquake> batch, long oldestTime) {
+        int size = mStore.size();
+        int added = 0;
+        int revised = 0;
+        int deleted = 0;
+        int ignored = 0;
+
+        // Earthquakes already in the store that were deleted, or whose time changed so they
+        // may be out of order. Only allocated if the batch needs them.
+        boolean[] removed = null;
+        boolean[] moved = null;
+
+        for (int i = 0; i < batch.size(); i++) {
+            Earthquake earthquake = batch.get(i);
+            String id = earthquake.getId();
+            long updated = earthquake.getUpdatedInMilliseconds();
+
+            // Without an id the earthquake can't be matched with anything, so just keep it
+            if (id.isEmpty()) {
+                if (!earthquake.isDeleted() && earthquake.getTimeInMilliseconds() >= oldestTime) {
+                    mStore.add(earthquake);
+                    mAggregates.add(earthquake.getMagnitude(), earthquake.getTimeInMilliseconds());
+                    added++;
+                } else {
+                    ignored++;
+                }
+                continue;
+            }
+
+            Long tombstone = mTombstones.get(id);
+            if (tombstone != null && tombstone >= updated) {
+                ignored++;
+                continue;
+            }
+
+            Integer position = mPositions.get(id);
+            if (position != null && updated <= mStore.getUpdatedInMilliseconds(position)) {
+                ignored++;
+            } else if (earthquake.isDeleted()) {
+                mTombstones.put(id, updated);
+                if (position != null) {
+                    mPositions.remove(id);
+                    mAggregates.remove(mStore.getMagnitude(position),
+                            mStore.getTimeInMilliseconds(position));
+                    // If it was added earlier in this batch, restoreOrder() drops it because
+                    // it is no longer in the index
+                    if (position < size) {
+                        if (removed == null) {
+                            removed = new boolean[size];
+                        }
+                        removed[position] = true;
+                    }
+                    deleted++;
+                } else {
+                    ignored++;
+                }
+            } else if (position != null) {
+                if (position < size && mStore.getTimeInMilliseconds(position)
+                        != earthquake.getTimeInMilliseconds()) {
+                    if (moved == null) {
+                        moved = new boolean[size];
+                    }
+                    moved[position] = true;
+                }
+                mAggregates.remove(mStore.getMagnitude(position),
+                        mStore.getTimeInMilliseconds(position));
+                mStore.set(position, earthquake);
+                mAggregates.add(earthquake.getMagnitude(), earthquake.getTimeInMilliseconds());
+                revised++;
+            } else if (earthquake.getTimeInMilliseconds() >= oldestTime) {
+                // A newer version than the deletion brings the event back
+                mTombstones.remove(id);
+                mPositions.put(id, mStore.add(earthquake));
+                mAggregates.add(earthquake.getMagnitude(), earthquake.getTimeInMilliseconds());
+                added++;
+            } else {
+                ignored++;
+            }
+        }
+
+        boolean reordered = restoreOrder(size, removed, moved);
+        return new Result(added, revised, deleted, ignored, reordered);
+    }
+
+    /**
+     * Put the store back in newest first order after a merge, dropping deleted earthquakes.
+     *
+     * @param size the number of earthquakes in the store before the merge, they were in order
+     *             except for the moved ones
+     * @return true if earthquakes that were already in the store changed position
+     */
+    private boolean restoreOrder(int size, boolean[] removed, boolean[] moved) {
+        int total = mStore.size();
+
+        // Earthquakes added in this batch and then deleted are no longer in the index at
+        // their position, so they need dropping too
+        boolean addedDeleted = false;
+        for (int i = size; i < total && !addedDeleted; i++) {
+            addedDeleted = !isIndexedAt(i);
+        }
+
+        // The common case: nothing moved or was removed, and the added earthquakes are all
+        // older than the ones we had and already newest first (i.e. the next page)
+        if (removed == null && moved == null && !addedDeleted) {
+            boolean inOrder = true;
+            for (int i = Math.max(size, 1); i < total && inOrder; i++) {
+                inOrder = mStore.getTimeInMilliseconds(i) <= mStore.getTimeInMilliseconds(i - 1);
+            }
+            if (inOrder) {
+                return false;
+            }
+        }
+
+        // The earthquakes that stayed where they were are still newest first
+        int[] stayed = new int[size];
+        int stayedCount = 0;
+        // The added and moved ones have to be sorted
+        int[] placed = new int[total - size + (moved == null ? 0 : size)];
+        int placedCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (removed != null && removed[i]) {
+                continue;
+            }
+            if (moved != null && moved[i]) {
+                placed[placedCount++] = i;
+            } else {
+                stayed[stayedCount++] = i;
+            }
+        }
+        for (int i = size; i < total; i++) {
+            if (isIndexedAt(i)) {
+                placed[placedCount++] = i;
+            }
+        }
+        mStore.sortByTime(placed, placedCount, true);
+
+        // Merge the two runs, newest first, into a new copy of the store
+        EarthquakeStore ordered = new EarthquakeStore(stayedCount + placedCount);
+        int s = 0;
+        int p = 0;
+        boolean reordered = removed != null || moved != null;
+        while (s < stayedCount || p < placedCount) {
+            boolean takeStayed = p == placedCount || (s < stayedCount
+                    && mStore.getTimeInMilliseconds(stayed[s])
+                    >= mStore.getTimeInMilliseconds(placed[p]));
+            if (!takeStayed && s < stayedCount) {
+                // An added earthquake goes in before one we already had
+                reordered = true;
+            }
+            ordered.addFrom(mStore, takeStayed ? stayed[s++] : placed[p++]);
+        }
+
+        mStore.clear();
+        mStore.addAll(ordered);
+        // The same earthquakes as before, just in order, so the counts stay as they are
+        indexPositions();
+        return reordered;
+    }
+
+    /** False if the earthquake at the position was deleted after being added to the store */
+    private boolean isIndexedAt(int position) {
+        String id = mStore.getId(position);
+        if (id.isEmpty()) {
+            return true;
+        }
+        Integer indexed = mPositions.get(id);
+        return indexed != null && indexed == position;
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The earthquakes an {@link EarthquakeLoader} has loaded for its query so far, newest first,
+ * and how far down the pages of the query they go.
+ *
+ * Pages, synced changes and windows of history are merged in by an {@link EarthquakeMerger}.
+ * Whenever a batch only appends earthquakes (i.e. the next page), the earthquakes before it
+ * are left as they were, so the rows delivered last can be extended rather than copied again,
+ * see {@link #takeUnchanged()}.
+ *
+ * What has been loaded is shared through {@link EarthquakeIndex#publish}, so a later loader
+ * with a stricter query can be answered locally. Building an index copies and sorts every
+ * earthquake, so while pages keep coming in it is only built again once the earthquakes have
+ * doubled, and once the last page is in.
+ *
+ * Only touched on the loader's background thread, except the ids of {@link #getKnownIds()}.
+ */
+final class EarthquakePages {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = EarthquakePages.class.getName();
+
+    private final EarthquakeQuery mQuery;
+
+    /** Number of earthquakes requested per page */
+    private final int mPageSize;
+
+    private final EarthquakeStore mStore = new EarthquakeStore();
+
+    /** Merges pages and synced changes into mStore by event id */
+    private final EarthquakeMerger mMerger = new EarthquakeMerger(mStore);
+
+    /** The ids of the earthquakes in mStore, which the batches of a page read on other threads */
+    private final Set<String> mKnownIds =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** The USGS offset of the next page to add to mStore, which starts at 1 */
+    private int mNextOffset = 1;
+
+    /** False once a complete page came back with fewer earthquakes than we asked for */
+    private volatile boolean mHasMorePages = true;
+
+    /** When the newest earthquakes in mStore were downloaded */
+    private long mLoadedAt;
+
+    /** How many of the first earthquakes haven't changed since {@link #takeUnchanged()} */
+    private int mUnchanged;
+
+    /** The number of earthquakes in the index published last, 0 to build the next one */
+    private int mIndexedSize;
+
+    /**
+     * @param query the query the earthquakes are loaded for
+     * @param pageSize number of earthquakes requested per page
+     */
+    EarthquakePages(EarthquakeQuery query, int pageSize) {
+        mQuery = query;
+        mPageSize = pageSize;
+    }
+
+    /** The earthquakes loaded so far, newest first */
+    EarthquakeStore getStore() {
+        return mStore;
+    }
+
+    int size() {
+        return mStore.size();
+    }
+
+    /** The counts of the earthquakes loaded so far */
+    EarthquakeAggregates getAggregates() {
+        return mMerger.getAggregates();
+    }
+
+    /**
+     * The ids of the earthquakes loaded so far. It can be read from any thread, and goes on
+     * changing as earthquakes are merged in.
+     */
+    Set<String> getKnownIds() {
+        return mKnownIds;
+    }
+
+    /** The USGS offset of the next page, which starts at 1 */
+    int getNextOffset() {
+        return mNextOffset;
+    }
+
+    /** False once the last page is in, or the whole window of a query with a start time */
+    boolean hasMorePages() {
+        return mHasMorePages;
+    }
+
+    /** When the newest earthquakes were downloaded, 0 before anything was */
+    long getLoadedAt() {
+        return mLoadedAt;
+    }
+
+    void setLoadedAt(long loadedAt) {
+        mLoadedAt = loadedAt;
+    }
+
+    /**
+     * Merge the next page from the network. Merged rather than appended: if earthquakes were
+     * added since the first page, the offsets have moved and this page can repeat earthquakes
+     * we already have.
+     *
+     * @param cutShort true if the page was cut short by the deadline or by a broken response,
+     *                 then it isn't the last one and the rest of it comes with the next page
+     */
+    void addPage(List<Earthquake> page, boolean cutShort) {
+        int previousSize = mStore.size();
+        EarthquakeMerger.Result result = mMerger.merge(page, Long.MIN_VALUE);
+        mNextOffset += page.size();
+        mHasMorePages = page.size() == mPageSize || cutShort;
+        merged(previousSize, result, page);
+    }
+
+    /**
+     * Merge the earthquakes that changed since the last sync.
+     *
+     * @return what the merge did
+     */
+    EarthquakeMerger.Result mergeChanges(List<Earthquake> changes) {
+        // Changes to earthquakes older than the pages we have are picked up by those pages
+        long oldestTime = mHasMorePages
+                ? mStore.getTimeInMilliseconds(mStore.size() - 1) : Long.MIN_VALUE;
+        int previousSize = mStore.size();
+        EarthquakeMerger.Result result = mMerger.merge(changes, oldestTime);
+        // New earthquakes push the pages we haven't loaded yet further along, deleted ones
+        // pull them back
+        mNextOffset += mStore.size() - previousSize;
+        merged(previousSize, result, changes);
+        return result;
+    }
+
+    /**
+     * Merge the part of the window of history older than the earthquakes we have, which
+     * leaves nothing more to load.
+     */
+    void mergeOlder(List<Earthquake> earthquakes) {
+        int previousSize = mStore.size();
+        EarthquakeMerger.Result result = mMerger.merge(earthquakes, Long.MIN_VALUE);
+        mNextOffset = mStore.size() + 1;
+        mHasMorePages = false;
+        merged(previousSize, result, earthquakes);
+    }
+
+    /** Replace everything with the whole window of history of the query */
+    void replace(List<Earthquake> earthquakes) {
+        mMerger.clear();
+        for (int i = 0; i < earthquakes.size(); i++) {
+            mStore.add(earthquakes.get(i));
+        }
+        filled(earthquakes.size() + 1, false);
+    }
+
+    /**
+     * Fill the store with the earthquakes of the snapshot, which were the first pages of the
+     * query (or its whole window of history).
+     */
+    void fillFromSnapshot(EarthquakeStore snapshot) {
+        mStore.addAll(snapshot);
+        filled(mStore.size() + 1, mQuery.getStartTime() == EarthquakeQuery.UNBOUNDED);
+    }
+
+    /**
+     * Answer as much of the query as we can from the latest {@link EarthquakeIndex}.
+     *
+     * @return the index if it held the newest earthquakes of the query, which have been added
+     *         to the store, otherwise null. {@link #hasMorePages()} says whether older ones
+     *         still need fetching.
+     */
+    EarthquakeIndex fillFromIndex() {
+        EarthquakeIndex index = EarthquakeIndex.getLatest();
+        long now = System.currentTimeMillis();
+        long maxAge = EarthquakeCache.DEFAULT_TTL_MILLIS;
+        if (index == null || !index.coversNewest(mQuery, now, maxAge)) {
+            return null;
+        }
+
+        int[] positions = new int[index.getStore().size()];
+        int count = index.query(mQuery, positions);
+        List<Earthquake> earthquakes = index.getStore().asList(positions, count);
+        for (int i = 0; i < count; i++) {
+            mStore.add(earthquakes.get(i));
+        }
+        mLoadedAt = index.getLoadedAt();
+
+        // The next page from the network starts after the earthquakes we already have
+        filled(count + 1, !index.coversAll(mQuery, now, maxAge));
+        Log.i(LOG_TAG, "Answered " + count + " earthquakes from the local index, "
+                + (mHasMorePages ? "older pages still come from the network" : "no request needed"));
+        return index;
+    }
+
+    /** Remove every earthquake, so the query is loaded again from the first page */
+    void clear() {
+        mMerger.clear();
+        mKnownIds.clear();
+        mNextOffset = 1;
+        mHasMorePages = true;
+        mUnchanged = 0;
+        mIndexedSize = 0;
+    }
+
+    /**
+     * How many of the first earthquakes are the same as the last time this was called, the
+     * ones after them were appended since. Resets the count to every earthquake there is now.
+     */
+    int takeUnchanged() {
+        int unchanged = mUnchanged;
+        mUnchanged = mStore.size();
+        return unchanged;
+    }
+
+    /**
+     * Share what we have downloaded so far, so a later loader with a stricter query can be
+     * answered locally. The earthquakes of a region can't answer a query for anywhere else,
+     * so they aren't shared.
+     */
+    void publishIndex() {
+        if (mQuery.hasRegion() || (mHasMorePages && mStore.size() == 0)) {
+            return;
+        }
+        if (mHasMorePages && mIndexedSize > 0 && mStore.size() < 2 * mIndexedSize) {
+            return;
+        }
+        // Pages come newest first, so until the last page we only hold earthquakes down to
+        // the time of the last one. After the last page we hold all of them.
+        long fromTime;
+        if (mHasMorePages) {
+            fromTime = mStore.getTimeInMilliseconds(mStore.size() - 1);
+        } else if (mQuery.getStartTime() != EarthquakeQuery.UNBOUNDED) {
+            fromTime = mQuery.getStartTime();
+        } else {
+            fromTime = Long.MIN_VALUE;
+        }
+        long toTime = mQuery.getEndTime() != EarthquakeQuery.UNBOUNDED
+                ? mQuery.getEndTime() : mLoadedAt;
+        EarthquakeIndex.publish(new EarthquakeIndex(mStore, mQuery.getMinMagnitude(),
+                fromTime, toTime, mLoadedAt));
+        mIndexedSize = mStore.size();
+    }
+
+    /** Keep track of what a merge changed */
+    private void merged(int previousSize, EarthquakeMerger.Result result,
+                        List<Earthquake> batch) {
+        if (result.isAppendOnly()) {
+            mUnchanged = Math.min(mUnchanged, previousSize);
+        } else {
+            mUnchanged = 0;
+            mIndexedSize = 0;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Earthquake earthquake = batch.get(i);
+            if (!earthquake.isDeleted() && !earthquake.getId().isEmpty()) {
+                mKnownIds.add(earthquake.getId());
+            }
+        }
+    }
+
+    /** Start over from the earthquakes that were put straight in the store */
+    private void filled(int nextOffset, boolean hasMorePages) {
+        mMerger.reindex();
+        mNextOffset = nextOffset;
+        mHasMorePages = hasMorePages;
+        mUnchanged = 0;
+        mIndexedSize = 0;
+        mKnownIds.clear();
+        for (int i = 0; i < mStore.size(); i++) {
+            String id = mStore.getId(i);
+            if (!id.isEmpty()) {
+                mKnownIds.add(id);
+            }
+        }
+    }
+}
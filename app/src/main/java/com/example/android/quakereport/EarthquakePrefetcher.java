@@ -0,0 +1,128 @@
+package com.example.android.quakereport;
+
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fetches the next page of an {@link EarthquakeLoader} on the shared AsyncTask thread pool
+ * while the user is looking at the pages before it, so when they scroll down to it the page
+ * has usually arrived already.
+ *
+ * Only one page is fetched ahead at a time. A prefetch that runs out of time is simply
+ * fetched again when the page is wanted.
+ */
+final class EarthquakePrefetcher {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = EarthquakePrefetcher.class.getName();
+
+    /** How often a load waiting on the prefetched page checks whether it has been cancelled */
+    private static final long POLL_MILLIS = 50;
+
+    /** Fetches pages, sharing in-flight requests and recent responses with the loaders */
+    private final EarthquakeRequests mRequests;
+
+    /** How long a prefetch may take altogether */
+    private final long mDeadlineMillis;
+
+    /** The page being fetched ahead of time, or null if nothing has been prefetched */
+    private FutureTask<EarthquakeCache.Entry> mPrefetch;
+
+    /** The offset of the page being fetched ahead of time */
+    private int mOffset;
+
+    /** Stops the page being fetched ahead of time, if it isn't wanted any more */
+    private Cancellation mCancellation;
+
+    /**
+     * @param deadlineMillis how long a prefetch may take altogether, on top of the timeouts of
+     *                       each socket read
+     */
+    EarthquakePrefetcher(EarthquakeRequests requests, long deadlineMillis) {
+        mRequests = requests;
+        mDeadlineMillis = deadlineMillis;
+    }
+
+    /** Start downloading the page at the given URL, replacing any page fetched before it */
+    synchronized void prefetch(final String url, int offset) {
+        final Cancellation cancellation = Cancellation.withTimeout(mDeadlineMillis, false);
+        mOffset = offset;
+        mCancellation = cancellation;
+        mPrefetch = new FutureTask<>(new Callable<EarthquakeCache.Entry>() {
+            @Override
+            public EarthquakeCache.Entry call() {
+                Log.i(LOG_TAG, "Prefetching " + url);
+                return mRequests.fetchEntry(url, cancellation, null);
+            }
+        });
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(mPrefetch);
+    }
+
+    /**
+     * Wait for the prefetched page (usually it has already arrived) and take it. A page
+     * prefetched for another offset is stopped and thrown away.
+     *
+     * @return the page, or null if nothing was prefetched for the offset, the prefetch failed
+     *         or the load was cancelled while waiting
+     */
+    EarthquakeCache.Entry take(int offset, Cancellation cancellation) {
+        FutureTask<EarthquakeCache.Entry> prefetch;
+        Cancellation stale = null;
+        synchronized (this) {
+            prefetch = mPrefetch;
+            mPrefetch = null;
+            if (prefetch != null && mOffset != offset) {
+                prefetch.cancel(true);
+                stale = mCancellation;
+                prefetch = null;
+            }
+        }
+        // Already off the main thread, so the connection can be closed here
+        if (stale != null) {
+            stale.cancel();
+        }
+        if (prefetch == null) {
+            return null;
+        }
+        try {
+            while (!prefetch.isDone()) {
+                if (cancellation.isCanceled()) {
+                    return null;
+                }
+                try {
+                    return prefetch.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Still downloading, check the cancellation again
+                }
+            }
+            return prefetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem prefetching the next page", e);
+            return null;
+        }
+    }
+
+    /**
+     * Stop the page being fetched ahead of time, if there is one.
+     *
+     * @return the cancellation of its download, which the caller cancels off the main thread
+     *         as closing the connection may need the network. Null if nothing was prefetched.
+     */
+    synchronized Cancellation stop() {
+        if (mPrefetch == null) {
+            return null;
+        }
+        mPrefetch.cancel(true);
+        mPrefetch = null;
+        return mCancellation;
+    }
+}
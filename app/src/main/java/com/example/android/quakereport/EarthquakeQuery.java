@@ -0,0 +1,369 @@
+package com.example.android.quakereport;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The parameters of a USGS earthquake query, which builds the request URLs for it.
+ *
+ * Keeping the parameters rather than only a URL lets us reason about queries, i.e. whether
+ * the earthquakes we already hold answer a new query without going back to the network.
+ */
+public class EarthquakeQuery {
+
+    /** URL for earthquake data from the USGS API */
+    public static final String USGS_REQUEST_URL =
+            "https://earthquake.usgs.gov/fdsnws/event/1/query";
+
+    /** Used for a start or end time that isn't set */
+    public static final long UNBOUNDED = 0;
+
+    /**
+     * The formats we can parse. CSV has every field an {@link Earthquake} needs in under a
+     * third of the bytes of GeoJSON (about two thirds once gzipped) and parses faster, so it is
+     * asked for unless the server has refused it lately.
+     */
+    public static final String FORMAT_GEOJSON = "geojson";
+    public static final String FORMAT_CSV = "csv";
+
+    /** How long we ask for GeoJSON after a server refused a CSV request, before trying again */
+    static final long CSV_REFUSAL_MILLIS = 60 * 60 * 1000;
+
+    /** Until this time in milliseconds we ask for GeoJSON, 0 if CSV was never refused */
+    private static volatile long sCsvRefusedUntil;
+
+    /** The lowest magnitude to return */
+    private final double mMinMagnitude;
+
+    /** Only return earthquakes at or after this time in milliseconds, or UNBOUNDED */
+    private final long mStartTime;
+
+    /** Only return earthquakes at or before this time in milliseconds, or UNBOUNDED */
+    private final long mEndTime;
+
+    /**
+     * Only return earthquakes inside this box of latitudes and longitudes in degrees. The box
+     * goes east from west to east, so it crosses the 180th meridian if west is greater than
+     * east (i.e. 170 to -170), or if east is past 180 the way USGS takes it (170 to 190).
+     * All NaN if the query isn't limited to a region.
+     */
+    private final double mSouth;
+    private final double mWest;
+    private final double mNorth;
+    private final double mEast;
+
+    /**
+     * Constructs a new {@link EarthquakeQuery} for earthquakes of any time
+     *
+     * @param minMagnitude the lowest magnitude to return
+     */
+    public EarthquakeQuery(double minMagnitude) {
+        this(minMagnitude, UNBOUNDED, UNBOUNDED);
+    }
+
+    /**
+     * Constructs a new {@link EarthquakeQuery}
+     *
+     * @param minMagnitude the lowest magnitude to return
+     * @param startTime the earliest time to return in milliseconds, or UNBOUNDED
+     * @param endTime the latest time to return in milliseconds, or UNBOUNDED
+     */
+    public EarthquakeQuery(double minMagnitude, long startTime, long endTime) {
+        this(minMagnitude, startTime, endTime, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Constructs a new {@link EarthquakeQuery} for a region
+     *
+     * @param minMagnitude the lowest magnitude to return
+     * @param startTime the earliest time to return in milliseconds, or UNBOUNDED
+     * @param endTime the latest time to return in milliseconds, or UNBOUNDED
+     * @param south the lowest latitude to return, or NaN for anywhere
+     * @param west the lowest longitude to return, or NaN for anywhere
+     * @param north the highest latitude to return, or NaN for anywhere
+     * @param east the highest longitude to return, or NaN for anywhere
+     */
+    public EarthquakeQuery(double minMagnitude, long startTime, long endTime,
+                           double south, double west, double north, double east) {
+        mMinMagnitude = minMagnitude;
+        mStartTime = startTime;
+        mEndTime = endTime;
+        mSouth = south;
+        mWest = west;
+        mNorth = north;
+        mEast = east;
+    }
+
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    public long getEndTime() {
+        return mEndTime;
+    }
+
+    /** True if the query only returns earthquakes inside a box of latitudes and longitudes */
+    public boolean hasRegion() {
+        return !Double.isNaN(mSouth);
+    }
+
+    public double getSouth() {
+        return mSouth;
+    }
+
+    public double getWest() {
+        return mWest;
+    }
+
+    public double getNorth() {
+        return mNorth;
+    }
+
+    public double getEast() {
+        return mEast;
+    }
+
+    /** True if the earthquake is in the region of the query, or the query has no region */
+    public boolean isInRegion(double latitude, double longitude) {
+        if (!hasRegion()) {
+            return true;
+        }
+        if (latitude < mSouth || latitude > mNorth) {
+            return false;
+        }
+        double span = getLongitudeSpan();
+        return span >= 360 || degreesEastOfWest(longitude) <= span;
+    }
+
+    /**
+     * How many degrees of longitude the region spans going east from its west edge, 360 if
+     * it goes all the way round.
+     */
+    double getLongitudeSpan() {
+        double span = mEast - mWest;
+        if (span < 0) {
+            // Crosses the 180th meridian
+            span += 360;
+        }
+        return Math.min(span, 360);
+    }
+
+    /** How many degrees east of the west edge of the region the longitude is, 0 up to 360 */
+    private double degreesEastOfWest(double longitude) {
+        double degrees = (longitude - mWest) % 360;
+        return degrees < 0 ? degrees + 360 : degrees;
+    }
+
+    /**
+     * True if every earthquake the other query asks for is one this query asks for too: the
+     * other query has at least the same minimum magnitude, and its time window and region are
+     * inside ours.
+     */
+    public boolean contains(EarthquakeQuery other) {
+        if (other.mMinMagnitude < mMinMagnitude) {
+            return false;
+        }
+        if (mStartTime != UNBOUNDED
+                && (other.mStartTime == UNBOUNDED || other.mStartTime < mStartTime)) {
+            return false;
+        }
+        if (mEndTime != UNBOUNDED && (other.mEndTime == UNBOUNDED || other.mEndTime > mEndTime)) {
+            return false;
+        }
+        if (!hasRegion()) {
+            return true;
+        }
+        if (!other.hasRegion() || other.mSouth < mSouth || other.mNorth > mNorth) {
+            return false;
+        }
+        // The other region has to start east of our west edge and end before our east edge
+        double span = getLongitudeSpan();
+        return span >= 360 || degreesEastOfWest(other.mWest) + other.getLongitudeSpan() <= span;
+    }
+
+    /** The format the URLs ask for, the cheapest one the server has not refused lately */
+    public static String preferredFormat() {
+        return preferredFormat(Clock.SYSTEM.currentTimeMillis());
+    }
+
+    /** The format the URLs ask for at the given time in milliseconds */
+    static String preferredFormat(long now) {
+        return now < sCsvRefusedUntil ? FORMAT_GEOJSON : FORMAT_CSV;
+    }
+
+    /**
+     * Ask for GeoJSON for a while, because a server refused the CSV format. The refusal may
+     * have come from a proxy or a server that has since been updated, so CSV is asked for
+     * again once CSV_REFUSAL_MILLIS have passed.
+     */
+    public static void csvRefused() {
+        csvRefused(Clock.SYSTEM.currentTimeMillis());
+    }
+
+    /** Same as {@link #csvRefused()}, for a refusal at the given time in milliseconds */
+    static void csvRefused(long now) {
+        sCsvRefusedUntil = now + CSV_REFUSAL_MILLIS;
+    }
+
+    /** Forget that a server refused CSV, so it is asked for straight away */
+    static void forgetCsvRefusal() {
+        sCsvRefusedUntil = 0;
+    }
+
+    /**
+     * The same request as the given URL in GeoJSON, or null if it isn't a CSV request.
+     */
+    public static String geoJsonUrlOf(String url) {
+        String csv = "format=" + FORMAT_CSV;
+        int start = url.indexOf(csv);
+        if (start < 0 || (start + csv.length() < url.length()
+                && url.charAt(start + csv.length()) != '&')) {
+            return null;
+        }
+        return url.substring(0, start) + "format=" + FORMAT_GEOJSON
+                + url.substring(start + csv.length());
+    }
+
+    /** The URL for every earthquake matching the query, newest first */
+    public String toUrl() {
+        return buildUrl(preferredFormat(), true).toString();
+    }
+
+    /**
+     * Identifies the query whatever format its URLs ask for, i.e. to store what we know about
+     * it under. It is the URL the query had before it asked for other formats, so nothing
+     * stored under one of those is lost.
+     */
+    public String toKey() {
+        return buildUrl(FORMAT_GEOJSON, true).toString();
+    }
+
+    /**
+     * Identifies the query without its start time, i.e. to keep a watermark under. A window
+     * of history starts at a different time every day, but the earthquakes synced for
+     * yesterday's window still hold today's, so they are kept under the same key.
+     */
+    public String toSyncKey() {
+        return buildUrl(FORMAT_GEOJSON, false).toString();
+    }
+
+    /**
+     * The URL for one page of the query, newest first.
+     *
+     * @param offset position of the first earthquake to return, the USGS API starts at 1
+     * @param limit the most earthquakes to return
+     */
+    public String toUrl(int offset, int limit) {
+        StringBuilder url = buildUrl(preferredFormat(), true);
+        appendParameter(url, "offset", String.valueOf(offset));
+        appendParameter(url, "limit", String.valueOf(limit));
+        return url.toString();
+    }
+
+    /**
+     * The URL for the earthquakes matching the query that USGS added, revised or deleted
+     * after the given time, newest first. Deleted events are included with a status of
+     * "deleted", see {@link Earthquake#isDeleted()}.
+     *
+     * @param updatedAfter time in milliseconds, usually the newest update we have seen
+     * @param limit the most earthquakes to return
+     */
+    public String toUpdatesUrl(long updatedAfter, int limit) {
+        StringBuilder url = buildUrl(preferredFormat(), true);
+        appendParameter(url, "updatedafter", formatTime(updatedAfter));
+        appendParameter(url, "includedeleted", "true");
+        appendParameter(url, "limit", String.valueOf(limit));
+        return url.toString();
+    }
+
+    private StringBuilder buildUrl(String format, boolean withStartTime) {
+        StringBuilder url = new StringBuilder(USGS_REQUEST_URL);
+        appendParameter(url, "format", format);
+        appendParameter(url, "minmag", formatMagnitude(mMinMagnitude));
+        appendParameter(url, "orderby", "time");
+        if (withStartTime && mStartTime != UNBOUNDED) {
+            appendParameter(url, "starttime", formatTime(mStartTime));
+        }
+        if (mEndTime != UNBOUNDED) {
+            appendParameter(url, "endtime", formatTime(mEndTime));
+        }
+        if (hasRegion()) {
+            appendParameter(url, "minlatitude", formatMagnitude(mSouth));
+            appendParameter(url, "maxlatitude", formatMagnitude(mNorth));
+            appendParameter(url, "minlongitude", formatMagnitude(mWest));
+            // USGS takes a box across the 180th meridian as one that goes past 180
+            appendParameter(url, "maxlongitude",
+                    formatMagnitude(mWest > mEast ? mEast + 360 : mEast));
+        }
+        return url;
+    }
+
+    /**
+     * Magnitudes like 6.0 are written as "6", the way the user types them in the settings.
+     * Latitudes and longitudes are written the same way.
+     */
+    private static String formatMagnitude(double magnitude) {
+        if (magnitude == Math.rint(magnitude) && !Double.isInfinite(magnitude)) {
+            return String.valueOf((long) magnitude);
+        }
+        return String.valueOf(magnitude);
+    }
+
+    /** The USGS API takes times in ISO8601 format, i.e. "2017-05-20T14:45:11.000", in UTC */
+    private static String formatTime(long timeInMilliseconds) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(timeInMilliseconds));
+    }
+
+    private static void appendParameter(StringBuilder url, String name, String value) {
+        url.append(url.indexOf("?") < 0 ? '?' : '&');
+        try {
+            url.append(name).append('=').append(URLEncoder.encode(value, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            // Every platform supports UTF-8
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof EarthquakeQuery)) {
+            return false;
+        }
+        EarthquakeQuery query = (EarthquakeQuery) other;
+        return Double.compare(mMinMagnitude, query.mMinMagnitude) == 0
+                && mStartTime == query.mStartTime
+                && mEndTime == query.mEndTime
+                && Double.compare(mSouth, query.mSouth) == 0
+                && Double.compare(mWest, query.mWest) == 0
+                && Double.compare(mNorth, query.mNorth) == 0
+                && Double.compare(mEast, query.mEast) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        long magnitudeBits = Double.doubleToLongBits(mMinMagnitude);
+        int result = (int) (magnitudeBits ^ (magnitudeBits >>> 32));
+        result = 31 * result + (int) (mStartTime ^ (mStartTime >>> 32));
+        result = 31 * result + (int) (mEndTime ^ (mEndTime >>> 32));
+        result = 31 * result + Double.valueOf(mSouth).hashCode();
+        result = 31 * result + Double.valueOf(mWest).hashCode();
+        result = 31 * result + Double.valueOf(mNorth).hashCode();
+        result = 31 * result + Double.valueOf(mEast).hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return toUrl();
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The request layer every {@link EarthquakeLoader} fetches its pages through.
+ *
+ * A rotation, a quick change of settings or coming back to the activity can start several
+ * loaders asking for the same URL at the same time. Only the first caller for a URL actually
+ * makes the request; the others join it while it is in flight and get the same earthquakes
+ * back. Responses are then kept in an {@link EarthquakeMemoryCache}, so asking again within
+ * the TTL doesn't touch the network or the {@link EarthquakeCache} on disk.
+ *
+ * Each caller passes its own {@link Cancellation}. A request that callers have joined runs
+ * under a group of their cancellations, so it is only aborted once every one of them has been
+ * cancelled, and it has until the latest of their deadlines. The request runs on an executor
+ * rather than on the thread of the first caller, so every caller, the first one included,
+ * stops waiting straight away when it is cancelled or runs out of time, whether or not the
+ * request goes on for the others.
+ *
+ * The lists handed out are shared between callers, so they can't be modified.
+ */
+public class EarthquakeRequests {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = EarthquakeRequests.class.getName();
+
+    /** The most heap the responses kept in memory are estimated to take */
+    public static final long DEFAULT_MAX_MEMORY_BYTES = 1024 * 1024;
+
+    /** How often a caller waiting on a request checks whether it has been cancelled */
+    private static final long POLL_MILLIS = 50;
+
+    /** The request layer shared by every loader in the app */
+    private static EarthquakeRequests sInstance;
+
+    private final EarthquakeCache mDiskCache;
+    private final EarthquakeMemoryCache mMemoryCache;
+    private final ExecutorService mExecutor;
+
+    /** The requests being made right now, by URL */
+    private final ConcurrentHashMap<String, InFlight> mInFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Return the request layer shared by the whole app.
+     */
+    public static synchronized EarthquakeRequests getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EarthquakeRequests(EarthquakeCache.getInstance(context),
+                    new EarthquakeMemoryCache(Clock.SYSTEM, EarthquakeCache.DEFAULT_TTL_MILLIS,
+                            DEFAULT_MAX_MEMORY_BYTES));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new {@link EarthquakeRequests}
+     *
+     * @param diskCache where responses are cached between runs of the app
+     * @param memoryCache where fresh responses are kept for callers in this run
+     */
+    public EarthquakeRequests(EarthquakeCache diskCache, EarthquakeMemoryCache memoryCache) {
+        this(diskCache, memoryCache, EarthquakeHttpClient.getExecutor());
+    }
+
+    /**
+     * @param diskCache where responses are cached between runs of the app
+     * @param memoryCache where fresh responses are kept for callers in this run
+     * @param executor makes the requests
+     */
+    public EarthquakeRequests(EarthquakeCache diskCache, EarthquakeMemoryCache memoryCache,
+                              ExecutorService executor) {
+        mDiskCache = diskCache;
+        mMemoryCache = memoryCache;
+        mExecutor = executor;
+    }
+
+    /** True if a fresh response for the URL is in memory, so fetching it is instant */
+    public boolean isCached(String url) {
+        return mMemoryCache.get(url) != null;
+    }
+
+    /**
+     * Fetch the earthquakes at the URL, from memory if we have them, otherwise by joining the
+     * request for the URL that is already in flight or by making it.
+     *
+     * @return the earthquakes, which can't be modified, or null if the request failed
+     */
+    public List<Earthquake> fetch(String url) {
+        return fetch(url, new Cancellation());
+    }
+
+    /**
+     * Same as {@link #fetch(String)}, but stop waiting as soon as the cancellation says so.
+     *
+     * @return the earthquakes, which can't be modified, or null if the request failed or the
+     *         caller was stopped before it finished. If the deadline passed the earthquakes
+     *         parsed before it may be returned, see {@link QueryUtils#fetchEarthquakeEntry}.
+     */
+    public List<Earthquake> fetch(String url, Cancellation cancellation) {
+        return fetch(url, cancellation, null);
+    }
+
+    /**
+     * Same as {@link #fetch(String, Cancellation)}, and if this caller is the one making the
+     * request, pass each earthquake to the progress listener as soon as it has been parsed.
+     * The listener is called on the thread making the request, and not any more once this
+     * caller has stopped waiting. A caller that joins a request in flight, or is answered from
+     * memory, only gets the whole list at the end.
+     *
+     * @param progress told about each earthquake as it is parsed, may be null
+     */
+    public List<Earthquake> fetch(String url, Cancellation cancellation,
+                                  GeoJsonParser.Listener progress) {
+        EarthquakeCache.Entry entry = fetchEntry(url, cancellation, progress);
+        return entry == null ? null : entry.earthquakes;
+    }
+
+    /**
+     * Same as {@link #fetch(String, Cancellation, GeoJsonParser.Listener)}, but return the
+     * whole entry, so the caller can tell a complete response from one that was cut short by
+     * an error or the deadline: that one was stored at time 0, see
+     * {@link QueryUtils#fetchEarthquakeEntry}.
+     */
+    public EarthquakeCache.Entry fetchEntry(String url, final Cancellation cancellation,
+                                            final GeoJsonParser.Listener progress) {
+        EarthquakeCache.Entry entry = mMemoryCache.get(url);
+        if (entry != null) {
+            Metrics.MEMORY_CACHE_HITS.increment();
+            return entry;
+        }
+        if (cancellation.isStopped()) {
+            return null;
+        }
+
+        // The callers that join later don't see the earthquakes as they are parsed, so neither
+        // does this one once it has given up
+        GeoJsonParser.Listener listener = progress == null ? null : new GeoJsonParser.Listener() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                if (!cancellation.isStopped()) {
+                    progress.onEarthquake(earthquake);
+                }
+            }
+        };
+        InFlight request = new InFlight(url, Cancellation.groupOf(cancellation), listener);
+        InFlight inFlight;
+        while (true) {
+            inFlight = mInFlight.putIfAbsent(url, request);
+            if (inFlight == null) {
+                // We are the first to ask, make the request and wait for it like anyone joining
+                mExecutor.execute(request.task);
+                inFlight = request;
+                break;
+            }
+            // A request every caller has given up on, or that ran out of time, is only
+            // finishing off and won't answer anyone, so make a new one in its place
+            if (!inFlight.group.isExpired() && inFlight.group.join(cancellation)) {
+                Metrics.REQUESTS_JOINED.increment();
+                Log.i(LOG_TAG, "Joining the request in flight for " + url);
+                break;
+            }
+            if (mInFlight.replace(url, inFlight, request)) {
+                Log.i(LOG_TAG, "Replacing the abandoned request in flight for " + url);
+                mExecutor.execute(request.task);
+                inFlight = request;
+                break;
+            }
+            // Someone else replaced or finished it first, look again
+        }
+
+        try {
+            entry = await(inFlight.task, cancellation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem fetching " + url, e);
+            return null;
+        }
+        return entry;
+    }
+
+    /** Drop every response kept in memory, the disk cache is left alone */
+    public void clearMemory() {
+        mMemoryCache.clear();
+    }
+
+    /**
+     * Wait for a request to finish, or for the caller to be stopped.
+     *
+     * @return the entry, or null if the caller was stopped first
+     */
+    private static EarthquakeCache.Entry await(FutureTask<EarthquakeCache.Entry> task,
+                                               Cancellation cancellation)
+            throws InterruptedException, ExecutionException {
+        while (!task.isDone()) {
+            if (cancellation.isStopped()) {
+                return null;
+            }
+            try {
+                return task.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Still in flight, check the cancellation again
+            }
+        }
+        return task.get();
+    }
+
+    /** Go to the disk cache and the network, and keep an up to date response in memory */
+    private EarthquakeCache.Entry request(String url, Cancellation cancellation,
+                                          GeoJsonParser.Listener progress) {
+        EarthquakeCache.Entry entry = QueryUtils.fetchEarthquakeEntry(url, mDiskCache,
+                cancellation, progress);
+        if (entry == null) {
+            return null;
+        }
+        EarthquakeCache.Entry shared = new EarthquakeCache.Entry(
+                Collections.unmodifiableList(entry.earthquakes), entry.etag, entry.lastModified,
+                entry.storedAt);
+        // A stale or partial response is still handed to the callers waiting on it, but
+        // isn't kept: the memory cache turns away anything that isn't fresh
+        mMemoryCache.put(url, shared);
+        return shared;
+    }
+
+    /** A request in flight and the cancellations of the callers waiting on it */
+    private final class InFlight implements Callable<EarthquakeCache.Entry> {
+
+        final String url;
+        final Cancellation group;
+        final GeoJsonParser.Listener progress;
+        final FutureTask<EarthquakeCache.Entry> task = new FutureTask<>(this);
+
+        InFlight(String url, Cancellation group, GeoJsonParser.Listener progress) {
+            this.url = url;
+            this.group = group;
+            this.progress = progress;
+        }
+
+        @Override
+        public EarthquakeCache.Entry call() {
+            try {
+                return request(url, group, progress);
+            } finally {
+                mInFlight.remove(url, this);
+                // The callers' cancellations outlive the request, so they let go of the group
+                group.finish();
+            }
+        }
+    }
+}
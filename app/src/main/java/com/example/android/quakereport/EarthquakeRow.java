@@ -0,0 +1,70 @@
+package com.example.android.quakereport;
+
+/**
+ * Everything one row of the list shows for an {@link Earthquake}, already formatted.
+ *
+ * Rows are built by an {@link EarthquakeRowFormatter} on the loader's background thread, so
+ * binding a row in the adapter is only a matter of setting the text and colour.
+ */
+public class EarthquakeRow {
+
+    /** The earthquake this row shows */
+    private final Earthquake mEarthquake;
+
+    /** The magnitude with a single decimal, i.e. "6.4" */
+    private final String mMagnitudeText;
+
+    /** The colour of the magnitude circle */
+    private final int mMagnitudeColour;
+
+    /** The first part of the location, i.e. "74km NW of" or "Near the" */
+    private final String mLocationOffset;
+
+    /** The second part of the location, i.e. "Rumoi, Japan" */
+    private final String mPrimaryLocation;
+
+    /** The date of the earthquake, i.e. "03 Mar, 1984" */
+    private final String mDate;
+
+    /** The time of the earthquake, i.e. "4:30 PM" */
+    private final String mTime;
+
+    public EarthquakeRow(Earthquake earthquake, String magnitudeText, int magnitudeColour,
+                         String locationOffset, String primaryLocation, String date, String time) {
+        mEarthquake = earthquake;
+        mMagnitudeText = magnitudeText;
+        mMagnitudeColour = magnitudeColour;
+        mLocationOffset = locationOffset;
+        mPrimaryLocation = primaryLocation;
+        mDate = date;
+        mTime = time;
+    }
+
+    public Earthquake getEarthquake() {
+        return mEarthquake;
+    }
+
+    public String getMagnitudeText() {
+        return mMagnitudeText;
+    }
+
+    public int getMagnitudeColour() {
+        return mMagnitudeColour;
+    }
+
+    public String getLocationOffset() {
+        return mLocationOffset;
+    }
+
+    public String getPrimaryLocation() {
+        return mPrimaryLocation;
+    }
+
+    public String getDate() {
+        return mDate;
+    }
+
+    public String getTime() {
+        return mTime;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.android.quakereport;
+
+import android.support.v7.util.ListUpdateCallback;
+
+import java.util.Arrays;
+
+/**
+ * The rows inserted, removed and changed between two lists, as ranges in the order the
+ * adapter is told about them.
+ *
+ * Both lists are newest first, so they are walked side by side: a row of the old list
+ * newer than the current row of the new list isn't in the new list any more, a row of the
+ * new list newer than the current old row has been inserted, and rows with the same event
+ * id are the same earthquake, changed if its version differs. An earthquake whose time
+ * was revised is simply removed from its old place and inserted at its new one.
+ */
+final class EarthquakeRowChanges {
+
+    private static final int INSERTED = 0;
+    private static final int REMOVED = 1;
+    private static final int CHANGED = 2;
+
+    /** Each change is three ints: what happened, the position and the number of rows */
+    private int[] mChanges = new int[3 * 16];
+    private int mCount;
+
+    static EarthquakeRowChanges between(EarthquakeRowKeys oldKeys, EarthquakeRowKeys newKeys) {
+        EarthquakeRowChanges changes = new EarthquakeRowChanges();
+        int oldSize = oldKeys.size();
+        int newSize = newKeys.size();
+        int oldPosition = 0;
+        int newPosition = 0;
+        // Where the adapter is, with the changes so far applied
+        int position = 0;
+        while (oldPosition < oldSize && newPosition < newSize) {
+            String oldId = oldKeys.getId(oldPosition);
+            String newId = newKeys.getId(newPosition);
+            long oldTime = oldKeys.getTimeInMilliseconds(oldPosition);
+            long newTime = newKeys.getTimeInMilliseconds(newPosition);
+            if (oldId.equals(newId) && oldTime == newTime) {
+                if (!oldKeys.hasSameContents(oldPosition, newKeys, newPosition)) {
+                    changes.add(CHANGED, position);
+                }
+                oldPosition++;
+                newPosition++;
+                position++;
+            } else if (newTime > oldTime) {
+                changes.add(INSERTED, position);
+                newPosition++;
+                position++;
+            } else {
+                // Older in the new list or another earthquake at the same time, so it
+                // goes from here. If it is further down the new list it comes back there.
+                changes.add(REMOVED, position);
+                oldPosition++;
+            }
+        }
+        for (; oldPosition < oldSize; oldPosition++) {
+            changes.add(REMOVED, position);
+        }
+        for (; newPosition < newSize; newPosition++) {
+            changes.add(INSERTED, position++);
+        }
+        return changes;
+    }
+
+    /** Record a change of one row, extending the last range if it carries straight on */
+    private void add(int change, int position) {
+        if (mCount > 0) {
+            int last = 3 * (mCount - 1);
+            int end = mChanges[last + 1] + (change == REMOVED ? 0 : mChanges[last + 2]);
+            if (mChanges[last] == change && end == position) {
+                mChanges[last + 2]++;
+                return;
+            }
+        }
+        if (3 * mCount == mChanges.length) {
+            mChanges = Arrays.copyOf(mChanges, mChanges.length * 2);
+        }
+        mChanges[3 * mCount] = change;
+        mChanges[3 * mCount + 1] = position;
+        mChanges[3 * mCount + 2] = 1;
+        mCount++;
+    }
+
+    /** Tell the callback about every range, in order */
+    void dispatchTo(ListUpdateCallback callback) {
+        for (int i = 0; i < 3 * mCount; i += 3) {
+            int position = mChanges[i + 1];
+            int count = mChanges[i + 2];
+            if (mChanges[i] == INSERTED) {
+                callback.onInserted(position, count);
+            } else if (mChanges[i] == REMOVED) {
+                callback.onRemoved(position, count);
+            } else {
+                callback.onChanged(position, count, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Copies the earthquakes of an {@link EarthquakeLoader} to the datasets the rows it delivers
+ * are read from, and summarizes the counts that go with them. The datasets are a copy, so the
+ * loader can go on changing its store while the adapter shows them, and each list gets a
+ * formatter of its own as it is read on the main thread.
+ *
+ * When only earthquakes were appended since the last copy (i.e. the next page came in), the
+ * last list is extended with a dataset of just those, see {@link EarthquakeRowList#append}.
+ * Anything else writes the whole store to the dataset file again.
+ *
+ * Only used on the loader's background thread.
+ */
+final class EarthquakeRowCopier {
+
+    /** The dataset file of a whole copy, appended datasets go next to it */
+    private final File mFile;
+
+    /** The colour of each magnitude band, for the formatter of each list of rows */
+    private final int[] mMagnitudeColours;
+
+    /** The rows last copied, and the mod count of the store when they were copied */
+    private List<EarthquakeRow> mCopiedRows;
+    private int mCopiedModCount;
+
+    /** The number of appended dataset files that may be left next to mFile */
+    private int mAppendedFiles;
+
+    /** The counts of the earthquakes in the last rows copied, null until there are some */
+    private volatile EarthquakeAggregates.Summary mSummary;
+
+    /**
+     * @param file the dataset file to write a whole copy to
+     * @param magnitudeColours the colour of each magnitude band
+     */
+    EarthquakeRowCopier(File file, int[] magnitudeColours) {
+        mFile = file;
+        mMagnitudeColours = magnitudeColours;
+    }
+
+    /** The counts of the earthquakes in the rows copied last, null before any were */
+    EarthquakeAggregates.Summary getSummary() {
+        return mSummary;
+    }
+
+    /**
+     * The rows of the earthquakes loaded so far. If nothing changed since the last copy
+     * (i.e. a revalidation found nothing new) the same list is returned again.
+     *
+     * @param unchanged how many of the first earthquakes are the same as in the last copy,
+     *                  see {@link EarthquakePages#takeUnchanged()}
+     */
+    List<EarthquakeRow> copy(EarthquakeStore store, int unchanged,
+                             EarthquakeAggregates aggregates) {
+        mSummary = aggregates.summarize(System.currentTimeMillis());
+        if (mCopiedRows != null && mCopiedModCount == store.getModCount()) {
+            return mCopiedRows;
+        }
+        List<EarthquakeRow> rows = null;
+        if (mCopiedRows instanceof EarthquakeRowList && unchanged == mCopiedRows.size()
+                && unchanged > 0 && unchanged < store.size()) {
+            EarthquakeRowList copied = (EarthquakeRowList) mCopiedRows;
+            File appended = appendedFile(copied.getDatasetCount());
+            rows = copied.append(store, unchanged, appended, formatter());
+            mAppendedFiles = Math.max(mAppendedFiles, copied.getDatasetCount());
+        }
+        if (rows == null) {
+            rows = copyWhole(store);
+        }
+        mCopiedRows = rows;
+        mCopiedModCount = store.getModCount();
+        return rows;
+    }
+
+    /**
+     * The rows of a stale cached page, which go through a store of their own rather than the
+     * loader's, so the revalidation that follows still starts from the first page.
+     */
+    List<EarthquakeRow> copyCached(List<Earthquake> earthquakes) {
+        EarthquakeStore store = EarthquakeStore.of(earthquakes);
+        EarthquakeAggregates aggregates = new EarthquakeAggregates(TimeZone.getDefault());
+        aggregates.addAll(store);
+        mSummary = aggregates.summarize(System.currentTimeMillis());
+        return copyWhole(store);
+    }
+
+    /** Write the whole store to the dataset file, the appended datasets aren't needed now */
+    private List<EarthquakeRow> copyWhole(EarthquakeStore store) {
+        // A list that is still shown keeps reading the files it mapped
+        for (int i = 1; i <= mAppendedFiles; i++) {
+            appendedFile(i).delete();
+        }
+        mAppendedFiles = 0;
+        return EarthquakeRowList.of(store, mFile, formatter());
+    }
+
+    /** The file of the appended dataset that follows the given number of datasets */
+    private File appendedFile(int datasets) {
+        return new File(mFile.getParentFile(), mFile.getName() + "." + datasets);
+    }
+
+    private EarthquakeRowFormatter formatter() {
+        return new EarthquakeRowFormatter(mMagnitudeColours);
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.quakereport;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Turns {@link Earthquake}s into {@link EarthquakeRow}s, doing all of the formatting the list
+ * needs once per earthquake.
+ *
+ * The number and date formats are created once and reused for every earthquake. They are not
+ * thread safe, so a formatter must only be used by one thread at a time.
+ */
+public class EarthquakeRowFormatter {
+
+    /** Number of magnitude colour bands, 0-2, 2-3, ... 9-10 and 10+ */
+    public static final int MAGNITUDE_BANDS = 10;
+
+    /** Shown above the location when it doesn't have an offset like "74km NW of" */
+    private static final String NEAR_THE = "Near the";
+
+    /**
+     * Ends the offset of a location. The spaces matter, as "of" alone is found in words like
+     * "off the coast of" or "Sofala".
+     */
+    private static final String OF = " of ";
+
+    private final DecimalFormat mMagnitudeFormat = new DecimalFormat("0.0");
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("dd LLL, yyyy");
+    private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("h:mm a");
+
+    /** Reused for every earthquake instead of creating a new Date each time */
+    private final Date mDate = new Date();
+
+    /** The colour for each magnitude band, indexed by {@link #magnitudeBand(double)} */
+    private final int[] mMagnitudeColours;
+
+    /**
+     * Constructs a new {@link EarthquakeRowFormatter}
+     *
+     * @param magnitudeColours the colour of each of the {@link #MAGNITUDE_BANDS} magnitude bands
+     */
+    public EarthquakeRowFormatter(int[] magnitudeColours) {
+        if (magnitudeColours.length != MAGNITUDE_BANDS) {
+            throw new IllegalArgumentException("Expected " + MAGNITUDE_BANDS + " colours");
+        }
+        mMagnitudeColours = magnitudeColours.clone();
+    }
+
+    /**
+     * Return the magnitude band of the given magnitude, which is used to pick its colour.
+     * Magnitudes below 2 share band 0 and magnitudes of 10 and above share the last band.
+     */
+    public static int magnitudeBand(double magnitude) {
+        // Here we convert the magnitude double into and int, and ensure we always round down to the nearest whole number (int)
+        int magnitudeFloor = (int) Math.floor(magnitude);
+        if (magnitudeFloor < 2) {
+            return 0;
+        }
+        return Math.min(magnitudeFloor - 1, MAGNITUDE_BANDS - 1);
+    }
+
+    /** Format every earthquake in the list */
+    public List<EarthquakeRow> format(List<Earthquake> earthquakes) {
+        List<EarthquakeRow> rows = new ArrayList<>(earthquakes.size());
+        for (Earthquake earthquake : earthquakes) {
+            rows.add(format(earthquake));
+        }
+        return rows;
+    }
+
+    /** Format a single earthquake */
+    public EarthquakeRow format(Earthquake earthquake) {
+        double magnitude = earthquake.getMagnitude();
+        String magnitudeText = mMagnitudeFormat.format(magnitude);
+        int magnitudeColour = mMagnitudeColours[magnitudeBand(magnitude)];
+
+        /** SPLITTING THE LOCATION INTO TWO STRINGS, THE OFFSET LOCATION AND THE PRIMARY LOCATION
+         * i.e. "74km NW of Rumoi, Japan" becomes "74km NW of" and "Rumoi, Japan". If there's
+         * no " of " in the location, "Near the" is used as the offset instead. */
+        String rawLocation = earthquake.getLocation();
+        String locationOffset;
+        String primaryLocation;
+        int of = rawLocation.indexOf(OF);
+        if (of >= 0) {
+            // Keep "of" with the offset, leave its trailing space out of both
+            locationOffset = rawLocation.substring(0, of + OF.length() - 1);
+            primaryLocation = rawLocation.substring(of + OF.length()).trim();
+        } else {
+            locationOffset = NEAR_THE;
+            primaryLocation = rawLocation;
+        }
+
+        // Convert the unix time in milliseconds into a readable date and time
+        mDate.setTime(earthquake.getTimeInMilliseconds());
+        String date = mDateFormat.format(mDate);
+        String time = mTimeFormat.format(mDate);
+
+        return new EarthquakeRow(earthquake, magnitudeText, magnitudeColour,
+                locationOffset, primaryLocation, date, time);
+    }
+}
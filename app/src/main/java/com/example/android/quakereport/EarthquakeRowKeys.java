@@ -0,0 +1,65 @@
+package com.example.android.quakereport;
+
+import java.util.List;
+
+/**
+ * The time, event id and version of each row of a submitted list followed by the rows
+ * appended after it, which is all {@link EarthquakeRowChanges} compares. The rows of an
+ * {@link EarthquakeRowList} are read from its dataset, any other row from its earthquake.
+ */
+final class EarthquakeRowKeys {
+
+    private final List<EarthquakeRow> mRows;
+    private final EarthquakeRowList mDatasetRows;
+    private final List<EarthquakeRow> mAppendedRows;
+
+    EarthquakeRowKeys(List<EarthquakeRow> rows, List<EarthquakeRow> appendedRows) {
+        mRows = rows;
+        mDatasetRows = rows instanceof EarthquakeRowList ? (EarthquakeRowList) rows : null;
+        mAppendedRows = appendedRows;
+    }
+
+    int size() {
+        return mRows.size() + mAppendedRows.size();
+    }
+
+    String getId(int position) {
+        if (mDatasetRows != null && position < mDatasetRows.size()) {
+            return mDatasetRows.getId(position);
+        }
+        return earthquake(position).getId();
+    }
+
+    long getTimeInMilliseconds(int position) {
+        if (mDatasetRows != null && position < mDatasetRows.size()) {
+            return mDatasetRows.getTimeInMilliseconds(position);
+        }
+        return earthquake(position).getTimeInMilliseconds();
+    }
+
+    /** True if the rows at the given positions show the same version of an earthquake */
+    boolean hasSameContents(int position, EarthquakeRowKeys other, int otherPosition) {
+        return getUpdatedInMilliseconds(position) == other.getUpdatedInMilliseconds(otherPosition)
+                && getMagnitude(position) == other.getMagnitude(otherPosition);
+    }
+
+    private long getUpdatedInMilliseconds(int position) {
+        if (mDatasetRows != null && position < mDatasetRows.size()) {
+            return mDatasetRows.getUpdatedInMilliseconds(position);
+        }
+        return earthquake(position).getUpdatedInMilliseconds();
+    }
+
+    private double getMagnitude(int position) {
+        if (mDatasetRows != null && position < mDatasetRows.size()) {
+            return mDatasetRows.getMagnitude(position);
+        }
+        return earthquake(position).getMagnitude();
+    }
+
+    private Earthquake earthquake(int position) {
+        int size = mRows.size();
+        return (position < size ? mRows.get(position)
+                : mAppendedRows.get(position - size)).getEarthquake();
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only list of {@link EarthquakeRow}s over an {@link EarthquakeDataset}, which formats
+ * each row when it is asked for rather than holding a row for every earthquake.
+ *
+ * A list can be extended by the earthquakes appended to the store after it (i.e. the next
+ * page), see {@link #append}. They are written to a dataset of their own and the longer list
+ * reads the datasets of this one followed by the new one, so the earthquakes already written
+ * aren't written again.
+ *
+ * The list only ever asks for the rows on screen and a few either side of them, so the last
+ * WINDOW_SIZE rows formatted are kept in a small window, slot (position % WINDOW_SIZE), and
+ * each slot is reused by the next position that lands on it. Scrolling back and forth over
+ * the same screen doesn't format anything again, and the heap used stays the same however
+ * many earthquakes the dataset holds.
+ *
+ * The formatter isn't thread safe, and a list may be read on the main thread while a
+ * background thread compares it with another, so the rows are read under a lock.
+ */
+public class EarthquakeRowList extends AbstractList<EarthquakeRow> implements RandomAccess {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = EarthquakeRowList.class.getName();
+
+    /** Rows kept formatted, a couple of screens' worth */
+    static final int WINDOW_SIZE = 64;
+
+    /** The datasets the rows are read from, one after the other */
+    private final EarthquakeDataset[] mDatasets;
+
+    /** The position of the first row of each dataset */
+    private final int[] mStarts;
+
+    private final int mSize;
+
+    private final EarthquakeRowFormatter mFormatter;
+
+    /** The position held in each slot of the window, or -1 if the slot is empty */
+    private final int[] mWindowPositions = new int[WINDOW_SIZE];
+    private final EarthquakeRow[] mWindowRows = new EarthquakeRow[WINDOW_SIZE];
+
+    /**
+     * Constructs a new {@link EarthquakeRowList}
+     *
+     * @param formatter used only by this list from now on
+     */
+    public EarthquakeRowList(EarthquakeDataset dataset, EarthquakeRowFormatter formatter) {
+        this(new EarthquakeDataset[] {dataset}, formatter);
+    }
+
+    private EarthquakeRowList(EarthquakeDataset[] datasets, EarthquakeRowFormatter formatter) {
+        mDatasets = datasets;
+        mStarts = new int[datasets.length];
+        int size = 0;
+        for (int i = 0; i < datasets.length; i++) {
+            mStarts[i] = size;
+            size += datasets[i].size();
+        }
+        mSize = size;
+        mFormatter = formatter;
+        Arrays.fill(mWindowPositions, -1);
+    }
+
+    /**
+     * The rows of every earthquake in the store, backed by a dataset written to the given
+     * file. If the dataset can't be written every row is formatted up front instead, as it
+     * was before there were datasets.
+     *
+     * @param formatter only used by the returned list from now on
+     */
+    public static List<EarthquakeRow> of(EarthquakeStore store, File file,
+                                         EarthquakeRowFormatter formatter) {
+        try {
+            EarthquakeDataset.write(file, store);
+            return new EarthquakeRowList(EarthquakeDataset.open(file), formatter);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquake dataset, formatting every row", e);
+            return formatter.format(store.asList());
+        }
+    }
+
+    /**
+     * The rows of this list followed by those of the earthquakes of the store from the given
+     * position on, which are written to a dataset of their own in the given file. The rows
+     * before that position must be the ones in this list.
+     *
+     * @param formatter only used by the returned list from now on
+     * @return the longer list, or null if the dataset can't be written
+     */
+    EarthquakeRowList append(EarthquakeStore store, int from, File file,
+                             EarthquakeRowFormatter formatter) {
+        try {
+            EarthquakeDataset.write(file, store, from, store.size());
+            EarthquakeDataset[] datasets = Arrays.copyOf(mDatasets, mDatasets.length + 1);
+            datasets[mDatasets.length] = EarthquakeDataset.open(file);
+            return new EarthquakeRowList(datasets, formatter);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the appended earthquakes", e);
+            return null;
+        }
+    }
+
+    /** The number of datasets the rows are read from */
+    int getDatasetCount() {
+        return mDatasets.length;
+    }
+
+    @Override
+    public synchronized EarthquakeRow get(int position) {
+        int slot = position % WINDOW_SIZE;
+        if (position >= 0 && mWindowPositions[slot] == position) {
+            return mWindowRows[slot];
+        }
+        int dataset = dataset(position);
+        EarthquakeRow row = mFormatter.format(mDatasets[dataset].get(position - mStarts[dataset]));
+        mWindowPositions[slot] = position;
+        mWindowRows[slot] = row;
+        return row;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /** The USGS event id of the row at the given position, without formatting the row */
+    String getId(int position) {
+        int dataset = dataset(position);
+        return mDatasets[dataset].getId(position - mStarts[dataset]);
+    }
+
+    long getTimeInMilliseconds(int position) {
+        int dataset = dataset(position);
+        return mDatasets[dataset].getTimeInMilliseconds(position - mStarts[dataset]);
+    }
+
+    long getUpdatedInMilliseconds(int position) {
+        int dataset = dataset(position);
+        return mDatasets[dataset].getUpdatedInMilliseconds(position - mStarts[dataset]);
+    }
+
+    double getMagnitude(int position) {
+        int dataset = dataset(position);
+        return mDatasets[dataset].getMagnitude(position - mStarts[dataset]);
+    }
+
+    /** The dataset the row at the given position is in, the dataset then checks the position */
+    private int dataset(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+        int found = Arrays.binarySearch(mStarts, position);
+        if (found < 0) {
+            return -found - 2;
+        }
+        // Empty datasets start where the next one does, the row is in the last of them
+        while (found + 1 < mStarts.length && mStarts[found + 1] == position) {
+            found++;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Downloads a query over a long time window (i.e. a year of history) as several smaller time
+ * slices fetched at the same time, rather than one request after another.
+ *
+ * The USGS API returns at most {@link #MAX_EVENTS_PER_QUERY} earthquakes per query. A slice
+ * that comes back full is not thrown away: its earthquakes are newest first, so we keep them
+ * and split the part of the slice older than the oldest one into two new slices. A slice that
+ * fails is retried a few times with a growing delay before the whole fetch gives up. So does
+ * a slice that is full of earthquakes at the very same time, as a millisecond can't be split
+ * and the ones that didn't fit would be missing.
+ *
+ * The slices are put back together newest first, like a single orderby=time query.
+ */
+public final class EarthquakeSliceFetcher {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = EarthquakeSliceFetcher.class.getName();
+
+    /** The most earthquakes the USGS API returns for a single query */
+    public static final int MAX_EVENTS_PER_QUERY = 20000;
+
+    /** How many slices a window is first split into, one for each request made at a time */
+    private static final int PARALLELISM = EarthquakeHttpClient.MAX_REQUESTS;
+
+    /** How many times a slice is requested before giving up */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** Delay before the first retry, doubled for every retry after it */
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    /**
+     * How long the slices of a window may take altogether. A year of history can take much
+     * longer than the deadline a caller gives one page, see {@link #fetch(EarthquakeQuery,
+     * Cancellation)}.
+     */
+    public static final long WINDOW_DEADLINE_MILLIS = 5 * 60 * 1000;
+
+    private final ExecutorService mExecutor;
+
+    private final int mParallelism;
+
+    /** The number of earthquakes per request, MAX_EVENTS_PER_QUERY outside of testing */
+    private final int mMaxEvents;
+
+    /**
+     * Fetches on the executor shared by every request, see
+     * {@link EarthquakeHttpClient#getExecutor()}
+     */
+    public EarthquakeSliceFetcher() {
+        this(EarthquakeHttpClient.getExecutor(), PARALLELISM, MAX_EVENTS_PER_QUERY);
+    }
+
+    /**
+     * @param executor runs the slice downloads
+     * @param parallelism the number of slices the window is first split into
+     * @param maxEvents the most earthquakes one request may return
+     */
+    public EarthquakeSliceFetcher(ExecutorService executor, int parallelism, int maxEvents) {
+        mExecutor = executor;
+        mParallelism = parallelism;
+        mMaxEvents = maxEvents;
+    }
+
+    /**
+     * Fetch every earthquake of the query between its start time and its end time, or now
+     * if it has no end time.
+     *
+     * @return the earthquakes newest first, or null if a slice couldn't be downloaded
+     */
+    public List<Earthquake> fetch(EarthquakeQuery query) {
+        return fetch(query, new Cancellation());
+    }
+
+    /**
+     * Same as {@link #fetch(EarthquakeQuery)}, but every slice stops as soon as the
+     * cancellation is cancelled. A window is only any use whole, so a stopped fetch returns
+     * null even if the cancellation keeps partial results.
+     *
+     * For the same reason the caller's deadline doesn't apply, as it would throw away a window
+     * that takes longer than a page. The slices have {@link #WINDOW_DEADLINE_MILLIS} instead,
+     * or the caller's deadline if that is later.
+     *
+     * The slices run under a group of their own, which is cancelled as soon as the fetch
+     * returns. So when one slice gives up, the others stop too rather than going on
+     * downloading (and retrying) for a window nobody will use.
+     */
+    public List<Earthquake> fetch(EarthquakeQuery query, final Cancellation cancellation) {
+        long startTime = query.getStartTime();
+        long endTime = query.getEndTime() != EarthquakeQuery.UNBOUNDED
+                ? query.getEndTime() : System.currentTimeMillis();
+        if (startTime == EarthquakeQuery.UNBOUNDED || startTime > endTime) {
+            throw new IllegalArgumentException("Query needs a time window: " + query);
+        }
+
+        // Cancelled with the caller's cancellation, or by us once we stop waiting on the slices
+        Cancellation slices = Cancellation.groupOf(cancellation, WINDOW_DEADLINE_MILLIS);
+        CompletionService<Slice> completion = new ExecutorCompletionService<>(mExecutor);
+        List<Slice> finished = new ArrayList<>();
+        int pending = submitSlices(completion, query, startTime, endTime, mParallelism, slices);
+        int requests = pending;
+
+        try {
+            while (pending > 0) {
+                Slice slice = completion.take().get();
+                pending--;
+                if (slices.isStopped()) {
+                    Log.i(LOG_TAG, "Stopped fetching the slices");
+                    return null;
+                }
+                if (slice.earthquakes == null) {
+                    Log.e(LOG_TAG, "Giving up on the slice " + slice);
+                    return null;
+                }
+                finished.add(slice);
+
+                // A full slice may have been cut off, fetch what is older than its oldest
+                // earthquake. Earthquakes at exactly that time may have been cut off too, so
+                // they are dropped here and fetched again with the rest.
+                if (slice.earthquakes.size() >= mMaxEvents) {
+                    long oldestTime = slice.trimOldest();
+                    if (oldestTime == Long.MIN_VALUE) {
+                        Log.e(LOG_TAG, "More than " + mMaxEvents + " earthquakes at the same "
+                                + "time in " + slice + ", giving up");
+                        return null;
+                    }
+                    int added = submitSlices(completion, query, slice.startTime, oldestTime, 2,
+                            slices);
+                    pending += added;
+                    requests += added;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Slice failed", e);
+            return null;
+        } finally {
+            // Every slice has finished unless we are giving up, then the rest aren't wanted.
+            // Cancelling disconnects their connections and the queued ones stop before they
+            // send anything.
+            slices.cancel();
+        }
+
+        // The earthquakes of different slices never overlap in time, and a slice split off a
+        // full one ends at or before the earthquakes it kept. So the slice that ends latest
+        // first gives the earthquakes newest first.
+        Collections.sort(finished, new Comparator<Slice>() {
+            @Override
+            public int compare(Slice a, Slice b) {
+                return a.endTime < b.endTime ? 1 : (a.endTime == b.endTime ? 0 : -1);
+            }
+        });
+        int total = 0;
+        for (Slice slice : finished) {
+            total += slice.earthquakes.size();
+        }
+        List<Earthquake> earthquakes = new ArrayList<>(total);
+        for (Slice slice : finished) {
+            earthquakes.addAll(slice.earthquakes);
+        }
+        Log.i(LOG_TAG, "Fetched " + total + " earthquakes in " + requests + " slices");
+        return earthquakes;
+    }
+
+    /**
+     * Split [startTime, endTime] into the given number of slices that don't overlap and
+     * submit them. The USGS API includes both ends of a time window, so each slice ends a
+     * millisecond before the next one starts.
+     *
+     * @return the number of slices submitted
+     */
+    private int submitSlices(CompletionService<Slice> completion, EarthquakeQuery query,
+                             long startTime, long endTime, int count,
+                             final Cancellation cancellation) {
+        long width = endTime - startTime + 1;
+        count = (int) Math.max(1, Math.min(count, width));
+        long sliceStart = startTime;
+        for (int i = 0; i < count; i++) {
+            long sliceEnd = i == count - 1 ? endTime : startTime + width * (i + 1) / count - 1;
+            final Slice slice = new Slice(query, sliceStart, sliceEnd);
+            completion.submit(new Callable<Slice>() {
+                @Override
+                public Slice call() throws InterruptedException {
+                    slice.download(mMaxEvents, cancellation);
+                    return slice;
+                }
+            });
+            sliceStart = sliceEnd + 1;
+        }
+        return count;
+    }
+
+    /** One time window of the query and the earthquakes downloaded for it */
+    private static class Slice {
+
+        /** The whole query, whose magnitude and region the slice keeps */
+        final EarthquakeQuery query;
+        final long startTime;
+        final long endTime;
+
+        /** Newest first, or null until downloaded or if the download failed */
+        List<Earthquake> earthquakes;
+
+        Slice(EarthquakeQuery query, long startTime, long endTime) {
+            this.query = query;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        void download(int maxEvents, Cancellation cancellation) throws InterruptedException {
+            String url = new EarthquakeQuery(query.getMinMagnitude(), startTime, endTime,
+                    query.getSouth(), query.getWest(), query.getNorth(), query.getEast())
+                    .toUrl(1, maxEvents);
+            long delay = RETRY_DELAY_MILLIS;
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                earthquakes = QueryUtils.fetchCompleteEarthquakeData(url, cancellation);
+                if (earthquakes != null || cancellation.isStopped()) {
+                    return;
+                }
+                if (attempt < MAX_ATTEMPTS) {
+                    Log.w(LOG_TAG, "Retrying " + this + " in " + delay + "ms");
+                    // Woken up if the fetch stops meanwhile, there's no point retrying then
+                    if (!cancellation.sleep(delay)) {
+                        return;
+                    }
+                    delay *= 2;
+                }
+            }
+        }
+
+        /**
+         * Remove the earthquakes at the oldest time of a slice that came back full.
+         *
+         * @return that oldest time, earthquakes from the start of the slice up to it still
+         *         have to be fetched. Long.MIN_VALUE if every earthquake has the same time, then
+         *         the slice can't be split and nothing is removed.
+         */
+        long trimOldest() {
+            long oldestTime = earthquakes.get(earthquakes.size() - 1).getTimeInMilliseconds();
+            int keep = earthquakes.size();
+            while (keep > 0 && earthquakes.get(keep - 1).getTimeInMilliseconds() == oldestTime) {
+                keep--;
+            }
+            if (keep == 0) {
+                return Long.MIN_VALUE;
+            }
+            earthquakes = new ArrayList<>(earthquakes.subList(0, keep));
+            return oldestTime;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + startTime + ", " + endTime + "]";
+        }
+    }
+}
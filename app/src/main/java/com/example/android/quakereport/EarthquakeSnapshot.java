@@ -0,0 +1,397 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A compact binary copy of the last list of earthquakes we loaded, so the list can be shown
+ * straight away the next time the app starts, before the loader has been to the network.
+ *
+ * Layout of the file, all numbers big-endian:
+ *
+ *   int     MAGIC
+ *   int     VERSION
+ *   string  the query URL the earthquakes were loaded for
+ *   int     number of earthquakes (n)
+ *   int     number of strings in the string table (s)
+ *   s x     string table, each string is an int byte length followed by UTF-8 bytes
+ *   n x     double magnitude
+ *   n x     long time in milliseconds
+ *   n x     int index of the place (the location up to its region) in the string table
+ *   n x     int index of the region in the string table, or -1 if the location has none
+ *   n x     int index of the website in the string table, or the complement (~index) of the
+ *           index of its prefix if the website is the prefix followed by the event id
+ *   n x     int index of the USGS event id in the string table
+ *   n x     long time the earthquake was last updated in milliseconds
+ *   n x     double longitude in degrees, NaN if it isn't known
+ *   n x     double latitude in degrees, NaN if it isn't known
+ *   n x     double depth in km, NaN if it isn't known
+ *   long    CRC32 of everything above
+ *
+ * Places, regions, URLs and ids are stored once each in the string table, so repeated regions
+ * and the shared URL prefix only cost an int per earthquake.
+ */
+public final class EarthquakeSnapshot {
+
+    /** Written at the start of the file so we never read a file we didn't write */
+    private static final int MAGIC = 0x514b534e;
+
+    /** Bump this whenever the layout changes, snapshots written by other versions are ignored */
+    private static final int VERSION = 4;
+
+    /** Refuse to read anything bigger, a file this size can't be a snapshot we wrote */
+    private static final int MAX_FILE_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * The size of the columns of one earthquake: magnitude, time, updated and coordinates, and
+     * four indexes
+     */
+    private static final int BYTES_PER_EARTHQUAKE = 6 * 8 + 4 * 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The query URL the earthquakes were loaded for */
+    private final String mUrl;
+
+    /** The earthquakes in the snapshot, in the order they were loaded */
+    private final EarthquakeStore mStore;
+
+    private EarthquakeSnapshot(String url, EarthquakeStore store) {
+        mUrl = url;
+        mStore = store;
+    }
+
+    /** The query URL the earthquakes were loaded for */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /** The earthquakes in the snapshot */
+    public EarthquakeStore getStore() {
+        return mStore;
+    }
+
+    /** The earthquakes in the snapshot as a list, each one is created when it is read */
+    public List<Earthquake> getEarthquakes() {
+        return mStore.asList();
+    }
+
+    /**
+     * Write the earthquakes loaded for the given URL to the file, replacing any previous
+     * snapshot. The file is written under a temporary name and renamed, so a reader never
+     * sees half a snapshot.
+     *
+     * The store already keeps its columns and string table in the layout of the file, so
+     * they are streamed out as they are. A snapshot bigger than {@link #read} takes only
+     * keeps the earthquakes loaded first, the newest, that fit.
+     */
+    public static void write(File file, String url, EarthquakeStore store) throws IOException {
+        write(file, url, store, MAX_FILE_BYTES);
+    }
+
+    /** Same as {@link #write(File, String, EarthquakeStore)}, with a smaller limit for tests */
+    static void write(File file, String url, EarthquakeStore store, long maxFileBytes)
+            throws IOException {
+        if (fileSize(url, store) > maxFileBytes) {
+            store = newest(url, store, maxFileBytes);
+        }
+        int count = store.size();
+        int stringCount = store.getStringCount();
+
+        // A temporary file of our own, as the loader and the background sync may both write
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        boolean renamed = false;
+        try {
+            FileOutputStream fileOut = new FileOutputStream(temp);
+            try {
+                CheckedOutputStream checked = new CheckedOutputStream(fileOut, new CRC32());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, url);
+                out.writeInt(count);
+                out.writeInt(stringCount);
+                for (int i = 0; i < stringCount; i++) {
+                    writeString(out, store.getString(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeDouble(store.getMagnitude(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(store.getTimeInMilliseconds(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(store.getPlaceIndex(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(store.getRegionIndex(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(store.getWebsiteIndex(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(store.getIdIndex(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(store.getUpdatedInMilliseconds(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeDouble(store.getLongitude(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeDouble(store.getLatitude(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeDouble(store.getDepth(i));
+                }
+                // Everything above has been through the checksum once it is flushed
+                out.flush();
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+            renamed = temp.renameTo(file);
+        } finally {
+            if (!renamed) {
+                temp.delete();
+            }
+        }
+        if (!renamed) {
+            throw new IOException("Couldn't rename " + temp + " to " + file);
+        }
+    }
+
+    /** The number of bytes the snapshot of the store takes, as {@link #write} writes it */
+    private static long fileSize(String url, EarthquakeStore store) {
+        long size = headerSize(url) + (long) store.size() * BYTES_PER_EARTHQUAKE;
+        for (int i = 0; i < store.getStringCount(); i++) {
+            size += 4 + utf8Length(store.getString(i));
+        }
+        return size;
+    }
+
+    /** Magic, version, URL, the two counts and the checksum */
+    private static long headerSize(String url) {
+        return 4 + 4 + 4 + utf8Length(url) + 4 + 4 + 8;
+    }
+
+    /**
+     * A copy of the first earthquakes of the store that fit in the given number of bytes,
+     * along with only the strings they use.
+     */
+    private static EarthquakeStore newest(String url, EarthquakeStore store, long maxFileBytes) {
+        boolean[] used = new boolean[store.getStringCount()];
+        long size = headerSize(url);
+        int count = 0;
+        while (count < store.size()) {
+            int website = store.getWebsiteIndex(count);
+            int[] strings = {store.getPlaceIndex(count), store.getRegionIndex(count),
+                    website >= 0 ? website : ~website, store.getIdIndex(count)};
+            long earthquakeSize = BYTES_PER_EARTHQUAKE;
+            for (int j = 0; j < strings.length; j++) {
+                int index = strings[j];
+                if (index != EarthquakeStore.NO_STRING && !used[index]
+                        && indexOf(strings, index) == j) {
+                    earthquakeSize += 4 + utf8Length(store.getString(index));
+                }
+            }
+            if (size + earthquakeSize > maxFileBytes) {
+                break;
+            }
+            for (int index : strings) {
+                if (index != EarthquakeStore.NO_STRING) {
+                    used[index] = true;
+                }
+            }
+            size += earthquakeSize;
+            count++;
+        }
+
+        EarthquakeStore newest = new EarthquakeStore(count);
+        for (int i = 0; i < count; i++) {
+            newest.addFrom(store, i);
+        }
+        return newest;
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** The number of bytes the string takes in UTF-8, without encoding it */
+    private static int utf8Length(String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Read the snapshot in the given file.
+     *
+     * @return the snapshot, or null if there is no snapshot file
+     * @throws IOException if the file can't be read, was written by another version, or is
+     *                     corrupt (bad checksum or lengths that don't add up)
+     */
+    public static EarthquakeSnapshot read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        long length = file.length();
+        if (length < 8 || length > MAX_FILE_BYTES) {
+            throw new IOException("Snapshot has an invalid length: " + length);
+        }
+        byte[] data = readFully(file, (int) length);
+
+        // Check the CRC before trusting anything in the file
+        int payload = data.length - 8;
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, payload);
+        if (buffer.getLong(payload) != crc.getValue()) {
+            throw new IOException("Snapshot checksum doesn't match");
+        }
+        buffer.limit(payload);
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a snapshot file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            String url = readString(buffer);
+            int count = buffer.getInt();
+            int stringCount = buffer.getInt();
+            if (count < 0 || stringCount < 0 || count > buffer.remaining() / BYTES_PER_EARTHQUAKE) {
+                throw new IOException("Snapshot has invalid counts");
+            }
+            EarthquakeStore store = new EarthquakeStore(count);
+            for (int i = 0; i < stringCount; i++) {
+                if (store.intern(readString(buffer)) != i) {
+                    throw new IOException("Snapshot has a duplicate string");
+                }
+            }
+
+            // Each column is read in one pass, as the primitives are stored next to each other
+            double[] magnitudes = new double[count];
+            buffer.asDoubleBuffer().get(magnitudes);
+            buffer.position(buffer.position() + count * 8);
+            long[] times = new long[count];
+            buffer.asLongBuffer().get(times);
+            buffer.position(buffer.position() + count * 8);
+            int[] places = new int[count];
+            buffer.asIntBuffer().get(places);
+            buffer.position(buffer.position() + count * 4);
+            int[] regions = new int[count];
+            buffer.asIntBuffer().get(regions);
+            buffer.position(buffer.position() + count * 4);
+            int[] websites = new int[count];
+            buffer.asIntBuffer().get(websites);
+            buffer.position(buffer.position() + count * 4);
+            int[] ids = new int[count];
+            buffer.asIntBuffer().get(ids);
+            buffer.position(buffer.position() + count * 4);
+            long[] updated = new long[count];
+            buffer.asLongBuffer().get(updated);
+            buffer.position(buffer.position() + count * 8);
+            double[] longitudes = new double[count];
+            buffer.asDoubleBuffer().get(longitudes);
+            buffer.position(buffer.position() + count * 8);
+            double[] latitudes = new double[count];
+            buffer.asDoubleBuffer().get(latitudes);
+            buffer.position(buffer.position() + count * 8);
+            double[] depths = new double[count];
+            buffer.asDoubleBuffer().get(depths);
+            buffer.position(buffer.position() + count * 8);
+            if (buffer.hasRemaining()) {
+                throw new IOException("Snapshot has trailing bytes");
+            }
+
+            for (int i = 0; i < count; i++) {
+                int region = regions[i] == EarthquakeStore.NO_STRING
+                        ? EarthquakeStore.NO_STRING : checkIndex(regions[i], stringCount);
+                int website = websites[i] >= 0
+                        ? checkIndex(websites[i], stringCount) : ~checkIndex(~websites[i], stringCount);
+                store.addIndexed(magnitudes[i], checkIndex(places[i], stringCount), region,
+                        times[i], website, checkIndex(ids[i], stringCount), updated[i],
+                        longitudes[i], latitudes[i], depths[i]);
+            }
+            return new EarthquakeSnapshot(url, store);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Snapshot is truncated", e);
+        }
+    }
+
+    private static int checkIndex(int index, int stringCount) throws IOException {
+        if (index < 0 || index >= stringCount) {
+            throw new IOException("Snapshot has an invalid string index " + index);
+        }
+        return index;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Snapshot has an invalid string length " + length);
+        }
+        String string = new String(buffer.array(), buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    private static byte[] readFully(File file, int length) throws IOException {
+        byte[] data = new byte[length];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < length) {
+                int read = in.read(data, offset, length - offset);
+                if (read == -1) {
+                    throw new IOException("Snapshot is truncated");
+                }
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
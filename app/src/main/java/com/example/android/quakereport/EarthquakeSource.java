@@ -0,0 +1,71 @@
+package com.example.android.quakereport;
+
+/**
+ * Where {@link QueryUtils} gets the USGS response for a URL from.
+ *
+ * The app uses the {@link HttpEarthquakeSource}, which asks the USGS API. Anything else that
+ * can answer a USGS URL with CSV or GeoJSON can be plugged in with {@link QueryUtils#setSource},
+ * i.e. the load test, which answers from generated data so it never touches USGS.
+ */
+public interface EarthquakeSource {
+
+    /**
+     * Stream the response for the URL, CSV or GeoJSON, into the listener one earthquake at a
+     * time.
+     *
+     * @param etag the ETag of a cached response, so an unchanged one needn't be sent again.
+     *             May be null.
+     * @param lastModified the Last-Modified time of a cached response, may be null
+     * @param cancellation stops the fetch wherever it is, even in the middle of the body
+     * @return what came back, never null
+     */
+    Response fetch(String url, String etag, String lastModified, GeoJsonParser.Listener listener,
+                   Cancellation cancellation);
+
+    /**
+     * The outcome of {@link #fetch}.
+     */
+    final class Response {
+
+        /** Returned when no request could be made at all */
+        public static final Response FAILED = new Response(-1, null, null, false, false, false);
+
+        /** The HTTP response code, or -1 if there was none */
+        public final int code;
+
+        /** The validators the server sent back, to be stored with a cached response */
+        public final String etag;
+        public final String lastModified;
+
+        /** True if the body started being parsed, so the listener may have received earthquakes */
+        public final boolean parsed;
+
+        /** True if the whole body was parsed without an error */
+        public final boolean complete;
+
+        /** True if the request was cancelled or ran out of time before it was done */
+        public final boolean stopped;
+
+        /**
+         * The start of the body of a 4xx response, which says why the server refused the
+         * request. Null for any other response, or if the server didn't say.
+         */
+        public final String error;
+
+        public Response(int code, String etag, String lastModified, boolean parsed,
+                        boolean complete, boolean stopped) {
+            this(code, etag, lastModified, parsed, complete, stopped, null);
+        }
+
+        public Response(int code, String etag, String lastModified, boolean parsed,
+                        boolean complete, boolean stopped, String error) {
+            this.code = code;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.parsed = parsed;
+            this.complete = complete;
+            this.stopped = stopped;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,544 @@
+package com.example.android.quakereport;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds a set of earthquakes as parallel primitive arrays rather than one object each.
+ *
+ * Magnitudes and times live in a double[] and a long[], so scanning, filtering and sorting
+ * them reads memory in order instead of following a pointer per earthquake. Locations and
+ * websites (and event ids) are stored once each in a string table and referenced by index,
+ * in the same parts an {@link Earthquake} keeps them in: a location is its place and the
+ * region shared with other earthquakes, and a website that is the USGS prefix followed by the
+ * event id only refers to the prefix.
+ *
+ * Filtering and sorting work on selections: int arrays of positions in the store, which the
+ * caller owns and can reuse, so none of the operations allocate anything per earthquake.
+ * {@link #get(int)} and {@link #asList(int[], int)} create {@link Earthquake} objects only
+ * for the positions that are actually asked for.
+ *
+ * A store is not thread safe.
+ */
+public class EarthquakeStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Below this many elements the sorts switch to insertion sort */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private double[] mMagnitudes;
+    private long[] mTimes;
+    private int[] mPlaces;
+    /** NO_STRING if the location has no region */
+    private int[] mRegions;
+    /** The index of the whole website, or the complement (~index) of its prefix */
+    private int[] mWebsites;
+    private int[] mIds;
+    private long[] mUpdated;
+    /** Degrees and km, NaN where they aren't known */
+    private double[] mLongitudes;
+    private double[] mLatitudes;
+    private double[] mDepths;
+    private int mSize;
+
+    /** Goes up with every change, so a copy of the store can tell whether it is out of date */
+    private int mModCount;
+
+    /** Index for a string that isn't there, i.e. the region of a location without one */
+    static final int NO_STRING = -1;
+
+    /** Every distinct place, region, website (prefix) and id, and the index of each */
+    private String[] mStrings;
+    private int mStringCount;
+    private final Map<String, Integer> mStringIndexes = new HashMap<>();
+
+    public EarthquakeStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public EarthquakeStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mMagnitudes = new double[capacity];
+        mTimes = new long[capacity];
+        mPlaces = new int[capacity];
+        mRegions = new int[capacity];
+        mWebsites = new int[capacity];
+        mIds = new int[capacity];
+        mUpdated = new long[capacity];
+        mLongitudes = new double[capacity];
+        mLatitudes = new double[capacity];
+        mDepths = new double[capacity];
+        mStrings = new String[capacity];
+    }
+
+    /** Build a store holding the given earthquakes in the same order */
+    public static EarthquakeStore of(List<Earthquake> earthquakes) {
+        EarthquakeStore store = new EarthquakeStore(earthquakes.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            store.add(earthquakes.get(i));
+        }
+        return store;
+    }
+
+    /** Number of earthquakes in the store */
+    public int size() {
+        return mSize;
+    }
+
+    /** Changes whenever an earthquake is added, replaced or removed */
+    public int getModCount() {
+        return mModCount;
+    }
+
+    /** Append an earthquake, returning its position in the store */
+    public int add(Earthquake earthquake) {
+        return addIndexed(earthquake.getMagnitude(), intern(earthquake.getPlace()),
+                internOrNone(earthquake.getRegion()), earthquake.getTimeInMilliseconds(),
+                internWebsite(earthquake), intern(earthquake.getId()),
+                earthquake.getUpdatedInMilliseconds(), earthquake.getLongitude(),
+                earthquake.getLatitude(), earthquake.getDepth());
+    }
+
+    /** Append an earthquake, returning its position in the store */
+    public int add(double magnitude, String location, long timeInMilliseconds, String website,
+                   String id, long updatedInMilliseconds) {
+        return add(new Earthquake(magnitude, location, timeInMilliseconds, website, id,
+                updatedInMilliseconds));
+    }
+
+    /**
+     * Append an earthquake whose strings are already in the string table. Used when reading
+     * a store back from a snapshot.
+     *
+     * @param region the index of the region, or NO_STRING
+     * @param website the index of the website, or the complement of the index of its prefix
+     */
+    int addIndexed(double magnitude, int place, int region, long timeInMilliseconds, int website,
+                   int id, long updatedInMilliseconds, double longitude, double latitude,
+                   double depth) {
+        if (mSize == mMagnitudes.length) {
+            int capacity = mSize * 2;
+            mMagnitudes = Arrays.copyOf(mMagnitudes, capacity);
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mPlaces = Arrays.copyOf(mPlaces, capacity);
+            mRegions = Arrays.copyOf(mRegions, capacity);
+            mWebsites = Arrays.copyOf(mWebsites, capacity);
+            mIds = Arrays.copyOf(mIds, capacity);
+            mUpdated = Arrays.copyOf(mUpdated, capacity);
+            mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+            mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+            mDepths = Arrays.copyOf(mDepths, capacity);
+        }
+        mMagnitudes[mSize] = magnitude;
+        mTimes[mSize] = timeInMilliseconds;
+        mPlaces[mSize] = place;
+        mRegions[mSize] = region;
+        mWebsites[mSize] = website;
+        mIds[mSize] = id;
+        mUpdated[mSize] = updatedInMilliseconds;
+        mLongitudes[mSize] = longitude;
+        mLatitudes[mSize] = latitude;
+        mDepths[mSize] = depth;
+        mModCount++;
+        return mSize++;
+    }
+
+    /**
+     * Replace the earthquake at the given position, i.e. with a revised version of it.
+     * The strings of the old version stay in the string table.
+     */
+    public void set(int position, Earthquake earthquake) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+        mMagnitudes[position] = earthquake.getMagnitude();
+        mTimes[position] = earthquake.getTimeInMilliseconds();
+        mPlaces[position] = intern(earthquake.getPlace());
+        mRegions[position] = internOrNone(earthquake.getRegion());
+        mWebsites[position] = internWebsite(earthquake);
+        mIds[position] = intern(earthquake.getId());
+        mUpdated[position] = earthquake.getUpdatedInMilliseconds();
+        mLongitudes[position] = earthquake.getLongitude();
+        mLatitudes[position] = earthquake.getLatitude();
+        mDepths[position] = earthquake.getDepth();
+        mModCount++;
+    }
+
+    /** Append the earthquake at the given position of another store, returning its position */
+    public int addFrom(EarthquakeStore other, int position) {
+        int region = other.mRegions[position];
+        int website = other.mWebsites[position];
+        return addIndexed(other.mMagnitudes[position], intern(other.getPlace(position)),
+                region == NO_STRING ? NO_STRING : intern(other.mStrings[region]),
+                other.mTimes[position],
+                website >= 0 ? intern(other.mStrings[website]) : ~intern(other.mStrings[~website]),
+                intern(other.getId(position)), other.mUpdated[position],
+                other.mLongitudes[position], other.mLatitudes[position], other.mDepths[position]);
+    }
+
+    /** Append every earthquake of another store */
+    public void addAll(EarthquakeStore other) {
+        for (int i = 0; i < other.mSize; i++) {
+            addFrom(other, i);
+        }
+    }
+
+    /** Remove every earthquake and string */
+    public void clear() {
+        mSize = 0;
+        mModCount++;
+        Arrays.fill(mStrings, 0, mStringCount, null);
+        mStringCount = 0;
+        mStringIndexes.clear();
+    }
+
+    /**
+     * Return the index of the string in the string table, adding it if it isn't there yet.
+     */
+    int intern(String string) {
+        Integer index = mStringIndexes.get(string);
+        if (index == null) {
+            if (mStringCount == mStrings.length) {
+                mStrings = Arrays.copyOf(mStrings, mStringCount * 2);
+            }
+            index = mStringCount;
+            mStrings[mStringCount++] = string;
+            mStringIndexes.put(string, index);
+        }
+        return index;
+    }
+
+    /** The index of the string, or NO_STRING if it is null */
+    private int internOrNone(String string) {
+        return string == null ? NO_STRING : intern(string);
+    }
+
+    /** The index of the earthquake's website, or the complement of the index of its prefix */
+    private int internWebsite(Earthquake earthquake) {
+        String prefix = earthquake.getWebsitePrefix();
+        return prefix != null ? ~intern(prefix) : intern(earthquake.getWebsite());
+    }
+
+    /** Number of distinct strings in the string table */
+    int getStringCount() {
+        return mStringCount;
+    }
+
+    /** The string at the given index of the string table */
+    String getString(int index) {
+        return mStrings[index];
+    }
+
+    public double getMagnitude(int position) {
+        return mMagnitudes[position];
+    }
+
+    public long getTimeInMilliseconds(int position) {
+        return mTimes[position];
+    }
+
+    public String getLocation(int position) {
+        return Earthquake.locationOf(getPlace(position), getRegion(position));
+    }
+
+    public String getWebsite(int position) {
+        int website = mWebsites[position];
+        return website >= 0 ? mStrings[website] : mStrings[~website] + getId(position);
+    }
+
+    /** The location up to its region */
+    String getPlace(int position) {
+        return mStrings[mPlaces[position]];
+    }
+
+    /** The region at the end of the location, or null if it has none */
+    String getRegion(int position) {
+        int region = mRegions[position];
+        return region == NO_STRING ? null : mStrings[region];
+    }
+
+    /** The USGS event id, or "" if it isn't known */
+    public String getId(int position) {
+        return mStrings[mIds[position]];
+    }
+
+    public long getUpdatedInMilliseconds(int position) {
+        return mUpdated[position];
+    }
+
+    /** The longitude in degrees, or NaN if it isn't known */
+    public double getLongitude(int position) {
+        return mLongitudes[position];
+    }
+
+    /** The latitude in degrees, or NaN if it isn't known */
+    public double getLatitude(int position) {
+        return mLatitudes[position];
+    }
+
+    /** The depth in km, or NaN if it isn't known */
+    public double getDepth(int position) {
+        return mDepths[position];
+    }
+
+    /** The string table index of the id at the given position */
+    int getIdIndex(int position) {
+        return mIds[position];
+    }
+
+    /** The string table index of the place at the given position */
+    int getPlaceIndex(int position) {
+        return mPlaces[position];
+    }
+
+    /** The string table index of the region at the given position, or NO_STRING */
+    int getRegionIndex(int position) {
+        return mRegions[position];
+    }
+
+    /**
+     * The string table index of the website at the given position, or the complement of the
+     * index of its prefix if the website is the prefix followed by the id
+     */
+    int getWebsiteIndex(int position) {
+        return mWebsites[position];
+    }
+
+    /** Create an {@link Earthquake} for the given position */
+    public Earthquake get(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+        int website = mWebsites[position];
+        return new Earthquake(mMagnitudes[position], getPlace(position), getRegion(position),
+                mTimes[position], website >= 0 ? null : mStrings[~website],
+                website >= 0 ? mStrings[website] : null, getId(position), mUpdated[position],
+                false, mLongitudes[position], mLatitudes[position], mDepths[position]);
+    }
+
+    /**
+     * A read-only list over every earthquake in the store. Each {@link Earthquake} is created
+     * when it is asked for, nothing is copied up front.
+     */
+    public List<Earthquake> asList() {
+        return asList(null, mSize);
+    }
+
+    /**
+     * A read-only list over the first count positions of the selection, in selection order.
+     *
+     * @param selection positions in the store, or null for every position in order
+     */
+    public List<Earthquake> asList(final int[] selection, final int count) {
+        return new AbstractList<Earthquake>() {
+            @Override
+            public Earthquake get(int index) {
+                if (index < 0 || index >= count) {
+                    throw new IndexOutOfBoundsException("Index " + index + ", size " + count);
+                }
+                return EarthquakeStore.this.get(selection == null ? index : selection[index]);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+
+    /** SELECTIONS **/
+
+    /** Return a new selection of every position in the store, in order */
+    public int[] selectAll() {
+        int[] selection = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            selection[i] = i;
+        }
+        return selection;
+    }
+
+    /**
+     * Write the positions of the earthquakes with a magnitude in [minMagnitude, maxMagnitude]
+     * into out, in store order.
+     *
+     * @param out must have room for {@link #size()} positions
+     * @return the number of positions written
+     */
+    public int filterByMagnitude(double minMagnitude, double maxMagnitude, int[] out) {
+        int count = 0;
+        for (int i = 0; i < mSize; i++) {
+            double magnitude = mMagnitudes[i];
+            if (magnitude >= minMagnitude && magnitude <= maxMagnitude) {
+                out[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write the positions of the earthquakes with a time in [fromMillis, toMillis] into out,
+     * in store order.
+     *
+     * @param out must have room for {@link #size()} positions
+     * @return the number of positions written
+     */
+    public int filterByTime(long fromMillis, long toMillis, int[] out) {
+        int count = 0;
+        for (int i = 0; i < mSize; i++) {
+            long time = mTimes[i];
+            if (time >= fromMillis && time <= toMillis) {
+                out[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Keep only the positions of the selection whose magnitude is at least minMagnitude and
+     * whose time is in [fromMillis, toMillis], compacting them to the front of the selection.
+     *
+     * @return the number of positions kept
+     */
+    public int retain(int[] selection, int count, double minMagnitude, long fromMillis, long toMillis) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int position = selection[i];
+            long time = mTimes[position];
+            if (mMagnitudes[position] >= minMagnitude && time >= fromMillis && time <= toMillis) {
+                selection[kept++] = position;
+            }
+        }
+        return kept;
+    }
+
+    /** Sort the first count positions of the selection by magnitude */
+    public void sortByMagnitude(int[] selection, int count, boolean descending) {
+        sort(mMagnitudes, null, selection, 0, count - 1);
+        if (descending) {
+            reverse(selection, count);
+        }
+    }
+
+    /** Sort the first count positions of the selection by time */
+    public void sortByTime(int[] selection, int count, boolean descending) {
+        sort(null, mTimes, selection, 0, count - 1);
+        if (descending) {
+            reverse(selection, count);
+        }
+    }
+
+    /**
+     * In a selection sorted by ascending magnitude, return the first index whose magnitude is
+     * at least the given magnitude (or count if there is none).
+     */
+    public int lowerBoundByMagnitude(int[] sortedSelection, int count, double magnitude) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mMagnitudes[sortedSelection[middle]] < magnitude) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * In a selection sorted by ascending time, return the first index whose time is at least
+     * the given time (or count if there is none).
+     */
+    public int lowerBoundByTime(int[] sortedSelection, int count, long timeInMilliseconds) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mTimes[sortedSelection[middle]] < timeInMilliseconds) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Quicksort of selection[low..high] by one of the key columns (the other is null). Ties
+     * are broken by position so the order is deterministic.
+     */
+    private static void sort(double[] doubleKeys, long[] longKeys, int[] selection, int low, int high) {
+        while (high - low >= INSERTION_SORT_THRESHOLD) {
+            // Median of three as the pivot, to avoid the worst case on already sorted input
+            int middle = (low + high) >>> 1;
+            if (less(doubleKeys, longKeys, selection[middle], selection[low])) {
+                swap(selection, middle, low);
+            }
+            if (less(doubleKeys, longKeys, selection[high], selection[low])) {
+                swap(selection, high, low);
+            }
+            if (less(doubleKeys, longKeys, selection[high], selection[middle])) {
+                swap(selection, high, middle);
+            }
+            int pivot = selection[middle];
+
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (less(doubleKeys, longKeys, selection[i], pivot)) {
+                    i++;
+                }
+                while (less(doubleKeys, longKeys, pivot, selection[j])) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(selection, i++, j--);
+                }
+            }
+
+            // Recurse into the smaller half and loop on the bigger one to bound the stack depth
+            if (j - low < high - i) {
+                sort(doubleKeys, longKeys, selection, low, j);
+                low = i;
+            } else {
+                sort(doubleKeys, longKeys, selection, i, high);
+                high = j;
+            }
+        }
+
+        for (int i = low + 1; i <= high; i++) {
+            int value = selection[i];
+            int j = i - 1;
+            while (j >= low && less(doubleKeys, longKeys, value, selection[j])) {
+                selection[j + 1] = selection[j];
+                j--;
+            }
+            selection[j + 1] = value;
+        }
+    }
+
+    private static boolean less(double[] doubleKeys, long[] longKeys, int a, int b) {
+        if (doubleKeys != null) {
+            int compare = Double.compare(doubleKeys[a], doubleKeys[b]);
+            return compare < 0 || (compare == 0 && a < b);
+        }
+        return longKeys[a] < longKeys[b] || (longKeys[a] == longKeys[b] && a < b);
+    }
+
+    private static void swap(int[] array, int a, int b) {
+        int value = array[a];
+        array[a] = array[b];
+        array[b] = value;
+    }
+
+    private static void reverse(int[] array, int count) {
+        for (int i = 0, j = count - 1; i < j; i++, j--) {
+            swap(array, i, j);
+        }
+    }
+}
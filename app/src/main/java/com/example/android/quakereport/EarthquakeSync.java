@@ -0,0 +1,232 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Keeps the earthquakes of a query up to date without downloading them all again.
+ *
+ * Every earthquake USGS sends has an "updated" time. The newest one we have seen for a query
+ * is remembered as its watermark, and a sync only asks for the earthquakes updated after it
+ * (the updatedafter parameter). That is usually a handful of earthquakes rather than the
+ * whole window, and an {@link EarthquakeMerger} merges them into the earthquakes we already
+ * hold by their event id.
+ *
+ * Watermarks are kept in their own SharedPreferences file, under the key of the query without
+ * its start time (see {@link EarthquakeQuery#toSyncKey()}), as a window of history starts a
+ * day later every day. The start of the window that was synced is kept next to it, so a
+ * longer window isn't taken for the one we hold. Only the query synced last is kept, like
+ * the snapshot, so the file doesn't grow with every query that was ever shown.
+ */
+public class EarthquakeSync {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = EarthquakeSync.class.getName();
+
+    /** Name of the SharedPreferences file the watermarks are kept in */
+    private static final String PREFERENCES_NAME = "earthquake_sync";
+
+    /** Appended to the key of a query with a start time, for the start of the synced window */
+    private static final String START_TIME_SUFFIX = "#starttime";
+
+    private final SharedPreferences mPreferences;
+
+    private final EarthquakeQuery mQuery;
+
+    /** The watermark is kept under the key of the query, see {@link EarthquakeQuery#toSyncKey()} */
+    private final String mKey;
+
+    /** The start of the synced window is kept under this key */
+    private final String mStartTimeKey;
+
+    public EarthquakeSync(Context context, EarthquakeQuery query) {
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        mQuery = query;
+        mKey = query.toSyncKey();
+        mStartTimeKey = mKey + START_TIME_SUFFIX;
+    }
+
+    /** The newest update time we have seen for the query, or 0 if it was never synced */
+    public long getWatermark() {
+        return holdsWindow() ? mPreferences.getLong(mKey, 0) : 0;
+    }
+
+    /**
+     * True if what was synced under the key holds the window of the query: the latest
+     * earthquakes for a query without a start time, or a window that starts no later for one
+     * with a start time.
+     */
+    private boolean holdsWindow() {
+        if (mQuery.getStartTime() == EarthquakeQuery.UNBOUNDED) {
+            return !mPreferences.contains(mStartTimeKey);
+        }
+        return mPreferences.getLong(mStartTimeKey, Long.MAX_VALUE) <= mQuery.getStartTime();
+    }
+
+    /**
+     * Remember the newest update time of the given earthquakes, after they were downloaded in
+     * full or merged in by an {@link EarthquakeMerger}. The watermark of a window never goes
+     * backwards. The watermarks of every other query are removed.
+     */
+    public void recordSynced(List<Earthquake> earthquakes) {
+        long watermark = getWatermark();
+        long newest = watermark;
+        for (int i = 0; i < earthquakes.size(); i++) {
+            newest = Math.max(newest, earthquakes.get(i).getUpdatedInMilliseconds());
+        }
+        boolean history = mQuery.getStartTime() != EarthquakeQuery.UNBOUNDED;
+        boolean sameWindow = history
+                ? mPreferences.getLong(mStartTimeKey, 0) == mQuery.getStartTime()
+                : !mPreferences.contains(mStartTimeKey);
+        if (newest == watermark && sameWindow) {
+            return;
+        }
+        SharedPreferences.Editor editor = mPreferences.edit();
+        for (String key : mPreferences.getAll().keySet()) {
+            if (!key.equals(mKey)) {
+                editor.remove(key);
+            }
+        }
+        editor.putLong(mKey, newest);
+        if (history) {
+            editor.putLong(mStartTimeKey, mQuery.getStartTime());
+        }
+        editor.apply();
+    }
+
+    /** Forget the watermark, so the next load downloads everything */
+    public void reset() {
+        mPreferences.edit().remove(mKey).remove(mStartTimeKey).apply();
+    }
+
+    /**
+     * The earthquakes of the snapshot, if it holds the window of the query. A snapshot of
+     * yesterday's window also holds the day that has since dropped out of it, which is left
+     * out.
+     *
+     * @return the earthquakes, or null if there is no snapshot or it was taken of another
+     *         query
+     * @throws IOException if the snapshot couldn't be read
+     */
+    public EarthquakeStore readSnapshot(File snapshotFile) throws IOException {
+        EarthquakeSnapshot snapshot = EarthquakeSnapshot.read(snapshotFile);
+        if (snapshot == null || !snapshot.getUrl().equals(mKey) || !holdsWindow()) {
+            return null;
+        }
+        long startTime = mQuery.getStartTime();
+        EarthquakeStore store = snapshot.getStore();
+        if (startTime == EarthquakeQuery.UNBOUNDED) {
+            return store;
+        }
+        EarthquakeStore window = new EarthquakeStore(store.size());
+        for (int i = 0; i < store.size(); i++) {
+            if (store.getTimeInMilliseconds(i) >= startTime) {
+                window.addFrom(store, i);
+            }
+        }
+        return window;
+    }
+
+    /** Replace the snapshot with the given earthquakes of the query */
+    public void writeSnapshot(File snapshotFile, EarthquakeStore store) throws IOException {
+        EarthquakeSnapshot.write(snapshotFile, mKey, store);
+    }
+
+    /**
+     * Download the earthquakes updated since the watermark.
+     *
+     * @return the updated earthquakes, or null if the request failed. If there were as many
+     *         changes as one request can return, some may be missing and the caller should
+     *         load everything again instead, see {@link #isTooManyChanges}.
+     */
+    public List<Earthquake> fetchChanges() {
+        return fetchChanges(new Cancellation());
+    }
+
+    /**
+     * Same as {@link #fetchChanges()}, but stop as soon as the cancellation says so. Only a
+     * complete list of changes can be merged, so a stopped download returns null.
+     */
+    public List<Earthquake> fetchChanges(Cancellation cancellation) {
+        long watermark = getWatermark();
+        if (watermark == 0) {
+            return null;
+        }
+        List<Earthquake> changes = QueryUtils.fetchCompleteEarthquakeData(
+                mQuery.toUpdatesUrl(watermark, EarthquakeSliceFetcher.MAX_EVENTS_PER_QUERY),
+                cancellation);
+        if (changes != null) {
+            Log.i(LOG_TAG, changes.size() + " earthquakes updated since " + watermark);
+        }
+        return changes;
+    }
+
+    /**
+     * Bring the snapshot up to date for the query, used by the background sync. If the
+     * snapshot holds the query and it has a watermark, only the changes since then are
+     * downloaded and merged in. Otherwise the first page (or the whole window of a query with
+     * a start time) is downloaded and replaces the snapshot.
+     *
+     * @param pageSize the number of earthquakes the first page holds
+     * @return true if the snapshot is now up to date
+     */
+    public boolean syncSnapshot(File snapshotFile, int pageSize) {
+        boolean history = mQuery.getStartTime() != EarthquakeQuery.UNBOUNDED;
+        EarthquakeStore store = new EarthquakeStore();
+        EarthquakeMerger merger = new EarthquakeMerger(store);
+
+        EarthquakeStore snapshot = null;
+        try {
+            snapshot = readSnapshot(snapshotFile);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake snapshot", e);
+        }
+
+        List<Earthquake> earthquakes = null;
+        if (snapshot != null && getWatermark() != 0) {
+            List<Earthquake> changes = fetchChanges();
+            if (changes == null) {
+                return false;
+            }
+            if (!isTooManyChanges(changes)) {
+                store.addAll(snapshot);
+                merger.reindex();
+                // Changes older than the pages in the snapshot are picked up by those pages
+                long oldestTime = history || store.size() == 0
+                        ? Long.MIN_VALUE : store.getTimeInMilliseconds(store.size() - 1);
+                EarthquakeMerger.Result result = merger.merge(changes, oldestTime);
+                Log.i(LOG_TAG, "Synced the snapshot: " + result);
+                earthquakes = changes;
+            }
+        }
+
+        if (earthquakes == null) {
+            earthquakes = history
+                    ? new EarthquakeSliceFetcher().fetch(mQuery)
+                    : QueryUtils.fetchCompleteEarthquakeData(mQuery.toUrl(1, pageSize));
+            if (earthquakes == null) {
+                return false;
+            }
+            merger.merge(earthquakes, Long.MIN_VALUE);
+        }
+
+        try {
+            writeSnapshot(snapshotFile, store);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquake snapshot", e);
+            return false;
+        }
+        recordSynced(earthquakes);
+        return true;
+    }
+
+    /** True if a sync returned as many changes as one request can hold */
+    public static boolean isTooManyChanges(List<Earthquake> changes) {
+        return changes.size() >= EarthquakeSliceFetcher.MAX_EVENTS_PER_QUERY;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.quakereport;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Refreshes the snapshot of the current query in the background, so that opening the app
+ * usually only has to read it from disk.
+ *
+ * The service runs when an alarm set by {@link #schedule} goes off. A {@link SyncScheduler}
+ * decides whether a trigger actually syncs (overlapping triggers are coalesced into one fetch)
+ * and when the next alarm is due (one interval later, or sooner with an exponential backoff
+ * after a failure). Its state is kept in SharedPreferences between runs.
+ *
+ * IntentService handles one intent at a time, so two syncs never run at the same time. An
+ * alarm that goes off while a sync is running (i.e. set again when the app was opened) is
+ * queued behind it, and skipped once it runs if that sync finished after the alarm was due.
+ */
+public class EarthquakeSyncService extends IntentService {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = EarthquakeSyncService.class.getName();
+
+    /** When the trigger was requested, so triggers that a sync already covered are skipped */
+    private static final String EXTRA_REQUESTED_AT = "requested_at";
+
+    /** Name of the SharedPreferences file the scheduler state is kept in */
+    private static final String PREFERENCES_NAME = "earthquake_sync_scheduler";
+    private static final String KEY_LAST_SUCCESS = "last_success";
+    private static final String KEY_LAST_FINISHED = "last_finished";
+    private static final String KEY_FAILURES = "failures";
+
+    /** The key of the query the last successful sync was for, see {@link EarthquakeQuery#toSyncKey()} */
+    private static final String KEY_LAST_SUCCESS_QUERY = "last_success_query";
+
+    /** Number of earthquakes synced when the query is paged */
+    private static final int PAGE_SIZE = EarthquakeActivity.PAGE_SIZE;
+
+    public EarthquakeSyncService() {
+        super("EarthquakeSyncService");
+    }
+
+    /**
+     * Set the alarm for the next sync, or cancel it if background syncing is turned off.
+     * Called whenever the app starts, as alarms don't survive a reboot.
+     */
+    public static void schedule(Context context) {
+        SyncScheduler scheduler = loadScheduler(context, Clock.SYSTEM);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        long nextSyncTime = scheduler.getNextSyncTime();
+        // The alarm is the trigger, and it was requested for the time it goes off. A sync that
+        // finishes after that time, while this one waits behind it, has already covered it.
+        Intent intent = new Intent(context, EarthquakeSyncService.class)
+                .putExtra(EXTRA_REQUESTED_AT, nextSyncTime);
+        PendingIntent alarmIntent = PendingIntent.getService(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        if (!scheduler.isEnabled()) {
+            alarmManager.cancel(alarmIntent);
+            return;
+        }
+        // RTC rather than RTC_WAKEUP: if the device is asleep the sync waits until it wakes
+        alarmManager.set(AlarmManager.RTC, nextSyncTime, alarmIntent);
+    }
+
+    /**
+     * True if the background sync brought the snapshot of the given query up to date less
+     * than an interval ago, so the loader can show it without going to the network. A sync
+     * of any other query (i.e. before the settings changed) doesn't count.
+     */
+    public static boolean isSnapshotFresh(Context context, EarthquakeQuery query) {
+        String syncedKey = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .getString(KEY_LAST_SUCCESS_QUERY, null);
+        return query.toSyncKey().equals(syncedKey) && loadScheduler(context, Clock.SYSTEM).isFresh();
+    }
+
+    /** When the background sync last succeeded, 0 if it never has */
+    public static long getLastSuccess(Context context) {
+        return loadScheduler(context, Clock.SYSTEM).getLastSuccess();
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        SyncScheduler scheduler = loadScheduler(this, Clock.SYSTEM);
+        // An intent without the time of its trigger counts as a trigger from now
+        long requestedAt = intent != null && intent.hasExtra(EXTRA_REQUESTED_AT)
+                ? intent.getLongExtra(EXTRA_REQUESTED_AT, 0) : scheduler.trigger();
+
+        if (scheduler.begin(requestedAt)) {
+            EarthquakeQuery query = EarthquakeActivity.buildQuery(this);
+            boolean success = new EarthquakeSync(this, query)
+                    .syncSnapshot(EarthquakeLoader.snapshotFile(this), PAGE_SIZE);
+            scheduler.finish(success);
+            saveScheduler(this, scheduler, success ? query : null);
+            Log.i(LOG_TAG, success ? "Background sync finished"
+                    : "Background sync failed " + scheduler.getFailures() + " times");
+        } else {
+            Log.i(LOG_TAG, "Background sync skipped, already covered or backing off");
+        }
+        schedule(this);
+    }
+
+    /** The scheduler with the interval from the settings and the state of the last sync */
+    static SyncScheduler loadScheduler(Context context, Clock clock) {
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
+        String minutes = settings.getString(
+                context.getString(R.string.settings_sync_interval_key),
+                context.getString(R.string.settings_sync_interval_default));
+        long intervalMillis;
+        try {
+            intervalMillis = Long.parseLong(minutes) * 60 * 1000;
+        } catch (NumberFormatException e) {
+            Log.e(LOG_TAG, "Invalid sync interval " + minutes, e);
+            intervalMillis = Long.parseLong(
+                    context.getString(R.string.settings_sync_interval_default)) * 60 * 1000;
+        }
+
+        SharedPreferences state = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        return new SyncScheduler(clock, intervalMillis,
+                state.getLong(KEY_LAST_SUCCESS, 0),
+                state.getLong(KEY_LAST_FINISHED, 0),
+                state.getInt(KEY_FAILURES, 0));
+    }
+
+    /**
+     * @param syncedQuery the query a sync just succeeded for, or null to keep the one stored
+     */
+    private static void saveScheduler(Context context, SyncScheduler scheduler,
+                                      EarthquakeQuery syncedQuery) {
+        SharedPreferences.Editor editor =
+                context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit()
+                        .putLong(KEY_LAST_SUCCESS, scheduler.getLastSuccess())
+                        .putLong(KEY_LAST_FINISHED, scheduler.getLastFinished())
+                        .putInt(KEY_FAILURES, scheduler.getFailures());
+        if (syncedQuery != null) {
+            editor.putString(KEY_LAST_SUCCESS_QUERY, syncedQuery.toSyncKey());
+        }
+        editor.apply();
+    }
+}
@@ -0,0 +1,549 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Streaming parser for the USGS GeoJSON feed.
+ *
+ * Instead of reading the whole response into a String and building a JSONObject tree, this
+ * walks the characters of the response once and hands each {@link Earthquake} to a
+ * {@link Listener} as soon as its feature object has been read. Only the fields of the
+ * current feature are held in memory, so the cost doesn't grow with the size of the response.
+ *
+ * Parsing can be stopped part way with a {@link Cancellation}, which is checked before every
+ * read from the stream and after every earthquake. A stopped parse throws an
+ * InterruptedIOException, the earthquakes before it have already gone to the listener.
+ */
+public final class GeoJsonParser {
+
+    /** Receives each earthquake as soon as it has been parsed */
+    public interface Listener {
+        void onEarthquake(Earthquake earthquake);
+    }
+
+    /** Size of the character buffer we read the stream into */
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader mReader;
+
+    /** Checked as the parse goes along, may be null */
+    private final Cancellation mCancellation;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mPos;
+    private int mLimit;
+
+    /** Reused for every string and number token, so tokens don't each allocate a builder */
+    private final StringBuilder mToken = new StringBuilder();
+
+    /** Fields of the feature currently being parsed */
+    private double mMagnitude;
+    private String mPlace;
+    private String mRegion;
+    private long mTime;
+    private String mUrl;
+    private String mId;
+    private long mUpdated;
+    private boolean mDeleted;
+    private double mLongitude;
+    private double mLatitude;
+    private double mDepth;
+
+    private GeoJsonParser(Reader reader, Cancellation cancellation) {
+        mReader = reader;
+        mCancellation = cancellation;
+    }
+
+    /**
+     * Parse the GeoJSON response in the given {@link InputStream}, calling the listener once
+     * for every feature.
+     *
+     * @return the number of earthquakes that were passed to the listener
+     * @throws IOException if the stream can't be read or doesn't contain valid JSON
+     */
+    public static int parse(InputStream inputStream, Listener listener) throws IOException {
+        return parse(inputStream, listener, null);
+    }
+
+    /**
+     * Same as {@link #parse(InputStream, Listener)}, but stop as soon as the cancellation
+     * says so.
+     *
+     * @param cancellation checked before every read and after every earthquake, may be null
+     * @throws java.io.InterruptedIOException if the parse was stopped by the cancellation
+     */
+    public static int parse(InputStream inputStream, Listener listener,
+                            Cancellation cancellation) throws IOException {
+        return parse(new InputStreamReader(inputStream, Charset.forName("UTF-8")), listener,
+                cancellation);
+    }
+
+    /**
+     * Parse the GeoJSON in the given {@link Reader}, calling the listener once for every feature.
+     */
+    public static int parse(Reader reader, Listener listener) throws IOException {
+        return parse(reader, listener, null);
+    }
+
+    /**
+     * Parse the GeoJSON in the given {@link Reader}, stopping as soon as the cancellation
+     * says so.
+     */
+    public static int parse(Reader reader, Listener listener, Cancellation cancellation)
+            throws IOException {
+        return new GeoJsonParser(reader, cancellation).readRoot(listener);
+    }
+
+    /** THE TOP LEVEL OBJECT, we only care about the "features" array and skip everything else */
+    private int readRoot(Listener listener) throws IOException {
+        int count = 0;
+        expect('{');
+        if (!endOfObject()) {
+            do {
+                String name = readName();
+                if (name.equals("features")) {
+                    count += readFeatures(listener);
+                } else {
+                    skipValue();
+                }
+            } while (nextMember('}'));
+        }
+        return count;
+    }
+
+    /** THE FEATURES ARRAY, each element is one earthquake */
+    private int readFeatures(Listener listener) throws IOException {
+        int count = 0;
+        if (peekNull()) {
+            return 0;
+        }
+        expect('[');
+        if (!endOfArray()) {
+            do {
+                if (readFeature()) {
+                    listener.onEarthquake(new Earthquake(mMagnitude, mPlace, mRegion, mTime,
+                            Earthquake.websitePrefixOf(mUrl, mId), mUrl, mId, mUpdated, mDeleted,
+                            mLongitude, mLatitude, mDepth));
+                    count++;
+                    if (mCancellation != null) {
+                        mCancellation.throwIfStopped();
+                    }
+                }
+            } while (nextMember(']'));
+        }
+        return count;
+    }
+
+    /**
+     * Read a single feature object.
+     *
+     * @return true if the feature had a "properties" object, false if it should be ignored
+     */
+    private boolean readFeature() throws IOException {
+        if (peekNull()) {
+            return false;
+        }
+        boolean hasProperties = false;
+        mId = "";
+        mLongitude = Double.NaN;
+        mLatitude = Double.NaN;
+        mDepth = Double.NaN;
+        expect('{');
+        if (!endOfObject()) {
+            do {
+                String name = readName();
+                if (peekNull()) {
+                    continue;
+                }
+                if (name.equals("properties")) {
+                    readProperties();
+                    hasProperties = true;
+                } else if (name.equals("id")) {
+                    mId = readString();
+                } else if (name.equals("geometry")) {
+                    readGeometry();
+                } else {
+                    skipValue();
+                }
+            } while (nextMember('}'));
+        }
+        return hasProperties;
+    }
+
+    /** Read the "properties" object of a feature, keeping the values an Earthquake needs */
+    private void readProperties() throws IOException {
+        mMagnitude = 0;
+        mPlace = "";
+        mRegion = null;
+        mTime = 0;
+        mUrl = "";
+        mUpdated = 0;
+        mDeleted = false;
+
+        expect('{');
+        if (endOfObject()) {
+            return;
+        }
+        do {
+            String name = readName();
+            if (peekNull()) {
+                continue;
+            }
+            if (name.equals("mag")) {
+                mMagnitude = readDouble();
+            } else if (name.equals("place")) {
+                readPlace();
+            } else if (name.equals("time")) {
+                mTime = readLong();
+            } else if (name.equals("url")) {
+                mUrl = readString();
+            } else if (name.equals("updated")) {
+                mUpdated = readLong();
+            } else if (name.equals("status")) {
+                // Deleted events are only sent when asked for with includedeleted
+                mDeleted = readString().equals("deleted");
+            } else {
+                skipValue();
+            }
+        } while (nextMember('}'));
+
+        // An earthquake that was never revised has only been updated when it happened
+        if (mUpdated == 0) {
+            mUpdated = mTime;
+        }
+    }
+
+    /**
+     * Read the "geometry" object of a feature, a point whose "coordinates" are the longitude,
+     * latitude and depth of the earthquake
+     */
+    private void readGeometry() throws IOException {
+        expect('{');
+        if (endOfObject()) {
+            return;
+        }
+        do {
+            String name = readName();
+            if (peekNull()) {
+                continue;
+            }
+            if (name.equals("coordinates")) {
+                readCoordinates();
+            } else {
+                skipValue();
+            }
+        } while (nextMember('}'));
+    }
+
+    /** Read the coordinates array, ignoring anything after the depth */
+    private void readCoordinates() throws IOException {
+        expect('[');
+        if (endOfArray()) {
+            return;
+        }
+        int index = 0;
+        do {
+            if (peekNull()) {
+                index++;
+                continue;
+            }
+            if (index == 0) {
+                mLongitude = readDouble();
+            } else if (index == 1) {
+                mLatitude = readDouble();
+            } else if (index == 2) {
+                mDepth = readDouble();
+            } else {
+                skipValue();
+            }
+            index++;
+        } while (nextMember(']'));
+    }
+
+
+    /** TOKENIZER **/
+
+    /** Return the next character that isn't whitespace without consuming it, or -1 at the end */
+    private int peek() throws IOException {
+        while (true) {
+            if (mPos == mLimit && !fill()) {
+                return -1;
+            }
+            char c = mBuffer[mPos];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                mPos++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    /** Refill the buffer, returning false when the stream has no more characters */
+    private boolean fill() throws IOException {
+        if (mCancellation != null) {
+            mCancellation.throwIfStopped();
+        }
+        int read = mReader.read(mBuffer, 0, mBuffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        mPos = 0;
+        mLimit = read;
+        return true;
+    }
+
+    /** Read the next character, including whitespace */
+    private char nextRaw() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return mBuffer[mPos++];
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = peek();
+        if (c != expected) {
+            throw syntaxError("Expected '" + expected + "' but was " + describe(c));
+        }
+        mPos++;
+    }
+
+    /** Consume the closing brace if the object we just opened is empty */
+    private boolean endOfObject() throws IOException {
+        if (peek() == '}') {
+            mPos++;
+            return true;
+        }
+        return false;
+    }
+
+    /** Consume the closing bracket if the array we just opened is empty */
+    private boolean endOfArray() throws IOException {
+        if (peek() == ']') {
+            mPos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called after each member of an object or array.
+     *
+     * @return true if a comma follows and there is another member, false if we reached the close
+     */
+    private boolean nextMember(char close) throws IOException {
+        int c = peek();
+        mPos++;
+        if (c == ',') {
+            return true;
+        } else if (c == close) {
+            return false;
+        }
+        throw syntaxError("Expected ',' or '" + close + "' but was " + describe(c));
+    }
+
+    /** Read an object member name and the colon after it */
+    private String readName() throws IOException {
+        String name = readString();
+        expect(':');
+        return name;
+    }
+
+    /** Consume a null literal if there is one */
+    private boolean peekNull() throws IOException {
+        if (peek() != 'n') {
+            return false;
+        }
+        readLiteral("null");
+        return true;
+    }
+
+    private void readLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (nextRaw() != literal.charAt(i)) {
+                throw syntaxError("Expected " + literal);
+            }
+        }
+    }
+
+    private String readString() throws IOException {
+        readStringToken();
+        return mToken.toString();
+    }
+
+    /**
+     * Read the "place" of an earthquake, splitting off its region. The region is looked up in
+     * the shared {@link StringDictionary} straight from mToken, so a region we have seen
+     * before doesn't create a String at all.
+     */
+    private void readPlace() throws IOException {
+        readStringToken();
+        int separator = mToken.lastIndexOf(Earthquake.REGION_SEPARATOR);
+        if (separator < 0) {
+            mPlace = mToken.toString();
+            mRegion = null;
+        } else {
+            mPlace = mToken.substring(0, separator);
+            mRegion = StringDictionary.SHARED.intern(mToken,
+                    separator + Earthquake.REGION_SEPARATOR.length(), mToken.length());
+        }
+    }
+
+    /** Copy the characters of a string into mToken, unescaping them */
+    private void readStringToken() throws IOException {
+        expect('"');
+        mToken.setLength(0);
+        while (true) {
+            char c = nextRaw();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                mToken.append(readEscape());
+            } else {
+                mToken.append(c);
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        char c = nextRaw();
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(nextRaw(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                // Covers \" \\ and \/
+                return c;
+        }
+    }
+
+    /** Copy the characters of a number into mToken */
+    private void readNumberToken() throws IOException {
+        peek();
+        mToken.setLength(0);
+        while (mPos < mLimit || fill()) {
+            char c = mBuffer[mPos];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                mToken.append(c);
+                mPos++;
+            } else {
+                break;
+            }
+        }
+        if (mToken.length() == 0) {
+            throw syntaxError("Expected a number but was " + describe(peek()));
+        }
+    }
+
+    private double readDouble() throws IOException {
+        readNumberToken();
+        try {
+            return Double.parseDouble(mToken.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid number " + mToken);
+        }
+    }
+
+    private long readLong() throws IOException {
+        readNumberToken();
+        // Parse the digits in place, only falling back to a double for values like 1.4945e12
+        long value = 0;
+        boolean negative = false;
+        for (int i = 0; i < mToken.length(); i++) {
+            char c = mToken.charAt(i);
+            if (i == 0 && c == '-') {
+                negative = true;
+            } else if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else {
+                try {
+                    return (long) Double.parseDouble(mToken.toString());
+                } catch (NumberFormatException e) {
+                    throw syntaxError("Invalid number " + mToken);
+                }
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    /** Skip over the next value, whatever its type, without keeping any of it */
+    private void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            int c = peek();
+            switch (c) {
+                case '{':
+                case '[':
+                    mPos++;
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    mPos++;
+                    depth--;
+                    break;
+                case ',':
+                case ':':
+                    mPos++;
+                    break;
+                case '"':
+                    skipString();
+                    break;
+                case 't':
+                    readLiteral("true");
+                    break;
+                case 'f':
+                    readLiteral("false");
+                    break;
+                case 'n':
+                    readLiteral("null");
+                    break;
+                case -1:
+                    throw syntaxError("Unexpected end of input");
+                default:
+                    readNumberToken();
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    private void skipString() throws IOException {
+        mPos++;
+        while (true) {
+            char c = nextRaw();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscape();
+            }
+        }
+    }
+
+    private static String describe(int c) {
+        return c == -1 ? "end of input" : "'" + (char) c + "'";
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed GeoJSON: " + message);
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * The {@link EarthquakeSource} the app uses: an HTTP request through the
+ * {@link EarthquakeHttpClient}, with the response streamed into the {@link CsvParser} or the
+ * {@link GeoJsonParser}, whichever the content type says, as it arrives. Every request is
+ * recorded in the {@link Metrics}.
+ */
+public final class HttpEarthquakeSource implements EarthquakeSource {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = HttpEarthquakeSource.class.getName();
+
+    private final EarthquakeHttpClient mClient;
+
+    /**
+     * Constructs a new {@link HttpEarthquakeSource}
+     *
+     * @param client makes the requests, the app shares one so they share a connection pool
+     */
+    public HttpEarthquakeSource(EarthquakeHttpClient client) {
+        mClient = client;
+    }
+
+    /**
+     * Make an HTTP request to the given URL and stream the response into the parser for its
+     * content type.
+     */
+    @Override
+    public Response fetch(String requestUrl, String cachedEtag, String cachedLastModified,
+                          GeoJsonParser.Listener listener, Cancellation cancellation) {
+        // If the URL is null, then return early.
+        URL url = createUrl(requestUrl);
+        if (url == null) {
+            return Response.FAILED;
+        }
+
+        int responseCode = -1;
+        String etag = null;
+        String lastModified = null;
+        boolean parsed = false;
+        boolean complete = false;
+        boolean stopped = false;
+        String error = null;
+        HttpURLConnection urlConnection = null;
+        EarthquakeHttpClient.Body body = null;
+        Metrics.HTTP_REQUESTS.increment();
+        long start = System.nanoTime();
+        try {
+            cancellation.throwIfStopped();
+            // The client asks for a gzipped response over a pooled keep-alive connection
+            urlConnection = mClient.open(url, cancellation);
+            // Cancelling disconnects it, which wakes up a read that is waiting on the network
+            cancellation.attach(urlConnection);
+            // Sent so the server can answer 304 Not Modified if the response hasn't changed
+            if (cachedEtag != null) {
+                urlConnection.setRequestProperty("If-None-Match", cachedEtag);
+            }
+            if (cachedLastModified != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", cachedLastModified);
+            }
+            urlConnection.connect();
+            // A pooled connection is already connected, so this is close to 0
+            Metrics.CONNECT_MICROS.record(Metrics.microsSince(start));
+
+            // If the request was successful (HTTP_OK aka response code 200),
+            // then parse the decompressed input stream as it arrives.
+            responseCode = urlConnection.getResponseCode();
+            Metrics.FIRST_BYTE_MICROS.record(Metrics.microsSince(start));
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                etag = urlConnection.getHeaderField("ETag");
+                lastModified = urlConnection.getHeaderField("Last-Modified");
+                long bodyStart = System.nanoTime();
+                body = mClient.body(urlConnection);
+                parsed = true;
+                int count;
+                if (CsvParser.isCsv(urlConnection.getContentType())) {
+                    count = CsvParser.parse(body.getInputStream(), listener, cancellation);
+                } else {
+                    count = GeoJsonParser.parse(body.getInputStream(), listener, cancellation);
+                }
+                complete = true;
+                recordBody(body, System.nanoTime() - bodyStart, count);
+                Log.i(LOG_TAG, "Parsed " + count + " earthquakes from the response");
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Metrics.HTTP_NOT_MODIFIED.increment();
+            } else if (responseCode == HttpURLConnection.HTTP_NO_CONTENT) {
+                // The FDSN way of saying nothing matched, which is an empty response
+                parsed = true;
+                complete = true;
+            } else {
+                Metrics.HTTP_FAILURES.increment();
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
+                // The message says whether the server refused the request, i.e. its format
+                if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                        && responseCode < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                    error = mClient.error(urlConnection);
+                }
+            }
+        } catch (IOException e) {
+            // This also catches malformed JSON, the earthquakes parsed before the error
+            // have already been passed to the listener. A stopped request ends up here too,
+            // whether the parser noticed or the disconnect broke the read.
+            if (cancellation.isCanceled()) {
+                stopped = true;
+                Metrics.HTTP_CANCELED.increment();
+                Log.i(LOG_TAG, "Request canceled: " + url);
+            } else if (cancellation.isExpired()) {
+                stopped = true;
+                Metrics.HTTP_DEADLINES.increment();
+                Log.w(LOG_TAG, "Deadline passed before the request finished: " + url);
+            } else {
+                Metrics.HTTP_FAILURES.increment();
+                Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
+            }
+        } finally {
+            // Rather than disconnecting, hand the connection back to the pool so the next
+            // request can reuse it. A stopped one has the rest of its body left, so close it.
+            if (urlConnection != null) {
+                cancellation.detach(urlConnection);
+                if (stopped) {
+                    mClient.abort(urlConnection, body);
+                } else {
+                    mClient.release(urlConnection, body);
+                }
+            }
+        }
+        return new Response(responseCode, etag, lastModified, parsed, complete, stopped, error);
+    }
+
+    /**
+     * Returns new URL object from the given string URL.
+     */
+    private static URL createUrl(String stringUrl) {
+        URL url = null;
+        try {
+            url = new URL(stringUrl);
+        } catch (MalformedURLException e) {
+            Log.e(LOG_TAG, "Problem building the URL ", e);
+        }
+        return url;
+    }
+
+    /**
+     * Record how a response body was downloaded and parsed. The body is parsed as it arrives,
+     * so the time spent waiting on the network is taken off to get the parse time.
+     */
+    private static void recordBody(EarthquakeHttpClient.Body body, long bodyNanos, int count) {
+        Metrics.DOWNLOAD_BYTES.record(body.getWireBytes());
+        Metrics.DOWNLOAD_MICROS.record(bodyNanos / 1000);
+        Metrics.FEATURES_PARSED.add(count);
+        if (count > 0) {
+            Metrics.PARSE_NANOS_PER_FEATURE.record((bodyNanos - body.getWireNanos()) / count);
+        }
+    }
+}
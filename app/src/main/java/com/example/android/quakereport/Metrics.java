@@ -0,0 +1,298 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms of how long the hot paths take, from the network down to binding
+ * rows, so regressions show up as numbers rather than log lines.
+ *
+ * Recording has to be cheap enough to leave on in every build: a counter is one atomic add,
+ * and a histogram sorts each value into a fixed bucket (8 per power of two, so a percentile is
+ * within 12.5%) with a handful of atomic adds and no allocation. Nothing is ever logged.
+ *
+ * Every metric is declared here, so {@link #dump()} and {@link #toJson()} list them all in
+ * the same order whether or not they have been recorded yet.
+ */
+public final class Metrics {
+
+    /** Every metric, in the order they are declared */
+    private static final List<Counter> sCounters = new ArrayList<>();
+    private static final List<Histogram> sHistograms = new ArrayList<>();
+
+    /** Requests made to the USGS API, and those that failed or weren't modified */
+    public static final Counter HTTP_REQUESTS = counter("http.requests");
+    public static final Counter HTTP_FAILURES = counter("http.failures");
+    public static final Counter HTTP_NOT_MODIFIED = counter("http.not_modified");
+
+    /** Requests stopped part way because they were cancelled, or ran out of time */
+    public static final Counter HTTP_CANCELED = counter("http.canceled");
+    public static final Counter HTTP_DEADLINES = counter("http.deadlines");
+
+    /** CSV requests a server refused, which were asked again as GeoJSON */
+    public static final Counter HTTP_FORMAT_FALLBACKS = counter("http.format_fallbacks");
+
+    /** Page fetches answered from memory, or by joining a request already in flight */
+    public static final Counter MEMORY_CACHE_HITS = counter("requests.memory_hits");
+    public static final Counter REQUESTS_JOINED = counter("requests.joined");
+
+    /** Earthquakes parsed from responses */
+    public static final Counter FEATURES_PARSED = counter("parse.features");
+
+    /** Loads the loader ran in the background */
+    public static final Counter LOADS = counter("loader.loads");
+
+    /** From opening a request until it is connected, including the DNS lookup */
+    public static final Histogram CONNECT_MICROS = histogram("http.connect_us");
+
+    /** From opening a request until the status line and headers come back */
+    public static final Histogram FIRST_BYTE_MICROS = histogram("http.first_byte_us");
+
+    /** Bytes of each response body that came over the network, before decompression */
+    public static final Histogram DOWNLOAD_BYTES = histogram("http.download_bytes");
+
+    /** From the headers until the whole body has been read and parsed */
+    public static final Histogram DOWNLOAD_MICROS = histogram("http.download_us");
+
+    /** Time spent parsing each response, not waiting on the network, per earthquake */
+    public static final Histogram PARSE_NANOS_PER_FEATURE = histogram("parse.feature_ns");
+
+    /** Binding one row of the list */
+    public static final Histogram BIND_NANOS = histogram("list.bind_ns");
+
+    /** From the activity being created until the first row is drawn */
+    public static final Histogram FIRST_ROW_MILLIS = histogram("startup.first_row_ms");
+
+    /**
+     * Create a private constructor because no one should ever create a {@link Metrics} object.
+     */
+    private Metrics() {
+    }
+
+    private static synchronized Counter counter(String name) {
+        Counter counter = new Counter(name);
+        sCounters.add(counter);
+        return counter;
+    }
+
+    private static synchronized Histogram histogram(String name) {
+        Histogram histogram = new Histogram(name);
+        sHistograms.add(histogram);
+        return histogram;
+    }
+
+    /** Microseconds since the given System.nanoTime() */
+    public static long microsSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    /** Set every metric back to zero */
+    public static synchronized void reset() {
+        for (Counter counter : sCounters) {
+            counter.reset();
+        }
+        for (Histogram histogram : sHistograms) {
+            histogram.reset();
+        }
+    }
+
+    /** Every metric as readable text, one per line, for showing in the app */
+    public static synchronized String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (Counter counter : sCounters) {
+            builder.append(counter.getName()).append(": ").append(counter.get()).append('\n');
+        }
+        for (Histogram histogram : sHistograms) {
+            builder.append(histogram.getName()).append(": ");
+            if (histogram.getCount() == 0) {
+                builder.append("-\n");
+                continue;
+            }
+            builder.append(String.format(Locale.US, "n=%d p50=%d p90=%d p99=%d max=%d\n",
+                    histogram.getCount(), histogram.getPercentile(50),
+                    histogram.getPercentile(90), histogram.getPercentile(99),
+                    histogram.getMax()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Every metric as JSON, for comparing runs:
+     * {"timestamp":..., "counters":{"name":value, ...},
+     * "histograms":{"name":{"count":..., "sum":..., "max":..., "p50":..., "p90":..., "p99":...}, ...}}
+     */
+    public static synchronized String toJson() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"timestamp\":").append(System.currentTimeMillis());
+        builder.append(",\"counters\":{");
+        for (int i = 0; i < sCounters.size(); i++) {
+            Counter counter = sCounters.get(i);
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append('"').append(counter.getName()).append("\":").append(counter.get());
+        }
+        builder.append("},\"histograms\":{");
+        for (int i = 0; i < sHistograms.size(); i++) {
+            Histogram histogram = sHistograms.get(i);
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append('"').append(histogram.getName()).append("\":{")
+                    .append("\"count\":").append(histogram.getCount())
+                    .append(",\"sum\":").append(histogram.getSum())
+                    .append(",\"max\":").append(histogram.getMax())
+                    .append(",\"p50\":").append(histogram.getPercentile(50))
+                    .append(",\"p90\":").append(histogram.getPercentile(90))
+                    .append(",\"p99\":").append(histogram.getPercentile(99))
+                    .append('}');
+        }
+        builder.append("}}");
+        return builder.toString();
+    }
+
+    /**
+     * A count that only goes up.
+     */
+    public static final class Counter {
+
+        private final String mName;
+        private final AtomicLong mValue = new AtomicLong();
+
+        private Counter(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+
+        private void reset() {
+            mValue.set(0);
+        }
+    }
+
+    /**
+     * The distribution of a value, i.e. a duration or a size, that can't be negative.
+     *
+     * Values below 16 each get their own bucket. Above that every power of two is split into
+     * 8 buckets, so 488 buckets cover every long and a value is never off by more than an
+     * eighth of itself.
+     */
+    public static final class Histogram {
+
+        /** Each power of two is split into 2^SUB_BUCKET_BITS buckets */
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        /** Values below this are counted exactly */
+        private static final int EXACT = 2 * SUB_BUCKETS;
+
+        /** The highest power of two a long can reach is 2^62 */
+        private static final int BUCKETS = EXACT + (62 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final String mName;
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        private Histogram(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /** Add a value, negative values count as 0 */
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            mBuckets.incrementAndGet(bucketOf(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getSum() {
+            return mSum.get();
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * The value that the given percentage of the values are at or below, rounded up to
+         * the top of its bucket, or 0 if nothing was recorded.
+         */
+        public long getPercentile(double percent) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percent / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(highestValueIn(i), mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+        static int bucketOf(long value) {
+            if (value < EXACT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return EXACT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+        }
+
+        static long highestValueIn(int bucket) {
+            if (bucket < EXACT) {
+                return bucket;
+            }
+            int exponent = (bucket - EXACT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+            int sub = (bucket - EXACT) % SUB_BUCKETS;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            long lowest = (1L << exponent) + sub * width;
+            return lowest + width - 1;
+        }
+    }
+}
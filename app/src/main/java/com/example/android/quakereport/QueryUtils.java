@@ -1,27 +1,21 @@
 package com.example.android.quakereport;
 
-import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
-
-import static com.example.android.quakereport.EarthquakeActivity.LOG_TAG;
+import java.util.Locale;
 
 /**
  * Created by Tin on 10/05/2017.
+ *
+ * Every request goes to the {@link EarthquakeSource} set with {@link #setSource}, which is
+ * the USGS API unless something else (i.e. the load test) has been plugged in.
+ *
+ * Requests ask for CSV, see {@link EarthquakeQuery#preferredFormat()}. If a server refuses
+ * the format of one, that request is made again in GeoJSON, and the requests after it ask for
+ * GeoJSON straight away for a while. Any other error is returned as it is.
  */
 
 public class QueryUtils {
@@ -29,6 +23,10 @@ public class QueryUtils {
     /** Tag for the log messages */
     private static final String LOG_TAG = QueryUtils.class.getName();
 
+    /** Where the responses come from */
+    private static volatile EarthquakeSource sSource =
+            new HttpEarthquakeSource(EarthquakeHttpClient.getInstance());
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -37,173 +35,208 @@ public class QueryUtils {
     private QueryUtils() {
     }
 
+    /** Send every request from now on to the given source rather than the USGS API */
+    public static void setSource(EarthquakeSource source) {
+        sSource = source;
+    }
+
+    /** The source requests go to */
+    public static EarthquakeSource getSource() {
+        return sSource;
+    }
+
 
     /**
      * Query the USGS dataset and return a list of {@link Earthquake} objects.
      */
     public static List<Earthquake> fetchEarthquakeData(String requestUrl) {
-        Log.i(LOG_TAG, "TEST, QueryUtils, fetchEarthquakeData() called");
-
-
-        // Create URL object
-        URL url = createUrl(requestUrl);
+        // Collect the {@link Earthquake}s as the parser emits them
+        final List<Earthquake> earthquakes = new ArrayList<>();
+        boolean parsed = fetchEarthquakeData(requestUrl, new GeoJsonParser.Listener() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        });
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
-        try {
-            jsonResponse = makeHttpRequest(url);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem making the HTTP request.", e);
+        // If there was no response to parse, return null just like an empty response
+        if (!parsed) {
+            return null;
         }
 
-        // Extract relevant fields from the JSON response and create a list of {@link Earthquake}s
-        List<Earthquake> earthquakes = extractFeatureFromJson(jsonResponse);
-
         // Return the list of {@link Earthquake}s
         return earthquakes;
     }
 
-
     /**
-     * Returns new URL object from the given string URL.
+     * Query the USGS dataset through the given {@link EarthquakeCache}.
+     *
+     * A fresh cached response is returned without touching the network. A stale one is
+     * revalidated with a conditional request, so if the feed hasn't changed the server only
+     * sends back a 304 instead of the full response. If the request fails the stale response
+     * is returned rather than nothing.
      */
-    private static URL createUrl(String stringUrl) {
-        URL url = null;
-        try {
-            url = new URL(stringUrl);
-        } catch (MalformedURLException e) {
-            Log.e(LOG_TAG, "Problem building the URL ", e);
-        }
-        return url;
+    public static List<Earthquake> fetchEarthquakeData(String requestUrl, EarthquakeCache cache) {
+        EarthquakeCache.Entry entry = fetchEarthquakeEntry(requestUrl, cache);
+        return entry == null ? null : entry.earthquakes;
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Same as {@link #fetchEarthquakeData(String, EarthquakeCache)}, but return the whole
+     * cache entry so the caller can tell whether the earthquakes are up to date.
+     *
+     * @return a fresh entry if the response is up to date, a stale one if the request failed
+     *         and there was a cached response, an entry stored at time 0 holding the
+     *         earthquakes parsed before a response was cut short, or null if there's nothing
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
-
-        // If the URL is null, then return early.
-        if (url == null) {
-            return jsonResponse;
-        }
-
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
-        try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // If the request was successful (HTTP_OK aka response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
-            } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
-            }
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why
-                // the makeHttpRequest(URL url) method signature specifies than an IOException
-                // could be thrown.
-                inputStream.close();
-            }
-        }
-        return jsonResponse;
+    public static EarthquakeCache.Entry fetchEarthquakeEntry(String requestUrl, EarthquakeCache cache) {
+        return fetchEarthquakeEntry(requestUrl, cache, new Cancellation());
     }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
+     * Same as {@link #fetchEarthquakeEntry(String, EarthquakeCache)}, but stop downloading
+     * and parsing as soon as the cancellation says so.
+     *
+     * @return null if cancelled. If the deadline passed, the earthquakes parsed before it
+     *         are returned like a response that was cut short, as long as the cancellation
+     *         keeps partial results and there is no cached response to fall back on.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
-            }
-        }
-        return output.toString();
+    public static EarthquakeCache.Entry fetchEarthquakeEntry(String requestUrl, EarthquakeCache cache,
+                                                             Cancellation cancellation) {
+        return fetchEarthquakeEntry(requestUrl, cache, cancellation, null);
     }
 
-
     /**
-     * Return a list of {@link Earthquake} objects that has been built up from
-     * parsing the given JSON response.
+     * Same as {@link #fetchEarthquakeEntry(String, EarthquakeCache, Cancellation)}, but also
+     * pass each earthquake to the progress listener as soon as it has been parsed, so the
+     * caller can show the start of the response while the rest is still downloading.
+     *
+     * @param progress told about every earthquake parsed from the network, not the ones from
+     *                 the cache. May be null.
      */
-    private static List<Earthquake> extractFeatureFromJson(String earthquakeJSON) {
-        // If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(earthquakeJSON)) {
-            return null;
+    public static EarthquakeCache.Entry fetchEarthquakeEntry(String requestUrl, EarthquakeCache cache,
+                                                             Cancellation cancellation,
+                                                             final GeoJsonParser.Listener progress) {
+        EarthquakeCache.Entry cached = cache.get(requestUrl);
+        if (cached != null && cache.isFresh(cached)) {
+            return cached;
         }
 
-        // Create an empty ArrayList that we can start adding earthquakes to
-        List<Earthquake> earthquakes = new ArrayList<>();
-
-        // Try to parse the JSON response string. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
-        // Catch the exception so the app doesn't crash, and print the error message to the logs.
-        try {
-
-            // Create a JSONObject from the JSON response string
-            JSONObject baseJsonResponse = new JSONObject(earthquakeJSON);
-
-            // Extract the JSONArray associated with the key called "features",
-            // which represents a list of features (or earthquakes).
-            JSONArray earthquakeArray = baseJsonResponse.getJSONArray("features");
-
-            // For each earthquake in the earthquakeArray, create an {@link Earthquake} object
-            for (int i = 0; i < earthquakeArray.length(); i++) {
-
-                // Get a single earthquake at position i within the list of earthquakes
-                JSONObject currentEarthquake = earthquakeArray.getJSONObject(i);
-
-                // For a given earthquake, extract the JSONObject associated with the
-                // key called "properties", which represents a list of all properties
-                // for that earthquake.
-                JSONObject properties = currentEarthquake.getJSONObject("properties");
-
-                // Extract the value for the key called "mag"
-                double magnitude = properties.getDouble("mag");
-
-                // Extract the value for the key called "place"
-                String location = properties.getString("place");
+        final List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeSource.Response response = fetch(requestUrl,
+                cached != null ? cached.etag : null, cached != null ? cached.lastModified : null,
+                new GeoJsonParser.Listener() {
+                    @Override
+                    public void onEarthquake(Earthquake earthquake) {
+                        earthquakes.add(earthquake);
+                        if (progress != null) {
+                            progress.onEarthquake(earthquake);
+                        }
+                    }
+                }, cancellation);
+
+        // Whoever asked has gone, so there's no one to hand anything to
+        if (cancellation.isCanceled()) {
+            return null;
+        }
 
-                // Extract the value for the key called "time"
-                long time = properties.getLong("time");
+        if (response.code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            Log.i(LOG_TAG, "Response not modified, using the cached earthquakes");
+            return cache.revalidated(requestUrl, cached);
+        }
+        if (response.complete) {
+            EarthquakeCache.Entry entry = new EarthquakeCache.Entry(earthquakes, response.etag,
+                    response.lastModified, System.currentTimeMillis());
+            cache.put(requestUrl, entry);
+            return entry;
+        }
+        if (cached != null) {
+            return cached;
+        }
+        if (response.stopped && !cancellation.keepsPartial()) {
+            return null;
+        }
+        if (response.stopped) {
+            Log.i(LOG_TAG, "Deadline passed, keeping the " + earthquakes.size()
+                    + " earthquakes parsed so far");
+        }
+        return response.parsed ? new EarthquakeCache.Entry(earthquakes, null, null, 0) : null;
+    }
 
-                // Extract the value for the key called "url"
-                String url = properties.getString("url");
+    /**
+     * Query the USGS dataset and return the list of {@link Earthquake}s only if the whole
+     * response was received and parsed.
+     *
+     * @return the earthquakes, or null if the request failed or the response was cut short
+     */
+    public static List<Earthquake> fetchCompleteEarthquakeData(String requestUrl) {
+        return fetchCompleteEarthquakeData(requestUrl, new Cancellation());
+    }
 
-                // Create a new {@link Earthquake} object with the magnitude, location, time,
-                // and url from the JSON response.
-                Earthquake earthquake = new Earthquake(magnitude, location, time, url);
+    /**
+     * Same as {@link #fetchCompleteEarthquakeData(String)}, but stop downloading and parsing
+     * as soon as the cancellation says so, in which case null is returned.
+     */
+    public static List<Earthquake> fetchCompleteEarthquakeData(String requestUrl,
+                                                               Cancellation cancellation) {
+        final List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeSource.Response response = fetch(requestUrl, null, null,
+                new GeoJsonParser.Listener() {
+                    @Override
+                    public void onEarthquake(Earthquake earthquake) {
+                        earthquakes.add(earthquake);
+                    }
+                }, cancellation);
+        return response.complete ? earthquakes : null;
+    }
 
-                // Add the new {@link Earthquake} to the list of earthquakes.
-                earthquakes.add(earthquake);
-            }
+    /**
+     * Query the USGS dataset and pass each {@link Earthquake} to the listener as soon as it
+     * has been parsed from the response, without holding the whole response in memory.
+     *
+     * @return true if a response was received and parsed, false if the request failed
+     */
+    public static boolean fetchEarthquakeData(String requestUrl, GeoJsonParser.Listener listener) {
+        // Perform the request to the URL and stream the JSON response into the parser
+        return fetch(requestUrl, null, null, listener, new Cancellation()).parsed;
+    }
 
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
+    /**
+     * Fetch from the source, asking again for GeoJSON if the server refused the CSV format.
+     */
+    private static EarthquakeSource.Response fetch(String requestUrl, String etag,
+                                                   String lastModified,
+                                                   GeoJsonParser.Listener listener,
+                                                   Cancellation cancellation) {
+        EarthquakeSource.Response response = sSource.fetch(requestUrl, etag, lastModified,
+                listener, cancellation);
+        String geoJsonUrl = EarthquakeQuery.geoJsonUrlOf(requestUrl);
+        if (geoJsonUrl != null && !response.parsed && !response.stopped
+                && refusesFormat(response)) {
+            Log.w(LOG_TAG, "CSV refused with " + response.code + ", asking for GeoJSON instead");
+            EarthquakeQuery.csvRefused();
+            Metrics.HTTP_FORMAT_FALLBACKS.increment();
+            // The validators were for the CSV response, so they don't apply
+            response = sSource.fetch(geoJsonUrl, null, null, listener, cancellation);
         }
+        return response;
+    }
 
-        // Return the list of earthquakes
-        return earthquakes;
+    /**
+     * True if the server refused the format of the request rather than something else about
+     * it: a 406 or 415, or a 400 whose message is about the format. A 400 for another
+     * parameter, a 404 or a 429 would fail the same way in GeoJSON, so they aren't.
+     */
+    static boolean refusesFormat(EarthquakeSource.Response response) {
+        if (response.code == HttpURLConnection.HTTP_NOT_ACCEPTABLE
+                || response.code == HttpURLConnection.HTTP_UNSUPPORTED_TYPE) {
+            return true;
+        }
+        if (response.code != HttpURLConnection.HTTP_BAD_REQUEST || response.error == null) {
+            return false;
+        }
+        // The USGS API echoes the request in its messages, so "format=csv" says nothing
+        String message = response.error.toLowerCase(Locale.US).replace("format=", "");
+        return message.contains("format");
     }
 }
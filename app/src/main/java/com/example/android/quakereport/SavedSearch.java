@@ -0,0 +1,195 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A search the user keeps an eye on: a minimum magnitude, how many days of history and a
+ * region, the same things they choose in the settings, along with how soon it should be
+ * fetched when several searches are fetched together by a {@link SavedSearchFetcher}.
+ *
+ * The search is kept rather than its {@link EarthquakeQuery}, as a query for the past week
+ * starts at a different time every day. {@link #toQuery(long)} builds the query for now.
+ *
+ * Saved searches are kept in their own SharedPreferences file, each one under its spec
+ * (i.e. "6;7;24,122,46,146") with its priority as the value, so saving the same search
+ * again only changes its priority.
+ */
+public final class SavedSearch {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = SavedSearch.class.getName();
+
+    /** Name of the SharedPreferences file the saved searches are kept in */
+    private static final String PREFERENCES_NAME = "saved_searches";
+
+    /** Priorities, the lower ones are fetched first */
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+
+    /** Milliseconds in a day, the history is in days */
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /** Separates the parts of a spec */
+    private static final String SEPARATOR = ";";
+
+    private final double mMinMagnitude;
+
+    /** 0 for the latest earthquakes, a page at a time */
+    private final int mHistoryDays;
+
+    /** "south,west,north,east" in degrees, or "" for anywhere */
+    private final String mRegion;
+
+    private final int mPriority;
+
+    /**
+     * Constructs a new {@link SavedSearch}
+     *
+     * @param minMagnitude the lowest magnitude to return
+     * @param historyDays how many days back to return, or 0 for the latest earthquakes
+     * @param region "south,west,north,east" in degrees, or "" for anywhere
+     * @param priority one of the PRIORITY constants
+     */
+    public SavedSearch(double minMagnitude, int historyDays, String region, int priority) {
+        mMinMagnitude = minMagnitude;
+        mHistoryDays = historyDays;
+        mRegion = region;
+        mPriority = priority;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /** The same search with a different priority */
+    public SavedSearch withPriority(int priority) {
+        return new SavedSearch(mMinMagnitude, mHistoryDays, mRegion, priority);
+    }
+
+    /**
+     * The query for this search at the given time. A window of history starts at midnight
+     * UTC, so the query (and everything stored under it) stays the same all day rather than
+     * changing every time it is built.
+     *
+     * @throws IllegalArgumentException if the region isn't four numbers
+     */
+    public EarthquakeQuery toQuery(long now) {
+        long startTime = EarthquakeQuery.UNBOUNDED;
+        if (mHistoryDays > 0) {
+            long today = now / DAY_IN_MILLIS * DAY_IN_MILLIS;
+            startTime = today - mHistoryDays * DAY_IN_MILLIS;
+        }
+        if (mRegion.isEmpty()) {
+            return new EarthquakeQuery(mMinMagnitude, startTime, EarthquakeQuery.UNBOUNDED);
+        }
+        String[] edges = mRegion.split(",");
+        if (edges.length != 4) {
+            throw new IllegalArgumentException("Invalid region " + mRegion);
+        }
+        return new EarthquakeQuery(mMinMagnitude, startTime, EarthquakeQuery.UNBOUNDED,
+                Double.parseDouble(edges[0].trim()), Double.parseDouble(edges[1].trim()),
+                Double.parseDouble(edges[2].trim()), Double.parseDouble(edges[3].trim()));
+    }
+
+    /**
+     * The search chosen in the settings, with a normal priority. Falls back to the default
+     * magnitude if the preference isn't a number.
+     */
+    public static SavedSearch fromSettings(Context context) {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String minMagnitude = sharedPrefs.getString(
+                context.getString(R.string.settings_min_magnitude_key),
+                context.getString(R.string.settings_min_magnitude_default));
+
+        double magnitude;
+        try {
+            magnitude = Double.parseDouble(minMagnitude);
+        } catch (NumberFormatException e) {
+            Log.e(LOG_TAG, "Invalid minimum magnitude " + minMagnitude, e);
+            magnitude = Double.parseDouble(context.getString(R.string.settings_min_magnitude_default));
+        }
+
+        int historyDays = Integer.parseInt(sharedPrefs.getString(
+                context.getString(R.string.settings_history_days_key),
+                context.getString(R.string.settings_history_days_default)));
+        String region = sharedPrefs.getString(context.getString(R.string.settings_region_key),
+                context.getString(R.string.settings_region_default));
+        return new SavedSearch(magnitude, historyDays, region, PRIORITY_NORMAL);
+    }
+
+    /** Keep the search, replacing the priority if it was saved before */
+    public static void save(Context context, SavedSearch search) {
+        preferences(context).edit().putInt(search.toSpec(), search.mPriority).apply();
+    }
+
+    /** Forget every saved search */
+    public static void clearAll(Context context) {
+        preferences(context).edit().clear().apply();
+    }
+
+    /** True if at least one search has been saved */
+    public static boolean hasAny(Context context) {
+        return !preferences(context).getAll().isEmpty();
+    }
+
+    /** Every saved search, the highest priority first. Specs that can't be read are skipped. */
+    public static List<SavedSearch> loadAll(Context context) {
+        List<SavedSearch> searches = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : preferences(context).getAll().entrySet()) {
+            SavedSearch search = fromSpec(entry.getKey(), entry.getValue());
+            if (search != null) {
+                searches.add(search);
+            } else {
+                Log.w(LOG_TAG, "Skipping the saved search " + entry.getKey());
+            }
+        }
+        Collections.sort(searches, new Comparator<SavedSearch>() {
+            @Override
+            public int compare(SavedSearch a, SavedSearch b) {
+                return a.mPriority < b.mPriority ? -1 : (a.mPriority == b.mPriority ? 0 : 1);
+            }
+        });
+        return searches;
+    }
+
+    private static SharedPreferences preferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** The key the search is kept under, its magnitude, history and region */
+    private String toSpec() {
+        return mMinMagnitude + SEPARATOR + mHistoryDays + SEPARATOR + mRegion;
+    }
+
+    /** Read a search kept under the given spec, or null if it isn't one */
+    private static SavedSearch fromSpec(String spec, Object priority) {
+        String[] parts = spec.split(SEPARATOR, -1);
+        if (parts.length != 3 || !(priority instanceof Integer)) {
+            return null;
+        }
+        try {
+            SavedSearch search = new SavedSearch(Double.parseDouble(parts[0]),
+                    Integer.parseInt(parts[1]), parts[2], (Integer) priority);
+            // Check the region now rather than when the search is fetched
+            search.toQuery(0);
+            return search;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toSpec() + " (priority " + mPriority + ")";
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches several {@link SavedSearch}es at the same time and merges their earthquakes into one
+ * list, so N searches cost about as long as the slowest of them rather than N downloads one
+ * after another.
+ *
+ * The searches run on a bounded executor shared by every fetch, whose queue is ordered by the
+ * priority of each search and then by when it was submitted, so when there are more searches
+ * than threads the high priority ones are downloaded first. Every request goes through the
+ * same {@link EarthquakeRequests} as the loaders, so it shares their connection pool, their
+ * in-flight requests and their memory and disk caches. A window of history goes through an
+ * {@link EarthquakeSliceFetcher}, like it does in the loader.
+ *
+ * Before anything is fetched, a window of history that another search already covers (i.e.
+ * the same region and week at a higher magnitude) is left out, as the wider search downloads
+ * all of its earthquakes anyway. The latest earthquakes of a search are only one page, so
+ * those are always fetched.
+ *
+ * A search whose earthquakes the latest {@link EarthquakeIndex} holds (i.e. a region inside
+ * the list the user just loaded) is answered from the index without a request.
+ *
+ * Earthquakes that more than one search returns are merged into one by their event id with
+ * an {@link EarthquakeMerger}, newest first.
+ *
+ * The caller's deadline applies to each search rather than to the fetch as a whole: a search
+ * of the latest earthquakes that runs out of time is left out, while a window of history goes
+ * on until its own longer deadline. Only cancelling stops the whole fetch.
+ */
+public final class SavedSearchFetcher {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = SavedSearchFetcher.class.getName();
+
+    /**
+     * How many searches are fetched at the same time. Their threads only wait on requests made
+     * on the executor of {@link EarthquakeHttpClient}, so they don't add connections.
+     */
+    private static final int THREADS = 4;
+
+    /** How many of the latest earthquakes are fetched for a search without a time window */
+    public static final int LATEST_LIMIT = 100;
+
+    /** How often the fetch checks whether it has been cancelled while waiting on a search */
+    private static final long POLL_MILLIS = 50;
+
+    /** The executor shared by every fetch */
+    private static final ExecutorService sExecutor = newExecutor(THREADS);
+
+    /** Orders searches of the same priority by when they were submitted */
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    private final EarthquakeRequests mRequests;
+    private final ExecutorService mExecutor;
+
+    /** Fetches on the shared bounded executor */
+    public SavedSearchFetcher(EarthquakeRequests requests) {
+        this(requests, sExecutor);
+    }
+
+    /**
+     * @param requests what the latest earthquakes of each search are fetched through
+     * @param executor runs the searches, its queue must order {@link Comparable} tasks
+     */
+    public SavedSearchFetcher(EarthquakeRequests requests, ExecutorService executor) {
+        mRequests = requests;
+        mExecutor = executor;
+    }
+
+    /** A fixed number of threads taking the highest priority search waiting first */
+    private static ExecutorService newExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Fetch every search and merge the earthquakes. A search that fails is left out.
+     *
+     * @param searches highest priority first, i.e. from {@link SavedSearch#loadAll}
+     * @param now the time the queries of the searches are built for
+     * @return the merger holding the merged earthquakes and their counts, or null if every
+     *         search failed or the fetch was cancelled
+     */
+    public EarthquakeMerger fetch(List<SavedSearch> searches, final long now,
+                                  final Cancellation cancellation) {
+        List<EarthquakeQuery> queries = new ArrayList<>(searches.size());
+        for (SavedSearch search : searches) {
+            queries.add(search.toQuery(now));
+        }
+
+        List<Search> submitted = new ArrayList<>();
+        for (int i = 0; i < searches.size(); i++) {
+            final EarthquakeQuery query = queries.get(i);
+            if (isCovered(query, queries, i)) {
+                Log.i(LOG_TAG, "Leaving out " + searches.get(i) + ", another search covers it");
+                continue;
+            }
+            Search search = new Search(new Callable<List<Earthquake>>() {
+                @Override
+                public List<Earthquake> call() {
+                    return download(query, now, cancellation);
+                }
+            }, searches.get(i).getPriority(), sSequence.getAndIncrement());
+            mExecutor.execute(search);
+            submitted.add(search);
+        }
+
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        int fetched = 0;
+        try {
+            for (Search search : submitted) {
+                List<Earthquake> earthquakes = await(search, cancellation);
+                if (cancellation.isCanceled()) {
+                    Log.i(LOG_TAG, "Stopped fetching the saved searches");
+                    return null;
+                }
+                if (earthquakes == null) {
+                    Log.e(LOG_TAG, "Problem fetching a saved search, leaving it out");
+                    continue;
+                }
+                merger.merge(earthquakes, Long.MIN_VALUE);
+                fetched++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            // Searches still queued when we give up aren't wanted by anyone
+            for (Search search : submitted) {
+                search.cancel(false);
+            }
+        }
+        Log.i(LOG_TAG, "Merged " + merger.getStore().size() + " earthquakes from " + fetched
+                + " of " + searches.size() + " saved searches");
+        return fetched == 0 ? null : merger;
+    }
+
+    /**
+     * True if the query at the given index is a window of history that another query covers.
+     * Of two identical queries the first one is kept.
+     */
+    private static boolean isCovered(EarthquakeQuery query, List<EarthquakeQuery> queries,
+                                     int index) {
+        if (query.getStartTime() == EarthquakeQuery.UNBOUNDED) {
+            return false;
+        }
+        for (int i = 0; i < queries.size(); i++) {
+            EarthquakeQuery other = queries.get(i);
+            if (i == index || other.getStartTime() == EarthquakeQuery.UNBOUNDED
+                    || !other.contains(query)) {
+                continue;
+            }
+            if (!query.contains(other) || i < index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Download one search, on a thread of the executor */
+    private List<Earthquake> download(EarthquakeQuery query, long now,
+                                      Cancellation cancellation) {
+        if (cancellation.isCanceled()) {
+            return null;
+        }
+        List<Earthquake> indexed = queryIndex(query, now);
+        if (indexed != null) {
+            return indexed;
+        }
+        if (query.getStartTime() != EarthquakeQuery.UNBOUNDED) {
+            return new EarthquakeSliceFetcher().fetch(query, cancellation);
+        }
+        return mRequests.fetch(query.toUrl(1, LATEST_LIMIT), cancellation);
+    }
+
+    /**
+     * Answer the search from the latest {@link EarthquakeIndex}, if it holds every earthquake
+     * the search asks for. For the latest earthquakes of a search that is the newest
+     * {@link #LATEST_LIMIT} of them.
+     *
+     * @return the earthquakes newest first, or null if the search has to be downloaded
+     */
+    private static List<Earthquake> queryIndex(EarthquakeQuery query, long now) {
+        EarthquakeIndex index = EarthquakeIndex.getLatest();
+        long maxAge = EarthquakeCache.DEFAULT_TTL_MILLIS;
+        if (index == null || !index.coversNewest(query, now, maxAge)) {
+            return null;
+        }
+        boolean latest = query.getStartTime() == EarthquakeQuery.UNBOUNDED;
+        boolean coversAll = index.coversAll(query, now, maxAge);
+        if (!latest && !coversAll) {
+            return null;
+        }
+
+        int[] positions = new int[index.getStore().size()];
+        int count = index.query(query, positions);
+        if (latest) {
+            // Older earthquakes than the index holds don't matter once it has a page of them
+            if (count < LATEST_LIMIT && !coversAll) {
+                return null;
+            }
+            count = Math.min(count, LATEST_LIMIT);
+        }
+        Log.i(LOG_TAG, "Answered " + count + " earthquakes of " + query.toKey()
+                + " from the index");
+        return index.getStore().asList(positions, count);
+    }
+
+    /**
+     * Wait for a search to finish, or for the fetch to be cancelled. A search stops at its own
+     * deadline, so that isn't checked here.
+     *
+     * @return the earthquakes, or null if the search failed or the fetch was cancelled first
+     */
+    private static List<Earthquake> await(Search search, Cancellation cancellation)
+            throws InterruptedException {
+        try {
+            while (!search.isDone()) {
+                if (cancellation.isCanceled()) {
+                    return null;
+                }
+                try {
+                    return search.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Still downloading, check the cancellation again
+                }
+            }
+            return search.get();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Saved search failed", e);
+            return null;
+        }
+    }
+
+    /** The download of one search, ordered in the executor's queue by priority */
+    private static final class Search extends FutureTask<List<Earthquake>>
+            implements Comparable<Search> {
+
+        final int priority;
+        final long sequence;
+
+        Search(Callable<List<Earthquake>> download, int priority, long sequence) {
+            super(download);
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Search other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
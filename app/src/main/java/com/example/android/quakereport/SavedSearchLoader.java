@@ -0,0 +1,131 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.os.AsyncTask;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Loads the earthquakes of every {@link SavedSearch} as one merged list, with a
+ * {@link SavedSearchFetcher} that downloads the searches at the same time.
+ *
+ * Like the {@link EarthquakeLoader}, the rows delivered are an {@link EarthquakeRowList}
+ * over a dataset written after every load, along with the counts for the summary header,
+ * and the load runs under a {@link Cancellation} with an overall deadline. The deadline stops
+ * the latest earthquakes of each search, but not its window of history, which has a longer
+ * deadline of its own (see {@link EarthquakeSliceFetcher}).
+ */
+public class SavedSearchLoader extends AsyncTaskLoader<List<EarthquakeRow>> {
+
+    /** How long one load may take altogether, on top of the timeouts of each socket read */
+    private static final long LOAD_DEADLINE_MILLIS = 30000;
+
+    /** Name of the file in the app's cache directory that holds the rows delivered last */
+    private static final String DATASET_FILE_NAME = "saved_searches.dataset";
+
+    private final SavedSearchFetcher mFetcher;
+
+    /** The colour of each magnitude band, for the formatter of each list of rows delivered */
+    private final int[] mMagnitudeColours;
+
+    /** The last list delivered to the activity, kept so it can be redelivered after a rotation */
+    private List<EarthquakeRow> mDelivered;
+
+    /** The counts of the earthquakes in the last rows delivered, null until there are some */
+    private volatile EarthquakeAggregates.Summary mSummary;
+
+    /** Stops the load running in the background, null when there is none */
+    private volatile Cancellation mCancellation;
+
+    public SavedSearchLoader(Context context) {
+        super(context);
+        mFetcher = new SavedSearchFetcher(EarthquakeRequests.getInstance(context));
+        mMagnitudeColours = EarthquakeAdapter.getMagnitudeColours(context);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        // If we already have the rows (i.e. after a rotation), hand them straight back
+        if (mDelivered != null) {
+            deliverResult(mDelivered);
+        }
+        if (mDelivered == null || takeContentChanged()) {
+            forceLoad();
+        }
+    }
+
+    /**
+     * This is on a background thread.
+     * @return the merged rows, or null if there are no saved searches or none could be fetched
+     */
+    @Override
+    public List<EarthquakeRow> loadInBackground() {
+        Metrics.LOADS.increment();
+        List<SavedSearch> searches = SavedSearch.loadAll(getContext());
+        if (searches.isEmpty()) {
+            return null;
+        }
+
+        Cancellation cancellation = Cancellation.withTimeout(LOAD_DEADLINE_MILLIS, false);
+        mCancellation = cancellation;
+        try {
+            EarthquakeMerger merger = mFetcher.fetch(searches, System.currentTimeMillis(),
+                    cancellation);
+            if (merger == null) {
+                return null;
+            }
+            mSummary = merger.getAggregates().summarize(System.currentTimeMillis());
+            return EarthquakeRowList.of(merger.getStore(),
+                    new File(getContext().getCacheDir(), DATASET_FILE_NAME),
+                    new EarthquakeRowFormatter(mMagnitudeColours));
+        } finally {
+            mCancellation = null;
+        }
+    }
+
+    /**
+     * Stop the load running in the background as soon as it next checks. Only called from
+     * API 16, onReset() covers older versions.
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        cancel(mCancellation);
+    }
+
+    /** The counts per magnitude band, hour and day of the earthquakes in the rows delivered last */
+    public EarthquakeAggregates.Summary getSummary() {
+        return mSummary;
+    }
+
+    @Override
+    public void deliverResult(List<EarthquakeRow> rows) {
+        mDelivered = rows;
+        super.deliverResult(rows);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+        cancel(mCancellation);
+        mDelivered = null;
+    }
+
+    /**
+     * Cancel off the main thread, since cancelling disconnects the connections of the load
+     * and closing a socket may need the network.
+     */
+    private static void cancel(final Cancellation cancellation) {
+        if (cancellation == null) {
+            return;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                cancellation.cancel();
+            }
+        });
+    }
+}
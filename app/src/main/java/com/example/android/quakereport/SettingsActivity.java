@@ -1,6 +1,7 @@
 package com.example.android.quakereport;
 
 import android.content.SharedPreferences;
+import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
@@ -30,12 +31,31 @@ public class SettingsActivity extends AppCompatActivity {
 
             Preference minMagnitude = findPreference(getString(R.string.settings_min_magnitude_key));
             bindPreferenceSummaryToValue(minMagnitude);
+
+            Preference historyDays = findPreference(getString(R.string.settings_history_days_key));
+            bindPreferenceSummaryToValue(historyDays);
+
+            Preference region = findPreference(getString(R.string.settings_region_key));
+            bindPreferenceSummaryToValue(region);
+
+            Preference syncInterval = findPreference(getString(R.string.settings_sync_interval_key));
+            bindPreferenceSummaryToValue(syncInterval);
         }
 
         @Override
         public boolean onPreferenceChange(Preference preference, Object value) {
             String stringValue = value.toString();
-            preference.setSummary(stringValue);
+            // A ListPreference shows the label of the chosen value rather than the value
+            if (preference instanceof ListPreference) {
+                ListPreference listPreference = (ListPreference) preference;
+                int index = listPreference.findIndexOfValue(stringValue);
+                if (index >= 0) {
+                    CharSequence[] labels = listPreference.getEntries();
+                    preference.setSummary(labels[index]);
+                }
+            } else {
+                preference.setSummary(stringValue);
+            }
             return true;
         }
 
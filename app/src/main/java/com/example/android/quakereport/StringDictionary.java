@@ -0,0 +1,83 @@
+package com.example.android.quakereport;
+
+/**
+ * A bounded pool of strings that repeat across many earthquakes, i.e. the regions at the end
+ * of their locations ("California", "Alaska") and the USGS website prefix, so every
+ * earthquake shares one copy of each instead of holding its own.
+ *
+ * Strings can be looked up by a range of characters, so the parser can find the region in
+ * the characters it has just read without creating a String for it unless it is new. The
+ * pool is an open addressing hash table that stops taking new strings once it is full, after
+ * which strings that aren't already in it are returned as new copies.
+ *
+ * A dictionary is thread safe.
+ */
+public final class StringDictionary {
+
+    /** The dictionary shared by every earthquake in the app */
+    public static final StringDictionary SHARED = new StringDictionary(4096);
+
+    private final int mMaxSize;
+    private final String[] mTable;
+    private final int[] mHashes;
+    private int mSize;
+
+    /**
+     * Constructs a new {@link StringDictionary}
+     *
+     * @param maxSize the most strings the dictionary keeps
+     */
+    public StringDictionary(int maxSize) {
+        mMaxSize = maxSize;
+        // At most half full, so probes stay short
+        int capacity = Integer.highestOneBit(Math.max(maxSize, 1) * 2 - 1) << 1;
+        mTable = new String[capacity];
+        mHashes = new int[capacity];
+    }
+
+    /** Return the shared copy of the string */
+    public String intern(String string) {
+        return intern(string, 0, string.length());
+    }
+
+    /** Return the shared copy of the characters between start and end */
+    public synchronized String intern(CharSequence chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        int mask = mTable.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (mTable[slot] != null) {
+            if (mHashes[slot] == hash && matches(mTable[slot], chars, start, end)) {
+                return mTable[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String string = chars.subSequence(start, end).toString();
+        if (mSize < mMaxSize) {
+            mTable[slot] = string;
+            mHashes[slot] = hash;
+            mSize++;
+        }
+        return string;
+    }
+
+    /** Number of strings in the dictionary */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    private static boolean matches(String string, CharSequence chars, int start, int end) {
+        if (string.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) != chars.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.quakereport;
+
+/**
+ * Decides when the background sync runs.
+ *
+ * A sync is due one interval after the last successful one. If it fails, the next attempt is
+ * pushed back exponentially, from {@link #INITIAL_BACKOFF_MILLIS} doubling up to the interval
+ * itself, so a device without a connection isn't woken up over and over for nothing.
+ *
+ * Triggers that overlap are coalesced: every trigger remembers when it was requested, and if
+ * a sync finished successfully after that time it already covered the trigger, so no second
+ * fetch is made.
+ *
+ * The scheduler only holds the state and makes the decisions, it doesn't run anything or
+ * read the time itself. That is left to the caller and the {@link Clock}, so the scheduling
+ * can be run on the JVM with a fake clock.
+ */
+public class SyncScheduler {
+
+    /** How long the first retry after a failure waits */
+    public static final long INITIAL_BACKOFF_MILLIS = 30 * 1000;
+
+    private final Clock mClock;
+
+    /** Time between successful syncs, 0 if syncing in the background is turned off */
+    private final long mIntervalMillis;
+
+    /** When the last successful sync finished, 0 if there hasn't been one */
+    private long mLastSuccess;
+
+    /** When the last sync, successful or not, finished */
+    private long mLastFinished;
+
+    /** The number of syncs that failed since the last successful one */
+    private int mFailures;
+
+    /** True between {@link #begin} and {@link #finish} */
+    private boolean mRunning;
+
+    /**
+     * @param clock tells the time
+     * @param intervalMillis time between successful syncs, 0 to turn them off
+     */
+    public SyncScheduler(Clock clock, long intervalMillis) {
+        this(clock, intervalMillis, 0, 0, 0);
+    }
+
+    /**
+     * Restore a scheduler from the state of an earlier one, see {@link #getLastSuccess()},
+     * {@link #getLastFinished()} and {@link #getFailures()}.
+     */
+    public SyncScheduler(Clock clock, long intervalMillis, long lastSuccess, long lastFinished,
+                         int failures) {
+        mClock = clock;
+        mIntervalMillis = intervalMillis;
+        mLastSuccess = lastSuccess;
+        mLastFinished = lastFinished;
+        mFailures = failures;
+    }
+
+    /**
+     * Record a trigger, i.e. an alarm going off.
+     *
+     * @return the time of the trigger, to be passed to {@link #begin}
+     */
+    public long trigger() {
+        return mClock.currentTimeMillis();
+    }
+
+    /**
+     * Ask whether a sync should run for a trigger. If it should, the scheduler counts it as
+     * running until {@link #finish} is called.
+     *
+     * @param requestedAt the time returned by {@link #trigger()}
+     * @return false if the trigger is coalesced with a sync that is running or finished after
+     *         it was requested, or if we are backing off after a failure
+     */
+    public boolean begin(long requestedAt) {
+        if (mRunning) {
+            return false;
+        }
+        if (mFailures == 0 && mLastSuccess >= requestedAt) {
+            return false;
+        }
+        if (mFailures > 0 && mClock.currentTimeMillis() < getNextSyncTime()) {
+            return false;
+        }
+        mRunning = true;
+        return true;
+    }
+
+    /** Record the outcome of a sync that {@link #begin} allowed */
+    public void finish(boolean success) {
+        long now = mClock.currentTimeMillis();
+        mRunning = false;
+        mLastFinished = now;
+        if (success) {
+            mLastSuccess = now;
+            mFailures = 0;
+        } else {
+            mFailures++;
+        }
+    }
+
+    /** True if a sync is running */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /** True if background syncing is turned on */
+    public boolean isEnabled() {
+        return mIntervalMillis > 0;
+    }
+
+    /**
+     * When the next sync should run: one interval after the last success, or after the
+     * backoff delay if the last attempts failed. Long.MAX_VALUE if syncing is turned off.
+     */
+    public long getNextSyncTime() {
+        if (!isEnabled()) {
+            return Long.MAX_VALUE;
+        }
+        if (mFailures > 0) {
+            return mLastFinished + getBackoffMillis();
+        }
+        if (mLastSuccess == 0) {
+            return mClock.currentTimeMillis();
+        }
+        return mLastSuccess + mIntervalMillis;
+    }
+
+    /** True if it is time for the next sync */
+    public boolean isDue() {
+        return mClock.currentTimeMillis() >= getNextSyncTime();
+    }
+
+    /**
+     * True if the last successful sync is less than an interval old, so what it stored can be
+     * shown without going to the network.
+     */
+    public boolean isFresh() {
+        return isEnabled() && mLastSuccess > 0
+                && mClock.currentTimeMillis() - mLastSuccess < mIntervalMillis;
+    }
+
+    /** The delay after the current number of failures, doubling up to the interval */
+    long getBackoffMillis() {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int i = 1; i < mFailures && backoff < mIntervalMillis; i++) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, mIntervalMillis);
+    }
+
+    public long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    public long getLastSuccess() {
+        return mLastSuccess;
+    }
+
+    public long getLastFinished() {
+        return mLastFinished;
+    }
+
+    public int getFailures() {
+        return mFailures;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link Cancellation} tells the time by its clock, and how groups are cancelled
+ * and let go of by their callers.
+ */
+public class CancellationTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    private final FakeClock mClock = new FakeClock(1000000);
+
+    @Test
+    public void timeoutIsMeasuredByTheClock() {
+        Cancellation cancellation = Cancellation.withTimeout(mClock, MINUTE, true);
+
+        mClock.advance(MINUTE - 1);
+        assertFalse(cancellation.isExpired());
+        mClock.advance(1);
+        assertTrue(cancellation.isExpired());
+        assertTrue(cancellation.keepsPartial());
+    }
+
+    @Test(timeout = 5000)
+    public void sleepEndsWhenTheClockIsFrozen() throws InterruptedException {
+        // The clock never moves, but the time still passes
+        Cancellation cancellation = new Cancellation(mClock, mClock.currentTimeMillis() + MINUTE,
+                false);
+
+        long start = System.nanoTime();
+        assertTrue(cancellation.sleep(100));
+        assertTrue(System.nanoTime() - start >= 100 * 1000000L);
+    }
+
+    @Test(timeout = 5000)
+    public void clockSetBackDoesNotStretchTheSleep() throws InterruptedException {
+        // Every time the clock is read it is an hour earlier
+        Clock goingBack = new Clock() {
+            private long mNow;
+
+            @Override
+            public synchronized long currentTimeMillis() {
+                mNow -= 60 * MINUTE;
+                return mNow;
+            }
+        };
+        Cancellation cancellation = new Cancellation(goingBack, Cancellation.NO_DEADLINE, false);
+
+        assertTrue(cancellation.sleep(100));
+    }
+
+    @Test
+    public void sleepStopsAtTheDeadline() throws InterruptedException {
+        Cancellation cancellation = new Cancellation(mClock, mClock.currentTimeMillis(), false);
+
+        assertFalse(cancellation.sleep(10 * MINUTE));
+    }
+
+    @Test
+    public void groupIsCancelledOnceEveryCallerIs() {
+        Cancellation first = new Cancellation();
+        Cancellation second = new Cancellation();
+        Cancellation group = Cancellation.groupOf(first);
+        assertTrue(group.join(second));
+
+        first.cancel();
+        assertFalse(group.isCanceled());
+        second.cancel();
+        assertTrue(group.isCanceled());
+
+        // Nobody can join a request that everyone gave up on
+        assertFalse(group.join(new Cancellation()));
+    }
+
+    @Test
+    public void finishedGroupIsLetGoOfByItsCallers() {
+        Cancellation caller = new Cancellation();
+        Cancellation group = Cancellation.groupOf(caller);
+
+        group.finish();
+        caller.cancel();
+
+        // The caller no longer knows the group, so cancelling it doesn't reach the group
+        assertFalse(group.isCanceled());
+        // The result of a finished group is still there for a caller that comes late
+        assertTrue(group.join(new Cancellation()));
+    }
+
+    /** A clock that only moves when it is told to */
+    private static final class FakeClock implements Clock {
+
+        private long mNow;
+
+        FakeClock(long now) {
+            mNow = now;
+        }
+
+        void advance(long millis) {
+            mNow += millis;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the {@link CsvParser} on quoting, on its own number and time parsing, and on
+ * responses that break off, in the columns USGS actually sends.
+ */
+public class CsvParserTest {
+
+    /** The header of the USGS CSV feed */
+    private static final String HEADER = "time,latitude,longitude,depth,mag,magType,nst,gap,"
+            + "dmin,rms,net,id,updated,place,type,horizontalError,depthError,magError,magNst,"
+            + "status,locationSource,magSource\n";
+
+    /** 2017-05-20T14:45:11.123Z */
+    private static final long TIME = 1495291511123L;
+
+    @Test
+    public void rowHasEveryFieldTheListNeeds() throws IOException {
+        List<Earthquake> earthquakes = parse(HEADER + row("2017-05-20T14:45:11.123Z",
+                "38.8233", "-122.8133", "1.97", "4.5", "nc72815736",
+                "2017-05-20T14:47:02.040Z", "\"5km NW of The Geysers, CA\"", "reviewed"));
+
+        assertEquals(1, earthquakes.size());
+        Earthquake earthquake = earthquakes.get(0);
+        assertEquals(TIME, earthquake.getTimeInMilliseconds());
+        assertEquals(1495291622040L, earthquake.getUpdatedInMilliseconds());
+        assertEquals(38.8233, earthquake.getLatitude(), 0);
+        assertEquals(-122.8133, earthquake.getLongitude(), 0);
+        assertEquals(1.97, earthquake.getDepth(), 0);
+        assertEquals(4.5, earthquake.getMagnitude(), 0);
+        assertEquals("nc72815736", earthquake.getId());
+        assertEquals("5km NW of The Geysers, CA", earthquake.getLocation());
+        assertEquals("https://earthquake.usgs.gov/earthquakes/eventpage/nc72815736",
+                earthquake.getWebsite());
+    }
+
+    @Test
+    public void quotedPlacesKeepTheirCommasAndQuotes() throws IOException {
+        List<Earthquake> earthquakes = parse(HEADER
+                + row(TIME, "\"Near Anchorage, Matanuska, Alaska\"")
+                + row(TIME, "\"10km N of \"\"The Town\"\", CA\"")
+                + row(TIME, "\"\"\"\"")
+                + row(TIME, "\"\"")
+                + row(TIME, "\"Fiji region\"")
+                + row(TIME, "\"\u00cele \u65e5\u672c \ud83c\udf0b, Japan\""));
+
+        assertEquals(Arrays.asList("Near Anchorage, Matanuska, Alaska",
+                "10km N of \"The Town\", CA", "\"", "", "Fiji region",
+                "\u00cele \u65e5\u672c \ud83c\udf0b, Japan"), locations(earthquakes));
+    }
+
+    @Test
+    public void quotedColumnsWeSkipCanHoldCommasQuotesAndLineBreaks() throws IOException {
+        List<Earthquake> earthquakes = parse("time,notes,mag,id\n"
+                + "2017-05-20T14:45:11.123Z,\"a, \"\"b\"\"\nc\",4.5,us1\n"
+                + "2017-05-20T14:45:11.123Z,plain,5,us2\n");
+
+        assertEquals(Arrays.asList("us1", "us2"), ids(earthquakes));
+        assertEquals(4.5, earthquakes.get(0).getMagnitude(), 0);
+    }
+
+    @Test
+    public void rowsSplitAcrossReadsParseTheSame() throws IOException {
+        String csv = HEADER + row(TIME, "\"10km N of \"\"The Town\"\", \u65e5\u672c\"")
+                + row(TIME, "\"\ud83c\udf0b, Japan\"");
+        List<Earthquake> whole = parse(csv);
+
+        for (int chunk = 1; chunk <= 5; chunk++) {
+            List<Earthquake> split = new ArrayList<>();
+            CsvParser.parse(new ChunkedInputStream(bytes(csv), chunk), collectInto(split));
+            assertEquals(locations(whole), locations(split));
+        }
+    }
+
+    @Test
+    public void numbersAreParsedExactlyLikeDoubleParseDouble() throws IOException {
+        List<String> numbers = new ArrayList<>(Arrays.asList("0", "-0", "0.1", "-122.8133",
+                "+5", "1.", ".5", "7.00", "38.8233333", "0.0000000000000000000001",
+                "9007199254740993", "12345678901234567890.5", "1e3", "-1.5E-2",
+                "0.30000000000000004", "179.99999999999999"));
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder number = new StringBuilder(random.nextBoolean() ? "-" : "");
+            number.append(random.nextInt(1000)).append('.');
+            for (int digits = random.nextInt(18); digits >= 0; digits--) {
+                number.append(random.nextInt(10));
+            }
+            numbers.add(number.toString());
+        }
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (String number : numbers) {
+            csv.append(row("2017-05-20T14:45:11.123Z", number, "0", "0", "5", "us1",
+                    "", "Somewhere", "reviewed"));
+        }
+
+        List<Earthquake> earthquakes = parse(csv.toString());
+
+        for (int i = 0; i < numbers.size(); i++) {
+            assertEquals(numbers.get(i),
+                    Double.doubleToLongBits(Double.parseDouble(numbers.get(i))),
+                    Double.doubleToLongBits(earthquakes.get(i).getLatitude()));
+        }
+    }
+
+    @Test
+    public void emptyNumbersAreNaNAndEmptyMagnitudeIsZero() throws IOException {
+        List<Earthquake> earthquakes = parse(HEADER + row("2017-05-20T14:45:11.123Z", "", "",
+                "", "", "us1", "", "Somewhere", "reviewed"));
+
+        assertTrue(Double.isNaN(earthquakes.get(0).getLatitude()));
+        assertTrue(Double.isNaN(earthquakes.get(0).getDepth()));
+        assertEquals(0, earthquakes.get(0).getMagnitude(), 0);
+        // Never revised, so last updated when it happened
+        assertEquals(TIME, earthquakes.get(0).getUpdatedInMilliseconds());
+    }
+
+    @Test
+    public void timesAreReadWithTheirOffsets() throws IOException {
+        assertTime(TIME, "2017-05-20T14:45:11.123Z");
+        assertTime(TIME, "2017-05-20 14:45:11.123Z");
+        assertTime(TIME, "2017-05-20T14:45:11.123");
+        assertTime(TIME, "2017-05-20T14:45:11.123999Z");
+        assertTime(TIME - 123, "2017-05-20T14:45:11Z");
+        assertTime(TIME + 377, "2017-05-20T14:45:11.5Z");
+        assertTime(TIME, "2017-05-20T16:45:11.123+02:00");
+        assertTime(TIME, "2017-05-20T09:15:11.123-05:30");
+        assertTime(TIME, "2017-05-21T00:15:11.123+09:30");
+        assertTime(1456704000000L, "2016-02-29T00:00:00Z");
+        assertTime(951782400000L, "2000-02-29T00:00:00Z");
+        assertTime(-1, "1969-12-31T23:59:59.999Z");
+        assertTime(0, "1970-01-01T02:00:00+02:00");
+    }
+
+    @Test
+    public void badTimesAreErrors() {
+        assertMalformed(HEADER + row("2017-05-20T14:45", "0", "0", "0", "5", "us1", "",
+                "Somewhere", "reviewed"));
+        assertMalformed(HEADER + row("2017-05-20T14:45:11.123+0200", "0", "0", "0", "5", "us1",
+                "", "Somewhere", "reviewed"));
+        assertMalformed(HEADER + row("2017-0A-20T14:45:11.123Z", "0", "0", "0", "5", "us1", "",
+                "Somewhere", "reviewed"));
+    }
+
+    @Test
+    public void deletedEventIsMarkedDeleted() throws IOException {
+        List<Earthquake> earthquakes = parse(HEADER + row("2017-05-20T14:45:11.123Z", "0", "0",
+                "0", "5", "us1", "", "Somewhere", "deleted"));
+
+        assertTrue(earthquakes.get(0).isDeleted());
+    }
+
+    @Test
+    public void rowWithoutAnIdIsSkipped() throws IOException {
+        String csv = HEADER + row("2017-05-20T14:45:11.123Z", "0", "0", "0", "5", "", "",
+                "No id", "reviewed")
+                + row("2017-05-20T14:45:11.123Z", "0", "0", "0", "5", "us1", "", "Somewhere",
+                "reviewed");
+        List<Earthquake> earthquakes = new ArrayList<>();
+
+        int count = CsvParser.parse(new ByteArrayInputStream(bytes(csv)),
+                collectInto(earthquakes));
+
+        assertEquals(1, count);
+        assertEquals(Arrays.asList("us1"), ids(earthquakes));
+        assertEquals("https://earthquake.usgs.gov/earthquakes/eventpage/us1",
+                earthquakes.get(0).getWebsite());
+    }
+
+    @Test
+    public void headerWithoutTimeOrMagnitudeIsAnError() {
+        assertMalformed("latitude,longitude,id\n1,2,us1\n");
+    }
+
+    @Test
+    public void emptyResponseHasNoEarthquakes() throws IOException {
+        assertEquals(0, parse("").size());
+        assertEquals(0, parse(HEADER).size());
+    }
+
+    @Test
+    public void rowCutShortKeepsTheRowsBeforeIt() {
+        String csv = HEADER + row(TIME, "A") + row(TIME, "B");
+        List<Earthquake> earthquakes = new ArrayList<>();
+
+        try {
+            // Without the line break at the end of the last row
+            CsvParser.parse(new ByteArrayInputStream(bytes(csv.substring(0, csv.length() - 1))),
+                    collectInto(earthquakes));
+            fail("Truncated CSV parsed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed CSV"));
+        }
+        assertEquals(Arrays.asList("A"), locations(earthquakes));
+    }
+
+    @Test
+    public void cancellingStopsAfterThatEarthquake() {
+        final Cancellation cancellation = new Cancellation();
+        final List<Earthquake> earthquakes = new ArrayList<>();
+
+        try {
+            CsvParser.parse(new ByteArrayInputStream(bytes(HEADER + row(TIME, "A")
+                    + row(TIME, "B"))), new GeoJsonParser.Listener() {
+                @Override
+                public void onEarthquake(Earthquake earthquake) {
+                    earthquakes.add(earthquake);
+                    cancellation.cancel();
+                }
+            }, cancellation);
+            fail("Cancelled parse finished");
+        } catch (IOException e) {
+            assertTrue(e instanceof InterruptedIOException);
+        }
+        assertEquals(1, earthquakes.size());
+    }
+
+    /** A row of the USGS feed, the columns we don't read are filled in like USGS would */
+    private static String row(String time, String latitude, String longitude, String depth,
+                              String magnitude, String id, String updated, String place,
+                              String status) {
+        return time + "," + latitude + "," + longitude + "," + depth + "," + magnitude
+                + ",ml,12,90,0.01,0.05,nc," + id + "," + updated + "," + place
+                + ",earthquake,0.3,0.5,0.1,8," + status + ",nc,nc\r\n";
+    }
+
+    private static String row(long time, String place) {
+        return row("2017-05-20T14:45:11.123Z", "38.8", "-122.8", "2", "4.5", "nc1",
+                "2017-05-20T14:47:02.040Z", place, "reviewed");
+    }
+
+    private static void assertTime(long expected, String time) throws IOException {
+        List<Earthquake> earthquakes = parse(HEADER + row(time, "0", "0", "0", "5", "us1", "",
+                "Somewhere", "reviewed"));
+        assertEquals(time, expected, earthquakes.get(0).getTimeInMilliseconds());
+    }
+
+    private static void assertMalformed(String csv) {
+        try {
+            parse(csv);
+            fail("Malformed CSV parsed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed CSV"));
+        }
+    }
+
+    private static List<Earthquake> parse(String csv) throws IOException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        CsvParser.parse(new ByteArrayInputStream(bytes(csv)), collectInto(earthquakes));
+        return earthquakes;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(Charset.forName("UTF-8"));
+    }
+
+    private static GeoJsonParser.Listener collectInto(final List<Earthquake> earthquakes) {
+        return new GeoJsonParser.Listener() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        };
+    }
+
+    private static List<String> locations(List<Earthquake> earthquakes) {
+        List<String> locations = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            locations.add(earthquake.getLocation());
+        }
+        return locations;
+    }
+
+    private static List<String> ids(List<Earthquake> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+
+    /** Hands the bytes over a few at a time, so characters and rows split between reads */
+    private static final class ChunkedInputStream extends InputStream {
+
+        private final byte[] mBytes;
+        private final int mChunk;
+        private int mPos;
+
+        ChunkedInputStream(byte[] bytes, int chunk) {
+            mBytes = bytes;
+            mChunk = chunk;
+        }
+
+        @Override
+        public int read() {
+            return mPos < mBytes.length ? mBytes[mPos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (mPos == mBytes.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, mChunk), mBytes.length - mPos);
+            System.arraycopy(mBytes, mPos, buffer, offset, count);
+            mPos += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the {@link EarthquakeAggregates} kept up to date by the {@link EarthquakeMerger}
+ * always agree with counting the store from scratch, and which hours and days times fall in.
+ */
+public class EarthquakeAggregatesTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Test
+    public void mergedCountsMatchARecount() {
+        Random random = new Random(19);
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        long updated = 0;
+        for (int round = 0; round < 200; round++) {
+            List<Earthquake> batch = new ArrayList<>();
+            int size = 1 + random.nextInt(10);
+            for (int i = 0; i < size; i++) {
+                // Few enough ids that most of them are revised or deleted at some point, and
+                // times either side of the epoch
+                String id = "us" + random.nextInt(30);
+                long time = (random.nextInt(20 * 24) - 10 * 24) * HOUR
+                        + random.nextInt((int) HOUR);
+                updated += random.nextInt(3);
+                boolean deleted = random.nextInt(5) == 0;
+                batch.add(new Earthquake(deleted ? 0 : random.nextInt(110) / 10.0,
+                        "10km N of Town, Region", time,
+                        "https://earthquake.usgs.gov/earthquakes/eventpage/" + id, id,
+                        updated, deleted));
+            }
+            merger.merge(batch, Long.MIN_VALUE);
+
+            assertSameCounts("round " + round, recount(merger.getStore()),
+                    merger.getAggregates(), merger.getStore());
+        }
+    }
+
+    @Test
+    public void removingTheLastEarthquakeRemovesItsBuckets() {
+        EarthquakeAggregates aggregates = new EarthquakeAggregates(UTC);
+        aggregates.add(4.5, 3 * HOUR);
+        aggregates.add(5.5, 3 * HOUR + 10);
+        aggregates.add(6.0, 2 * DAY);
+        assertEquals(4, aggregates.getBucketCount());
+
+        aggregates.remove(4.5, 3 * HOUR);
+        assertEquals(4, aggregates.getBucketCount());
+        aggregates.remove(5.5, 3 * HOUR + 10);
+        aggregates.remove(6.0, 2 * DAY);
+
+        assertEquals(0, aggregates.getTotal());
+        assertEquals(0, aggregates.getBucketCount());
+        assertEquals(0, aggregates.getHourCount(3 * HOUR));
+        for (int band = 0; band < EarthquakeRowFormatter.MAGNITUDE_BANDS; band++) {
+            assertEquals(0, aggregates.getBandCount(band));
+        }
+    }
+
+    @Test
+    public void timesBeforeTheEpochRoundDown() {
+        EarthquakeAggregates aggregates = new EarthquakeAggregates(UTC);
+        aggregates.add(5.0, -1);
+
+        // The last millisecond before the epoch is in the hour and day before it
+        assertEquals(1, aggregates.getHourCount(-HOUR));
+        assertEquals(0, aggregates.getHourCount(0));
+        assertEquals(1, aggregates.getDayCount(-DAY));
+        assertEquals(0, aggregates.getDayCount(0));
+
+        aggregates.add(5.0, -HOUR);
+        aggregates.add(5.0, -HOUR - 1);
+        assertEquals(2, aggregates.getHourCount(-1));
+        assertEquals(1, aggregates.getHourCount(-2 * HOUR));
+        assertEquals(3, aggregates.getDayCount(-1));
+    }
+
+    @Test
+    public void daysAreCountedInTheLocalTimeZone() {
+        // 9 hours ahead of UTC and no daylight saving time
+        EarthquakeAggregates tokyo = new EarthquakeAggregates(TimeZone.getTimeZone("Asia/Tokyo"));
+        EarthquakeAggregates utc = new EarthquakeAggregates(UTC);
+        long lateEvening = 10 * DAY + 16 * HOUR;
+        for (EarthquakeAggregates aggregates : new EarthquakeAggregates[] {tokyo, utc}) {
+            aggregates.add(5.0, lateEvening);
+            aggregates.add(5.0, 10 * DAY + 14 * HOUR);
+        }
+
+        // Past midnight in Tokyo, but the same day as the other one in UTC
+        assertEquals(1, tokyo.getDayCount(lateEvening));
+        assertEquals(2, utc.getDayCount(lateEvening));
+
+        EarthquakeAggregates.Summary summary = tokyo.summarize(lateEvening);
+        assertEquals(1, summary.getDayCount(0));
+        assertEquals(1, summary.getDayCount(1));
+        assertEquals(1, summary.getHourCount(2));
+    }
+
+    @Test
+    public void hoursAreCountedInTheLocalTimeZone() {
+        // Half an hour off UTC, so the local hours start at half past
+        EarthquakeAggregates kolkata =
+                new EarthquakeAggregates(TimeZone.getTimeZone("Asia/Kolkata"));
+        kolkata.add(5.0, 10 * HOUR + 20 * 60 * 1000);
+        kolkata.add(5.0, 10 * HOUR + 40 * 60 * 1000);
+
+        assertEquals(1, kolkata.getHourCount(10 * HOUR));
+        assertEquals(1, kolkata.getHourCount(11 * HOUR));
+        assertEquals(2, kolkata.getDayCount(10 * HOUR));
+    }
+
+    private static EarthquakeAggregates recount(EarthquakeStore store) {
+        EarthquakeAggregates aggregates = new EarthquakeAggregates(TimeZone.getDefault());
+        aggregates.addAll(store);
+        return aggregates;
+    }
+
+    private static void assertSameCounts(String message, EarthquakeAggregates expected,
+                                         EarthquakeAggregates actual, EarthquakeStore store) {
+        assertEquals(message, expected.getTotal(), actual.getTotal());
+        for (int band = 0; band < EarthquakeRowFormatter.MAGNITUDE_BANDS; band++) {
+            assertEquals(message, expected.getBandCount(band), actual.getBandCount(band));
+        }
+        for (int i = 0; i < store.size(); i++) {
+            long time = store.getTimeInMilliseconds(i);
+            assertEquals(message, expected.getHourCount(time), actual.getHourCount(time));
+            assertEquals(message, expected.getDayCount(time), actual.getDayCount(time));
+        }
+        // Hours and days that emptied out are gone, not left behind with a count of 0
+        assertEquals(message, expected.getBucketCount(), actual.getBucketCount());
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link EarthquakeCache} and {@link QueryUtils} against a local HTTP server, which
+ * answers with a small GeoJSON response and its validators, or a 304 if the request sends
+ * them back.
+ */
+public class EarthquakeCacheTest {
+
+    private static final String ETAG = "\"quakes-1\"";
+    private static final String LAST_MODIFIED = "Sat, 17 Oct 2026 10:00:00 GMT";
+
+    private static final String BODY = "{\"type\":\"FeatureCollection\",\"features\":["
+            + feature("us1000", 4.5, 1000) + "," + feature("us1001", 5.2, 900) + "]}";
+
+    private HttpServer mServer;
+    private File mDirectory;
+
+    /** The conditional headers of every request the server got, "-" for one that wasn't sent */
+    private final List<String> mRequests = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/query", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+                mRequests.add((ifNoneMatch == null ? "-" : ifNoneMatch) + " "
+                        + (ifModifiedSince == null ? "-" : ifModifiedSince));
+
+                if (exchange.getRequestURI().getQuery().contains("fail")) {
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                }
+                if (ETAG.equals(ifNoneMatch) && LAST_MODIFIED.equals(ifModifiedSince)) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = BODY.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.start();
+
+        mDirectory = new File(System.getProperty("java.io.tmpdir"),
+                "earthquake-cache-test-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void okResponseIsStoredWithItsValidators() {
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, 60000, 1024 * 1024);
+        String url = url("a");
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(url, cache);
+
+        assertNotNull(earthquakes);
+        assertEquals(2, earthquakes.size());
+        assertEquals(1000, earthquakes.get(0).getTimeInMilliseconds());
+        assertEquals(Collections.singletonList("- -"), mRequests);
+
+        // Read back from disk, not from the entry we were handed
+        EarthquakeCache.Entry stored = new EarthquakeCache(mDirectory, 60000, 1024 * 1024).get(url);
+        assertNotNull(stored);
+        assertEquals(ETAG, stored.etag);
+        assertEquals(LAST_MODIFIED, stored.lastModified);
+        assertEquals(2, stored.earthquakes.size());
+        assertEquals(900, stored.earthquakes.get(1).getTimeInMilliseconds());
+        assertEquals(5.2, stored.earthquakes.get(1).getMagnitude(), 0);
+    }
+
+    @Test
+    public void freshEntryIsServedWithoutARequest() {
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, 60000, 1024 * 1024);
+        String url = url("a");
+
+        QueryUtils.fetchEarthquakeData(url, cache);
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(url, cache);
+
+        assertEquals(2, earthquakes.size());
+        assertEquals(1, mRequests.size());
+    }
+
+    @Test
+    public void staleEntryIsRevalidatedAndServedFromDisk() throws InterruptedException {
+        // Every entry is stale as soon as it is stored
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, 0, 1024 * 1024);
+        String url = url("a");
+
+        QueryUtils.fetchEarthquakeData(url, cache);
+        long firstStoredAt = cache.get(url).storedAt;
+        Thread.sleep(5);
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(url, cache);
+
+        assertEquals(2, mRequests.size());
+        assertEquals(ETAG + " " + LAST_MODIFIED, mRequests.get(1));
+        assertNotNull(earthquakes);
+        assertEquals(2, earthquakes.size());
+        assertEquals(1000, earthquakes.get(0).getTimeInMilliseconds());
+        // The revalidation was stored with the same validators, so the next request is
+        // conditional again
+        EarthquakeCache.Entry stored = cache.get(url);
+        assertEquals(ETAG, stored.etag);
+        assertEquals(LAST_MODIFIED, stored.lastModified);
+        assertTrue(stored.storedAt > firstStoredAt);
+    }
+
+    @Test
+    public void entryExpiresAfterTheTtl() {
+        long ttl = 60000;
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, ttl, 1024 * 1024);
+        List<Earthquake> none = Collections.emptyList();
+        long now = System.currentTimeMillis();
+
+        assertTrue(cache.isFresh(new EarthquakeCache.Entry(none, ETAG, null, now)));
+        assertTrue(cache.isFresh(new EarthquakeCache.Entry(none, ETAG, null, now - ttl + 5000)));
+        assertFalse(cache.isFresh(new EarthquakeCache.Entry(none, ETAG, null, now - ttl)));
+
+        EarthquakeCache.Entry entry = new EarthquakeCache.Entry(none, ETAG, null, 1000);
+        assertTrue(entry.isFresh(1000 + ttl - 1, ttl));
+        assertFalse(entry.isFresh(1000 + ttl, ttl));
+
+        // An expired entry on disk is asked for again, with its validators
+        String url = url("a");
+        cache.put(url, new EarthquakeCache.Entry(none, ETAG, LAST_MODIFIED, now - ttl));
+        QueryUtils.fetchEarthquakeData(url, cache);
+        assertEquals(Collections.singletonList(ETAG + " " + LAST_MODIFIED), mRequests);
+        assertTrue(cache.isFresh(cache.get(url)));
+    }
+
+    @Test
+    public void staleEntryIsServedIfTheRequestFails() {
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, 60000, 1024 * 1024);
+        String url = url("fail");
+        cache.put(url, new EarthquakeCache.Entry(entry().earthquakes, ETAG, LAST_MODIFIED,
+                System.currentTimeMillis() - 120000));
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(url, cache);
+
+        assertEquals(1, mRequests.size());
+        assertNotNull(earthquakes);
+        assertEquals(20, earthquakes.size());
+        // Still stale, so the next request tries the server again
+        assertFalse(cache.isFresh(cache.get(url)));
+    }
+
+    @Test
+    public void nothingIsCachedIfTheRequestFails() {
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, 60000, 1024 * 1024);
+
+        assertNull(QueryUtils.fetchEarthquakeData(url("fail"), cache));
+        assertNull(cache.get(url("fail")));
+    }
+
+    @Test
+    public void earthquakesAreStoredInTheirSharedParts() {
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, 60000, 1024 * 1024);
+        List<Earthquake> earthquakes = new ArrayList<>();
+        earthquakes.add(new Earthquake(4.5, "10km N of Anchorage, Alaska", 1000,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/ak1", "ak1", 1100));
+        earthquakes.add(new Earthquake(3.0, "Fiji region", 900, "https://example.com/quake",
+                "us2", 950));
+        cache.put(url("a"), new EarthquakeCache.Entry(earthquakes, null, null, 1));
+
+        List<Earthquake> stored = cache.get(url("a")).earthquakes;
+
+        Earthquake alaska = stored.get(0);
+        assertEquals("10km N of Anchorage", alaska.getPlace());
+        // The shared copies, not ones of its own read from the file
+        assertTrue(alaska.getRegion() == StringDictionary.SHARED.intern("Alaska"));
+        assertTrue(alaska.getWebsitePrefix() == StringDictionary.SHARED.intern(
+                "https://earthquake.usgs.gov/earthquakes/eventpage/"));
+        assertEquals("10km N of Anchorage, Alaska", alaska.getLocation());
+        assertEquals("https://earthquake.usgs.gov/earthquakes/eventpage/ak1",
+                alaska.getWebsite());
+
+        Earthquake fiji = stored.get(1);
+        assertNull(fiji.getRegion());
+        assertNull(fiji.getWebsitePrefix());
+        assertEquals("Fiji region", fiji.getLocation());
+        assertEquals("https://example.com/quake", fiji.getWebsite());
+        assertEquals("us2", fiji.getId());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        // Find out how big one entry is, all three are the same size
+        EarthquakeCache measure = new EarthquakeCache(mDirectory, 60000, Long.MAX_VALUE);
+        measure.put(url("x"), entry());
+        long entryBytes = mDirectory.listFiles()[0].length();
+        measure.clear();
+
+        EarthquakeCache cache = new EarthquakeCache(mDirectory, 60000, 2 * entryBytes + entryBytes / 2);
+        long now = System.currentTimeMillis();
+        cache.put(url("a"), entry());
+        File a = mDirectory.listFiles()[0];
+        a.setLastModified(now - 30000);
+        cache.put(url("b"), entry());
+        File b = other(a);
+        b.setLastModified(now - 20000);
+
+        // Reading a makes it the most recently used, so b goes first
+        assertNotNull(cache.get(url("a")));
+        cache.put(url("c"), entry());
+
+        assertEquals(2, mDirectory.listFiles().length);
+        assertNull(cache.get(url("b")));
+        assertNotNull(cache.get(url("a")));
+        assertNotNull(cache.get(url("c")));
+    }
+
+    private String url(String name) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/query?name=" + name;
+    }
+
+    /** The file in the cache directory that isn't the given one */
+    private File other(File file) {
+        for (File candidate : mDirectory.listFiles()) {
+            if (!candidate.equals(file)) {
+                return candidate;
+            }
+        }
+        throw new AssertionError("No other file");
+    }
+
+    private static EarthquakeCache.Entry entry() {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            earthquakes.add(new Earthquake(4.5, "10km N of Town, Region", 1000 - i,
+                    "https://earthquake.usgs.gov/earthquakes/eventpage/us" + (1000 + i)));
+        }
+        return new EarthquakeCache.Entry(earthquakes, ETAG, LAST_MODIFIED, System.currentTimeMillis());
+    }
+
+    private static String feature(String id, double magnitude, long time) {
+        return "{\"type\":\"Feature\",\"properties\":{\"mag\":" + magnitude
+                + ",\"place\":\"10km N of Town, Region\",\"time\":" + time
+                + ",\"updated\":" + (time + 100)
+                + ",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/" + id + "\"},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[10.0,20.0,5.0]},"
+                + "\"id\":\"" + id + "\"}";
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes an {@link EarthquakeStore} to an {@link EarthquakeDataset} and reads it back, directly
+ * and through an {@link EarthquakeRowList}.
+ */
+public class EarthquakeDatasetTest {
+
+    private static final String PREFIX = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("earthquakes", ".dataset");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void everyEarthquakeComesBackTheSame() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.add(new Earthquake(6.4, "74km NW of Rumoi, Japan", 3000, PREFIX + "us1", "us1",
+                3100, false, 141.2, 44.5, 10));
+        // No region, a website without the prefix and nothing known about where it was
+        store.add(new Earthquake(4.5, "Fiji region", 2000, "https://example.com/quake", "us2",
+                2100));
+        // No id either, and a place that isn't ASCII
+        store.add(new Earthquake(2.1, "12km SSO de Ciudad Hidalgo, México", -1000,
+                "https://example.com/other", "", -900, false, Double.NaN, -90, 0));
+
+        EarthquakeDataset.write(mFile, store);
+        EarthquakeDataset dataset = EarthquakeDataset.open(mFile);
+
+        assertEquals(store.size(), dataset.size());
+        for (int i = 0; i < store.size(); i++) {
+            Earthquake expected = store.get(i);
+            Earthquake actual = dataset.get(i);
+            assertEquals(expected.getMagnitude(), actual.getMagnitude(), 0);
+            assertEquals(expected.getLocation(), actual.getLocation());
+            assertEquals(expected.getRegion(), actual.getRegion());
+            assertEquals(expected.getTimeInMilliseconds(), actual.getTimeInMilliseconds());
+            assertEquals(expected.getWebsite(), actual.getWebsite());
+            assertEquals(expected.getWebsitePrefix(), actual.getWebsitePrefix());
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getUpdatedInMilliseconds(), actual.getUpdatedInMilliseconds());
+            // assertEquals on doubles treats NaN as equal to NaN
+            assertEquals(expected.getLongitude(), actual.getLongitude(), 0);
+            assertEquals(expected.getLatitude(), actual.getLatitude(), 0);
+            assertEquals(expected.getDepth(), actual.getDepth(), 0);
+
+            assertEquals(expected.getId(), dataset.getId(i));
+            assertEquals(expected.getMagnitude(), dataset.getMagnitude(i), 0);
+            assertEquals(expected.getTimeInMilliseconds(), dataset.getTimeInMilliseconds(i));
+            assertEquals(expected.getUpdatedInMilliseconds(),
+                    dataset.getUpdatedInMilliseconds(i));
+        }
+        assertNull(dataset.get(1).getRegion());
+        assertNull(dataset.get(1).getWebsitePrefix());
+        assertTrue(Double.isNaN(dataset.get(1).getLongitude()));
+        assertEquals(PREFIX, dataset.get(0).getWebsitePrefix());
+    }
+
+    @Test
+    public void rowListReadsTheDataset() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.add(new Earthquake(6.4, "74km NW of Rumoi, Japan", 3000, PREFIX + "us1", "us1",
+                3100));
+        store.add(new Earthquake(4.5, "Fiji region", 2000, PREFIX + "us2", "us2", 2100));
+        EarthquakeRowFormatter formatter =
+                new EarthquakeRowFormatter(new int[EarthquakeRowFormatter.MAGNITUDE_BANDS]);
+
+        List<EarthquakeRow> rows = EarthquakeRowList.of(store, mFile, formatter);
+
+        assertTrue(rows instanceof EarthquakeRowList);
+        EarthquakeRowList rowList = (EarthquakeRowList) rows;
+        assertEquals(2, rowList.size());
+        assertEquals("us2", rowList.getId(1));
+        assertEquals(2000, rowList.getTimeInMilliseconds(1));
+        assertEquals(2100, rowList.getUpdatedInMilliseconds(1));
+        assertEquals(4.5, rowList.getMagnitude(1), 0);
+        assertEquals("Rumoi, Japan", rowList.get(0).getPrimaryLocation());
+        assertEquals(PREFIX + "us2", rowList.get(1).getEarthquake().getWebsite());
+        // Formatted once and kept in the window
+        assertTrue(rowList.get(0) == rowList.get(0));
+    }
+
+    @Test
+    public void rangeOfTheStoreOnlyHoldsItsStrings() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.add(new Earthquake(6.4, "74km NW of Rumoi, Japan", 3000, PREFIX + "us1", "us1",
+                3100));
+        store.add(new Earthquake(4.5, "Fiji region", 2000, PREFIX + "us2", "us2", 2100));
+        store.add(new Earthquake(5.1, "10km S of Suva, Fiji", 1000, PREFIX + "us3", "us3",
+                1100));
+
+        EarthquakeDataset.write(mFile, store, 1, 3);
+        long rangeLength = mFile.length();
+        EarthquakeDataset dataset = EarthquakeDataset.open(mFile);
+
+        assertEquals(2, dataset.size());
+        assertEquals("Fiji region", dataset.get(0).getLocation());
+        assertEquals("10km S of Suva, Fiji", dataset.get(1).getLocation());
+        assertEquals(PREFIX + "us3", dataset.get(1).getWebsite());
+        EarthquakeDataset.write(mFile, store);
+        assertTrue(rangeLength < mFile.length());
+    }
+
+    @Test
+    public void appendedRowsAreReadAfterTheOthers() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.add(new Earthquake(6.4, "74km NW of Rumoi, Japan", 3000, PREFIX + "us1", "us1",
+                3100));
+        EarthquakeRowFormatter formatter =
+                new EarthquakeRowFormatter(new int[EarthquakeRowFormatter.MAGNITUDE_BANDS]);
+        EarthquakeRowList rows = (EarthquakeRowList) EarthquakeRowList.of(store, mFile, formatter);
+        store.add(new Earthquake(4.5, "Fiji region", 2000, PREFIX + "us2", "us2", 2100));
+        store.add(new Earthquake(5.1, "10km S of Suva, Fiji", 1000, PREFIX + "us3", "us3",
+                1100));
+
+        File appended = new File(mFile.getPath() + ".1");
+        try {
+            EarthquakeRowList longer = rows.append(store, 1, appended, formatter);
+
+            assertEquals(1, rows.size());
+            assertEquals(3, longer.size());
+            assertEquals(2, longer.getDatasetCount());
+            assertEquals("us1", longer.getId(0));
+            assertEquals("us2", longer.getId(1));
+            assertEquals(1000, longer.getTimeInMilliseconds(2));
+            assertEquals("Suva, Fiji", longer.get(2).getPrimaryLocation());
+            try {
+                longer.get(3);
+                fail("Expected an IndexOutOfBoundsException");
+            } catch (IndexOutOfBoundsException expected) {
+            }
+        } finally {
+            appended.delete();
+        }
+    }
+
+    @Test
+    public void emptyStoreIsAnEmptyDataset() throws IOException {
+        EarthquakeDataset.write(mFile, new EarthquakeStore());
+
+        assertEquals(0, EarthquakeDataset.open(mFile).size());
+    }
+
+    @Test
+    public void positionOutsideTheDatasetThrows() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        store.add(new Earthquake(4.5, "Fiji region", 2000, PREFIX + "us2", "us2", 2100));
+        EarthquakeDataset.write(mFile, store);
+        EarthquakeDataset dataset = EarthquakeDataset.open(mFile);
+
+        try {
+            dataset.get(1);
+            fail("Expected an IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        try {
+            dataset.getTimeInMilliseconds(-1);
+            fail("Expected an IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void fileThatIsNotADatasetIsRefused() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write("not a dataset at all".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        EarthquakeDataset.open(mFile);
+    }
+}
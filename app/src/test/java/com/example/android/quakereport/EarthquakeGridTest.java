@@ -0,0 +1,178 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the box and radius queries of an {@link EarthquakeGrid} where they are easiest to
+ * get wrong: on cell edges, across the 180th meridian, at the poles and on the circle itself.
+ */
+public class EarthquakeGridTest {
+
+    /** Kilometres in one degree along a great circle */
+    private static final double KM_PER_DEGREE = Math.PI * EarthquakeGrid.EARTH_RADIUS_KM / 180;
+
+    @Test
+    public void earthquakesWithoutCoordinatesAreLeftOut() {
+        EarthquakeGrid grid = grid(new double[][]{{10, 20}, {Double.NaN, Double.NaN}, {-5, 7}});
+
+        assertEquals(2, grid.size());
+        assertBox(grid, -90, -180, 90, 180, 0, 2);
+        assertRadius(grid, 0, 0, 30000, 0, 2);
+    }
+
+    @Test
+    public void boxIncludesItsEdges() {
+        EarthquakeGrid grid = grid(new double[][]{
+                {10, 20}, {10, 30}, {20, 20}, {20, 30},
+                {9.999, 25}, {20.001, 25}, {15, 19.999}, {15, 30.001}, {15, 25}});
+
+        assertBox(grid, 10, 20, 20, 30, 0, 1, 2, 3, 8);
+    }
+
+    @Test
+    public void boxOfOnePointFindsEarthquakesExactlyThere() {
+        EarthquakeGrid grid = grid(new double[][]{{35, 139}, {35, 139}, {35, 139.5}});
+
+        assertBox(grid, 35, 139, 35, 139, 0, 1);
+    }
+
+    @Test
+    public void boxWithSouthNorthOfNorthIsEmpty() {
+        EarthquakeGrid grid = grid(new double[][]{{0, 0}, {10, 10}});
+
+        assertBox(grid, 10, -20, -10, 20);
+    }
+
+    @Test
+    public void boxWithWestEastOfEastCrossesThe180thMeridian() {
+        EarthquakeGrid grid = grid(new double[][]{
+                {0, 175}, {0, 180}, {0, -180}, {0, -175}, {0, 0}, {0, 169.9}, {0, -169.9}});
+
+        assertBox(grid, -10, 170, 10, -170, 0, 1, 2, 3);
+    }
+
+    @Test
+    public void longitudesPastThe180thMeridianGoRoundAgain() {
+        EarthquakeGrid grid = grid(new double[][]{{0, 175}, {0, -175}, {0, -165}, {0, 185}});
+
+        // 190 is -170, and an earthquake at 185 is one at -175
+        assertBox(grid, -10, 170, 10, 190, 0, 1, 3);
+    }
+
+    @Test
+    public void boxRoundThePoleCoversEveryLongitude() {
+        EarthquakeGrid grid = grid(new double[][]{{90, 0}, {89.5, -179}, {89.5, 179}, {88, 0},
+                {-90, 45}, {-89.5, 100}});
+
+        assertBox(grid, 89, -180, 90, 180, 0, 1, 2);
+        assertBox(grid, -90, -180, -89, 180, 4, 5);
+    }
+
+    @Test
+    public void candidatesAreEveryEarthquakeInTheCellsTheBoxTouches() {
+        EarthquakeGrid grid = grid(new double[][]{
+                {10.2, 20.2}, {10.8, 20.8}, {11.5, 20.5}, {10.5, 21.5}, {-10, -10}});
+
+        // The box only holds the first earthquake, but the second shares its cell
+        assertBox(grid, 10, 20, 10.5, 20.5, 0);
+        assertEquals(2, grid.countCandidates(10, 20, 10.5, 20.5));
+        assertEquals(4, grid.countCandidates(10, 20, 11.5, 21.5));
+        assertEquals(5, grid.countCandidates(-90, -180, 90, 180));
+        assertEquals(0, grid.countCandidates(10, 20, -10, 30));
+    }
+
+    @Test
+    public void radiusIncludesTheCircleAndNothingPastIt() {
+        // Along the equator, where a degree of longitude is a degree of arc
+        EarthquakeGrid grid = grid(new double[][]{{0, 0}, {0, 1}, {0, 2}, {0, 3}, {1, 0}});
+
+        assertRadius(grid, 0, 0, 2 * KM_PER_DEGREE + 0.001, 0, 1, 2, 4);
+        assertRadius(grid, 0, 0, 2 * KM_PER_DEGREE - 0.001, 0, 1, 4);
+        assertRadius(grid, 0, 0, 0, 0);
+    }
+
+    @Test
+    public void radiusReachesAcrossThe180thMeridian() {
+        EarthquakeGrid grid = grid(new double[][]{{0, 179.5}, {0, -179.5}, {0, -178}, {0, 0}});
+
+        assertRadius(grid, 0, 179.9, 2 * KM_PER_DEGREE, 0, 1);
+        assertRadius(grid, 0, -180, 3 * KM_PER_DEGREE, 0, 1, 2);
+    }
+
+    @Test
+    public void radiusOverThePoleReachesTheOtherSide() {
+        // 89 degrees north on opposite meridians are two degrees apart over the pole
+        EarthquakeGrid grid = grid(new double[][]{{89, 0}, {89, 180}, {89, 90}, {85, 180}});
+
+        assertRadius(grid, 89, 0, 2.5 * KM_PER_DEGREE, 0, 1, 2);
+    }
+
+    @Test
+    public void radiusWiderThanTheDegreesOfLongitudeNearThePole() {
+        // At 80 degrees a circle of 15 degrees reaches past the pole, so every longitude counts
+        EarthquakeGrid grid = grid(new double[][]{{80, 0}, {80, 90}, {80, -90}, {80, 180},
+                {60, 0}});
+
+        assertRadius(grid, 80, 0, 25 * KM_PER_DEGREE, 0, 1, 2, 3, 4);
+    }
+
+    @Test
+    public void radiusOfHalfTheGlobeOrMoreFindsEverything() {
+        EarthquakeGrid grid = grid(new double[][]{{0, 0}, {0, 180}, {90, 0}, {-90, 0}});
+
+        assertRadius(grid, 0, 0, Math.PI * EarthquakeGrid.EARTH_RADIUS_KM + 1, 0, 1, 2, 3);
+        assertRadius(grid, 0, 0, 50000, 0, 1, 2, 3);
+    }
+
+    @Test
+    public void negativeRadiusFindsNothing() {
+        EarthquakeGrid grid = grid(new double[][]{{0, 0}});
+
+        assertRadius(grid, 0, 0, -1);
+    }
+
+    @Test
+    public void distanceBetweenKnownPlaces() {
+        // London to Paris is about 344 km, and a quarter of the way round is 10007 km
+        assertEquals(344, EarthquakeGrid.distanceKm(51.5074, -0.1278, 48.8566, 2.3522), 1);
+        assertEquals(90 * KM_PER_DEGREE, EarthquakeGrid.distanceKm(0, 0, 0, 90), 1e-6);
+        assertEquals(0, EarthquakeGrid.distanceKm(10, 180, 10, -180), 1e-6);
+    }
+
+    /** A grid over earthquakes at the given latitudes and longitudes, in that order */
+    private static EarthquakeGrid grid(double[][] coordinates) {
+        EarthquakeStore store = new EarthquakeStore();
+        for (int i = 0; i < coordinates.length; i++) {
+            store.add(new Earthquake(5.0, "Somewhere", 1000000 - i, "", "us" + i, 1, false,
+                    coordinates[i][1], coordinates[i][0], 10));
+        }
+        return new EarthquakeGrid(store);
+    }
+
+    private static void assertBox(EarthquakeGrid grid, double south, double west, double north,
+                                  double east, int... expected) {
+        int[] out = new int[grid.size()];
+        int found = grid.queryBox(south, west, north, east, out);
+        assertArrayEquals("box " + south + ", " + west + ", " + north + ", " + east,
+                expected, sorted(out, found));
+    }
+
+    private static void assertRadius(EarthquakeGrid grid, double latitude, double longitude,
+                                     double radiusKm, int... expected) {
+        int[] out = new int[grid.size()];
+        int found = grid.queryRadius(latitude, longitude, radiusKm, out);
+        assertArrayEquals(radiusKm + " km of " + latitude + ", " + longitude,
+                expected, sorted(out, found));
+    }
+
+    private static int[] sorted(int[] positions, int count) {
+        int[] sorted = Arrays.copyOf(positions, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link EarthquakeIndex#query(EarthquakeQuery, int[])} finds the same
+ * earthquakes in the same order whether it starts from the grid or from a sorted range, and
+ * that {@link EarthquakeIndex#queryNear} finds what measuring every distance would.
+ */
+public class EarthquakeIndexTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    /** 2016-01-01T00:00:00Z */
+    private static final long START = 1451606400000L;
+
+    @Test
+    public void regionEdgesAreIncluded() {
+        EarthquakeIndex index = index(
+                quake("inside", 5.0, 1, 35, 139),
+                quake("south-west", 5.0, 2, 30, 130),
+                quake("north-east", 5.0, 3, 40, 145),
+                quake("too-far-east", 5.0, 4, 35, 145.01),
+                quake("too-far-south", 5.0, 5, 29.99, 139));
+
+        assertEquals(Arrays.asList("north-east", "south-west", "inside"),
+                query(index, new EarthquakeQuery(0, EarthquakeQuery.UNBOUNDED,
+                        EarthquakeQuery.UNBOUNDED, 30, 130, 40, 145)));
+    }
+
+    @Test
+    public void regionIsIntersectedWithTheMagnitudeAndTime() {
+        EarthquakeIndex index = index(
+                quake("small", 3.0, 1, 35, 139),
+                quake("early", 6.0, 2, 35, 139),
+                quake("match", 6.0, 10, 35, 139),
+                quake("elsewhere", 6.0, 11, -30, -71),
+                quake("late", 6.0, 20, 35, 139));
+
+        assertEquals(Collections.singletonList("match"),
+                query(index, new EarthquakeQuery(5, START + 5 * HOUR, START + 15 * HOUR,
+                        30, 130, 40, 145)));
+    }
+
+    @Test
+    public void earthquakesWithoutCoordinatesAreNeverInARegion() {
+        EarthquakeIndex index = index(
+                quake("located", 5.0, 1, 0, 0),
+                quake("unlocated", 5.0, 2, Double.NaN, Double.NaN));
+
+        assertEquals(Collections.singletonList("located"), query(index,
+                new EarthquakeQuery(0, EarthquakeQuery.UNBOUNDED, EarthquakeQuery.UNBOUNDED,
+                        -90, -180, 90, 180)));
+    }
+
+    @Test
+    public void regionQueriesMatchAScanWhicheverWayTheyAreAnswered() {
+        // Most earthquakes in one busy area, so some regions are denser than the ranges
+        Random random = new Random(7);
+        List<Earthquake> earthquakes = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            boolean busy = random.nextInt(3) > 0;
+            double latitude = busy ? 30 + random.nextDouble() * 15 : random.nextDouble() * 180 - 90;
+            double longitude = busy ? 130 + random.nextDouble() * 15
+                    : random.nextDouble() * 360 - 180;
+            earthquakes.add(quake("us" + i, 2.5 + random.nextInt(56) / 10.0, i,
+                    latitude, longitude));
+        }
+        EarthquakeIndex index = index(earthquakes.toArray(new Earthquake[earthquakes.size()]));
+
+        double[][] regions = {
+                // One cell, the busy area, half the globe, the whole globe, then past 180
+                // written both ways and all the way round from the busy area
+                {35, 139, 35.9, 139.9}, {30, 130, 45, 145}, {0, -180, 90, 180},
+                {-90, -180, 90, 180}, {-10, 170, 10, 190}, {-10, 170, 10, -170},
+                {30, 140, 45, 500}};
+        double[] magnitudes = {0, 4.5, 7};
+        long[][] windows = {
+                {EarthquakeQuery.UNBOUNDED, EarthquakeQuery.UNBOUNDED},
+                {START + 4900 * HOUR, EarthquakeQuery.UNBOUNDED},
+                {START + 1000 * HOUR, START + 3000 * HOUR}};
+        for (double[] region : regions) {
+            for (double magnitude : magnitudes) {
+                for (long[] window : windows) {
+                    EarthquakeQuery query = new EarthquakeQuery(magnitude, window[0], window[1],
+                            region[0], region[1], region[2], region[3]);
+                    assertEquals(query.toKey(), scan(earthquakes, query), query(index, query));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void regionAcrossThe180thMeridianIsAnsweredFromTheGrid() {
+        EarthquakeIndex index = index(
+                quake("fiji", 5.0, 1, -17, 179),
+                quake("tonga", 5.0, 2, -18, -175),
+                quake("chile", 5.0, 3, -30, -71));
+
+        assertEquals(Arrays.asList("tonga", "fiji"),
+                query(index, new EarthquakeQuery(0, EarthquakeQuery.UNBOUNDED,
+                        EarthquakeQuery.UNBOUNDED, -25, 170, -10, -170)));
+    }
+
+    @Test
+    public void nearQueriesMatchMeasuringEveryDistance() {
+        Random random = new Random(18);
+        List<Earthquake> earthquakes = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            earthquakes.add(quake("us" + i, 5.0, i, random.nextDouble() * 180 - 90,
+                    random.nextDouble() * 360 - 180));
+        }
+        EarthquakeIndex index = index(earthquakes.toArray(new Earthquake[earthquakes.size()]));
+
+        // Near the 180th meridian, near a pole, in each hemisphere, and half the globe
+        double[][] circles = {{0, 179.5, 1000}, {88, 40, 800}, {-35, -70, 300},
+                {45, 10, 3000}, {-60, 100, 10000}};
+        for (double[] circle : circles) {
+            List<String> expected = new ArrayList<>();
+            // The earthquakes were added oldest first, so backwards is newest first
+            for (int i = earthquakes.size() - 1; i >= 0; i--) {
+                Earthquake earthquake = earthquakes.get(i);
+                // Nudged in, so a rounding difference on the circle itself can't fail it
+                if (EarthquakeGrid.distanceKm(circle[0], circle[1], earthquake.getLatitude(),
+                        earthquake.getLongitude()) <= circle[2] - 0.001) {
+                    expected.add(earthquake.getId());
+                }
+            }
+            int[] positions = new int[earthquakes.size()];
+            int count = index.queryNear(circle[0], circle[1], circle[2] - 0.001, positions);
+            List<String> found = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                found.add(index.getStore().getId(positions[i]));
+            }
+            assertEquals(Arrays.toString(circle), expected, found);
+        }
+    }
+
+    private static Earthquake quake(String id, double magnitude, long hours, double latitude,
+                                    double longitude) {
+        return new Earthquake(magnitude, "10km N of Place, Region", START + hours * HOUR,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id, id, 1, false,
+                longitude, latitude, 10);
+    }
+
+    private static EarthquakeIndex index(Earthquake... earthquakes) {
+        EarthquakeStore store = new EarthquakeStore();
+        for (Earthquake earthquake : earthquakes) {
+            store.add(earthquake);
+        }
+        return new EarthquakeIndex(store, 0, Long.MIN_VALUE, Long.MAX_VALUE, START);
+    }
+
+    private static List<String> query(EarthquakeIndex index, EarthquakeQuery query) {
+        int[] positions = new int[index.getStore().size()];
+        int count = index.query(query, positions);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(index.getStore().getId(positions[i]));
+        }
+        return ids;
+    }
+
+    /** What the query asks for, found by checking every earthquake, newest first */
+    private static List<String> scan(List<Earthquake> earthquakes, EarthquakeQuery query) {
+        List<Earthquake> matching = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            long time = earthquake.getTimeInMilliseconds();
+            if (earthquake.getMagnitude() >= query.getMinMagnitude()
+                    && (query.getStartTime() == EarthquakeQuery.UNBOUNDED
+                    || time >= query.getStartTime())
+                    && (query.getEndTime() == EarthquakeQuery.UNBOUNDED
+                    || time <= query.getEndTime())
+                    && query.isInRegion(earthquake.getLatitude(), earthquake.getLongitude())) {
+                matching.add(earthquake);
+            }
+        }
+        Collections.sort(matching, new Comparator<Earthquake>() {
+            @Override
+            public int compare(Earthquake a, Earthquake b) {
+                return Long.compare(b.getTimeInMilliseconds(), a.getTimeInMilliseconds());
+            }
+        });
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : matching) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+}
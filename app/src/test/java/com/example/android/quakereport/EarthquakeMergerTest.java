@@ -0,0 +1,240 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how the {@link EarthquakeMerger} handles revisions, deletions and re-timed events,
+ * and that it keeps the store newest first.
+ */
+public class EarthquakeMergerTest {
+
+    @Test
+    public void nextPageIsAppended() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        merger.merge(Arrays.asList(quake("a", 5000, 1, 4.0), quake("b", 4000, 1, 5.0)),
+                Long.MIN_VALUE);
+
+        EarthquakeMerger.Result result = merger.merge(
+                Arrays.asList(quake("c", 3000, 1, 4.5), quake("d", 2000, 1, 4.1)), Long.MIN_VALUE);
+
+        assertEquals(2, result.added);
+        assertTrue(result.isAppendOnly());
+        assertEquals(Arrays.asList("a", "b", "c", "d"), ids(merger.getStore()));
+    }
+
+    @Test
+    public void pageRepeatingEarthquakesAddsNoDuplicates() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        merger.merge(Arrays.asList(quake("a", 5000, 1, 4.0), quake("b", 4000, 1, 5.0)),
+                Long.MIN_VALUE);
+
+        // A new earthquake pushed "b" onto the next page as well
+        EarthquakeMerger.Result result = merger.merge(
+                Arrays.asList(quake("b", 4000, 1, 5.0), quake("c", 3000, 1, 4.5)), Long.MIN_VALUE);
+
+        assertEquals(1, result.added);
+        assertEquals(1, result.ignored);
+        assertEquals(Arrays.asList("a", "b", "c"), ids(merger.getStore()));
+    }
+
+    @Test
+    public void newerVersionReplacesTheEarthquake() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        merger.merge(Arrays.asList(quake("a", 3000, 1, 4.0), quake("b", 2000, 1, 5.0)),
+                Long.MIN_VALUE);
+
+        EarthquakeMerger.Result result = merger.merge(
+                Collections.singletonList(quake("b", 2000, 2, 5.5)), Long.MIN_VALUE);
+
+        assertEquals(1, result.revised);
+        assertFalse(result.reordered);
+        assertEquals(2, merger.getStore().size());
+        assertEquals(5.5, merger.getStore().getMagnitude(1), 0);
+        assertEquals(2, merger.getStore().getUpdatedInMilliseconds(1));
+    }
+
+    @Test
+    public void olderOrEqualVersionIsIgnored() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        merger.merge(Collections.singletonList(quake("a", 3000, 5, 4.0)), Long.MIN_VALUE);
+
+        EarthquakeMerger.Result result = merger.merge(
+                Arrays.asList(quake("a", 3000, 4, 6.0), quake("a", 3000, 5, 6.0)), Long.MIN_VALUE);
+
+        assertEquals(2, result.ignored);
+        assertEquals(4.0, merger.getStore().getMagnitude(0), 0);
+    }
+
+    @Test
+    public void newestVersionInOneBatchWinsWhateverTheOrder() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        merger.merge(Arrays.asList(quake("a", 3000, 2, 4.0), quake("a", 3000, 7, 4.4),
+                quake("a", 3000, 5, 4.2)), Long.MIN_VALUE);
+
+        assertEquals(1, merger.getStore().size());
+        assertEquals(7, merger.getStore().getUpdatedInMilliseconds(0));
+        assertEquals(4.4, merger.getStore().getMagnitude(0), 0);
+    }
+
+    @Test
+    public void deletionLeavesATombstone() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        merger.merge(Arrays.asList(quake("a", 3000, 1, 4.0), quake("b", 2000, 1, 5.0)),
+                Long.MIN_VALUE);
+
+        EarthquakeMerger.Result result = merger.merge(
+                Collections.singletonList(deletion("a", 3000, 2)), Long.MIN_VALUE);
+        assertEquals(1, result.deleted);
+        assertFalse(merger.contains("a"));
+        assertEquals(Collections.singletonList("b"), ids(merger.getStore()));
+
+        // A copy from before the deletion (i.e. on an older page) can't bring it back
+        result = merger.merge(Collections.singletonList(quake("a", 3000, 1, 4.0)), Long.MIN_VALUE);
+        assertEquals(1, result.ignored);
+        assertFalse(merger.contains("a"));
+
+        // A version newer than the deletion can
+        result = merger.merge(Collections.singletonList(quake("a", 3000, 3, 4.2)), Long.MIN_VALUE);
+        assertEquals(1, result.added);
+        assertTrue(merger.contains("a"));
+        assertEquals(Arrays.asList("a", "b"), ids(merger.getStore()));
+    }
+
+    @Test
+    public void deletionOfAnEarthquakeWeNeverHadStillBlocksOlderCopies() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+
+        EarthquakeMerger.Result result = merger.merge(
+                Collections.singletonList(deletion("a", 3000, 5)), Long.MIN_VALUE);
+        assertEquals(1, result.ignored);
+
+        result = merger.merge(Collections.singletonList(quake("a", 3000, 4, 4.0)), Long.MIN_VALUE);
+        assertEquals(1, result.ignored);
+        assertEquals(0, merger.getStore().size());
+    }
+
+    @Test
+    public void earthquakeAddedAndDeletedInOneBatchIsDropped() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        merger.merge(Collections.singletonList(quake("a", 5000, 1, 4.0)), Long.MIN_VALUE);
+
+        EarthquakeMerger.Result result = merger.merge(Arrays.asList(quake("b", 4000, 1, 5.0),
+                quake("c", 3000, 1, 4.5), deletion("b", 4000, 2)), Long.MIN_VALUE);
+
+        assertEquals(2, result.added);
+        assertEquals(1, result.deleted);
+        assertEquals(Arrays.asList("a", "c"), ids(merger.getStore()));
+        assertFalse(merger.contains("b"));
+        assertTrue(merger.contains("c"));
+    }
+
+    @Test
+    public void retimedEarthquakeMovesIntoOrder() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        merger.merge(Arrays.asList(quake("a", 3000, 1, 4.0), quake("b", 2000, 1, 5.0),
+                quake("c", 1000, 1, 4.5)), Long.MIN_VALUE);
+
+        EarthquakeMerger.Result result = merger.merge(
+                Collections.singletonList(quake("c", 4000, 2, 4.5)), Long.MIN_VALUE);
+        assertTrue(result.reordered);
+        assertEquals(Arrays.asList("c", "a", "b"), ids(merger.getStore()));
+
+        // And back down past the others
+        result = merger.merge(Collections.singletonList(quake("c", 500, 3, 4.5)), Long.MIN_VALUE);
+        assertTrue(result.reordered);
+        assertEquals(Arrays.asList("a", "b", "c"), ids(merger.getStore()));
+        assertTrue(merger.contains("c"));
+    }
+
+    @Test
+    public void newEarthquakeBetweenOldOnesIsSortedIn() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        merger.merge(Arrays.asList(quake("a", 5000, 1, 4.0), quake("c", 3000, 1, 4.5)),
+                Long.MIN_VALUE);
+
+        EarthquakeMerger.Result result = merger.merge(Arrays.asList(quake("d", 1000, 1, 4.1),
+                quake("b", 4000, 1, 5.0), quake("e", 6000, 1, 4.2)), Long.MIN_VALUE);
+
+        assertEquals(3, result.added);
+        assertTrue(result.reordered);
+        assertEquals(Arrays.asList("e", "a", "b", "c", "d"), ids(merger.getStore()));
+    }
+
+    @Test
+    public void earthquakesOlderThanTheWindowAreNotAdded() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        EarthquakeMerger.Result result = merger.merge(
+                Arrays.asList(quake("a", 3000, 1, 4.0), quake("b", 1000, 1, 5.0)), 2000);
+
+        assertEquals(1, result.added);
+        assertEquals(1, result.ignored);
+        assertEquals(Collections.singletonList("a"), ids(merger.getStore()));
+    }
+
+    @Test
+    public void earthquakeWeHaveIsRevisedEvenOutsideTheWindow() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        merger.merge(Arrays.asList(quake("a", 3000, 1, 4.0), quake("b", 1000, 1, 5.0)),
+                Long.MIN_VALUE);
+
+        EarthquakeMerger.Result result = merger.merge(
+                Collections.singletonList(quake("b", 1000, 2, 5.1)), 2000);
+
+        assertEquals(1, result.revised);
+        assertEquals(5.1, merger.getStore().getMagnitude(1), 0);
+    }
+
+    @Test
+    public void earthquakesWithoutAnIdAreKeptAsTheyAre() {
+        EarthquakeMerger merger = new EarthquakeMerger(new EarthquakeStore());
+        EarthquakeMerger.Result result = merger.merge(Arrays.asList(quake("", 3000, 1, 4.0),
+                quake("", 3000, 1, 4.0)), Long.MIN_VALUE);
+
+        assertEquals(2, result.added);
+        assertEquals(2, merger.getStore().size());
+    }
+
+    @Test
+    public void reindexPicksUpAStoreFilledDirectly() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.add(quake("a", 3000, 1, 4.0));
+        store.add(quake("b", 2000, 1, 5.0));
+        EarthquakeMerger merger = new EarthquakeMerger(store);
+        assertTrue(merger.contains("b"));
+
+        store.add(quake("c", 1000, 1, 4.5));
+        assertFalse(merger.contains("c"));
+        merger.reindex();
+        assertTrue(merger.contains("c"));
+
+        merger.clear();
+        assertEquals(0, store.size());
+        assertFalse(merger.contains("a"));
+    }
+
+    private static Earthquake quake(String id, long time, long updated, double magnitude) {
+        return new Earthquake(magnitude, "10km N of Town, Region", time,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id, id, updated, false);
+    }
+
+    private static Earthquake deletion(String id, long time, long updated) {
+        return new Earthquake(0, "", time, "", id, updated, true);
+    }
+
+    private static List<String> ids(EarthquakeStore store) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < store.size(); i++) {
+            ids.add(store.getId(i));
+        }
+        return ids;
+    }
+}
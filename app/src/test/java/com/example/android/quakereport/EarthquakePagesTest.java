@@ -0,0 +1,142 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads pages into {@link EarthquakePages} and copies them with an {@link EarthquakeRowCopier}
+ * the way the loader does, checking that a page that only appends earthquakes costs no more
+ * than the page itself: the rows before it and the published index are left alone.
+ */
+public class EarthquakePagesTest {
+
+    private static final int PAGE_SIZE = 2;
+
+    private File mDirectory;
+    private EarthquakePages mPages;
+    private EarthquakeRowCopier mRows;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = new File(System.getProperty("java.io.tmpdir"),
+                "earthquake-pages-test-" + System.nanoTime());
+        assertTrue(mDirectory.mkdirs());
+        mPages = new EarthquakePages(new EarthquakeQuery(4.5), PAGE_SIZE);
+        mRows = new EarthquakeRowCopier(new File(mDirectory, "earthquakes.dataset"),
+                new int[EarthquakeRowFormatter.MAGNITUDE_BANDS]);
+        EarthquakeIndex.publish(null);
+    }
+
+    @After
+    public void tearDown() {
+        EarthquakeIndex.publish(null);
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void nextPageIsAppendedToTheRowsCopiedBefore() {
+        mPages.addPage(Arrays.asList(quake("a", 8000, 1), quake("b", 7000, 1)), false);
+        EarthquakeRowList first = (EarthquakeRowList) copyRows();
+
+        mPages.addPage(Arrays.asList(quake("c", 6000, 1), quake("d", 5000, 1)), false);
+        EarthquakeRowList second = (EarthquakeRowList) copyRows();
+
+        assertEquals(1, first.getDatasetCount());
+        assertEquals(2, second.getDatasetCount());
+        assertEquals(Arrays.asList("a", "b", "c", "d"), ids(second));
+        assertEquals(5000, second.getTimeInMilliseconds(3));
+        assertEquals(5, mPages.getNextOffset());
+        // Nothing changed, so the same rows are delivered again
+        assertSame(second, copyRows());
+    }
+
+    @Test
+    public void revisedEarthquakeCopiesEverythingAgain() {
+        mPages.addPage(Arrays.asList(quake("a", 8000, 1), quake("b", 7000, 1)), false);
+        copyRows();
+
+        // "b" was revised before the next page was fetched
+        mPages.addPage(Arrays.asList(quake("b", 7000, 2), quake("c", 6000, 1)), false);
+        EarthquakeRowList rows = (EarthquakeRowList) copyRows();
+
+        assertEquals(1, rows.getDatasetCount());
+        assertEquals(Arrays.asList("a", "b", "c"), ids(rows));
+        assertEquals(2, rows.getUpdatedInMilliseconds(1));
+    }
+
+    @Test
+    public void indexIsBuiltAgainOnceTheEarthquakesDouble() {
+        mPages.setLoadedAt(System.currentTimeMillis());
+        mPages.addPage(Arrays.asList(quake("a", 8000, 1), quake("b", 7000, 1)), false);
+        mPages.publishIndex();
+        EarthquakeIndex first = EarthquakeIndex.getLatest();
+        assertEquals(2, first.getStore().size());
+
+        mPages.addPage(Arrays.asList(quake("c", 6000, 1)), true);
+        mPages.publishIndex();
+        assertSame(first, EarthquakeIndex.getLatest());
+
+        mPages.addPage(Arrays.asList(quake("d", 5000, 1)), true);
+        mPages.publishIndex();
+        EarthquakeIndex second = EarthquakeIndex.getLatest();
+        assertNotSame(first, second);
+        assertEquals(4, second.getStore().size());
+        assertEquals(5000, second.getFromTime());
+
+        // The last page is always published, it holds every earthquake of the query
+        mPages.addPage(Collections.singletonList(quake("e", 4000, 1)), false);
+        assertFalse(mPages.hasMorePages());
+        mPages.publishIndex();
+        assertEquals(5, EarthquakeIndex.getLatest().getStore().size());
+        assertEquals(Long.MIN_VALUE, EarthquakeIndex.getLatest().getFromTime());
+    }
+
+    @Test
+    public void knownIdsFollowTheEarthquakes() {
+        mPages.addPage(Arrays.asList(quake("a", 8000, 1), quake("b", 7000, 1)), false);
+        assertTrue(mPages.getKnownIds().contains("b"));
+
+        mPages.replace(Collections.singletonList(quake("z", 9000, 1)));
+
+        assertEquals(Collections.singleton("z"), new HashSet<>(mPages.getKnownIds()));
+        assertEquals(2, mPages.getNextOffset());
+    }
+
+    private List<EarthquakeRow> copyRows() {
+        return mRows.copy(mPages.getStore(), mPages.takeUnchanged(), mPages.getAggregates());
+    }
+
+    private static List<String> ids(EarthquakeRowList rows) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            ids.add(rows.getId(i));
+        }
+        return ids;
+    }
+
+    private static Earthquake quake(String id, long time, long updated) {
+        return new Earthquake(5.0, "10km N of Town, Region", time,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id, id, updated);
+    }
+}
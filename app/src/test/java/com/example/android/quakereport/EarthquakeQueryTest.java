@@ -0,0 +1,83 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how an {@link EarthquakeQuery} treats a region that crosses the 180th meridian,
+ * which it has to agree about with USGS and the {@link EarthquakeGrid}, and what it is
+ * synced under.
+ */
+public class EarthquakeQueryTest {
+
+    @Test
+    public void regionWithWestPastEastWrapsRound() {
+        EarthquakeQuery query = region(-25, 170, -10, -170);
+
+        assertTrue(query.isInRegion(-17, 179));
+        assertTrue(query.isInRegion(-17, 180));
+        assertTrue(query.isInRegion(-17, -180));
+        assertTrue(query.isInRegion(-18, -170));
+        assertFalse(query.isInRegion(-18, -169.9));
+        assertFalse(query.isInRegion(-18, 0));
+        assertFalse(query.isInRegion(-30, 179));
+    }
+
+    @Test
+    public void regionPast180IsTheSameAsWestPastEast() {
+        EarthquakeQuery wrapped = region(-25, 170, -10, -170);
+        EarthquakeQuery extended = region(-25, 170, -10, 190);
+
+        for (double longitude = -180; longitude <= 180; longitude += 0.5) {
+            assertTrue("longitude " + longitude, wrapped.isInRegion(-17, longitude)
+                    == extended.isInRegion(-17, longitude));
+        }
+        assertTrue(wrapped.contains(extended));
+        assertTrue(extended.contains(wrapped));
+    }
+
+    @Test
+    public void containsTakesTheWrapIntoAccount() {
+        EarthquakeQuery wrapped = region(-30, 160, 0, -160);
+
+        assertTrue(wrapped.contains(region(-20, 175, -10, -175)));
+        assertTrue(wrapped.contains(region(-20, 165, -10, 170)));
+        assertTrue(wrapped.contains(region(-20, -170, -10, -165)));
+        assertFalse(wrapped.contains(region(-20, 150, -10, 170)));
+        assertFalse(wrapped.contains(region(-20, -170, -10, -150)));
+        // Every longitude holds it, a box that stops at 180 doesn't
+        assertTrue(region(-30, -180, 0, 180).contains(wrapped));
+        assertFalse(region(-30, 100, 0, 180).contains(wrapped));
+    }
+
+    @Test
+    public void windowOfHistoryIsSyncedUnderTheSameKeyEveryDay() {
+        long day = 24 * 60 * 60 * 1000L;
+        EarthquakeQuery yesterday = new EarthquakeQuery(6, 10 * day, EarthquakeQuery.UNBOUNDED);
+        EarthquakeQuery today = new EarthquakeQuery(6, 11 * day, EarthquakeQuery.UNBOUNDED);
+
+        assertFalse(yesterday.toKey().equals(today.toKey()));
+        assertEquals(yesterday.toSyncKey(), today.toSyncKey());
+        assertFalse(today.toSyncKey().contains("starttime"));
+        // Everything else still tells queries apart
+        assertFalse(today.toSyncKey().equals(
+                new EarthquakeQuery(5, 11 * day, EarthquakeQuery.UNBOUNDED).toSyncKey()));
+        assertEquals(new EarthquakeQuery(6).toKey(), new EarthquakeQuery(6).toSyncKey());
+    }
+
+    @Test
+    public void urlAsksUsgsForLongitudesPast180() {
+        String url = region(-25, 170, -10, -170).toUrl();
+
+        assertTrue(url, url.contains("minlongitude=170"));
+        assertTrue(url, url.contains("maxlongitude=190"));
+    }
+
+    private static EarthquakeQuery region(double south, double west, double north, double east) {
+        return new EarthquakeQuery(0, EarthquakeQuery.UNBOUNDED, EarthquakeQuery.UNBOUNDED,
+                south, west, north, east);
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link EarthquakeRequests} against a fake {@link EarthquakeSource}, which answers every
+ * request with the same few earthquakes and remembers the URLs it was asked for.
+ */
+public class EarthquakeRequestsTest {
+
+    private static final String URL = EarthquakeQuery.USGS_REQUEST_URL + "?limit=3";
+
+    /** The URL of every request, in the order they were made */
+    private final List<String> mUrls = Collections.synchronizedList(new ArrayList<String>());
+
+    /** False to break the response off after the earthquakes, like a parse error would */
+    private volatile boolean mComplete = true;
+
+    /** Counted down when the source gets a request, and waited on before it answers */
+    private final CountDownLatch mStarted = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private volatile boolean mBlocking;
+
+    private EarthquakeSource mOriginalSource;
+    private File mDirectory;
+    private ExecutorService mExecutor;
+    private EarthquakeRequests mRequests;
+
+    @Before
+    public void setUp() {
+        mOriginalSource = QueryUtils.getSource();
+        QueryUtils.setSource(new EarthquakeSource() {
+            @Override
+            public Response fetch(String url, String etag, String lastModified,
+                                  GeoJsonParser.Listener listener, Cancellation cancellation) {
+                mUrls.add(url);
+                mStarted.countDown();
+                if (mBlocking) {
+                    try {
+                        mRelease.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        return Response.FAILED;
+                    }
+                }
+                if (cancellation.isStopped()) {
+                    return new Response(-1, null, null, false, false, true);
+                }
+                listener.onEarthquake(quake("us1", 3000));
+                listener.onEarthquake(quake("us2", 2000));
+                return new Response(200, null, null, true, mComplete, false);
+            }
+        });
+
+        mDirectory = new File(System.getProperty("java.io.tmpdir"),
+                "earthquake-requests-test-" + System.nanoTime());
+        mExecutor = Executors.newFixedThreadPool(2);
+        mRequests = new EarthquakeRequests(new EarthquakeCache(mDirectory, 60000, 1024 * 1024),
+                new EarthquakeMemoryCache(Clock.SYSTEM, 60000, 1024 * 1024), mExecutor);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mRelease.countDown();
+        mExecutor.shutdownNow();
+        mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        QueryUtils.setSource(mOriginalSource);
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void completeResponseIsKeptWithTheTimeItWasStored() {
+        EarthquakeCache.Entry entry = mRequests.fetchEntry(URL, new Cancellation(), null);
+
+        assertEquals(2, entry.earthquakes.size());
+        assertTrue(entry.storedAt > 0);
+        assertTrue(mRequests.isCached(URL));
+    }
+
+    @Test
+    public void brokenResponseIsAPartialEntryThatIsNotKept() {
+        mComplete = false;
+
+        EarthquakeCache.Entry entry = mRequests.fetchEntry(URL, new Cancellation(), null);
+
+        // A short page that isn't the last one, the loader asks for the rest next time
+        assertEquals(2, entry.earthquakes.size());
+        assertEquals(0, entry.storedAt);
+        assertFalse(mRequests.isCached(URL));
+
+        mRequests.fetchEntry(URL, new Cancellation(), null);
+        assertEquals(2, mUrls.size());
+    }
+
+    @Test
+    public void callerThatCancelsStopsWaitingWhileTheOthersGetTheResponse() throws Exception {
+        mBlocking = true;
+        Cancellation first = new Cancellation();
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            long joined = Metrics.REQUESTS_JOINED.get();
+            Future<EarthquakeCache.Entry> firstEntry = callers.submit(fetchEntry(first));
+            assertTrue(mStarted.await(5, TimeUnit.SECONDS));
+            Future<EarthquakeCache.Entry> second = callers.submit(fetchEntry(new Cancellation()));
+            Future<EarthquakeCache.Entry> third = callers.submit(fetchEntry(new Cancellation()));
+            while (Metrics.REQUESTS_JOINED.get() < joined + 2) {
+                Thread.sleep(10);
+            }
+
+            // The caller that made the request doesn't wait for the response it gave up on
+            first.cancel();
+            assertNull(firstEntry.get(1, TimeUnit.SECONDS));
+
+            mRelease.countDown();
+            assertEquals(2, second.get(5, TimeUnit.SECONDS).earthquakes.size());
+            assertEquals(2, third.get(5, TimeUnit.SECONDS).earthquakes.size());
+            assertEquals(1, mUrls.size());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void callerArrivingAfterEveryoneCancelledMakesANewRequest() throws Exception {
+        mBlocking = true;
+        Cancellation first = new Cancellation();
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<EarthquakeCache.Entry> firstEntry = callers.submit(fetchEntry(first));
+            assertTrue(mStarted.await(5, TimeUnit.SECONDS));
+            first.cancel();
+            assertNull(firstEntry.get(1, TimeUnit.SECONDS));
+
+            // The abandoned request is still waiting on the source, so it's still in flight
+            Future<EarthquakeCache.Entry> second = callers.submit(fetchEntry(new Cancellation()));
+            for (int i = 0; i < 500 && mUrls.size() < 2; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, mUrls.size());
+
+            mRelease.countDown();
+            assertEquals(2, second.get(5, TimeUnit.SECONDS).earthquakes.size());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    private Callable<EarthquakeCache.Entry> fetchEntry(final Cancellation cancellation) {
+        return new Callable<EarthquakeCache.Entry>() {
+            @Override
+            public EarthquakeCache.Entry call() {
+                return mRequests.fetchEntry(URL, cancellation, null);
+            }
+        };
+    }
+
+    private static Earthquake quake(String id, long time) {
+        return new Earthquake(5.0, "10km N of Place, Region", time,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id, id, time);
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.android.quakereport;
+
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Applies the edit script of {@link EarthquakeRowChanges} to the old list, the way the
+ * RecyclerView would, and checks that it ends up as the new list with only the rows that were
+ * told about replaced.
+ */
+public class EarthquakeRowChangesTest {
+
+    private static final EarthquakeRowFormatter FORMATTER =
+            new EarthquakeRowFormatter(new int[EarthquakeRowFormatter.MAGNITUDE_BANDS]);
+
+    private final List<File> mFiles = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (File file : mFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void nextPageIsOneInsertedRange() {
+        List<EarthquakeRow> oldRows = rows(quake("a", 5000, 1), quake("b", 4000, 1));
+        List<EarthquakeRow> newRows = rows(quake("a", 5000, 1), quake("b", 4000, 1),
+                quake("c", 3000, 1), quake("d", 2000, 1));
+
+        assertEquals(Collections.singletonList("inserted 2 2"), script(oldRows, newRows));
+    }
+
+    @Test
+    public void newerEarthquakesAreInsertedAtTheTop() {
+        List<EarthquakeRow> oldRows = rows(quake("b", 4000, 1), quake("c", 3000, 1));
+        List<EarthquakeRow> newRows = rows(quake("a", 5000, 1), quake("b", 4000, 1),
+                quake("c", 3000, 1));
+
+        assertEquals(Collections.singletonList("inserted 0 1"), script(oldRows, newRows));
+    }
+
+    @Test
+    public void removedEarthquakesAreOneRangeEach() {
+        List<EarthquakeRow> oldRows = rows(quake("a", 5000, 1), quake("b", 4000, 1),
+                quake("c", 3000, 1), quake("d", 2000, 1), quake("e", 1000, 1));
+        List<EarthquakeRow> newRows = rows(quake("a", 5000, 1), quake("d", 2000, 1));
+
+        assertEquals(Arrays.asList("removed 1 2", "removed 2 1"), script(oldRows, newRows));
+    }
+
+    @Test
+    public void revisedEarthquakeIsChangedInPlace() {
+        List<EarthquakeRow> oldRows = rows(quake("a", 5000, 1), quake("b", 4000, 1));
+        List<EarthquakeRow> newRows = rows(quake("a", 5000, 1), quake("b", 4000, 2));
+
+        assertEquals(Collections.singletonList("changed 1 1"), script(oldRows, newRows));
+    }
+
+    @Test
+    public void retimedEarthquakeIsRemovedAndInsertedAgain() {
+        List<EarthquakeRow> oldRows = rows(quake("a", 5000, 1), quake("b", 4000, 1),
+                quake("c", 3000, 1));
+        List<EarthquakeRow> newRows = rows(quake("b", 4000, 1), quake("c", 3000, 1),
+                quake("a", 2000, 2));
+
+        assertEquals(Arrays.asList("removed 0 1", "inserted 2 1"), script(oldRows, newRows));
+    }
+
+    @Test
+    public void earthquakesAtTheSameTimeSwappingPlaces() {
+        List<EarthquakeRow> oldRows = rows(quake("a", 5000, 1), quake("b", 4000, 1),
+                quake("c", 4000, 1), quake("d", 3000, 1));
+        List<EarthquakeRow> newRows = rows(quake("a", 5000, 1), quake("c", 4000, 1),
+                quake("b", 4000, 1), quake("d", 3000, 1));
+
+        // Nothing newer or older to tell them apart, so "b" goes and comes back after "c"
+        assertEquals(Arrays.asList("removed 1 1", "inserted 2 1"), script(oldRows, newRows));
+    }
+
+    @Test
+    public void appendedRowsAreComparedToo() {
+        List<EarthquakeRow> submitted = rows(quake("a", 5000, 1));
+        List<EarthquakeRow> appended = rows(quake("b", 4000, 1), quake("c", 3000, 1));
+        List<EarthquakeRow> newRows = rows(quake("a", 5000, 1), quake("b", 4000, 1),
+                quake("c", 3000, 2));
+
+        EarthquakeRowKeys oldKeys = new EarthquakeRowKeys(submitted, appended);
+        List<EarthquakeRow> oldRows = new ArrayList<>(submitted);
+        oldRows.addAll(appended);
+
+        assertEquals(Collections.singletonList("changed 2 1"),
+                apply(oldRows, oldKeys, newRows, keys(newRows)));
+    }
+
+    @Test
+    public void randomEditsEndUpAsTheNewList() throws IOException {
+        Random random = new Random(24);
+        for (int round = 0; round < 500; round++) {
+            List<Earthquake> oldQuakes = randomList(random, null);
+            List<Earthquake> newQuakes = randomList(random, oldQuakes);
+
+            // Plain lists of rows, and the same earthquakes read from datasets
+            apply(rows(oldQuakes), keys(rows(oldQuakes)), rows(newQuakes), keys(rows(newQuakes)));
+            List<EarthquakeRow> oldList = rowList(oldQuakes);
+            List<EarthquakeRow> newList = rowList(newQuakes);
+            apply(oldList, keys(oldList), newList, keys(newList));
+        }
+    }
+
+    /** The edit script from the old rows to the new ones, checking that it gets there */
+    private static List<String> script(List<EarthquakeRow> oldRows, List<EarthquakeRow> newRows) {
+        return apply(oldRows, keys(oldRows), newRows, keys(newRows));
+    }
+
+    /**
+     * Apply the changes to a copy of the old rows, taking inserted and changed rows from the
+     * new ones, and check that every row is then the same version as in the new rows.
+     *
+     * @return the changes, one "what position count" string each
+     */
+    private static List<String> apply(List<EarthquakeRow> oldRows, EarthquakeRowKeys oldKeys,
+                                      final List<EarthquakeRow> newRows,
+                                      EarthquakeRowKeys newKeys) {
+        final List<Earthquake> shown = new ArrayList<>();
+        for (EarthquakeRow row : oldRows) {
+            shown.add(row.getEarthquake());
+        }
+        final List<String> script = new ArrayList<>();
+        EarthquakeRowChanges.between(oldKeys, newKeys).dispatchTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                script.add("inserted " + position + " " + count);
+                for (int i = 0; i < count; i++) {
+                    shown.add(position + i, newRows.get(position + i).getEarthquake());
+                }
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                script.add("removed " + position + " " + count);
+                for (int i = 0; i < count; i++) {
+                    shown.remove(position);
+                }
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                fail("Rows are never moved");
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                script.add("changed " + position + " " + count);
+                for (int i = 0; i < count; i++) {
+                    shown.set(position + i, newRows.get(position + i).getEarthquake());
+                }
+            }
+        });
+
+        String message = script.toString();
+        assertEquals(message, newRows.size(), shown.size());
+        for (int i = 0; i < shown.size(); i++) {
+            Earthquake expected = newRows.get(i).getEarthquake();
+            assertEquals(message, expected.getId(), shown.get(i).getId());
+            assertEquals(message, expected.getTimeInMilliseconds(),
+                    shown.get(i).getTimeInMilliseconds());
+            assertEquals(message, expected.getUpdatedInMilliseconds(),
+                    shown.get(i).getUpdatedInMilliseconds());
+        }
+        return script;
+    }
+
+    /**
+     * A newest first list of earthquakes with few distinct times. If there is a previous list,
+     * most of the new one is taken from it, some revised, some re-timed and some left out.
+     */
+    private static List<Earthquake> randomList(Random random, List<Earthquake> previous) {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        if (previous != null) {
+            for (Earthquake earthquake : previous) {
+                int what = random.nextInt(10);
+                if (what == 0) {
+                    continue;
+                } else if (what == 1) {
+                    earthquakes.add(quake(earthquake.getId(), earthquake.getTimeInMilliseconds(),
+                            earthquake.getUpdatedInMilliseconds() + 1));
+                } else if (what == 2) {
+                    earthquakes.add(quake(earthquake.getId(), random.nextInt(8) * 1000L,
+                            earthquake.getUpdatedInMilliseconds() + 1));
+                } else {
+                    earthquakes.add(earthquake);
+                }
+            }
+        }
+        int added = random.nextInt(6);
+        for (int i = 0; i < added; i++) {
+            earthquakes.add(quake("n" + random.nextInt(1000000), random.nextInt(8) * 1000L, 1));
+        }
+        // Newest first, with earthquakes at the same time in any order
+        Collections.shuffle(earthquakes, random);
+        Collections.sort(earthquakes, new Comparator<Earthquake>() {
+            @Override
+            public int compare(Earthquake a, Earthquake b) {
+                return Long.compare(b.getTimeInMilliseconds(), a.getTimeInMilliseconds());
+            }
+        });
+        return earthquakes;
+    }
+
+    private static EarthquakeRowKeys keys(List<EarthquakeRow> rows) {
+        return new EarthquakeRowKeys(rows, Collections.<EarthquakeRow>emptyList());
+    }
+
+    private static List<EarthquakeRow> rows(Earthquake... earthquakes) {
+        return rows(Arrays.asList(earthquakes));
+    }
+
+    private static List<EarthquakeRow> rows(List<Earthquake> earthquakes) {
+        return FORMATTER.format(earthquakes);
+    }
+
+    /** The rows of the earthquakes, read back from a dataset */
+    private List<EarthquakeRow> rowList(List<Earthquake> earthquakes) throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        for (Earthquake earthquake : earthquakes) {
+            store.add(earthquake);
+        }
+        File file = File.createTempFile("rows", ".dataset");
+        mFiles.add(file);
+        EarthquakeDataset.write(file, store);
+        return new EarthquakeRowList(EarthquakeDataset.open(file), FORMATTER);
+    }
+
+    private static Earthquake quake(String id, long time, long updated) {
+        return new Earthquake(5.0, "10km N of Town, Region", time,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id, id, updated);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks how the {@link EarthquakeRowFormatter} splits locations and picks magnitude bands.
+ */
+public class EarthquakeRowFormatterTest {
+
+    private final EarthquakeRowFormatter mFormatter =
+            new EarthquakeRowFormatter(new int[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+
+    @Test
+    public void offsetEndsWithOf() {
+        EarthquakeRow row = format("74km NW of Rumoi, Japan");
+
+        assertEquals("74km NW of", row.getLocationOffset());
+        assertEquals("Rumoi, Japan", row.getPrimaryLocation());
+    }
+
+    @Test
+    public void locationWithoutAnOffsetIsNearThe() {
+        EarthquakeRow row = format("Golfo de California");
+
+        assertEquals("Near the", row.getLocationOffset());
+        assertEquals("Golfo de California", row.getPrimaryLocation());
+    }
+
+    @Test
+    public void ofInsideAWordIsNotTheOffset() {
+        EarthquakeRow sofala = format("Sofala, Mozambique");
+        assertEquals("Near the", sofala.getLocationOffset());
+        assertEquals("Sofala, Mozambique", sofala.getPrimaryLocation());
+
+        EarthquakeRow offshore = format("off the coast of Jalisco, Mexico");
+        assertEquals("off the coast of", offshore.getLocationOffset());
+        assertEquals("Jalisco, Mexico", offshore.getPrimaryLocation());
+    }
+
+    @Test
+    public void magnitudeIsFormattedAndColouredByBand() {
+        EarthquakeRow row = mFormatter.format(new Earthquake(6.44, "Fiji region", 0, ""));
+
+        assertEquals("6.4", row.getMagnitudeText());
+        assertEquals(5, row.getMagnitudeColour());
+        assertEquals(0, EarthquakeRowFormatter.magnitudeBand(-0.5));
+        assertEquals(0, EarthquakeRowFormatter.magnitudeBand(1.9));
+        assertEquals(1, EarthquakeRowFormatter.magnitudeBand(2.0));
+        assertEquals(9, EarthquakeRowFormatter.magnitudeBand(12.0));
+    }
+
+    private EarthquakeRow format(String location) {
+        return mFormatter.format(new Earthquake(5.0, location, 0, ""));
+    }
+}
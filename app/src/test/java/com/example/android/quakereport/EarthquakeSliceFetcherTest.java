@@ -0,0 +1,253 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link EarthquakeSliceFetcher} against a fake {@link EarthquakeSource}, which
+ * answers each slice from a list of earthquakes the way the USGS API would. Every request
+ * moves a fake clock on, so a window can take longer than a deadline without the test
+ * waiting for it. The retry delays are real though, so only a few tests fail requests.
+ */
+public class EarthquakeSliceFetcherTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    /** 2016-01-01T00:00:00Z, the start of the window every test fetches */
+    private static final long START = 1451606400000L;
+    private static final long END = START + 365 * DAY - 1;
+
+    private static final EarthquakeQuery YEAR = new EarthquakeQuery(4.5, START, END);
+
+    /** Every earthquake the fake source knows about, newest first */
+    private final List<Earthquake> mEarthquakes = new ArrayList<>();
+
+    /** The URL of every request, in the order they were made */
+    private final List<String> mUrls = Collections.synchronizedList(new ArrayList<String>());
+
+    /** The fake time, moved on by {@link #mRequestMillis} with every request */
+    private final AtomicLong mTime = new AtomicLong(START + 400 * DAY);
+    private volatile long mRequestMillis;
+
+    /** How many of the next requests fail, like a server error would */
+    private final AtomicInteger mFailures = new AtomicInteger();
+
+    private final Clock mClock = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return mTime.get();
+        }
+    };
+
+    private EarthquakeSource mOriginalSource;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        add("dec", END - DAY);
+        add("oct", START + 290 * DAY);
+        add("jul", START + 190 * DAY);
+        add("apr", START + 100 * DAY);
+        add("feb", START + 40 * DAY);
+        add("jan", START + DAY);
+
+        mOriginalSource = QueryUtils.getSource();
+        QueryUtils.setSource(new EarthquakeSource() {
+            @Override
+            public Response fetch(String url, String etag, String lastModified,
+                                  GeoJsonParser.Listener listener, Cancellation cancellation) {
+                mUrls.add(url);
+                mTime.addAndGet(mRequestMillis);
+                if (cancellation.isStopped()) {
+                    return new Response(-1, null, null, false, false, true);
+                }
+                if (mFailures.getAndDecrement() > 0) {
+                    return new Response(500, null, null, false, false, false);
+                }
+                for (Earthquake earthquake : FakeEarthquakeFeed.answer(mEarthquakes, url)) {
+                    listener.onEarthquake(earthquake);
+                }
+                return new Response(200, null, null, true, true, false);
+            }
+        });
+
+        // One slice at a time, so the fake clock moves on in a known order
+        mExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        // A slice still running when its fetch gave up would go on to ask the next test's source
+        mExecutor.shutdownNow();
+        mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        QueryUtils.setSource(mOriginalSource);
+    }
+
+    @Test
+    public void windowTakingLongerThanTheCallersDeadlineIsStillFetched() {
+        // Four slices of 20 seconds each against a deadline of 30 seconds
+        mRequestMillis = 20000;
+        Cancellation cancellation = new Cancellation(mClock, mTime.get() + 30000, true);
+
+        List<Earthquake> earthquakes = new EarthquakeSliceFetcher(mExecutor, 4, 100)
+                .fetch(YEAR, cancellation);
+
+        assertEquals(4, mUrls.size());
+        assertEquals(Arrays.asList("dec", "oct", "jul", "apr", "feb", "jan"), ids(earthquakes));
+    }
+
+    @Test
+    public void windowStopsAtItsOwnDeadline() {
+        mRequestMillis = EarthquakeSliceFetcher.WINDOW_DEADLINE_MILLIS / 3;
+        Cancellation cancellation = new Cancellation(mClock, mTime.get() + 30000, true);
+
+        assertNull(new EarthquakeSliceFetcher(mExecutor, 4, 100).fetch(YEAR, cancellation));
+    }
+
+    @Test
+    public void callerWithALaterDeadlineKeepsIt() {
+        mRequestMillis = EarthquakeSliceFetcher.WINDOW_DEADLINE_MILLIS / 2;
+        Cancellation cancellation = new Cancellation(mClock, Cancellation.NO_DEADLINE, false);
+
+        List<Earthquake> earthquakes = new EarthquakeSliceFetcher(mExecutor, 4, 100)
+                .fetch(YEAR, cancellation);
+
+        assertEquals(6, earthquakes.size());
+    }
+
+    @Test
+    public void cancellingTheCallerStopsTheWindow() {
+        final Cancellation cancellation = new Cancellation(mClock, Cancellation.NO_DEADLINE, false);
+        final EarthquakeSource answering = QueryUtils.getSource();
+        QueryUtils.setSource(new EarthquakeSource() {
+            @Override
+            public Response fetch(String url, String etag, String lastModified,
+                                  GeoJsonParser.Listener listener, Cancellation slice) {
+                // The user leaves the screen while the first slice downloads
+                cancellation.cancel();
+                return answering.fetch(url, etag, lastModified, listener, slice);
+            }
+        });
+
+        assertNull(new EarthquakeSliceFetcher(mExecutor, 4, 100).fetch(YEAR, cancellation));
+    }
+
+    @Test
+    public void fullSlicesAreSplitWithoutLosingEarthquakesAtTheSameTime() {
+        mEarthquakes.clear();
+        add("dec", END - DAY);
+        add("oct", START + 290 * DAY);
+        add("jul-1", START + 190 * DAY);
+        add("jul-2", START + 190 * DAY);
+        add("apr", START + 100 * DAY);
+        add("feb", START + 40 * DAY);
+        add("jan", START + DAY);
+        add("new-year", START);
+
+        List<Earthquake> earthquakes = new EarthquakeSliceFetcher(mExecutor, 1, 3)
+                .fetch(YEAR, new Cancellation());
+
+        assertEquals(Arrays.asList("dec", "oct", "jul-1", "jul-2", "apr", "feb", "jan",
+                "new-year"), ids(earthquakes));
+    }
+
+    @Test
+    public void fullSliceEndingAtTheStartOfTheWindowKeepsItsOldestEarthquakes() {
+        mEarthquakes.clear();
+        add("jan", START + DAY);
+        add("new-year", START);
+
+        List<Earthquake> earthquakes = new EarthquakeSliceFetcher(mExecutor, 1, 2)
+                .fetch(YEAR, new Cancellation());
+
+        // The second request is the millisecond the window starts at
+        assertEquals(2, mUrls.size());
+        assertEquals(Arrays.asList("jan", "new-year"), ids(earthquakes));
+    }
+
+    @Test
+    public void moreEarthquakesAtTheSameTimeThanFitFailTheFetch() {
+        mEarthquakes.clear();
+        add("jul-1", START + 190 * DAY);
+        add("jul-2", START + 190 * DAY);
+        add("jul-3", START + 190 * DAY);
+
+        // Rather than returning a window that is silently missing one of them
+        assertNull(new EarthquakeSliceFetcher(mExecutor, 1, 2).fetch(YEAR, new Cancellation()));
+    }
+
+    @Test
+    public void failedSliceIsRetried() {
+        mFailures.set(1);
+
+        List<Earthquake> earthquakes = new EarthquakeSliceFetcher(mExecutor, 1, 100)
+                .fetch(YEAR, new Cancellation());
+
+        assertEquals(2, mUrls.size());
+        assertEquals(mUrls.get(0), mUrls.get(1));
+        assertEquals(6, earthquakes.size());
+    }
+
+    @Test
+    public void sliceFailingEveryAttemptFailsTheFetch() {
+        mFailures.set(Integer.MAX_VALUE);
+
+        assertNull(new EarthquakeSliceFetcher(mExecutor, 1, 100).fetch(YEAR, new Cancellation()));
+        assertEquals(3, mUrls.size());
+    }
+
+    @Test
+    public void cancellingDuringTheRetryDelayStopsRetrying() throws InterruptedException {
+        mFailures.set(Integer.MAX_VALUE);
+        final Cancellation cancellation = new Cancellation();
+        Thread canceller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                cancellation.cancel();
+            }
+        });
+
+        long started = System.currentTimeMillis();
+        canceller.start();
+        assertNull(new EarthquakeSliceFetcher(mExecutor, 1, 100).fetch(YEAR, cancellation));
+        long took = System.currentTimeMillis() - started;
+        canceller.join();
+
+        // Without waiting out the first delay of half a second, and without a second attempt
+        assertTrue("Took " + took + "ms", took < 400);
+        assertEquals(1, mUrls.size());
+    }
+
+    private void add(String id, long time) {
+        mEarthquakes.add(new Earthquake(5.0, "10km N of Place, Region", time,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id, id, time));
+    }
+
+    private static List<String> ids(List<Earthquake> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+}
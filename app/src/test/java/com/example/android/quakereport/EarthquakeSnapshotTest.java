@@ -0,0 +1,234 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes a few earthquakes with {@link EarthquakeSnapshot}, then reads the file back as it is
+ * and after breaking it in the ways a file on disk gets broken. A broken snapshot has to be
+ * turned down with an IOException, which the loader treats as there being no snapshot.
+ */
+public class EarthquakeSnapshotTest {
+
+    private static final String URL = EarthquakeQuery.USGS_REQUEST_URL + "?limit=3";
+
+    private File mDirectory;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = new File(System.getProperty("java.io.tmpdir"),
+                "earthquake-snapshot-test-" + System.nanoTime());
+        assertTrue(mDirectory.mkdirs());
+        mFile = new File(mDirectory, "snapshot");
+
+        EarthquakeStore store = new EarthquakeStore();
+        store.add(quake("us1", 6.1, 3000, "10km N of Place, Region", 35.5, 139.5, 10));
+        store.add(quake("us2", 4.5, 2000, "Region", Double.NaN, Double.NaN, Double.NaN));
+        store.add(quake("us3", 5.0, 1000, "20km S of Other Place, R\u00e9gion", -30, -71, 35));
+        EarthquakeSnapshot.write(mFile, URL, store);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void snapshotIsReadBackAsItWasWritten() throws IOException {
+        EarthquakeSnapshot snapshot = EarthquakeSnapshot.read(mFile);
+
+        assertEquals(URL, snapshot.getUrl());
+        List<Earthquake> earthquakes = snapshot.getEarthquakes();
+        assertEquals(3, earthquakes.size());
+        Earthquake first = earthquakes.get(0);
+        assertEquals("us1", first.getId());
+        assertEquals(6.1, first.getMagnitude(), 0);
+        assertEquals(3000, first.getTimeInMilliseconds());
+        assertEquals("10km N of Place, Region", first.getLocation());
+        assertEquals("https://earthquake.usgs.gov/earthquakes/eventpage/us1", first.getWebsite());
+        assertEquals(35.5, first.getLatitude(), 0);
+        assertEquals(139.5, first.getLongitude(), 0);
+        assertEquals(10, first.getDepth(), 0);
+        assertTrue(Double.isNaN(earthquakes.get(1).getLatitude()));
+        assertEquals("20km S of Other Place, R\u00e9gion", earthquakes.get(2).getLocation());
+    }
+
+    @Test
+    public void missingFileIsNoSnapshot() throws IOException {
+        assertNull(EarthquakeSnapshot.read(new File(mDirectory, "missing")));
+    }
+
+    @Test
+    public void changedByteDoesntMatchTheChecksum() throws IOException {
+        byte[] data = contents();
+        data[data.length / 2] ^= 1;
+        overwrite(data);
+
+        assertUnreadable("checksum");
+    }
+
+    @Test
+    public void snapshotOfAnotherVersionIsTurnedDown() throws IOException {
+        // With the checksum fixed up, as the other version would have written it
+        byte[] data = payload(contents());
+        ByteBuffer.wrap(data).putInt(4, ByteBuffer.wrap(data).getInt(4) + 1);
+        overwrite(withChecksum(data));
+
+        assertUnreadable("version");
+    }
+
+    @Test
+    public void fileThatIsNotASnapshotIsTurnedDown() throws IOException {
+        byte[] data = payload(contents());
+        ByteBuffer.wrap(data).putInt(0, 0);
+        overwrite(withChecksum(data));
+
+        assertUnreadable("Not a snapshot");
+    }
+
+    @Test
+    public void truncatedFileDoesntMatchTheChecksum() throws IOException {
+        byte[] data = contents();
+        overwrite(Arrays.copyOf(data, data.length - 10));
+
+        assertUnreadable("checksum");
+    }
+
+    @Test
+    public void fileTooShortForAChecksumIsTurnedDown() throws IOException {
+        overwrite(new byte[7]);
+
+        assertUnreadable("length");
+    }
+
+    @Test
+    public void truncatedFileWithAMatchingChecksumIsTurnedDownAtEveryLength() throws IOException {
+        // Whatever part of the file is cut off, the lengths and counts give it away before
+        // anything is read out of bounds
+        byte[] payload = payload(contents());
+        for (int length = 0; length < payload.length; length++) {
+            overwrite(withChecksum(Arrays.copyOf(payload, length)));
+            try {
+                EarthquakeSnapshot.read(mFile);
+                fail("Read a snapshot cut off after " + length + " bytes");
+            } catch (IOException expected) {
+                // The snapshot was turned down
+            }
+        }
+    }
+
+    @Test
+    public void trailingBytesAreTurnedDown() throws IOException {
+        byte[] payload = payload(contents());
+        overwrite(withChecksum(Arrays.copyOf(payload, payload.length + 8)));
+
+        assertUnreadable("trailing");
+    }
+
+    @Test
+    public void snapshotThatFitsIsWrittenWhole() throws IOException {
+        EarthquakeStore store = EarthquakeSnapshot.read(mFile).getStore();
+        long length = mFile.length();
+
+        // The size is worked out before writing, to the byte
+        EarthquakeSnapshot.write(mFile, URL, store, length);
+
+        assertEquals(length, mFile.length());
+        assertEquals(3, EarthquakeSnapshot.read(mFile).getStore().size());
+    }
+
+    @Test
+    public void snapshotTooBigToReadKeepsTheNewestEarthquakes() throws IOException {
+        EarthquakeStore store = new EarthquakeStore();
+        for (int i = 0; i < 100; i++) {
+            store.add(quake("us" + i, 5, 100000 - i, i + "km N of Place " + i + ", Region",
+                    0, 0, 10));
+        }
+        EarthquakeSnapshot.write(mFile, URL, store);
+        long length = mFile.length();
+
+        EarthquakeSnapshot.write(mFile, URL, store, length / 2);
+
+        assertTrue(mFile.length() <= length / 2);
+        EarthquakeStore newest = EarthquakeSnapshot.read(mFile).getStore();
+        assertTrue(newest.size() > 0 && newest.size() < 100);
+        for (int i = 0; i < newest.size(); i++) {
+            assertEquals("us" + i, newest.getId(i));
+            assertEquals(i + "km N of Place " + i + ", Region", newest.getLocation(i));
+        }
+        // Only the strings of the earthquakes that were kept are written: a place and an id
+        // each, and the region and website prefix they share
+        assertEquals(2 + 2 * newest.size(), newest.getStringCount());
+    }
+
+    private void assertUnreadable(String reason) {
+        try {
+            EarthquakeSnapshot.read(mFile);
+            fail("Read a broken snapshot");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+
+    private byte[] contents() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            byte[] data = new byte[(int) file.length()];
+            file.readFully(data);
+            return data;
+        } finally {
+            file.close();
+        }
+    }
+
+    private void overwrite(byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** The file without its checksum */
+    private static byte[] payload(byte[] data) {
+        return Arrays.copyOf(data, data.length - 8);
+    }
+
+    /** The payload followed by its checksum, like the snapshot writes it */
+    private static byte[] withChecksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return ByteBuffer.allocate(payload.length + 8).put(payload).putLong(crc.getValue())
+                .array();
+    }
+
+    private static Earthquake quake(String id, double magnitude, long time, String location,
+                                    double latitude, double longitude, double depth) {
+        return new Earthquake(magnitude, location, time,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id, id, time, false,
+                longitude, latitude, depth);
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the sorts, searches and selections of the {@link EarthquakeStore} against plain Java
+ * collections, and that earthquakes come back out of its string table the way they went in.
+ */
+public class EarthquakeStoreTest {
+
+    private static final String PREFIX = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    @Test
+    public void sortByTimeOrdersTiesByPosition() {
+        // Far more rows than the insertion sort handles, with only a few distinct times
+        EarthquakeStore store = randomStore(200, 7);
+
+        assertArrayEquals(expectedByTime(store, false), sortedByTime(store, false));
+    }
+
+    @Test
+    public void sortByTimeDescendingIsTheReverse() {
+        EarthquakeStore store = randomStore(200, 7);
+
+        assertArrayEquals(expectedByTime(store, true), sortedByTime(store, true));
+    }
+
+    @Test
+    public void sortByMagnitudeOrdersTiesByPosition() {
+        EarthquakeStore store = randomStore(200, 7);
+        for (boolean descending : new boolean[] {false, true}) {
+            int[] selection = store.selectAll();
+            store.sortByMagnitude(selection, selection.length, descending);
+
+            assertArrayEquals(expectedByMagnitude(store, descending), selection);
+        }
+    }
+
+    @Test
+    public void sortsEveryLengthAroundTheInsertionSortThreshold() {
+        for (int size = 0; size <= 40; size++) {
+            EarthquakeStore store = randomStore(size, 3);
+
+            assertArrayEquals("size " + size, expectedByTime(store, false),
+                    sortedByTime(store, false));
+        }
+    }
+
+    @Test
+    public void sortOnlyTouchesTheFirstCountPositions() {
+        EarthquakeStore store = randomStore(50, 50);
+        int[] selection = store.selectAll();
+
+        store.sortByTime(selection, 20, false);
+
+        for (int i = 1; i < 20; i++) {
+            assertEquals(true, store.getTimeInMilliseconds(selection[i - 1])
+                    <= store.getTimeInMilliseconds(selection[i]));
+        }
+        for (int i = 20; i < 50; i++) {
+            assertEquals(i, selection[i]);
+        }
+    }
+
+    @Test
+    public void lowerBoundsFindTheFirstAtOrAbove() {
+        EarthquakeStore store = randomStore(100, 10);
+        int[] byTime = store.selectAll();
+        store.sortByTime(byTime, byTime.length, false);
+        int[] byMagnitude = store.selectAll();
+        store.sortByMagnitude(byMagnitude, byMagnitude.length, false);
+
+        for (long time = -1; time <= 11; time++) {
+            int expected = 0;
+            while (expected < byTime.length
+                    && store.getTimeInMilliseconds(byTime[expected]) < time) {
+                expected++;
+            }
+            assertEquals("time " + time, expected,
+                    store.lowerBoundByTime(byTime, byTime.length, time));
+        }
+        for (double magnitude = -0.5; magnitude <= 10.5; magnitude += 0.5) {
+            int expected = 0;
+            while (expected < byMagnitude.length
+                    && store.getMagnitude(byMagnitude[expected]) < magnitude) {
+                expected++;
+            }
+            assertEquals("magnitude " + magnitude, expected,
+                    store.lowerBoundByMagnitude(byMagnitude, byMagnitude.length, magnitude));
+        }
+        assertEquals(0, store.lowerBoundByTime(byTime, 0, 5));
+    }
+
+    @Test
+    public void retainKeepsTheMatchingPositionsInOrder() {
+        EarthquakeStore store = randomStore(100, 10);
+        int[] selection = store.selectAll();
+
+        int kept = store.retain(selection, selection.length, 4.0, 3, 7);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < store.size(); i++) {
+            long time = store.getTimeInMilliseconds(i);
+            if (store.getMagnitude(i) >= 4.0 && time >= 3 && time <= 7) {
+                expected.add(i);
+            }
+        }
+        assertEquals(expected.size(), kept);
+        for (int i = 0; i < kept; i++) {
+            assertEquals((int) expected.get(i), selection[i]);
+        }
+    }
+
+    @Test
+    public void websitesWithAndWithoutThePrefixComeBackWhole() {
+        EarthquakeStore store = new EarthquakeStore(1);
+        store.add(quake("us1", "10km N of Place, Japan", PREFIX + "us1"));
+        store.add(quake("us2", "Fiji region", "https://example.com/other"));
+        store.add(quake("", "Somewhere", "https://example.com/no-id"));
+
+        assertEquals(PREFIX + "us1", store.getWebsite(0));
+        assertEquals(PREFIX + "us1", store.get(0).getWebsite());
+        assertEquals("https://example.com/other", store.getWebsite(1));
+        assertEquals("https://example.com/other", store.get(1).getWebsite());
+        assertEquals("https://example.com/no-id", store.get(2).getWebsite());
+        assertEquals("Japan", store.getRegion(0));
+        assertNull(store.getRegion(1));
+        assertEquals("Fiji region", store.getLocation(1));
+    }
+
+    @Test
+    public void addFromRemapsBetweenStringTables() {
+        EarthquakeStore from = new EarthquakeStore();
+        from.add(quake("us1", "10km N of Place, Japan", PREFIX + "us1"));
+        from.add(quake("us2", "Fiji region", "https://example.com/other"));
+        from.add(quake("us3", "5km S of Town, Chile", PREFIX + "us3"));
+
+        // The same strings end up at other indexes in this table, and some aren't there at all
+        EarthquakeStore to = new EarthquakeStore();
+        to.add(quake("ci9", "Near Anchorage, Alaska", "https://example.com/ci9"));
+        to.add(quake("us3", "5km S of Town, Chile", PREFIX + "us3"));
+        int before = to.size();
+        to.addAll(from);
+
+        assertEquals(before + from.size(), to.size());
+        for (int i = 0; i < from.size(); i++) {
+            assertSameEarthquake(from.get(i), to.get(before + i));
+        }
+        assertEquals("Near Anchorage, Alaska", to.getLocation(0));
+    }
+
+    @Test
+    public void clearedStoreStartsAgainWithAnEmptyStringTable() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.add(quake("us1", "10km N of Place, Japan", PREFIX + "us1"));
+        int modCount = store.getModCount();
+
+        store.clear();
+        store.add(quake("us2", "Fiji region", "https://example.com/other"));
+
+        assertEquals(1, store.size());
+        assertEquals(true, store.getModCount() > modCount);
+        assertEquals("us2", store.getId(0));
+        assertEquals("https://example.com/other", store.getWebsite(0));
+        // The place, the website and the id of the one earthquake
+        assertEquals(3, store.getStringCount());
+    }
+
+    /** A store with random magnitudes and times in [0, distinctTimes) */
+    private static EarthquakeStore randomStore(int size, int distinctTimes) {
+        Random random = new Random(size * 31 + distinctTimes);
+        EarthquakeStore store = new EarthquakeStore();
+        for (int i = 0; i < size; i++) {
+            // Magnitudes to one decimal place so plenty of them tie too
+            double magnitude = random.nextInt(100) / 10.0;
+            long time = random.nextInt(distinctTimes);
+            store.add(new Earthquake(magnitude, "Place " + i, time, PREFIX + "us" + i,
+                    "us" + i, time));
+        }
+        return store;
+    }
+
+    private static int[] sortedByTime(EarthquakeStore store, boolean descending) {
+        int[] selection = store.selectAll();
+        store.sortByTime(selection, selection.length, descending);
+        return selection;
+    }
+
+    /** Every position sorted by time, ties by position, reversed if descending */
+    private static int[] expectedByTime(final EarthquakeStore store, boolean descending) {
+        return expected(store, descending, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long timeA = store.getTimeInMilliseconds(a);
+                long timeB = store.getTimeInMilliseconds(b);
+                return timeA < timeB ? -1 : (timeA == timeB ? a.compareTo(b) : 1);
+            }
+        });
+    }
+
+    /** Every position sorted by magnitude, ties by position, reversed if descending */
+    private static int[] expectedByMagnitude(final EarthquakeStore store, boolean descending) {
+        return expected(store, descending, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int compare = Double.compare(store.getMagnitude(a), store.getMagnitude(b));
+                return compare != 0 ? compare : a.compareTo(b);
+            }
+        });
+    }
+
+    private static int[] expected(EarthquakeStore store, boolean descending,
+                                  Comparator<Integer> order) {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < store.size(); i++) {
+            positions.add(i);
+        }
+        Collections.sort(positions, order);
+        if (descending) {
+            Collections.reverse(positions);
+        }
+        int[] expected = new int[positions.size()];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = positions.get(i);
+        }
+        return expected;
+    }
+
+    private static Earthquake quake(String id, String location, String website) {
+        return new Earthquake(5.0, location, 1000, website, id, 2000, false, 139.5, 35.25, 10);
+    }
+
+    private static void assertSameEarthquake(Earthquake expected, Earthquake actual) {
+        assertEquals(expected.getMagnitude(), actual.getMagnitude(), 0);
+        assertEquals(expected.getLocation(), actual.getLocation());
+        assertEquals(expected.getRegion(), actual.getRegion());
+        assertEquals(expected.getTimeInMilliseconds(), actual.getTimeInMilliseconds());
+        assertEquals(expected.getWebsite(), actual.getWebsite());
+        assertEquals(expected.getWebsitePrefix(), actual.getWebsitePrefix());
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getUpdatedInMilliseconds(), actual.getUpdatedInMilliseconds());
+        assertEquals(expected.getLongitude(), actual.getLongitude(), 0);
+        assertEquals(expected.getLatitude(), actual.getLatitude(), 0);
+        assertEquals(expected.getDepth(), actual.getDepth(), 0);
+    }
+}
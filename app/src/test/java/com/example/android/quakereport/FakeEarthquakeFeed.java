@@ -0,0 +1,90 @@
+package com.example.android.quakereport;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Answers the URL of a request from a list of earthquakes the way the USGS API would, for the
+ * fake {@link EarthquakeSource} of a test. A parameter left out of the URL doesn't filter, so
+ * earthquakes made without a location are only left out by a query for a region.
+ */
+final class FakeEarthquakeFeed {
+
+    private FakeEarthquakeFeed() {
+    }
+
+    /**
+     * The earthquakes the USGS API would return for the URL, newest first
+     *
+     * @param earthquakes every earthquake the feed knows about, newest first
+     */
+    static List<Earthquake> answer(List<Earthquake> earthquakes, String url) {
+        double minMagnitude = parameter(url, "minmag", 0);
+        boolean regional = value(url, "minlatitude") != null;
+        double south = parameter(url, "minlatitude", -90);
+        double north = parameter(url, "maxlatitude", 90);
+        double west = parameter(url, "minlongitude", -180);
+        double east = parameter(url, "maxlongitude", 180);
+        long startTime = time(url, "starttime", Long.MIN_VALUE);
+        long endTime = time(url, "endtime", Long.MAX_VALUE);
+        int limit = (int) parameter(url, "limit", Integer.MAX_VALUE);
+
+        List<Earthquake> answer = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            if (answer.size() < limit
+                    && earthquake.getMagnitude() >= minMagnitude
+                    && (!regional || within(earthquake, south, north, west, east))
+                    && earthquake.getTimeInMilliseconds() >= startTime
+                    && earthquake.getTimeInMilliseconds() <= endTime) {
+                answer.add(earthquake);
+            }
+        }
+        return answer;
+    }
+
+    private static boolean within(Earthquake earthquake, double south, double north,
+                                  double west, double east) {
+        return earthquake.getLatitude() >= south && earthquake.getLatitude() <= north
+                && earthquake.getLongitude() >= west && earthquake.getLongitude() <= east;
+    }
+
+    /** The value of a query parameter of the URL, URL decoded, or null if it isn't there */
+    private static String value(String url, String name) {
+        for (String parameter : url.substring(url.indexOf('?') + 1).split("&")) {
+            String[] parts = parameter.split("=", 2);
+            if (parts[0].equals(name)) {
+                try {
+                    return URLDecoder.decode(parts[1], "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static double parameter(String url, String name, double defaultValue) {
+        String value = value(url, name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    private static long time(String url, String name, long defaultValue) {
+        String value = value(url, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(value).getTime();
+        } catch (ParseException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the {@link GeoJsonParser} on the parts of a response that are easy to get wrong:
+ * escapes, nulls, a feature split between two reads, a response that breaks off part way, and
+ * a parse stopped by its {@link Cancellation}.
+ */
+public class GeoJsonParserTest {
+
+    @Test
+    public void featureHasEveryFieldTheListNeeds() throws IOException {
+        List<Earthquake> earthquakes = parse(json(feature("us1000", 6.2,
+                "\"74km NW of Rumoi, Japan\"", 1454124312220L, 1454125000000L, "reviewed",
+                "[141.3, 44.4, 10.5]")));
+
+        assertEquals(1, earthquakes.size());
+        Earthquake earthquake = earthquakes.get(0);
+        assertEquals("us1000", earthquake.getId());
+        assertEquals(6.2, earthquake.getMagnitude(), 0);
+        assertEquals("74km NW of Rumoi, Japan", earthquake.getLocation());
+        assertEquals(1454124312220L, earthquake.getTimeInMilliseconds());
+        assertEquals(1454125000000L, earthquake.getUpdatedInMilliseconds());
+        assertEquals("https://earthquake.usgs.gov/earthquakes/eventpage/us1000",
+                earthquake.getWebsite());
+        assertFalse(earthquake.isDeleted());
+        assertEquals(141.3, earthquake.getLongitude(), 0);
+        assertEquals(44.4, earthquake.getLatitude(), 0);
+        assertEquals(10.5, earthquake.getDepth(), 0);
+    }
+
+    @Test
+    public void escapesAreUnescaped() throws IOException {
+        List<Earthquake> earthquakes = parse(json(
+                feature("us1", 5, "\"10km \\\"Z\\\" of A\\\\B\\/C, \\u00cdle \\u65e5\\u672c\"",
+                        1000, 0, "reviewed", "[0, 0, 0]"),
+                // Escapes in a member we skip, including an escaped quote, mustn't end it early
+                "{\"type\":\"Feature\",\"skipped\":\"a\\\"b\\\\\",\"properties\":{"
+                        + "\"mag\":4,\"place\":\"Tab\\there\",\"time\":2000,"
+                        + "\"title\":\"\\\"}]\"},\"id\":\"us2\"}"));
+
+        assertEquals(2, earthquakes.size());
+        assertEquals("10km \"Z\" of A\\B/C, \u00cdle \u65e5\u672c",
+                earthquakes.get(0).getLocation());
+        assertEquals("Tab\there", earthquakes.get(1).getLocation());
+        assertEquals("us2", earthquakes.get(1).getId());
+    }
+
+    @Test
+    public void badUnicodeEscapeIsAnError() {
+        assertMalformed(json(feature("us1", 5, "\"\\u12G4\"", 1000, 0, "reviewed", "null")));
+    }
+
+    @Test
+    public void nullsAreLeftAtTheirDefaults() throws IOException {
+        List<Earthquake> earthquakes = parse(json(
+                feature("us1", Double.NaN, "null", 1000, 0, "null", "null"),
+                "{\"type\":\"Feature\",\"properties\":{\"mag\":null,\"place\":null,"
+                        + "\"time\":2000,\"updated\":null},\"geometry\":{\"coordinates\":"
+                        + "[null, 35.5, null]},\"id\":null}",
+                // Without properties a feature isn't an earthquake
+                "{\"type\":\"Feature\",\"properties\":null,\"id\":\"us3\"}",
+                "null"));
+
+        assertEquals(2, earthquakes.size());
+        Earthquake first = earthquakes.get(0);
+        assertEquals(0, first.getMagnitude(), 0);
+        assertEquals("", first.getLocation());
+        assertEquals(1000, first.getUpdatedInMilliseconds());
+        assertTrue(Double.isNaN(first.getLatitude()));
+
+        Earthquake second = earthquakes.get(1);
+        assertEquals("", second.getId());
+        assertEquals(2000, second.getUpdatedInMilliseconds());
+        assertTrue(Double.isNaN(second.getLongitude()));
+        assertEquals(35.5, second.getLatitude(), 0);
+        assertTrue(Double.isNaN(second.getDepth()));
+    }
+
+    @Test
+    public void nullFeaturesArrayHasNoEarthquakes() throws IOException {
+        assertEquals(0, parse("{\"type\":\"FeatureCollection\",\"features\":null}").size());
+        assertEquals(0, parse("{\"features\":[]}").size());
+        assertEquals(0, parse("{}").size());
+    }
+
+    @Test
+    public void deletedEventIsMarkedDeleted() throws IOException {
+        List<Earthquake> earthquakes = parse(json(
+                feature("us1", 5, "\"Somewhere\"", 1000, 3000, "deleted", "null")));
+
+        assertTrue(earthquakes.get(0).isDeleted());
+    }
+
+    @Test
+    public void timesWrittenAsExponentsAreRead() throws IOException {
+        List<Earthquake> earthquakes = parse("{\"features\":[{\"properties\":"
+                + "{\"time\":1.4945e12,\"updated\":-5}}]}");
+
+        assertEquals(1494500000000L, earthquakes.get(0).getTimeInMilliseconds());
+        assertEquals(-5, earthquakes.get(0).getUpdatedInMilliseconds());
+    }
+
+    @Test
+    public void featureSplitAcrossReadsIsParsedTheSame() throws IOException {
+        String json = json(
+                feature("us1", 6.2, "\"74km NW of Rumoi, Japan\"", 1000, 0, "reviewed",
+                        "[141.3, 44.4, 10.5]"),
+                feature("us2", 4.5, "\"5km \\u00e9 of \\\"Town\\\", Chile\"", 2000, 0,
+                        "reviewed", "[-71.5, -30.25, 1e1]"));
+        List<Earthquake> whole = parse(json);
+
+        // Every split point, including inside escapes, numbers and literals
+        for (int chunk = 1; chunk <= 7; chunk++) {
+            List<Earthquake> split = new ArrayList<>();
+            GeoJsonParser.parse(new ChunkedReader(json, chunk, null, -1), collectInto(split));
+            assertSame(whole, split);
+        }
+    }
+
+    @Test
+    public void featureAcrossTheBufferBoundaryIsParsed() throws IOException {
+        // Padding puts the start of the features a few characters before the buffer ends
+        StringBuilder padding = new StringBuilder();
+        while (padding.length() < 8192 - 40) {
+            padding.append('x');
+        }
+        String json = "{\"metadata\":{\"title\":\"" + padding + "\"},\"features\":["
+                + feature("us1", 6.2, "\"74km NW of Rumoi, Japan\"", 1000, 0, "reviewed",
+                "[141.3, 44.4, 10.5]") + "]}";
+
+        List<Earthquake> earthquakes = parse(json);
+
+        assertEquals(1, earthquakes.size());
+        assertEquals("74km NW of Rumoi, Japan", earthquakes.get(0).getLocation());
+        assertEquals(10.5, earthquakes.get(0).getDepth(), 0);
+    }
+
+    @Test
+    public void malformedResponseKeepsTheEarthquakesBeforeIt() {
+        String json = "{\"features\":[" + feature("us1", 5, "\"A\"", 3000, 0, "reviewed", "null")
+                + "," + feature("us2", 5, "\"B\"", 2000, 0, "reviewed", "null")
+                + ",{\"properties\":{\"mag\":4.5,\"place\":\"C\" \"time\":1000}}]}";
+        List<Earthquake> earthquakes = new ArrayList<>();
+
+        try {
+            GeoJsonParser.parse(new StringReader(json), collectInto(earthquakes));
+            fail("Malformed GeoJSON parsed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed GeoJSON"));
+        }
+        assertEquals(Arrays.asList("us1", "us2"), ids(earthquakes));
+    }
+
+    @Test
+    public void responseCutOffMidFeatureKeepsTheEarthquakesBeforeIt() {
+        String json = json(feature("us1", 5, "\"A\"", 3000, 0, "reviewed", "null"),
+                feature("us2", 5, "\"B\"", 2000, 0, "reviewed", "null"));
+        List<Earthquake> earthquakes = new ArrayList<>();
+
+        try {
+            GeoJsonParser.parse(new StringReader(json.substring(0, json.lastIndexOf("\"B\""))),
+                    collectInto(earthquakes));
+            fail("Truncated GeoJSON parsed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("end of input"));
+        }
+        assertEquals(1, earthquakes.size());
+    }
+
+    @Test
+    public void cancellingMidFeatureStopsAtTheNextRead() {
+        String json = json(feature("us1", 5, "\"A\"", 3000, 0, "reviewed", "null"),
+                feature("us2", 5, "\"B\"", 2000, 0, "reviewed", "null"),
+                feature("us3", 5, "\"C\"", 1000, 0, "reviewed", "null"));
+        Cancellation cancellation = new Cancellation();
+        List<Earthquake> earthquakes = new ArrayList<>();
+
+        // Cancelled once the reader has handed over the start of the second feature
+        Reader reader = new ChunkedReader(json, 16, cancellation, json.indexOf("us2") + 4);
+        try {
+            GeoJsonParser.parse(reader, collectInto(earthquakes), cancellation);
+            fail("Cancelled parse finished");
+        } catch (InterruptedIOException e) {
+            // Expected
+        } catch (IOException e) {
+            fail("Cancelled parse failed with " + e);
+        }
+        assertEquals(Arrays.asList("us1"), ids(earthquakes));
+    }
+
+    @Test
+    public void cancellingFromTheListenerStopsAfterThatEarthquake() {
+        String json = json(feature("us1", 5, "\"A\"", 3000, 0, "reviewed", "null"),
+                feature("us2", 5, "\"B\"", 2000, 0, "reviewed", "null"));
+        final Cancellation cancellation = new Cancellation();
+        final List<Earthquake> earthquakes = new ArrayList<>();
+
+        try {
+            GeoJsonParser.parse(new StringReader(json), new GeoJsonParser.Listener() {
+                @Override
+                public void onEarthquake(Earthquake earthquake) {
+                    earthquakes.add(earthquake);
+                    cancellation.cancel();
+                }
+            }, cancellation);
+            fail("Cancelled parse finished");
+        } catch (IOException e) {
+            assertTrue(e instanceof InterruptedIOException);
+        }
+        assertEquals(Arrays.asList("us1"), ids(earthquakes));
+    }
+
+    /** A feature as USGS writes it, with the place and coordinates as raw JSON */
+    private static String feature(String id, double magnitude, String place, long time,
+                                  long updated, String status, String coordinates) {
+        return "{\"type\":\"Feature\",\"properties\":{"
+                + "\"mag\":" + (Double.isNaN(magnitude) ? "null" : String.valueOf(magnitude))
+                + ",\"place\":" + place
+                + ",\"time\":" + time
+                + (updated == 0 ? "" : ",\"updated\":" + updated)
+                + ",\"tz\":null,\"felt\":[1,{\"a\":true}]"
+                + ",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/" + id + "\""
+                + ",\"status\":" + (status.equals("null") ? "null" : "\"" + status + "\"")
+                + "},\"geometry\":{\"type\":\"Point\",\"coordinates\":" + coordinates + "}"
+                + ",\"id\":\"" + id + "\"}";
+    }
+
+    private static String json(String... features) {
+        StringBuilder json = new StringBuilder(
+                "{\"type\":\"FeatureCollection\",\"metadata\":{\"count\":" + features.length
+                        + ",\"status\":200},\n\"features\":[\n");
+        for (int i = 0; i < features.length; i++) {
+            json.append(i == 0 ? "" : ",\n").append(features[i]);
+        }
+        return json.append("],\"bbox\":[-180,-90,0,180,90,700]}").toString();
+    }
+
+    private static List<Earthquake> parse(String json) throws IOException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        GeoJsonParser.parse(new StringReader(json), collectInto(earthquakes));
+        return earthquakes;
+    }
+
+    private static void assertMalformed(String json) {
+        try {
+            parse(json);
+            fail("Malformed GeoJSON parsed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed GeoJSON"));
+        }
+    }
+
+    private static void assertSame(List<Earthquake> expected, List<Earthquake> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getLocation(), actual.get(i).getLocation());
+            assertEquals(expected.get(i).getMagnitude(), actual.get(i).getMagnitude(), 0);
+            assertEquals(expected.get(i).getDepth(), actual.get(i).getDepth(), 0);
+        }
+    }
+
+    private static GeoJsonParser.Listener collectInto(final List<Earthquake> earthquakes) {
+        return new GeoJsonParser.Listener() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        };
+    }
+
+    private static List<String> ids(List<Earthquake> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Hands the text over a few characters per read, like a slow network would, and cancels
+     * once the given number of characters has been read.
+     */
+    private static final class ChunkedReader extends Reader {
+
+        private final String mText;
+        private final int mChunk;
+        private final Cancellation mCancellation;
+        private final int mCancelAt;
+        private int mPos;
+
+        ChunkedReader(String text, int chunk, Cancellation cancellation, int cancelAt) {
+            mText = text;
+            mChunk = chunk;
+            mCancellation = cancellation;
+            mCancelAt = cancelAt;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (mPos == mText.length()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, mChunk), mText.length() - mPos);
+            mText.getChars(mPos, mPos + count, buffer, offset);
+            mPos += count;
+            if (mCancellation != null && mPos >= mCancelAt) {
+                mCancellation.cancel();
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the CSV to GeoJSON fallback of {@link QueryUtils} against a fake
+ * {@link EarthquakeSource}, which answers CSV requests with a given error and GeoJSON requests
+ * with one earthquake.
+ */
+public class QueryUtilsTest {
+
+    private static final String CSV_URL =
+            EarthquakeQuery.USGS_REQUEST_URL + "?format=csv&minmag=4.5&orderby=time";
+
+    /** The URL of every request, in the order they were made */
+    private final List<String> mUrls = Collections.synchronizedList(new ArrayList<String>());
+
+    /** What a CSV request is answered with */
+    private volatile int mCsvCode;
+    private volatile String mCsvError;
+
+    private EarthquakeSource mOriginalSource;
+
+    @Before
+    public void setUp() {
+        EarthquakeQuery.forgetCsvRefusal();
+        mOriginalSource = QueryUtils.getSource();
+        QueryUtils.setSource(new EarthquakeSource() {
+            @Override
+            public Response fetch(String url, String etag, String lastModified,
+                                  GeoJsonParser.Listener listener, Cancellation cancellation) {
+                mUrls.add(url);
+                if (url.contains("format=" + EarthquakeQuery.FORMAT_CSV)) {
+                    return new Response(mCsvCode, null, null, false, false, false, mCsvError);
+                }
+                listener.onEarthquake(new Earthquake(5.0, "10km N of Place, Region", 1000,
+                        "https://earthquake.usgs.gov/earthquakes/eventpage/us1", "us1", 1000));
+                return new Response(HttpURLConnection.HTTP_OK, null, null, true, true, false);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setSource(mOriginalSource);
+        EarthquakeQuery.forgetCsvRefusal();
+    }
+
+    @Test
+    public void notAcceptableIsAskedAgainInGeoJson() {
+        mCsvCode = HttpURLConnection.HTTP_NOT_ACCEPTABLE;
+
+        List<Earthquake> earthquakes = QueryUtils.fetchCompleteEarthquakeData(CSV_URL);
+
+        assertEquals(1, earthquakes.size());
+        assertEquals(2, mUrls.size());
+        assertEquals(EarthquakeQuery.geoJsonUrlOf(CSV_URL), mUrls.get(1));
+    }
+
+    @Test
+    public void badRequestAboutTheFormatIsAskedAgainInGeoJson() {
+        mCsvCode = HttpURLConnection.HTTP_BAD_REQUEST;
+        mCsvError = "Error 400: Bad Request\n\nBad format \"csv\".\n\n"
+                + "Request:\n/fdsnws/event/1/query?format=csv&minmag=4.5\n";
+
+        assertEquals(1, QueryUtils.fetchCompleteEarthquakeData(CSV_URL).size());
+        assertEquals(2, mUrls.size());
+    }
+
+    @Test
+    public void refusalAsksForGeoJsonUntilItExpires() {
+        mCsvCode = HttpURLConnection.HTTP_UNSUPPORTED_TYPE;
+        long now = System.currentTimeMillis();
+
+        QueryUtils.fetchCompleteEarthquakeData(CSV_URL);
+
+        assertEquals(EarthquakeQuery.FORMAT_GEOJSON, EarthquakeQuery.preferredFormat());
+        assertEquals(EarthquakeQuery.FORMAT_CSV, EarthquakeQuery.preferredFormat(
+                now + EarthquakeQuery.CSV_REFUSAL_MILLIS + 60000));
+    }
+
+    @Test
+    public void badRequestAboutAnotherParameterIsNotAskedAgain() {
+        mCsvCode = HttpURLConnection.HTTP_BAD_REQUEST;
+        // The request is echoed back with its format, which isn't what was refused
+        mCsvError = "Error 400: Bad Request\n\nBad minmag value \"x\".\n\n"
+                + "Request:\n/fdsnws/event/1/query?format=csv&minmag=x\n";
+
+        assertNull(QueryUtils.fetchCompleteEarthquakeData(CSV_URL));
+        assertEquals(1, mUrls.size());
+        assertEquals(EarthquakeQuery.FORMAT_CSV, EarthquakeQuery.preferredFormat());
+    }
+
+    @Test
+    public void otherClientErrorsAreNotAskedAgain() {
+        int[] codes = {HttpURLConnection.HTTP_BAD_REQUEST, HttpURLConnection.HTTP_NOT_FOUND, 429};
+        for (int code : codes) {
+            mCsvCode = code;
+            assertNull(QueryUtils.fetchCompleteEarthquakeData(CSV_URL));
+        }
+
+        assertEquals(codes.length, mUrls.size());
+        for (String url : mUrls) {
+            assertTrue(url, url.contains("format=" + EarthquakeQuery.FORMAT_CSV));
+        }
+        assertEquals(EarthquakeQuery.FORMAT_CSV, EarthquakeQuery.preferredFormat());
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link SavedSearchFetcher} against a fake {@link EarthquakeSource}, which answers
+ * each request from a handful of earthquakes the way the USGS API would, and remembers the
+ * URLs it was asked for.
+ */
+public class SavedSearchFetcherTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+    private static final String JAPAN = "24,122,46,146";
+
+    private final long mNow = System.currentTimeMillis();
+
+    /** Every earthquake the fake source knows about, newest first */
+    private final List<Earthquake> mEarthquakes = new ArrayList<>();
+
+    /** The URL of every request, in the order they were made */
+    private final List<String> mUrls = Collections.synchronizedList(new ArrayList<String>());
+
+    /** Requests with this in their URL fail, unless it is null */
+    private volatile String mFailing;
+
+    private EarthquakeSource mOriginalSource;
+    private File mDirectory;
+    private ExecutorService mRequestExecutor;
+    private EarthquakeRequests mRequests;
+
+    @Before
+    public void setUp() {
+        add("japan-1", 6.1, HOUR, 35, 139);
+        add("california-1", 3.4, 3 * HOUR, 36, -120);
+        add("japan-2", 4.5, 2 * DAY, 36, 140);
+        add("chile-1", 7.0, 5 * DAY, -30, -71);
+        add("japan-3", 5.2, 10 * DAY, 34, 135);
+        add("indonesia-1", 6.6, 12 * DAY, -5, 120);
+        EarthquakeIndex.publish(null);
+
+        mOriginalSource = QueryUtils.getSource();
+        QueryUtils.setSource(new EarthquakeSource() {
+            @Override
+            public Response fetch(String url, String etag, String lastModified,
+                                  GeoJsonParser.Listener listener, Cancellation cancellation) {
+                mUrls.add(url);
+                String failing = mFailing;
+                if (failing != null && url.contains(failing)) {
+                    return Response.FAILED;
+                }
+                for (Earthquake earthquake : FakeEarthquakeFeed.answer(mEarthquakes, url)) {
+                    listener.onEarthquake(earthquake);
+                }
+                return new Response(200, null, null, true, true, false);
+            }
+        });
+
+        mDirectory = new File(System.getProperty("java.io.tmpdir"),
+                "saved-search-test-" + System.nanoTime());
+        mRequestExecutor = Executors.newFixedThreadPool(4);
+        mRequests = new EarthquakeRequests(new EarthquakeCache(mDirectory, 0, 1024 * 1024),
+                new EarthquakeMemoryCache(Clock.SYSTEM, 60000, 1024 * 1024), mRequestExecutor);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        // A request still running for a search that was left out would go to the next source
+        mRequestExecutor.shutdownNow();
+        mRequestExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        QueryUtils.setSource(mOriginalSource);
+        EarthquakeIndex.publish(null);
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void overlappingSearchesShareTheirRequests() {
+        List<SavedSearch> searches = Arrays.asList(
+                new SavedSearch(4, 7, JAPAN, SavedSearch.PRIORITY_HIGH),
+                // Inside the first one, so it is never fetched
+                new SavedSearch(5, 7, JAPAN, SavedSearch.PRIORITY_NORMAL),
+                // The same search twice, only fetched once
+                new SavedSearch(3, 0, "", SavedSearch.PRIORITY_NORMAL),
+                new SavedSearch(3, 0, "", SavedSearch.PRIORITY_LOW),
+                new SavedSearch(6, 14, "", SavedSearch.PRIORITY_NORMAL),
+                new SavedSearch(6, 14, "", SavedSearch.PRIORITY_LOW));
+
+        assertNotNull(new SavedSearchFetcher(mRequests).fetch(searches, mNow, new Cancellation()));
+
+        assertEquals("every URL once", new HashSet<>(mUrls).size(), mUrls.size());
+        for (String url : mUrls) {
+            assertFalse(url, url.contains("minmag=5"));
+        }
+        assertEquals(1, countContaining("limit=" + SavedSearchFetcher.LATEST_LIMIT));
+        assertTrue(countContaining("minmag=4") > 0);
+        assertTrue(countContaining("minmag=6") > 0);
+    }
+
+    @Test
+    public void searchesAreMergedIntoOneListWithoutDuplicates() {
+        List<SavedSearch> searches = Arrays.asList(
+                // japan-1 and japan-2
+                new SavedSearch(4, 7, JAPAN, SavedSearch.PRIORITY_HIGH),
+                // The latest anywhere above 5: japan-1, chile-1, japan-3 and indonesia-1
+                new SavedSearch(5, 0, "", SavedSearch.PRIORITY_LOW),
+                // japan-1, chile-1 and indonesia-1
+                new SavedSearch(6, 14, "", SavedSearch.PRIORITY_NORMAL));
+
+        EarthquakeMerger merger = new SavedSearchFetcher(mRequests)
+                .fetch(searches, mNow, new Cancellation());
+
+        assertEquals(Arrays.asList("japan-1", "japan-2", "chile-1", "japan-3", "indonesia-1"),
+                ids(merger.getStore()));
+    }
+
+    @Test
+    public void failedSearchIsLeftOut() {
+        mFailing = "minlatitude";
+        List<SavedSearch> searches = Arrays.asList(
+                new SavedSearch(4, 7, JAPAN, SavedSearch.PRIORITY_HIGH),
+                new SavedSearch(6, 14, "", SavedSearch.PRIORITY_NORMAL));
+
+        EarthquakeMerger merger = new SavedSearchFetcher(mRequests)
+                .fetch(searches, mNow, new Cancellation());
+
+        assertEquals(Arrays.asList("japan-1", "chile-1", "indonesia-1"), ids(merger.getStore()));
+    }
+
+    @Test
+    public void nothingIsReturnedIfEverySearchFails() {
+        mFailing = "query";
+
+        assertNull(new SavedSearchFetcher(mRequests).fetch(
+                Collections.singletonList(new SavedSearch(3, 0, "", SavedSearch.PRIORITY_HIGH)),
+                mNow, new Cancellation()));
+    }
+
+    @Test
+    public void nothingIsFetchedOnceCancelled() {
+        Cancellation cancellation = new Cancellation();
+        cancellation.cancel();
+
+        assertNull(new SavedSearchFetcher(mRequests).fetch(
+                Collections.singletonList(new SavedSearch(3, 0, "", SavedSearch.PRIORITY_HIGH)),
+                mNow, cancellation));
+        assertTrue(mUrls.isEmpty());
+    }
+
+    @Test
+    public void higherPrioritySearchesAreFetchedFirst() throws InterruptedException {
+        // One thread, kept busy until every search is queued behind it
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>());
+        final CountDownLatch gate = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        final List<SavedSearch> searches = Arrays.asList(
+                new SavedSearch(7, 0, "", SavedSearch.PRIORITY_LOW),
+                new SavedSearch(6.5, 0, "", SavedSearch.PRIORITY_NORMAL),
+                new SavedSearch(6.8, 0, "", SavedSearch.PRIORITY_HIGH),
+                new SavedSearch(6.6, 0, "", SavedSearch.PRIORITY_NORMAL));
+        final SavedSearchFetcher fetcher = new SavedSearchFetcher(mRequests, executor);
+        Thread fetch = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fetcher.fetch(searches, mNow, new Cancellation());
+            }
+        });
+        fetch.start();
+        while (executor.getQueue().size() < searches.size()) {
+            Thread.sleep(5);
+        }
+        gate.countDown();
+        fetch.join();
+        executor.shutdown();
+
+        assertEquals(4, mUrls.size());
+        assertTrue(mUrls.get(0), mUrls.get(0).contains("minmag=6.8"));
+        // Normal ones in the order they were submitted
+        assertTrue(mUrls.get(1), mUrls.get(1).contains("minmag=6.5"));
+        assertTrue(mUrls.get(2), mUrls.get(2).contains("minmag=6.6"));
+        assertTrue(mUrls.get(3), mUrls.get(3).contains("minmag=7&"));
+    }
+
+    @Test
+    public void searchTheIndexHoldsIsNotFetched() {
+        publishIndex(Long.MIN_VALUE);
+        List<SavedSearch> searches = Arrays.asList(
+                new SavedSearch(4, 7, JAPAN, SavedSearch.PRIORITY_HIGH),
+                new SavedSearch(6, 0, "", SavedSearch.PRIORITY_NORMAL));
+
+        EarthquakeMerger merger = new SavedSearchFetcher(mRequests)
+                .fetch(searches, mNow, new Cancellation());
+
+        assertTrue(mUrls.toString(), mUrls.isEmpty());
+        assertEquals(Arrays.asList("japan-1", "japan-2", "chile-1", "indonesia-1"),
+                ids(merger.getStore()));
+    }
+
+    @Test
+    public void latestSearchTheIndexHasTooFewOfIsFetched() {
+        // The index holds the week of the Japan search, but not a page of the latest above 6
+        publishIndex(mNow - 8 * DAY);
+        List<SavedSearch> searches = Arrays.asList(
+                new SavedSearch(4, 7, JAPAN, SavedSearch.PRIORITY_HIGH),
+                new SavedSearch(6, 0, "", SavedSearch.PRIORITY_NORMAL));
+
+        EarthquakeMerger merger = new SavedSearchFetcher(mRequests)
+                .fetch(searches, mNow, new Cancellation());
+
+        assertEquals(mUrls.toString(), 1, countContaining("minmag=6"));
+        assertEquals(0, countContaining("minmag=4"));
+        assertEquals(Arrays.asList("japan-1", "japan-2", "chile-1", "indonesia-1"),
+                ids(merger.getStore()));
+    }
+
+    /** Publish an index over every earthquake of the fake source from the given time on */
+    private void publishIndex(long fromTime) {
+        EarthquakeStore store = new EarthquakeStore();
+        for (Earthquake earthquake : mEarthquakes) {
+            if (earthquake.getTimeInMilliseconds() >= fromTime) {
+                store.add(earthquake);
+            }
+        }
+        EarthquakeIndex.publish(new EarthquakeIndex(store, 0, fromTime, mNow, mNow));
+    }
+
+    private void add(String id, double magnitude, long ago, double latitude, double longitude) {
+        mEarthquakes.add(new Earthquake(magnitude, "10km N of Place, Region", mNow - ago,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id, id, mNow, false,
+                longitude, latitude, 10));
+    }
+
+    private int countContaining(String part) {
+        int count = 0;
+        for (String url : mUrls) {
+            if (url.contains(part + "&") || url.endsWith(part)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<String> ids(EarthquakeStore store) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < store.size(); i++) {
+            ids.add(store.getId(i));
+        }
+        return ids;
+    }
+}
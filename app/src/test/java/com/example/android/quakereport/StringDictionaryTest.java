@@ -0,0 +1,122 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that a {@link StringDictionary} hands out one copy of each string, however it is
+ * looked up, and stops keeping new strings once it is full.
+ */
+public class StringDictionaryTest {
+
+    @Test
+    public void sameStringIsTheSameCopy() {
+        StringDictionary dictionary = new StringDictionary(16);
+
+        String first = dictionary.intern(new String("California"));
+        String second = dictionary.intern(new String("California"));
+
+        assertSame(first, second);
+        assertEquals(1, dictionary.size());
+    }
+
+    @Test
+    public void rangeOfCharactersFindsTheSameCopy() {
+        StringDictionary dictionary = new StringDictionary(16);
+        String region = dictionary.intern("Alaska");
+
+        StringBuilder location = new StringBuilder("10km N of Anchorage, Alaska");
+        assertSame(region, dictionary.intern(location, 21, location.length()));
+        assertEquals("Anchorage", dictionary.intern(location, 10, 19));
+        assertEquals(2, dictionary.size());
+    }
+
+    @Test
+    public void stringsWithTheSameHashAreKeptApart() {
+        StringDictionary dictionary = new StringDictionary(16);
+        // "Aa" and "BB" have the same hash code
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+
+        String aa = dictionary.intern("Aa");
+        String bb = dictionary.intern("BB");
+
+        assertEquals("Aa", aa);
+        assertEquals("BB", bb);
+        assertSame(aa, dictionary.intern(new String("Aa")));
+        assertSame(bb, dictionary.intern(new String("BB")));
+        assertEquals("", dictionary.intern("abc", 1, 1));
+    }
+
+    @Test
+    public void fullDictionaryReturnsNewCopies() {
+        StringDictionary dictionary = new StringDictionary(2);
+        String japan = dictionary.intern("Japan");
+        dictionary.intern("Chile");
+
+        String fiji = dictionary.intern(new String("Fiji"));
+        String fijiAgain = dictionary.intern(new String("Fiji"));
+
+        assertEquals(fiji, fijiAgain);
+        assertNotSame(fiji, fijiAgain);
+        assertEquals(2, dictionary.size());
+        // The strings it already has are still shared
+        assertSame(japan, dictionary.intern(new String("Japan")));
+    }
+
+    @Test
+    public void threadsShareOneCopy() throws Exception {
+        final StringDictionary dictionary = new StringDictionary(1024);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String[]>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(new Callable<String[]>() {
+                    @Override
+                    public String[] call() {
+                        String[] strings = new String[500];
+                        for (int i = 0; i < strings.length; i++) {
+                            strings[i] = dictionary.intern("Region " + i);
+                        }
+                        return strings;
+                    }
+                }));
+            }
+            String[] first = futures.get(0).get();
+            for (Future<String[]> future : futures) {
+                String[] strings = future.get();
+                for (int i = 0; i < strings.length; i++) {
+                    assertSame(first[i], strings[i]);
+                }
+            }
+            assertEquals(500, dictionary.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void earthquakesShareTheirRegionAndWebsitePrefix() {
+        Earthquake first = new Earthquake(5.0, "10km N of Anchorage, Alaska", 1000,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/ak1", "ak1", 1000);
+        Earthquake second = new Earthquake(4.0, "5km S of Willow, Alaska", 2000,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/ak2", "ak2", 2000);
+
+        assertSame(first.getRegion(), second.getRegion());
+        assertSame(first.getWebsitePrefix(), second.getWebsitePrefix());
+
+        // The whole location and website are put back together when they are asked for
+        assertEquals("10km N of Anchorage, Alaska", first.getLocation());
+        assertEquals("https://earthquake.usgs.gov/earthquakes/eventpage/ak1",
+                first.getWebsite());
+    }
+}
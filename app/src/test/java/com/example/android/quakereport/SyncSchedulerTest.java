@@ -0,0 +1,181 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link SyncScheduler} against a clock that only moves when the test moves it.
+ */
+public class SyncSchedulerTest {
+
+    private static final long INTERVAL = 60 * 60 * 1000;
+    private static final long BACKOFF = SyncScheduler.INITIAL_BACKOFF_MILLIS;
+
+    private final FakeClock mClock = new FakeClock(1000000);
+
+    @Test
+    public void firstSyncIsDueStraightAway() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, INTERVAL);
+
+        assertTrue(scheduler.isDue());
+        assertFalse(scheduler.isFresh());
+        assertTrue(scheduler.begin(scheduler.trigger()));
+        assertTrue(scheduler.isRunning());
+    }
+
+    @Test
+    public void triggersDuringASyncAreCoalesced() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, INTERVAL);
+
+        assertTrue(scheduler.begin(scheduler.trigger()));
+        mClock.advance(1000);
+        long duringSync = scheduler.trigger();
+        assertFalse(scheduler.begin(duringSync));
+        mClock.advance(1000);
+        scheduler.finish(true);
+
+        // The sync finished after the trigger was requested, so it already covered it
+        assertFalse(scheduler.begin(duringSync));
+
+        // A trigger after the sync finished needs a sync of its own
+        mClock.advance(1);
+        assertTrue(scheduler.begin(scheduler.trigger()));
+    }
+
+    @Test
+    public void triggersQueuedBehindASyncAreCoalescedWithIt() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, INTERVAL);
+        assertTrue(scheduler.begin(scheduler.trigger()));
+
+        // Two alarms go off while the sync runs, and wait for it like intents for the service
+        mClock.advance(1000);
+        long firstAlarm = scheduler.trigger();
+        mClock.advance(1000);
+        long secondAlarm = scheduler.trigger();
+        mClock.advance(1000);
+        scheduler.finish(true);
+        long success = mClock.currentTimeMillis();
+
+        // Both are handled after the sync, which already covered them
+        mClock.advance(1000);
+        assertFalse(scheduler.begin(firstAlarm));
+        assertFalse(scheduler.begin(secondAlarm));
+        assertFalse(scheduler.isRunning());
+        assertEquals(success, scheduler.getLastSuccess());
+        assertEquals(success + INTERVAL, scheduler.getNextSyncTime());
+    }
+
+    @Test
+    public void failuresBackOffExponentiallyUpToTheInterval() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, INTERVAL);
+
+        for (int failures = 1; failures <= 10; failures++) {
+            assertTrue(scheduler.begin(scheduler.trigger()));
+            scheduler.finish(false);
+            long finished = mClock.currentTimeMillis();
+            long backoff = Math.min(BACKOFF << (failures - 1), INTERVAL);
+
+            assertEquals(failures, scheduler.getFailures());
+            assertEquals(backoff, scheduler.getBackoffMillis());
+            assertEquals(finished + backoff, scheduler.getNextSyncTime());
+
+            // Backing off until the delay has passed
+            mClock.advance(backoff - 1);
+            assertFalse(scheduler.isDue());
+            assertFalse(scheduler.begin(scheduler.trigger()));
+            mClock.advance(1);
+            assertTrue(scheduler.isDue());
+        }
+        assertEquals(INTERVAL, scheduler.getBackoffMillis());
+    }
+
+    @Test
+    public void successResetsTheBackoff() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, INTERVAL);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(scheduler.begin(scheduler.trigger()));
+            scheduler.finish(false);
+            mClock.advance(scheduler.getBackoffMillis());
+        }
+        assertEquals(4 * BACKOFF, scheduler.getBackoffMillis());
+
+        assertTrue(scheduler.begin(scheduler.trigger()));
+        scheduler.finish(true);
+        long success = mClock.currentTimeMillis();
+
+        assertEquals(0, scheduler.getFailures());
+        assertEquals(success, scheduler.getLastSuccess());
+        assertEquals(success + INTERVAL, scheduler.getNextSyncTime());
+
+        // The next failure starts from the first delay again
+        mClock.advance(INTERVAL);
+        assertTrue(scheduler.begin(scheduler.trigger()));
+        scheduler.finish(false);
+        assertEquals(BACKOFF, scheduler.getBackoffMillis());
+    }
+
+    @Test
+    public void freshForOneIntervalAfterASuccess() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, INTERVAL);
+        assertTrue(scheduler.begin(scheduler.trigger()));
+        scheduler.finish(true);
+
+        assertTrue(scheduler.isFresh());
+        mClock.advance(INTERVAL - 1);
+        assertTrue(scheduler.isFresh());
+        assertFalse(scheduler.isDue());
+        mClock.advance(1);
+        assertFalse(scheduler.isFresh());
+        assertTrue(scheduler.isDue());
+
+        // A failure doesn't make the last success any fresher
+        assertTrue(scheduler.begin(scheduler.trigger()));
+        scheduler.finish(false);
+        assertFalse(scheduler.isFresh());
+    }
+
+    @Test
+    public void restoredStateCarriesOn() {
+        long lastSuccess = mClock.currentTimeMillis() - 10000;
+        long lastFinished = mClock.currentTimeMillis() - 1000;
+        SyncScheduler scheduler = new SyncScheduler(mClock, INTERVAL, lastSuccess, lastFinished, 2);
+
+        assertTrue(scheduler.isFresh());
+        assertEquals(lastFinished + 2 * BACKOFF, scheduler.getNextSyncTime());
+        assertFalse(scheduler.begin(scheduler.trigger()));
+    }
+
+    @Test
+    public void disabledSchedulerIsNeverDueOrFresh() {
+        SyncScheduler scheduler = new SyncScheduler(mClock, 0);
+        assertFalse(scheduler.isEnabled());
+        assertEquals(Long.MAX_VALUE, scheduler.getNextSyncTime());
+        assertFalse(scheduler.isDue());
+
+        assertTrue(scheduler.begin(scheduler.trigger()));
+        scheduler.finish(true);
+        assertFalse(scheduler.isFresh());
+    }
+
+    /** A clock that only moves when it is told to */
+    private static final class FakeClock implements Clock {
+
+        private long mNow;
+
+        FakeClock(long now) {
+            mNow = now;
+        }
+
+        void advance(long millis) {
+            mNow += millis;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+}
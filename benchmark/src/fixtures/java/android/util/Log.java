@@ -0,0 +1,41 @@
+package android.util;
+
+/**
+ * Stands in for the Android log on the desktop JVM, so the app's networking code can run in
+ * the load test. Warnings and errors go to standard error, the rest is dropped so it doesn't
+ * slow down or clutter a run.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return print("W", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return print("W", tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return print("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return print("E", tag, msg, tr);
+    }
+
+    private static int print(String level, String tag, String msg, Throwable tr) {
+        System.err.println(level + "/" + tag + ": " + msg + (tr == null ? "" : " (" + tr + ")"));
+        return 0;
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * A USGS response made up on the fly, in GeoJSON or CSV, for the benchmarks and the load test.
+ *
+ * The features have every property a real response has (not only the ones the app reads), so
+ * the parsers skip as much as they would in the app. Magnitudes are mostly small with a long
+ * tail, places are "<distance> <direction> of <town>, <region>" or "<region> region", and the
+ * features are newest first a few minutes apart, roughly like the real feed. The same seed
+ * always gives the same bytes, and both formats hold the same earthquakes, so they can be
+ * compared with each other.
+ *
+ * The response is generated one feature at a time as it is read, so even 100,000 features
+ * never sit in memory at once. It can also be cut off part way through a feature, like a
+ * connection that drops.
+ */
+public final class SyntheticFeed extends InputStream {
+
+    /** The formats, named like the format parameter of the USGS API */
+    public static final String FORMAT_GEOJSON = "geojson";
+    public static final String FORMAT_CSV = "csv";
+
+    /** The seed the benchmarks use, so every run and every commit sees exactly the same bytes */
+    public static final long DEFAULT_SEED = 0x51554b45L;
+
+    private static final long START_TIME = 1494000000000L;
+
+    private static final String[] REGIONS = {
+            "Alaska", "California", "Nevada", "Hawaii", "Puerto Rico", "Japan", "Indonesia",
+            "Chile", "Peru", "Mexico", "Tonga", "Fiji", "Papua New Guinea", "Greece", "Turkey"
+    };
+
+    private static final String[] TOWNS = {
+            "Anchorage", "Ridgecrest", "Volcano", "Pahala", "Hengchun", "Tomakomai", "Sinabang",
+            "Ovalle", "Acari", "Pinotepa", "Neiafu", "Lambasa", "Kokopo", "Kos", "Marmaris"
+    };
+
+    private static final String[] DIRECTIONS = {
+            "N", "NNE", "NE", "ENE", "E", "ESE", "SE", "SSE",
+            "S", "SSW", "SW", "WSW", "W", "WNW", "NW", "NNW"
+    };
+
+    private static final String[] NETWORKS = {"us", "ak", "ci", "nc", "hv", "nn", "pr"};
+
+    /** The columns of a USGS CSV response, in their order */
+    private static final String CSV_HEADER = "time,latitude,longitude,depth,mag,magType,nst,gap,"
+            + "dmin,rms,net,id,updated,place,type,horizontalError,depthError,magError,magNst,"
+            + "status,locationSource,magSource\n";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final boolean mCsv;
+    private final int mFeatures;
+    private final int mCutAfter;
+    private final Random mRandom;
+    private long mTime = START_TIME;
+
+    /** Times in CSV are ISO8601 in UTC, like the USGS API writes them */
+    private final SimpleDateFormat mIsoFormat =
+            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+    private final Date mDate = new Date();
+
+    /** Features generated so far, -1 until the header has been */
+    private int mGenerated = -1;
+    private boolean mFinished;
+
+    /** The bytes of the piece being read, i.e. the header or one feature */
+    private final StringBuilder mPiece = new StringBuilder(2048);
+    private byte[] mBytes = new byte[0];
+    private int mPos;
+
+    /** The feature being written */
+    private double mMagnitude;
+    private String mLocation;
+    private String mNetwork;
+    private String mCode;
+    private long mUpdated;
+    private int mTz;
+    private String mFelt;
+    private String mStatus;
+    private int mNst;
+    private double mDmin;
+    private double mRms;
+    private int mGap;
+    private double mLongitude;
+    private double mLatitude;
+    private double mDepth;
+
+    /**
+     * A complete response.
+     *
+     * @param format {@link #FORMAT_GEOJSON} or {@link #FORMAT_CSV}
+     * @param features number of features in the response
+     */
+    public SyntheticFeed(String format, int features, long seed) {
+        this(format, features, seed, features);
+    }
+
+    /**
+     * A response that is cut off half way through the feature after the given number of
+     * features, if that is fewer than there are.
+     */
+    public SyntheticFeed(String format, int features, long seed, int cutAfter) {
+        if (!FORMAT_GEOJSON.equals(format) && !FORMAT_CSV.equals(format)) {
+            throw new IllegalArgumentException("Unknown format " + format);
+        }
+        mCsv = FORMAT_CSV.equals(format);
+        mFeatures = features;
+        mCutAfter = cutAfter;
+        mRandom = new Random(seed);
+        mIsoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /** A complete response with the given number of features, as UTF-8 bytes */
+    public static byte[] response(String format, int features) {
+        SyntheticFeed feed = new SyntheticFeed(format, features, DEFAULT_SEED);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 + features * 1100);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = feed.read(buffer, 0, buffer.length)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** The content type the USGS API sends the format with */
+    public static String contentTypeOf(String format) {
+        return FORMAT_CSV.equals(format) ? "text/csv" : "application/json";
+    }
+
+    @Override
+    public int read() {
+        if (mPos == mBytes.length && !nextPiece()) {
+            return -1;
+        }
+        return mBytes[mPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (mPos == mBytes.length && !nextPiece()) {
+            return -1;
+        }
+        int count = Math.min(length, mBytes.length - mPos);
+        System.arraycopy(mBytes, mPos, buffer, offset, count);
+        mPos += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFinished = true;
+    }
+
+    /** Generate the next piece of the response, returning false at the end */
+    private boolean nextPiece() {
+        if (mFinished) {
+            return false;
+        }
+        mPiece.setLength(0);
+        if (mGenerated < 0) {
+            if (mCsv) {
+                mPiece.append(CSV_HEADER);
+            } else {
+                mPiece.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":1494000000000,")
+                        .append("\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson\",")
+                        .append("\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.7\",")
+                        .append("\"count\":").append(mFeatures).append("},\"features\":[");
+            }
+            mGenerated = 0;
+        } else if (mGenerated < mFeatures) {
+            // Newest first, like orderby=time
+            mTime -= 1000 + mRandom.nextInt(20 * 60 * 1000);
+            nextFeature();
+            if (mCsv) {
+                appendRow(mPiece);
+            } else {
+                if (mGenerated > 0) {
+                    mPiece.append(',');
+                }
+                appendFeature(mPiece);
+            }
+            if (mGenerated == mCutAfter) {
+                // The connection drops half way through this feature
+                mPiece.setLength(mPiece.length() / 2);
+                mFinished = true;
+            }
+            mGenerated++;
+        } else {
+            if (!mCsv) {
+                mPiece.append("],\"bbox\":[-179.9,-60.1,0.0,179.9,70.2,650.0]}");
+            }
+            mFinished = true;
+        }
+        mBytes = mPiece.toString().getBytes(UTF_8);
+        mPos = 0;
+        return true;
+    }
+
+    /**
+     * Draw the values of the next feature. The order of the draws mustn't change, or the bytes
+     * the benchmarks have always used would.
+     */
+    private void nextFeature() {
+        Random random = mRandom;
+        // Mostly small earthquakes with a long tail, roughly like the real feed
+        double magnitude = Math.min(9.5, 0.5 + -Math.log(1 - random.nextDouble()) * 1.1);
+        mMagnitude = Math.round(magnitude * 100) / 100.0;
+        int place = random.nextInt(REGIONS.length);
+        if (random.nextInt(10) == 0) {
+            mLocation = REGIONS[place] + " region";
+        } else {
+            mLocation = (1 + random.nextInt(250)) + "km "
+                    + DIRECTIONS[random.nextInt(DIRECTIONS.length)] + " of "
+                    + TOWNS[place] + ", " + REGIONS[place];
+        }
+        mNetwork = NETWORKS[random.nextInt(NETWORKS.length)];
+        mCode = Integer.toString(10000000 + random.nextInt(90000000), 36);
+        mUpdated = mTime + random.nextInt(3600000);
+        mTz = -720 + random.nextInt(25) * 60;
+        mFelt = random.nextInt(4) == 0 ? String.valueOf(random.nextInt(500)) : null;
+        mStatus = random.nextBoolean() ? "reviewed" : "automatic";
+        mNst = random.nextInt(80);
+        mDmin = random.nextInt(1000) / 100.0;
+        mRms = random.nextInt(200) / 100.0;
+        mGap = random.nextInt(300);
+        mLongitude = random.nextInt(3600000) / 10000.0 - 180;
+        mLatitude = random.nextInt(1400000) / 10000.0 - 60;
+        mDepth = random.nextInt(65000) / 100.0;
+    }
+
+    private void appendFeature(StringBuilder json) {
+        String id = mNetwork + mCode;
+        String magnitudeText = String.format(Locale.US, "%.1f", mMagnitude);
+
+        json.append("{\"type\":\"Feature\",\"properties\":{")
+                .append("\"mag\":").append(mMagnitude)
+                .append(",\"place\":\"").append(mLocation).append('"')
+                .append(",\"time\":").append(mTime)
+                .append(",\"updated\":").append(mUpdated)
+                .append(",\"tz\":").append(mTz)
+                .append(",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/")
+                .append(id).append('"')
+                .append(",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=")
+                .append(id).append("&format=geojson\"")
+                .append(",\"felt\":").append(mFelt != null ? mFelt : "null")
+                .append(",\"cdi\":null,\"mmi\":null,\"alert\":")
+                .append(mMagnitude >= 6 ? "\"green\"" : "null")
+                .append(",\"status\":\"").append(mStatus).append('"')
+                .append(",\"tsunami\":").append(mMagnitude >= 7 ? 1 : 0)
+                .append(",\"sig\":").append((int) (mMagnitude * mMagnitude * 20))
+                .append(",\"net\":\"").append(mNetwork).append('"')
+                .append(",\"code\":\"").append(mCode).append('"')
+                .append(",\"ids\":\",").append(id).append(",\"")
+                .append(",\"sources\":\",").append(mNetwork).append(",\"")
+                .append(",\"types\":\",geoserve,origin,phase-data,\"")
+                .append(",\"nst\":").append(mNst)
+                .append(",\"dmin\":").append(mDmin)
+                .append(",\"rms\":").append(mRms)
+                .append(",\"gap\":").append(mGap)
+                .append(",\"magType\":\"").append(magType()).append('"')
+                .append(",\"type\":\"earthquake\"")
+                .append(",\"title\":\"M ").append(magnitudeText).append(" - ").append(mLocation).append('"')
+                .append("},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                .append(mLongitude).append(',')
+                .append(mLatitude).append(',')
+                .append(mDepth)
+                .append("]},\"id\":\"").append(id).append("\"}");
+    }
+
+    /** The same feature as a row of the USGS CSV format */
+    private void appendRow(StringBuilder csv) {
+        csv.append(isoTime(mTime)).append(',')
+                .append(mLatitude).append(',')
+                .append(mLongitude).append(',')
+                .append(mDepth).append(',')
+                .append(mMagnitude).append(',')
+                .append(magType()).append(',')
+                .append(mNst).append(',')
+                .append(mGap).append(',')
+                .append(mDmin).append(',')
+                .append(mRms).append(',')
+                .append(mNetwork).append(',')
+                .append(mNetwork).append(mCode).append(',')
+                .append(isoTime(mUpdated)).append(',');
+        // Places with a comma in them are quoted
+        if (mLocation.indexOf(',') >= 0) {
+            csv.append('"').append(mLocation).append('"');
+        } else {
+            csv.append(mLocation);
+        }
+        // The errors aren't in the GeoJSON, so they are made up from what is
+        csv.append(",earthquake,")
+                .append(mGap % 50 / 10.0).append(',')
+                .append(mNst % 30 / 10.0).append(',')
+                .append(mRms / 10).append(',')
+                .append(mNst).append(',')
+                .append(mStatus).append(',')
+                .append(mNetwork).append(',')
+                .append(mNetwork).append('\n');
+    }
+
+    private String magType() {
+        return mMagnitude >= 4 ? "mb" : "ml";
+    }
+
+    private String isoTime(long timeInMilliseconds) {
+        mDate.setTime(timeInMilliseconds);
+        return mIsoFormat.format(mDate);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Formatting earthquakes into the text and colour shown in each row, the work that used to be
+ * done in EarthquakeAdapter.getView and is now done by {@link EarthquakeRowFormatter}.
+ */
+@State(Scope.Benchmark)
+public class FormatBenchmark {
+
+    /** Stand-ins for the resolved magnitude colours, the values don't change the work done */
+    private static final int[] MAGNITUDE_COLOURS = {
+            0xff4a7ba7, 0xff1ba7a7, 0xff10cac9, 0xfff5a623, 0xfff19e26,
+            0xffe37f2a, 0xffd86d1c, 0xffcf5325, 0xffc13f10, 0xffb3201e
+    };
+
+    @Param({"10", "1000", "20000"})
+    public int features;
+
+    private List<Earthquake> mEarthquakes;
+
+    @Setup
+    public void setUp() throws IOException {
+        mEarthquakes = new ArrayList<>();
+        GeoJsonParser.parse(new ByteArrayInputStream(GeoJsonFixtures.response(features)),
+                new GeoJsonParser.Listener() {
+                    @Override
+                    public void onEarthquake(Earthquake earthquake) {
+                        mEarthquakes.add(earthquake);
+                    }
+                });
+    }
+
+    /** Format every earthquake of a response, like the loader does after parsing a page */
+    @Benchmark
+    public List<EarthquakeRow> formatAll() {
+        return new EarthquakeRowFormatter(MAGNITUDE_COLOURS).format(mEarthquakes);
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.android.quakereport;
+
+/**
+ * Builds USGS GeoJSON responses for the benchmarks.
+ *
+ * The bytes come from {@link SyntheticFeed} with its fixed seed, so every run and every
+ * commit benchmarks exactly the same bytes, and the load test sees the same data.
+ */
+final class GeoJsonFixtures {
+
+    private GeoJsonFixtures() {
+    }
+
+    /** A complete response with the given number of features, as UTF-8 bytes */
+    static byte[] response(int features) {
+        return SyntheticFeed.response(SyntheticFeed.FORMAT_GEOJSON, features);
+    }
+}
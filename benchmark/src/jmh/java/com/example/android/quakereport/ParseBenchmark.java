@@ -0,0 +1,89 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Parsing a USGS response, the work QueryUtils does on the loader thread once the bytes have
+ * arrived, in both formats the app can ask for. Both hold the same earthquakes, so the scores
+ * compare the parsers directly. setUp prints the size of each response, raw and gzipped, to
+ * compare the bytes too.
+ */
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    public int features;
+
+    @Param({SyntheticFeed.FORMAT_GEOJSON, SyntheticFeed.FORMAT_CSV})
+    public String format;
+
+    private byte[] mResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        mResponse = SyntheticFeed.response(format, features);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+        gzip.write(mResponse);
+        gzip.close();
+        System.out.println(String.format(Locale.US, "%n%s with %d features: %d bytes, %d gzipped",
+                format, features, mResponse.length, gzipped.size()));
+    }
+
+    private int parse(GeoJsonParser.Listener listener) throws IOException {
+        if (SyntheticFeed.FORMAT_CSV.equals(format)) {
+            return CsvParser.parse(new ByteArrayInputStream(mResponse), listener);
+        }
+        return GeoJsonParser.parse(new ByteArrayInputStream(mResponse), listener);
+    }
+
+    /** Parse into a list, like QueryUtils.fetchEarthquakeData */
+    @Benchmark
+    public List<Earthquake> parseToList() throws IOException {
+        final List<Earthquake> earthquakes = new ArrayList<>();
+        parse(new GeoJsonParser.Listener() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        });
+        return earthquakes;
+    }
+
+    /** Parse into an EarthquakeStore, like the loader does with each page */
+    @Benchmark
+    public EarthquakeStore parseToStore() throws IOException {
+        final EarthquakeStore store = new EarthquakeStore();
+        parse(new GeoJsonParser.Listener() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                store.add(earthquake);
+            }
+        });
+        return store;
+    }
+
+    /** Only the parsing, every earthquake is consumed straight away */
+    @Benchmark
+    public int parseOnly(final Blackhole blackhole) throws IOException {
+        return parse(new GeoJsonParser.Listener() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                blackhole.consume(earthquake);
+            }
+        });
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures how long the app takes from asking for earthquakes to having their rows ready to
+ * show, and how much heap that takes, for responses of 10 up to 100,000 earthquakes.
+ *
+ * Every fetch goes through the same {@link EarthquakeSource} interface {@link QueryUtils}
+ * uses, either the app's own {@link HttpEarthquakeSource} against a {@link StandInServer}, or
+ * the {@link SyntheticEarthquakeSource} without any HTTP. Nothing leaves the machine.
+ *
+ * The rows are made ready the way the loader does it: the earthquakes are written to an
+ * {@link EarthquakeDataset} and the first screen of rows is read from an
+ * {@link EarthquakeRowList} over it. With --rows list every row is formatted up front
+ * instead, the way the loader did before, to compare the heap each takes.
+ *
+ * For each size it prints, and writes as JSON:
+ *  - p50 and p99 of the time from the start of the fetch until the rows are ready, and
+ *    p50 of the time until the first earthquake was parsed
+ *  - the bytes each fetch took on the wire, gzipped, through the stand-in server
+ *  - the peak heap used, summed over the heap pools, so it is an upper bound
+ *  - how many fetches came back incomplete, i.e. when the server cuts responses off
+ *
+ * Options:
+ *   --sizes 10,100,1000        number of earthquakes in each response
+ *   --iterations n             fetches for each size, by default fewer for the larger sizes
+ *   --source http|direct       through the stand-in server (default) or straight from memory
+ *   --format csv|geojson       the format to ask for, by default the one the app asks for
+ *   --rows dataset|list        rows read from a dataset (default) or all formatted up front
+ *   --latency ms               server waits this long before answering
+ *   --bandwidth bytes/s        server sends no faster than this, on the wire
+ *   --complete fraction        server cuts the body off after this fraction of the earthquakes
+ *   --results file             where to write the JSON results
+ */
+public final class LoadTestDriver {
+
+    private static final int[] DEFAULT_SIZES = {10, 100, 1000, 10000, 100000};
+
+    /** Fetches before the measured ones, so the JIT has compiled the hot paths */
+    private static final int WARMUP_ITERATIONS = 3;
+
+    /** Earthquakes fetched in total for each size when the iterations aren't given */
+    private static final int EARTHQUAKES_PER_SIZE = 200000;
+    private static final int MIN_ITERATIONS = 5;
+    private static final int MAX_ITERATIONS = 200;
+
+    /** Rows on the first screen, the ones the list asks for straight away */
+    private static final int SCREEN_ROWS = 12;
+
+    private LoadTestDriver() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_SIZES;
+        int iterations = 0;
+        boolean direct = false;
+        String format = EarthquakeQuery.preferredFormat();
+        boolean dataset = true;
+        String results = null;
+        StandInServer.Conditions conditions = new StandInServer.Conditions();
+        for (int i = 0; i < args.length; i += 2) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--sizes":
+                    String[] parts = value.split(",");
+                    sizes = new int[parts.length];
+                    for (int j = 0; j < parts.length; j++) {
+                        sizes[j] = Integer.parseInt(parts[j].trim());
+                    }
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(value);
+                    break;
+                case "--source":
+                    direct = "direct".equals(value);
+                    break;
+                case "--format":
+                    format = value;
+                    break;
+                case "--rows":
+                    dataset = !"list".equals(value);
+                    break;
+                case "--latency":
+                    conditions.latencyMillis = Long.parseLong(value);
+                    break;
+                case "--bandwidth":
+                    conditions.bytesPerSecond = Long.parseLong(value);
+                    break;
+                case "--complete":
+                    conditions.completeFraction = Double.parseDouble(value);
+                    break;
+                case "--results":
+                    results = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        StandInServer server = new StandInServer(conditions);
+        EarthquakeSource source = direct ? new SyntheticEarthquakeSource()
+                : new HttpEarthquakeSource(EarthquakeHttpClient.getInstance());
+        File datasetFile = File.createTempFile("loadtest", ".dataset");
+        List<Result> runs = new ArrayList<>();
+        try {
+            System.out.println(String.format(Locale.US, "%-8s %6s %10s %10s %12s %12s %10s %10s",
+                    "size", "runs", "p50 ms", "p99 ms", "first p50 ms", "peak heap MB",
+                    "KB/fetch", "incomplete"));
+            for (int size : sizes) {
+                int count = iterations > 0 ? iterations : Math.max(MIN_ITERATIONS,
+                        Math.min(MAX_ITERATIONS, EARTHQUAKES_PER_SIZE / size));
+                Result result = run(source, server.queryUrl(format, size), size, count,
+                        dataset ? datasetFile : null);
+                runs.add(result);
+                System.out.println(String.format(Locale.US,
+                        "%-8d %6d %10.1f %10.1f %12.1f %12.1f %10.1f %10d", size, count,
+                        result.p50Millis, result.p99Millis, result.firstP50Millis,
+                        result.peakHeapBytes / (1024.0 * 1024.0),
+                        result.wireBytesPerFetch / 1024.0, result.incomplete));
+            }
+        } finally {
+            server.stop();
+            datasetFile.delete();
+        }
+        if (results != null) {
+            writeResults(new File(results), direct, format, dataset, conditions, runs);
+        }
+    }
+
+    /**
+     * Fetch and format the rows of one size of response the given number of times
+     *
+     * @param datasetFile where to write the dataset the rows are read from, or null to
+     *                    format every row up front
+     */
+    private static Result run(EarthquakeSource source, String url, int size, int iterations,
+                              File datasetFile) {
+        EarthquakeRowFormatter formatter =
+                new EarthquakeRowFormatter(new int[EarthquakeRowFormatter.MAGNITUDE_BANDS]);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            fetchAndRender(source, url, size, formatter, datasetFile, new long[1]);
+        }
+
+        // Start each size from a clean heap, so the peak is this size's own
+        System.gc();
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+                pool.resetPeakUsage();
+            }
+        }
+
+        EarthquakeHttpClient client = EarthquakeHttpClient.getInstance();
+        long wireBytes = client.getWireBytes();
+        long[] totals = new long[iterations];
+        long[] firsts = new long[iterations];
+        int incomplete = 0;
+        for (int i = 0; i < iterations; i++) {
+            long[] first = new long[1];
+            long start = System.nanoTime();
+            if (!fetchAndRender(source, url, size, formatter, datasetFile, first)) {
+                incomplete++;
+            }
+            totals[i] = System.nanoTime() - start;
+            firsts[i] = first[0] == 0 ? totals[i] : first[0] - start;
+        }
+
+        wireBytes = client.getWireBytes() - wireBytes;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        Arrays.sort(totals);
+        Arrays.sort(firsts);
+        return new Result(size, iterations, millis(percentile(totals, 50)),
+                millis(percentile(totals, 99)), millis(percentile(firsts, 50)), peak,
+                wireBytes / iterations, incomplete);
+    }
+
+    /**
+     * Fetch the earthquakes and make their rows ready, the way the loader does.
+     *
+     * @param datasetFile where to write the dataset the rows are read from, or null to
+     *                    format every row up front
+     * @param first set to the time the first earthquake was parsed
+     * @return true if the whole response was fetched
+     */
+    private static boolean fetchAndRender(EarthquakeSource source, String url, int size,
+                                          EarthquakeRowFormatter formatter, File datasetFile,
+                                          final long[] first) {
+        final EarthquakeStore store = new EarthquakeStore(size);
+        EarthquakeSource.Response response = source.fetch(url, null, null,
+                new GeoJsonParser.Listener() {
+                    @Override
+                    public void onEarthquake(Earthquake earthquake) {
+                        if (first[0] == 0) {
+                            first[0] = System.nanoTime();
+                        }
+                        store.add(earthquake);
+                    }
+                }, new Cancellation());
+        List<EarthquakeRow> rows;
+        if (datasetFile != null) {
+            rows = EarthquakeRowList.of(store, datasetFile, formatter);
+            for (int i = 0; i < Math.min(SCREEN_ROWS, rows.size()); i++) {
+                rows.get(i);
+            }
+        } else {
+            rows = formatter.format(store.asList());
+        }
+        return response.complete && rows.size() == size;
+    }
+
+    /** Nearest rank percentile of sorted samples */
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private static void writeResults(File file, boolean direct, String format, boolean dataset,
+                                     StandInServer.Conditions conditions, List<Result> runs)
+            throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{\"source\":\"").append(direct ? "direct" : "http").append('"')
+                .append(",\"format\":\"").append(format).append('"')
+                .append(",\"rows\":\"").append(dataset ? "dataset" : "list").append('"')
+                .append(",\"latencyMillis\":").append(conditions.latencyMillis)
+                .append(",\"bytesPerSecond\":").append(conditions.bytesPerSecond)
+                .append(",\"completeFraction\":").append(conditions.completeFraction)
+                .append(",\"runs\":[");
+        for (int i = 0; i < runs.size(); i++) {
+            Result result = runs.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.US, "{\"size\":%d,\"iterations\":%d,"
+                            + "\"p50Millis\":%.3f,\"p99Millis\":%.3f,\"firstP50Millis\":%.3f,"
+                            + "\"peakHeapBytes\":%d,\"wireBytesPerFetch\":%d,\"incomplete\":%d}",
+                    result.size, result.iterations, result.p50Millis, result.p99Millis,
+                    result.firstP50Millis, result.peakHeapBytes, result.wireBytesPerFetch,
+                    result.incomplete));
+        }
+        json.append("]}\n");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            writer.write(json.toString());
+        } finally {
+            writer.close();
+        }
+        System.out.println("Results written to " + file);
+    }
+
+    /** What was measured for one size */
+    private static final class Result {
+        final int size;
+        final int iterations;
+        final double p50Millis;
+        final double p99Millis;
+        final double firstP50Millis;
+        final long peakHeapBytes;
+        final long wireBytesPerFetch;
+        final int incomplete;
+
+        Result(int size, int iterations, double p50Millis, double p99Millis,
+               double firstP50Millis, long peakHeapBytes, long wireBytesPerFetch, int incomplete) {
+            this.size = size;
+            this.iterations = iterations;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.firstP50Millis = firstP50Millis;
+            this.peakHeapBytes = peakHeapBytes;
+            this.wireBytesPerFetch = wireBytesPerFetch;
+            this.incomplete = incomplete;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local HTTP server that answers USGS queries with a {@link SyntheticFeed}, so the load test
+ * never touches the real API.
+ *
+ * The number of features comes from the limit parameter of the query and the format from the
+ * format parameter, GeoJSON or CSV, like the real API. The response is gzipped if the client asks for it, and the server can make the network look
+ * worse than it is: wait before answering, send the body no faster than a given number of
+ * bytes a second, and cut the body off part way through.
+ */
+final class StandInServer {
+
+    /** Features sent when the query has no limit */
+    private static final int DEFAULT_FEATURES = 20;
+
+    /** The server writes the body in pieces of this size, so throttling is smooth */
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * How the network should behave.
+     */
+    static final class Conditions {
+
+        /** Milliseconds to wait before the response headers are sent */
+        long latencyMillis;
+
+        /** Bytes a second the body is sent at, on the wire, or 0 for as fast as possible */
+        long bytesPerSecond;
+
+        /** Fraction of the features sent before the body is cut off, 1 for the whole body */
+        double completeFraction = 1;
+    }
+
+    private final Conditions mConditions;
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+
+    /** Start a server on a free port of the loopback address */
+    StandInServer(Conditions conditions) throws IOException {
+        mConditions = conditions;
+        // Otherwise Nagle's algorithm holds back the last piece of a small response for the
+        // client's delayed ACK, which adds 40ms that a real server wouldn't
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    /** The URL of a query for the given number of features in the given format */
+    String queryUrl(String format, int features) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort()
+                + "/fdsnws/event/1/query?format=" + format + "&orderby=time&limit=" + features;
+    }
+
+    void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        try {
+            sleep(mConditions.latencyMillis);
+            String query = exchange.getRequestURI().getRawQuery();
+            int features = limitOf(query);
+            String format = formatOf(query);
+            int cutAfter = features;
+            if (mConditions.completeFraction < 1) {
+                cutAfter = (int) (features * mConditions.completeFraction);
+            }
+            String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = encoding != null && encoding.contains("gzip");
+
+            exchange.getResponseHeaders().set("Content-Type", SyntheticFeed.contentTypeOf(format));
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            // The length isn't known before the body is generated, so it is sent chunked
+            exchange.sendResponseHeaders(200, 0);
+
+            OutputStream body = new ThrottledOutputStream(exchange.getResponseBody(),
+                    mConditions.bytesPerSecond);
+            if (gzip) {
+                // Sync flush, so a body that is cut off still gets what was written so far
+                body = new GZIPOutputStream(body, CHUNK_SIZE, true);
+            }
+            InputStream feed = new SyntheticFeed(format, features, SyntheticFeed.DEFAULT_SEED,
+                    cutAfter);
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int read;
+            while ((read = feed.read(buffer, 0, buffer.length)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            if (cutAfter < features) {
+                // Send what there is and end the response without the rest, or the gzip
+                // trailer, like a connection that dropped
+                body.flush();
+            } else {
+                body.close();
+            }
+        } catch (IOException e) {
+            // The client went away, i.e. it cancelled the request
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** The limit parameter of the query, or the default if there is none */
+    static int limitOf(String query) {
+        String limit = parameterOf(query, "limit");
+        if (limit != null) {
+            try {
+                return Integer.parseInt(limit);
+            } catch (NumberFormatException e) {
+                // Use the default
+            }
+        }
+        return DEFAULT_FEATURES;
+    }
+
+    /** The format parameter of the query, GeoJSON if there is none */
+    static String formatOf(String query) {
+        String format = parameterOf(query, "format");
+        return SyntheticFeed.FORMAT_CSV.equals(format) ? format : SyntheticFeed.FORMAT_GEOJSON;
+    }
+
+    private static String parameterOf(String query, String name) {
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith(name + "=")) {
+                    return parameter.substring(name.length() + 1);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void sleep(long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+    }
+
+    /**
+     * Writes no faster than the given number of bytes a second, averaged from the first byte.
+     */
+    private static final class ThrottledOutputStream extends FilterOutputStream {
+
+        private final long mBytesPerSecond;
+        private long mStart;
+        private long mWritten;
+
+        ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+            super(out);
+            mBytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (mBytesPerSecond <= 0) {
+                out.write(b, off, len);
+                return;
+            }
+            if (mStart == 0) {
+                mStart = System.nanoTime();
+            }
+            while (len > 0) {
+                int count = Math.min(len, CHUNK_SIZE);
+                out.write(b, off, count);
+                // Push it onto the socket, so the client sees the bytes at the throttled rate
+                out.flush();
+                mWritten += count;
+                off += count;
+                len -= count;
+                long due = mWritten * 1000L / mBytesPerSecond;
+                long elapsed = (System.nanoTime() - mStart) / 1000000L;
+                sleep(due - elapsed);
+            }
+        }
+    }
+}
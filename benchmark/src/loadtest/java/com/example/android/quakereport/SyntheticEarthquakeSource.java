@@ -0,0 +1,33 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * An {@link EarthquakeSource} that parses a {@link SyntheticFeed} straight from memory,
+ * without any HTTP at all. Comparing a load test run against it with one against the
+ * {@link StandInServer} shows how much of the time goes on the network code.
+ */
+final class SyntheticEarthquakeSource implements EarthquakeSource {
+
+    @Override
+    public Response fetch(String url, String etag, String lastModified,
+                          GeoJsonParser.Listener listener, Cancellation cancellation) {
+        String query = url.substring(url.indexOf('?') + 1);
+        String format = StandInServer.formatOf(query);
+        InputStream feed = new SyntheticFeed(format, StandInServer.limitOf(query),
+                SyntheticFeed.DEFAULT_SEED);
+        try {
+            if (SyntheticFeed.FORMAT_CSV.equals(format)) {
+                CsvParser.parse(feed, listener, cancellation);
+            } else {
+                GeoJsonParser.parse(feed, listener, cancellation);
+            }
+            return new Response(HttpURLConnection.HTTP_OK, null, null, true, true, false);
+        } catch (IOException e) {
+            return new Response(HttpURLConnection.HTTP_OK, null, null, true, false,
+                    cancellation.isStopped());
+        }
+    }
+}